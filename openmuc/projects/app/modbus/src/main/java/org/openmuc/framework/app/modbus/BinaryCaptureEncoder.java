@@ -0,0 +1,285 @@
+/*
+ * Copyright 2011-2024 Fraunhofer ISE
+ *
+ * This file is part of OpenMUC.
+ * For more information visit http://www.openmuc.org
+ *
+ * OpenMUC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenMUC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenMUC. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.openmuc.framework.app.modbus;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.openmuc.framework.data.Value;
+
+/**
+ * Encodes records into checksummed binary blocks.
+ * <p>
+ * A file starts with the magic bytes {@code MBCP} and a version byte, followed by blocks of
+ * {@code <int payload length><int CRC32 of payload><payload>}. Each block is self-contained, so a corrupt block only
+ * loses its own records. The payload starts with the timestamp of the block as long, followed by entries:
+ * <ul>
+ * <li>channel definition: tag {@code 0x00}, varint length and UTF-8 bytes of the channel ID. Channels get the next
+ * index of the block, in order of definition.</li>
+ * <li>record: tag {@code 0x80 | (write ? 0x40 : 0) | value type code}, varint channel index, zigzag varint timestamp
+ * delta to the previous record of the block in ms, flag code byte and the value.</li>
+ * </ul>
+ * Values are encoded as byte (BOOLEAN, BYTE), zigzag varint (SHORT, INTEGER, LONG), IEEE 754 bits (FLOAT, DOUBLE) or
+ * varint length and bytes (STRING as UTF-8, BYTE_ARRAY). A null value has no bytes. Multi-byte numbers are big endian.
+ */
+public class BinaryCaptureEncoder implements CaptureEncoder {
+
+    static final byte[] MAGIC = { 'M', 'B', 'C', 'P' };
+    static final int VERSION = 1;
+    static final int BLOCK_HEADER_SIZE = 8;
+    static final int MAX_BLOCK_SIZE = 1 << 28;
+
+    static final int TAG_CHANNEL = 0x00;
+    static final int TAG_RECORD = 0x80;
+    static final int TAG_WRITE = 0x40;
+    static final int TAG_TYPE_MASK = 0x0f;
+
+    static final int TYPE_NULL = 0;
+    static final int TYPE_BOOLEAN = 1;
+    static final int TYPE_BYTE = 2;
+    static final int TYPE_SHORT = 3;
+    static final int TYPE_INTEGER = 4;
+    static final int TYPE_LONG = 5;
+    static final int TYPE_FLOAT = 6;
+    static final int TYPE_DOUBLE = 7;
+    static final int TYPE_STRING = 8;
+    static final int TYPE_BYTE_ARRAY = 9;
+
+    private final int blockSize;
+    private final Map<String, Integer> dictionary = new HashMap<>();
+    private final CRC32 crc = new CRC32();
+    private byte[] block;
+    private int position;
+    private long lastTimestamp;
+    private OutputStream out;
+
+    /**
+     * @param blockSize
+     *            payload size in bytes after which a block is written
+     */
+    public BinaryCaptureEncoder(int blockSize) {
+        this.blockSize = blockSize;
+        this.block = new byte[blockSize + BLOCK_HEADER_SIZE + 64];
+    }
+
+    @Override
+    public void open(OutputStream out, boolean empty) throws IOException {
+        this.out = out;
+        position = 0;
+        if (empty) {
+            out.write(MAGIC);
+            out.write(VERSION);
+        }
+    }
+
+    /**
+     * Walks the block headers and returns the end of the last complete block. A block cut off by a crash of the writer
+     * would otherwise misalign the blocks appended after it.
+     */
+    @Override
+    public long appendPosition(File file) throws IOException {
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            long length = in.length();
+            if (length < MAGIC.length + 1) {
+                return -1;
+            }
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            if (!Arrays.equals(magic, MAGIC) || in.readUnsignedByte() != VERSION) {
+                return -1;
+            }
+            long position = in.getFilePointer();
+            while (position + BLOCK_HEADER_SIZE <= length) {
+                in.seek(position);
+                int payloadLength = in.readInt();
+                if (payloadLength < 8 || payloadLength > MAX_BLOCK_SIZE
+                        || position + BLOCK_HEADER_SIZE + payloadLength > length) {
+                    break;
+                }
+                position += BLOCK_HEADER_SIZE + payloadLength;
+            }
+            return position;
+        }
+    }
+
+    @Override
+    public void encode(CaptureRecord record) throws IOException {
+        if (position == 0) {
+            position = BLOCK_HEADER_SIZE;
+            lastTimestamp = record.getTimestamp();
+            writeLong(lastTimestamp);
+            dictionary.clear();
+        }
+
+        Integer channelIndex = dictionary.get(record.getChannelId());
+        if (channelIndex == null) {
+            channelIndex = dictionary.size();
+            dictionary.put(record.getChannelId(), channelIndex);
+            writeByte(TAG_CHANNEL);
+            writeBytes(record.getChannelId().getBytes(StandardCharsets.UTF_8));
+        }
+
+        Value value = record.getValue();
+        int type = typeCode(value);
+        writeByte(TAG_RECORD | (record.getAction() == ECaptureAction.WRITE ? TAG_WRITE : 0) | type);
+        writeVarint(channelIndex);
+        writeVarint(zigzag(record.getTimestamp() - lastTimestamp));
+        lastTimestamp = record.getTimestamp();
+        writeByte(record.getFlag().getCode());
+        writeValue(type, value);
+
+        if (position - BLOCK_HEADER_SIZE >= blockSize) {
+            writeBlock();
+        }
+    }
+
+    private static int typeCode(Value value) {
+        if (value == null) {
+            return TYPE_NULL;
+        }
+        switch (value.getValueType()) {
+        case BOOLEAN:
+            return TYPE_BOOLEAN;
+        case BYTE:
+            return TYPE_BYTE;
+        case SHORT:
+            return TYPE_SHORT;
+        case INTEGER:
+            return TYPE_INTEGER;
+        case LONG:
+            return TYPE_LONG;
+        case FLOAT:
+            return TYPE_FLOAT;
+        case DOUBLE:
+            return TYPE_DOUBLE;
+        case STRING:
+            return TYPE_STRING;
+        case BYTE_ARRAY:
+        default:
+            return TYPE_BYTE_ARRAY;
+        }
+    }
+
+    private void writeValue(int type, Value value) {
+        switch (type) {
+        case TYPE_BOOLEAN:
+            writeByte(value.asBoolean() ? 1 : 0);
+            break;
+        case TYPE_BYTE:
+            writeByte(value.asByte());
+            break;
+        case TYPE_SHORT:
+        case TYPE_INTEGER:
+        case TYPE_LONG:
+            writeVarint(zigzag(value.asLong()));
+            break;
+        case TYPE_FLOAT:
+            writeInt(Float.floatToIntBits(value.asFloat()));
+            break;
+        case TYPE_DOUBLE:
+            writeLong(Double.doubleToLongBits(value.asDouble()));
+            break;
+        case TYPE_STRING:
+            writeBytes(value.asString().getBytes(StandardCharsets.UTF_8));
+            break;
+        case TYPE_BYTE_ARRAY:
+            writeBytes(value.asByteArray());
+            break;
+        case TYPE_NULL:
+        default:
+            break;
+        }
+    }
+
+    private void writeBlock() throws IOException {
+        int payloadLength = position - BLOCK_HEADER_SIZE;
+        crc.reset();
+        crc.update(block, BLOCK_HEADER_SIZE, payloadLength);
+        int end = position;
+        // the header is written in front of the payload, then the block starts again
+        position = 0;
+        writeInt(payloadLength);
+        writeInt((int) crc.getValue());
+        out.write(block, 0, end);
+        position = 0;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (position > 0) {
+            writeBlock();
+        }
+        out.flush();
+    }
+
+    static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private void ensureCapacity(int length) {
+        if (position + length > block.length) {
+            block = Arrays.copyOf(block, Math.max(block.length * 2, position + length));
+        }
+    }
+
+    private void writeByte(int value) {
+        ensureCapacity(1);
+        block[position++] = (byte) value;
+    }
+
+    private void writeVarint(long value) {
+        ensureCapacity(10);
+        while ((value & ~0x7fL) != 0) {
+            block[position++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        block[position++] = (byte) value;
+    }
+
+    private void writeInt(int value) {
+        ensureCapacity(4);
+        for (int shift = 24; shift >= 0; shift -= 8) {
+            block[position++] = (byte) (value >>> shift);
+        }
+    }
+
+    private void writeLong(long value) {
+        ensureCapacity(8);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            block[position++] = (byte) (value >>> shift);
+        }
+    }
+
+    private void writeBytes(byte[] bytes) {
+        writeVarint(bytes.length);
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, block, position, bytes.length);
+        position += bytes.length;
+    }
+
+}
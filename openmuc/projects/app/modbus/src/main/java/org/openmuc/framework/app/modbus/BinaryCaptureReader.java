@@ -0,0 +1,224 @@
+/*
+ * Copyright 2011-2024 Fraunhofer ISE
+ *
+ * This file is part of OpenMUC.
+ * For more information visit http://www.openmuc.org
+ *
+ * OpenMUC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenMUC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenMUC. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.openmuc.framework.app.modbus;
+
+import static org.openmuc.framework.app.modbus.BinaryCaptureEncoder.*;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import org.openmuc.framework.data.BooleanValue;
+import org.openmuc.framework.data.ByteArrayValue;
+import org.openmuc.framework.data.ByteValue;
+import org.openmuc.framework.data.DoubleValue;
+import org.openmuc.framework.data.Flag;
+import org.openmuc.framework.data.FloatValue;
+import org.openmuc.framework.data.IntValue;
+import org.openmuc.framework.data.LongValue;
+import org.openmuc.framework.data.ShortValue;
+import org.openmuc.framework.data.StringValue;
+import org.openmuc.framework.data.Value;
+
+/**
+ * Reads files written by {@link BinaryCaptureEncoder}. Blocks with a wrong checksum are skipped and counted.
+ */
+public class BinaryCaptureReader implements Closeable {
+
+    private final DataInputStream in;
+    private final CRC32 crc = new CRC32();
+    private final List<String> dictionary = new ArrayList<>();
+    private byte[] block = new byte[0];
+    private ByteBuffer payload = ByteBuffer.wrap(block, 0, 0);
+    private long lastTimestamp;
+    private int corruptBlocks;
+    private boolean truncated;
+
+    /**
+     * @param in
+     *            stream of a capture file
+     * @throws IOException
+     *             if the stream doesn't start with the header of a capture file
+     */
+    public BinaryCaptureReader(InputStream in) throws IOException {
+        this.in = new DataInputStream(in);
+        byte[] magic = new byte[MAGIC.length];
+        try {
+            this.in.readFully(magic);
+            int version = this.in.readUnsignedByte();
+            if (!Arrays.equals(magic, MAGIC) || version != VERSION) {
+                throw new IOException("Not a binary capture file of version " + VERSION);
+            }
+        } catch (EOFException e) {
+            throw new IOException("Not a binary capture file, too short", e);
+        }
+    }
+
+    /**
+     * @return the next record or null at the end of the file
+     * @throws IOException
+     *             if the file can't be read or a block length is corrupt
+     */
+    public CaptureRecord next() throws IOException {
+        while (!payload.hasRemaining()) {
+            if (!readBlock()) {
+                return null;
+            }
+        }
+        try {
+            return decodeEntries();
+        } catch (RuntimeException e) {
+            // the checksum was valid, so the block was written by an incompatible encoder
+            throw new IOException("Invalid entry in block: " + e, e);
+        }
+    }
+
+    private boolean readBlock() throws IOException {
+        int length;
+        int checksum;
+        try {
+            length = in.readInt();
+            checksum = in.readInt();
+        } catch (EOFException e) {
+            return false;
+        }
+        if (length < 8 || length > MAX_BLOCK_SIZE) {
+            throw new IOException("Invalid block length " + length + ", the file is corrupt");
+        }
+        if (block.length < length) {
+            block = new byte[length];
+        }
+        try {
+            in.readFully(block, 0, length);
+        } catch (EOFException e) {
+            // the writer was stopped while writing the block
+            truncated = true;
+            return false;
+        }
+        crc.reset();
+        crc.update(block, 0, length);
+        if ((int) crc.getValue() != checksum) {
+            corruptBlocks++;
+            payload = ByteBuffer.wrap(block, 0, 0);
+            return true;
+        }
+        payload = ByteBuffer.wrap(block, 0, length);
+        lastTimestamp = payload.getLong();
+        dictionary.clear();
+        return true;
+    }
+
+    private CaptureRecord decodeEntries() {
+        while (true) {
+            int tag = payload.get() & 0xff;
+            if (tag == TAG_CHANNEL) {
+                dictionary.add(new String(readBytes(), StandardCharsets.UTF_8));
+                continue;
+            }
+            if ((tag & TAG_RECORD) == 0) {
+                throw new IllegalStateException("unknown tag " + tag);
+            }
+            String channelId = dictionary.get((int) readVarint());
+            lastTimestamp += unzigzag(readVarint());
+            Flag flag = Flag.newFlag(payload.get());
+            Value value = readValue(tag & TAG_TYPE_MASK);
+            ECaptureAction action = (tag & TAG_WRITE) != 0 ? ECaptureAction.WRITE : ECaptureAction.READ;
+            return new CaptureRecord(lastTimestamp, action, channelId, value, flag);
+        }
+    }
+
+    private Value readValue(int type) {
+        switch (type) {
+        case TYPE_NULL:
+            return null;
+        case TYPE_BOOLEAN:
+            return new BooleanValue(payload.get() != 0);
+        case TYPE_BYTE:
+            return new ByteValue(payload.get());
+        case TYPE_SHORT:
+            return new ShortValue((short) unzigzag(readVarint()));
+        case TYPE_INTEGER:
+            return new IntValue((int) unzigzag(readVarint()));
+        case TYPE_LONG:
+            return new LongValue(unzigzag(readVarint()));
+        case TYPE_FLOAT:
+            return new FloatValue(Float.intBitsToFloat(payload.getInt()));
+        case TYPE_DOUBLE:
+            return new DoubleValue(Double.longBitsToDouble(payload.getLong()));
+        case TYPE_STRING:
+            return new StringValue(new String(readBytes(), StandardCharsets.UTF_8));
+        case TYPE_BYTE_ARRAY:
+            return new ByteArrayValue(readBytes());
+        default:
+            throw new IllegalStateException("unknown value type " + type);
+        }
+    }
+
+    private long readVarint() {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = payload.get();
+            value |= (long) (b & 0x7f) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalStateException("varint too long");
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private byte[] readBytes() {
+        byte[] bytes = new byte[(int) readVarint()];
+        payload.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * @return number of skipped blocks with a wrong checksum
+     */
+    public int getCorruptBlocks() {
+        return corruptBlocks;
+    }
+
+    /**
+     * @return true if the file ended within a block
+     */
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2011-2024 Fraunhofer ISE
+ *
+ * This file is part of OpenMUC.
+ * For more information visit http://www.openmuc.org
+ *
+ * OpenMUC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenMUC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenMUC. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.openmuc.framework.app.modbus;
+
+import static org.openmuc.framework.app.modbus.WorkloadConfig.PREFIX;
+
+import java.util.Properties;
+
+/**
+ * Settings of the value capture, read from system properties with the prefix
+ * {@value WorkloadConfig#PREFIX}{@code capture.}.
+ */
+public class CaptureConfig {
+
+    private static final String FORMAT = "capture.format";
+    private static final String FILE = "capture.file";
+    private static final String QUEUE_SIZE = "capture.queueSize";
+    private static final String BUFFER_SIZE = "capture.bufferSize";
+    private static final String BLOCK_SIZE = "capture.blockSize";
+    private static final String FLUSH_INTERVAL = "capture.flushInterval";
+    private static final String MAX_FILE_SIZE = "capture.maxFileSize";
+    private static final String ROTATION_INTERVAL = "capture.rotationInterval";
+    private static final String GZIP = "capture.gzip";
+
+    private final ECaptureFormat format;
+    private final String file;
+    private final int queueSize;
+    private final int bufferSize;
+    private final int blockSize;
+    private final long flushIntervalMs;
+    private final long maxFileSize;
+    private final long rotationIntervalMs;
+    private final boolean gzip;
+
+    /**
+     * Reads the settings from the system properties.
+     * 
+     * @throws IllegalArgumentException
+     *             if a setting is invalid
+     */
+    public CaptureConfig() {
+        this(System.getProperties());
+    }
+
+    /**
+     * @param properties
+     *            properties to read the settings from
+     * @throws IllegalArgumentException
+     *             if a setting is invalid
+     */
+    public CaptureConfig(Properties properties) {
+        format = ECaptureFormat.fromString(properties.getProperty(PREFIX + FORMAT, "csv"));
+        file = properties.getProperty(PREFIX + FILE, "modbus_data" + format.getExtension()).trim();
+        queueSize = (int) WorkloadConfig.getLong(properties, QUEUE_SIZE, 65536, 1);
+        bufferSize = (int) WorkloadConfig.getLong(properties, BUFFER_SIZE, 65536, 1024);
+        blockSize = (int) WorkloadConfig.getLong(properties, BLOCK_SIZE, 65536, 64);
+        flushIntervalMs = WorkloadConfig.getLong(properties, FLUSH_INTERVAL, 1000, 0);
+        maxFileSize = WorkloadConfig.getLong(properties, MAX_FILE_SIZE, 100L * 1024 * 1024, 0);
+        rotationIntervalMs = WorkloadConfig.getLong(properties, ROTATION_INTERVAL, 24L * 60 * 60 * 1000, 0);
+        gzip = Boolean.parseBoolean(properties.getProperty(PREFIX + GZIP, "false").trim());
+    }
+
+    public ECaptureFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * @return path of the current file, closed files are renamed to {@code <name>-<timestamp>.<extension>}
+     */
+    public String getFile() {
+        return file;
+    }
+
+    /**
+     * @return maximum number of records waiting to be written, further records are dropped
+     */
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    /**
+     * @return size of the write buffer in bytes, a full buffer is written to the file
+     */
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * @return payload size in bytes after which a block of the binary format is written
+     */
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * @return maximum time in ms a written record stays in the buffer, 0 to flush after every batch
+     */
+    public long getFlushIntervalMs() {
+        return flushIntervalMs;
+    }
+
+    /**
+     * @return size in bytes after which the file is rotated, 0 to disable
+     */
+    public long getMaxFileSize() {
+        return maxFileSize;
+    }
+
+    /**
+     * @return time in ms after which the file is rotated, 0 to disable
+     */
+    public long getRotationIntervalMs() {
+        return rotationIntervalMs;
+    }
+
+    /**
+     * @return true if rotated files are compressed with gzip
+     */
+    public boolean isGzip() {
+        return gzip;
+    }
+
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2011-2024 Fraunhofer ISE
+ *
+ * This file is part of OpenMUC.
+ * For more information visit http://www.openmuc.org
+ *
+ * OpenMUC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenMUC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenMUC. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.openmuc.framework.app.modbus;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Command line tool converting binary capture files to CSV.
+ * 
+ * <pre>
+ * java -cp &lt;app and core api jars&gt; org.openmuc.framework.app.modbus.CaptureConverter \
+ *     &lt;capture.bin[.gz]&gt; [output.csv|-]
+ * </pre>
+ * 
+ * Without output file the CSV is written next to the input file, {@code -} writes to stdout.
+ */
+public final class CaptureConverter {
+
+    private CaptureConverter() {
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("usage: CaptureConverter <capture.bin[.gz]> [output.csv|-]");
+            System.exit(2);
+        }
+        String input = args[0];
+        String output = args.length == 2 ? args[1] : input.replaceFirst("(\\.bin)?(\\.gz)?$", "") + ".csv";
+        try {
+            long records = convert(input, output);
+            System.err.println("Converted " + records + " records to " + output);
+        } catch (IOException e) {
+            System.err.println("Conversion failed: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * @param input
+     *            binary capture file, gzip compressed if it ends with {@code .gz}
+     * @param output
+     *            CSV file or {@code -} for stdout
+     * @return number of converted records
+     * @throws IOException
+     *             if a file can't be read or written or the capture file is corrupt
+     */
+    public static long convert(String input, String output) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(input), 65536);
+        if (input.endsWith(".gz")) {
+            in = new GZIPInputStream(in, 65536);
+        }
+        long records = 0;
+        try (BinaryCaptureReader reader = new BinaryCaptureReader(in);
+                OutputStream out = "-".equals(output) ? new NonClosingOutputStream(System.out)
+                        : new BufferedOutputStream(new FileOutputStream(output), 65536)) {
+            CsvCaptureEncoder encoder = new CsvCaptureEncoder();
+            encoder.open(out, true);
+            CaptureRecord record;
+            while ((record = reader.next()) != null) {
+                encoder.encode(record);
+                records++;
+            }
+            encoder.flush();
+            if (reader.getCorruptBlocks() > 0) {
+                System.err.println("Skipped " + reader.getCorruptBlocks() + " blocks with wrong checksum");
+            }
+            if (reader.isTruncated()) {
+                System.err.println("The last block is truncated");
+            }
+        }
+        return records;
+    }
+
+    private static class NonClosingOutputStream extends BufferedOutputStream {
+        NonClosingOutputStream(OutputStream out) {
+            super(out, 65536);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2011-2024 Fraunhofer ISE
+ *
+ * This file is part of OpenMUC.
+ * For more information visit http://www.openmuc.org
+ *
+ * OpenMUC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenMUC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenMUC. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.openmuc.framework.app.modbus;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Encodes captured records into a file. An encoder is used by a single thread.
+ */
+public interface CaptureEncoder {
+
+    /**
+     * Starts encoding into a new stream.
+     * 
+     * @param out
+     *            stream of the file
+     * @param empty
+     *            true if the file is empty and needs a header, false if records are appended
+     * @throws IOException
+     *             if writing fails
+     */
+    void open(OutputStream out, boolean empty) throws IOException;
+
+    /**
+     * Checks an existing file before records are appended to it.
+     * 
+     * @param file
+     *            existing, non-empty file
+     * @return length of the file content which records can be appended to, or -1 if the file has another format and
+     *         has to be rotated
+     * @throws IOException
+     *             if reading the file fails
+     */
+    long appendPosition(File file) throws IOException;
+
+    /**
+     * Encodes a record, which may be buffered until {@link #flush()}.
+     * 
+     * @param record
+     *            record to encode
+     * @throws IOException
+     *             if writing fails
+     */
+    void encode(CaptureRecord record) throws IOException;
+
+    /**
+     * Writes the buffered records to the stream and flushes it.
+     * 
+     * @throws IOException
+     *             if writing fails
+     */
+    void flush() throws IOException;
+
+}
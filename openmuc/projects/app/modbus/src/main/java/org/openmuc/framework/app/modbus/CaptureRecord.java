@@ -0,0 +1,77 @@
+/*
+ * Copyright 2011-2024 Fraunhofer ISE
+ *
+ * This file is part of OpenMUC.
+ * For more information visit http://www.openmuc.org
+ *
+ * OpenMUC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenMUC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenMUC. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.openmuc.framework.app.modbus;
+
+import org.openmuc.framework.data.Flag;
+import org.openmuc.framework.data.Value;
+
+/**
+ * A captured read or written value.
+ */
+public class CaptureRecord {
+
+    private final long timestamp;
+    private final ECaptureAction action;
+    private final String channelId;
+    private final Value value;
+    private final Flag flag;
+
+    /**
+     * @param timestamp
+     *            capture time in ms since epoch
+     * @param action
+     *            read or write
+     * @param channelId
+     *            ID of the channel
+     * @param value
+     *            value, may be null
+     * @param flag
+     *            flag of the record or the write
+     */
+    public CaptureRecord(long timestamp, ECaptureAction action, String channelId, Value value, Flag flag) {
+        this.timestamp = timestamp;
+        this.action = action;
+        this.channelId = channelId;
+        this.value = value;
+        this.flag = flag;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public ECaptureAction getAction() {
+        return action;
+    }
+
+    public String getChannelId() {
+        return channelId;
+    }
+
+    public Value getValue() {
+        return value;
+    }
+
+    public Flag getFlag() {
+        return flag;
+    }
+
+}
@@ -0,0 +1,341 @@
+/*
+ * Copyright 2011-2024 Fraunhofer ISE
+ *
+ * This file is part of OpenMUC.
+ * For more information visit http://www.openmuc.org
+ *
+ * OpenMUC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenMUC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenMUC. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.openmuc.framework.app.modbus;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPOutputStream;
+
+import org.openmuc.framework.data.Flag;
+import org.openmuc.framework.data.Value;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Captures read and written values asynchronously.
+ * <p>
+ * {@link #write(ECaptureAction, String, Value, Flag)} only puts the record into a bounded queue, so the calling
+ * listener thread is never blocked by file I/O. If the queue is full the record is dropped and counted. A background
+ * thread encodes the records in the configured format into a long-lived buffered stream, flushes it at the latest after
+ * the flush interval and rotates the file when it exceeds the maximum size or age. Rotated files are renamed to
+ * {@code <name>-<timestamp>.<extension>} and optionally compressed by a second thread. An existing file of another
+ * format, e.g. a CSV file with another header, is renamed the same way instead of being appended to. An incomplete
+ * block at the end of an existing binary file is cut off before appending.
+ */
+public class CaptureWriter {
+
+    private static final Logger logger = LoggerFactory.getLogger(CaptureWriter.class);
+
+    private static final int BATCH_SIZE = 1024;
+    private static final DateTimeFormatter SUFFIX_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss-SSS")
+            .withZone(ZoneId.systemDefault());
+
+    private final CaptureConfig config;
+    private final File file;
+    private final BlockingQueue<CaptureRecord> queue;
+    private final Thread writerThread;
+    private final ExecutorService compressor;
+
+    private final LongAdder written = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private volatile boolean running = true;
+
+    /** Only accessed by the writer thread */
+    private final CaptureEncoder encoder;
+    private CountingOutputStream out;
+    private long fileRecords;
+    private long fileOpenTime;
+    private long lastFlushTime;
+    private boolean unflushed;
+    private volatile int rotations;
+
+    private static class CountingOutputStream extends FilterOutputStream {
+        private long count;
+
+        CountingOutputStream(OutputStream out, long count) {
+            super(out);
+            this.count = count;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+    /**
+     * Opens the capture file and starts the writer thread.
+     * 
+     * @param config
+     *            settings of the writer
+     * @throws IOException
+     *             if the file can't be opened
+     */
+    public CaptureWriter(CaptureConfig config) throws IOException {
+        this.config = config;
+        this.file = new File(config.getFile());
+        this.queue = new ArrayBlockingQueue<>(config.getQueueSize());
+        this.encoder = config.getFormat().newEncoder(config.getBlockSize());
+        this.compressor = config.isGzip() ? Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "modbusAppCaptureCompressor");
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
+
+        open();
+        writerThread = new Thread(this::run, "modbusAppCaptureWriter");
+        writerThread.setDaemon(true);
+        writerThread.start();
+        logger.info("Capturing values as {} to {}", config.getFormat(), file.getAbsolutePath());
+    }
+
+    /**
+     * Queues a record, doesn't block.
+     * 
+     * @param action
+     *            read or write
+     * @param channelId
+     *            ID of the channel
+     * @param value
+     *            read or written value
+     * @param flag
+     *            flag of the record or the write
+     * @return false if the record was dropped because the queue is full or the writer is closed
+     */
+    public boolean write(ECaptureAction action, String channelId, Value value, Flag flag) {
+        if (running && queue.offer(new CaptureRecord(System.currentTimeMillis(), action, channelId, value, flag))) {
+            return true;
+        }
+        dropped.increment();
+        return false;
+    }
+
+    private void open() throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Unable to create directory " + parent);
+        }
+        long fileSize = file.length();
+        long appendPosition = fileSize > 0 ? encoder.appendPosition(file) : 0;
+        if (appendPosition < 0) {
+            File moved = rotatedFile();
+            if (!file.renameTo(moved)) {
+                throw new IOException("Unable to move capture file " + file + " of another format to " + moved);
+            }
+            logger.warn("Capture file {} has another format, moved it to {}", file, moved);
+            fileSize = 0;
+        }
+        else if (appendPosition < fileSize) {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+                channel.truncate(appendPosition);
+            }
+            logger.warn("Capture file {} ends with an incomplete block, truncated it from {} to {} bytes", file,
+                    fileSize, appendPosition);
+            fileSize = appendPosition;
+        }
+        out = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(file, true),
+                config.getBufferSize()), fileSize);
+        encoder.open(out, fileSize == 0);
+        fileRecords = 0;
+        unflushed = out.count > fileSize;
+        fileOpenTime = lastFlushTime = System.currentTimeMillis();
+    }
+
+    private void run() {
+        List<CaptureRecord> batch = new ArrayList<>(BATCH_SIZE);
+        while (running || !queue.isEmpty()) {
+            try {
+                CaptureRecord first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, BATCH_SIZE - 1);
+                }
+            } catch (InterruptedException e) {
+                // closing, write the remaining records
+                running = false;
+            }
+            try {
+                for (CaptureRecord record : batch) {
+                    encoder.encode(record);
+                }
+                written.add(batch.size());
+                fileRecords += batch.size();
+                unflushed |= !batch.isEmpty();
+                long now = System.currentTimeMillis();
+                if (rotationDue(now)) {
+                    rotate();
+                }
+                else if (unflushed && (now - lastFlushTime >= config.getFlushIntervalMs() || !running)) {
+                    encoder.flush();
+                    lastFlushTime = now;
+                    unflushed = false;
+                }
+            } catch (IOException e) {
+                dropped.add(batch.size());
+                logger.error("Failed to write to capture file {}: {}", file, e.getMessage());
+                reopen();
+            } catch (RuntimeException e) {
+                // keep the writer thread alive, otherwise the queue fills up and every record is dropped silently
+                dropped.add(batch.size());
+                logger.error("Failed to encode records for capture file {}", file, e);
+                reopen();
+            }
+            batch.clear();
+        }
+        try {
+            encoder.flush();
+            out.close();
+        } catch (IOException e) {
+            logger.warn("Failed to close capture file {}: {}", file, e.getMessage());
+        }
+    }
+
+    private boolean rotationDue(long now) {
+        if (fileRecords == 0) {
+            return false;
+        }
+        return (config.getMaxFileSize() > 0 && out.count >= config.getMaxFileSize())
+                || (config.getRotationIntervalMs() > 0 && now - fileOpenTime >= config.getRotationIntervalMs());
+    }
+
+    private void rotate() throws IOException {
+        encoder.flush();
+        out.close();
+        File rotated = rotatedFile();
+        if (!file.renameTo(rotated)) {
+            logger.warn("Failed to rename capture file {} to {}, continuing with the same file", file, rotated);
+        }
+        else {
+            rotations++;
+            if (compressor != null) {
+                compressor.execute(() -> compress(rotated));
+            }
+        }
+        unflushed = false;
+        open();
+    }
+
+    private File rotatedFile() {
+        String name = file.getName();
+        int extension = name.lastIndexOf('.');
+        String base = extension > 0 ? name.substring(0, extension) : name;
+        String suffix = extension > 0 ? name.substring(extension) : "";
+        String rotatedName = base + "-" + SUFFIX_FORMAT.format(Instant.now());
+        File rotated = new File(file.getAbsoluteFile().getParentFile(), rotatedName + suffix);
+        for (int i = 1; rotated.exists() || new File(rotated.getPath() + ".gz").exists(); i++) {
+            rotated = new File(file.getAbsoluteFile().getParentFile(), rotatedName + "-" + i + suffix);
+        }
+        return rotated;
+    }
+
+    private void reopen() {
+        try {
+            out.close();
+        } catch (IOException e) {
+            // already failed
+        }
+        try {
+            open();
+        } catch (IOException e) {
+            logger.error("Failed to reopen capture file {}: {}", file, e.getMessage());
+        }
+    }
+
+    private static void compress(File source) {
+        File target = new File(source.getPath() + ".gz");
+        byte[] buffer = new byte[65536];
+        try (InputStream in = new FileInputStream(source);
+                OutputStream out = new GZIPOutputStream(new FileOutputStream(target), buffer.length)) {
+            int length;
+            while ((length = in.read(buffer)) > 0) {
+                out.write(buffer, 0, length);
+            }
+        } catch (IOException e) {
+            logger.error("Failed to compress capture file {}: {}", source, e.getMessage());
+            target.delete();
+            return;
+        }
+        if (!source.delete()) {
+            logger.warn("Failed to delete compressed capture file {}", source);
+        }
+    }
+
+    /**
+     * Writes the queued records, closes the file and waits for pending compressions.
+     */
+    public void close() {
+        running = false;
+        try {
+            writerThread.join(10000);
+            if (compressor != null) {
+                compressor.shutdown();
+                compressor.awaitTermination(60, TimeUnit.SECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        logger.info("Capture writer closed: {}", this);
+    }
+
+    public long getWritten() {
+        return written.sum();
+    }
+
+    /**
+     * @return number of records dropped because the queue was full or the file couldn't be written
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "written: " + getWritten() + ", dropped: " + getDropped() + ", queued: " + queue.size()
+                + ", rotations: " + rotations;
+    }
+
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2011-2024 Fraunhofer ISE
+ *
+ * This file is part of OpenMUC.
+ * For more information visit http://www.openmuc.org
+ *
+ * OpenMUC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenMUC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenMUC. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.openmuc.framework.app.modbus;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+
+/**
+ * Encodes records as lines of {@code Timestamp,Action,Channel,Value,Flag}.
+ */
+public class CsvCaptureEncoder implements CaptureEncoder {
+
+    static final String HEADER = "Timestamp,Action,Channel,Value,Flag\n";
+
+    private final StringBuilder line = new StringBuilder(96);
+    private OutputStream out;
+
+    @Override
+    public void open(OutputStream out, boolean empty) throws IOException {
+        this.out = out;
+        if (empty) {
+            out.write(HEADER.getBytes(StandardCharsets.US_ASCII));
+        }
+    }
+
+    /**
+     * Files with another header, e.g. of an older version of the app, can't be appended to.
+     */
+    @Override
+    public long appendPosition(File file) throws IOException {
+        byte[] header = HEADER.getBytes(StandardCharsets.US_ASCII);
+        byte[] fileHeader = new byte[header.length];
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            in.readFully(fileHeader);
+        } catch (EOFException e) {
+            return -1;
+        }
+        return Arrays.equals(header, fileHeader) ? file.length() : -1;
+    }
+
+    @Override
+    public void encode(CaptureRecord record) throws IOException {
+        out.write(toLine(record).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return the CSV line of the record including the line break
+     */
+    public String toLine(CaptureRecord record) {
+        line.setLength(0);
+        line.append(Instant.ofEpochMilli(record.getTimestamp()))
+                .append(',')
+                .append(record.getAction())
+                .append(',')
+                .append(record.getChannelId())
+                .append(',')
+                .append(record.getValue())
+                .append(',')
+                .append(record.getFlag())
+                .append('\n');
+        return line.toString();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+}
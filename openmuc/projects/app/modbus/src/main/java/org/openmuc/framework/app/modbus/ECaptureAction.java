@@ -18,24 +18,14 @@
  * along with OpenMUC. If not, see <http://www.gnu.org/licenses/>.
  *
  */
-package org.openmuc.framework.server.modbus.register;
-
-import org.openmuc.framework.dataaccess.Channel;
-
-public class BooleanMappingInputRegister extends MappingInputRegister {
-
-    public BooleanMappingInputRegister(Channel channel, int byteHigh, int byteLow) {
-        super(channel, byteHigh, byteLow);
-    }
-
-    @Override
-    public byte[] toBytes() {
-        if (channel.getLatestRecord().getValue().asBoolean()) {
-            return new byte[] { 0x01b };
-        }
-        else {
-            return new byte[] { 0x00b };
-        }
-    }
+package org.openmuc.framework.app.modbus;
 
+/**
+ * Operation which produced a captured value.
+ */
+public enum ECaptureAction {
+    /** Value of a record received from the channel */
+    READ,
+    /** Value written to the channel */
+    WRITE;
 }
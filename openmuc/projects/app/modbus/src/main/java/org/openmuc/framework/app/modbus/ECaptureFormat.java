@@ -0,0 +1,64 @@
+/*
+ * Copyright 2011-2024 Fraunhofer ISE
+ *
+ * This file is part of OpenMUC.
+ * For more information visit http://www.openmuc.org
+ *
+ * OpenMUC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenMUC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenMUC. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.openmuc.framework.app.modbus;
+
+/**
+ * File format of the captured values.
+ */
+public enum ECaptureFormat {
+    /** One line of text per value */
+    CSV(".csv"),
+    /** Checksummed blocks of binary encoded values, see {@link BinaryCaptureEncoder} */
+    BINARY(".bin");
+
+    private final String extension;
+
+    private ECaptureFormat(String extension) {
+        this.extension = extension;
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+
+    /**
+     * @param blockSize
+     *            size of binary blocks in bytes
+     * @return a new encoder of this format
+     */
+    public CaptureEncoder newEncoder(int blockSize) {
+        switch (this) {
+        case BINARY:
+            return new BinaryCaptureEncoder(blockSize);
+        case CSV:
+        default:
+            return new CsvCaptureEncoder();
+        }
+    }
+
+    public static ECaptureFormat fromString(String format) {
+        try {
+            return valueOf(format.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown capture format " + format + ", use csv or binary");
+        }
+    }
+}
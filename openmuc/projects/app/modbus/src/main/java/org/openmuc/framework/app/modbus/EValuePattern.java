@@ -0,0 +1,68 @@
+/*
+ * Copyright 2011-2024 Fraunhofer ISE
+ *
+ * This file is part of OpenMUC.
+ * For more information visit http://www.openmuc.org
+ *
+ * OpenMUC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenMUC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenMUC. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.openmuc.framework.app.modbus;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Sequence of values written by the workload engine to a channel.
+ */
+public enum EValuePattern {
+    /** Counts up from min to max and starts again at min */
+    RAMP,
+    /** Uniformly distributed integers between min and max */
+    RANDOM,
+    /** Alternates between min and max every stepLength writes */
+    STEP;
+
+    /**
+     * @param n
+     *            index of the write, starting at 0
+     * @param min
+     *            minimum value
+     * @param max
+     *            maximum value
+     * @param stepLength
+     *            number of writes per step of {@link #STEP}
+     * @return the n-th value of the pattern
+     */
+    public long value(long n, long min, long max, long stepLength) {
+        long range = max - min + 1;
+        switch (this) {
+        case RANDOM:
+            return min + (long) (ThreadLocalRandom.current().nextDouble() * range);
+        case STEP:
+            return (n / stepLength) % 2 == 0 ? min : max;
+        case RAMP:
+        default:
+            return min + n % range;
+        }
+    }
+
+    public static EValuePattern fromString(String pattern) {
+        try {
+            return valueOf(pattern.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(
+                    "Unknown value pattern " + pattern + ", use one of ramp, random or step");
+        }
+    }
+}
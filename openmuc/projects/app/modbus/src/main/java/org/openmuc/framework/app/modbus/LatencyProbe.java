@@ -0,0 +1,238 @@
+/*
+ * Copyright 2011-2024 Fraunhofer ISE
+ *
+ * This file is part of OpenMUC.
+ * For more information visit http://www.openmuc.org
+ *
+ * OpenMUC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenMUC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenMUC. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.openmuc.framework.app.modbus;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.openmuc.framework.app.modbus.WorkloadConfig.ChannelWorkload;
+import org.openmuc.framework.data.Record;
+import org.openmuc.framework.data.Value;
+import org.openmuc.framework.dataaccess.Channel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Measures the latency from writing a value to a channel until the value shows up in a record of the channel.
+ * <p>
+ * Written values are sequence numbers, mapped into the range {@code min..max} of the channel's workload. Every written
+ * sequence number stays pending until a record with its value is observed. Pending sequence numbers lower than an
+ * observed one were overwritten before they were sampled and pending sequence numbers older than the timeout never
+ * showed up. Both are counted as lost updates. The value range has to be large enough that a value isn't written again
+ * within the timeout. The values of a channel have to be written in the order they were supplied, like
+ * {@link WorkloadEngine} does, otherwise a reordered write shows up as lost update.
+ */
+public class LatencyProbe implements WorkloadEngine.ValueSupplier {
+
+    private static final Logger logger = LoggerFactory.getLogger(LatencyProbe.class);
+
+    private final Map<String, ChannelState> channels = new ConcurrentHashMap<>();
+    private final long timeoutNs;
+    private final LatencyHistogram total = new LatencyHistogram();
+    private final AtomicReference<LatencyHistogram> interval = new AtomicReference<>(new LatencyHistogram());
+    private final LongAdder lost = new LongAdder();
+    private final LongAdder written = new LongAdder();
+
+    private ScheduledExecutorService reporter;
+    private long startTime;
+    private long intervalStartTime;
+    private long lastLost;
+
+    private static class ChannelState {
+        private final long min;
+        private final long range;
+        private final AtomicLong sequence = new AtomicLong();
+        /** Write time in ns of the pending sequence numbers */
+        private final ConcurrentSkipListMap<Long, Long> pending = new ConcurrentSkipListMap<>();
+
+        ChannelState(ChannelWorkload workload) {
+            this.min = workload.getMin();
+            this.range = workload.getMax() - workload.getMin() + 1;
+        }
+
+        long value(long sequence) {
+            return min + sequence % range;
+        }
+    }
+
+    /**
+     * @param config
+     *            workload whose channels are measured
+     * @param timeoutMs
+     *            time after which a written value which wasn't observed is counted as lost
+     */
+    public LatencyProbe(WorkloadConfig config, long timeoutMs) {
+        for (ChannelWorkload workload : config.getChannels()) {
+            channels.put(workload.getChannelId(), new ChannelState(workload));
+        }
+        this.timeoutNs = TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+    }
+
+    @Override
+    public Value nextValue(Channel channel, long patternValue) {
+        ChannelState state = channels.get(channel.getId());
+        long sequence = state.sequence.getAndIncrement();
+        long value = state.value(sequence);
+        state.pending.put(sequence, System.nanoTime());
+        written.increment();
+        return WorkloadEngine.toValue(channel.getValueType(), value);
+    }
+
+    /**
+     * Matches a record of a channel against the pending values.
+     */
+    public void observe(String channelId, Record record) {
+        long now = System.nanoTime();
+        ChannelState state = channels.get(channelId);
+        if (state == null || record == null || record.getValue() == null) {
+            return;
+        }
+        long value;
+        try {
+            value = record.getValue().asLong();
+        } catch (RuntimeException e) {
+            return;
+        }
+        synchronized (state) {
+            Long matched = null;
+            for (Map.Entry<Long, Long> entry : state.pending.entrySet()) {
+                if (state.value(entry.getKey()) == value) {
+                    matched = entry.getKey();
+                    long latencyUs = TimeUnit.NANOSECONDS.toMicros(now - entry.getValue());
+                    total.record(latencyUs);
+                    interval.get().record(latencyUs);
+                    break;
+                }
+            }
+            if (matched == null) {
+                // unchanged value sampled again or value written by someone else
+                return;
+            }
+            Map<Long, Long> superseded = state.pending.headMap(matched, true);
+            lost.add(superseded.size() - 1);
+            superseded.clear();
+        }
+    }
+
+    private void expire() {
+        long now = System.nanoTime();
+        for (ChannelState state : channels.values()) {
+            synchronized (state) {
+                Iterator<Long> writeTimes = state.pending.values().iterator();
+                while (writeTimes.hasNext() && now - writeTimes.next() > timeoutNs) {
+                    writeTimes.remove();
+                    lost.increment();
+                }
+            }
+        }
+    }
+
+    /**
+     * Starts reporting the latency of the last interval.
+     * 
+     * @param intervalMs
+     *            report interval, 0 to only expire pending values
+     */
+    public synchronized void start(long intervalMs) {
+        reporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "modbusAppLatency");
+            thread.setDaemon(true);
+            return thread;
+        });
+        startTime = intervalStartTime = System.nanoTime();
+        long expirePeriodNs = Math.max(TimeUnit.MILLISECONDS.toNanos(10), timeoutNs / 10);
+        reporter.scheduleAtFixedRate(this::expire, expirePeriodNs, expirePeriodNs, TimeUnit.NANOSECONDS);
+        if (intervalMs > 0) {
+            reporter.scheduleAtFixedRate(this::logInterval, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void logInterval() {
+        long now = System.nanoTime();
+        LatencyHistogram histogram = interval.getAndSet(new LatencyHistogram());
+        long lostNow = getLost();
+        logger.info("Write to read back latency in us {}, updates: {}/s, lost: {}", histogram,
+                perSecond(histogram.getCount(), now - intervalStartTime), lostNow - lastLost);
+        intervalStartTime = now;
+        lastLost = lostNow;
+    }
+
+    /**
+     * Stops reporting and logs the latency since the start.
+     */
+    public synchronized void stop() {
+        if (reporter == null) {
+            return;
+        }
+        reporter.shutdownNow();
+        reporter = null;
+        logger.info("Write to read back latency in us {}", this);
+    }
+
+    private static long perSecond(long count, long ns) {
+        return count * 1_000_000_000L / Math.max(1, ns);
+    }
+
+    /**
+     * @return histogram of all measured latencies in microseconds
+     */
+    public LatencyHistogram getHistogram() {
+        return total;
+    }
+
+    public long getWritten() {
+        return written.sum();
+    }
+
+    /**
+     * @return number of written values which were overwritten before they were observed or which timed out
+     */
+    public long getLost() {
+        return lost.sum();
+    }
+
+    /**
+     * @return number of written values which were neither observed nor lost yet
+     */
+    public int getPending() {
+        int pending = 0;
+        for (ChannelState state : channels.values()) {
+            pending += state.pending.size();
+        }
+        return pending;
+    }
+
+    @Override
+    public String toString() {
+        return total + ", written: " + getWritten() + ", observed: " + total.getCount() + " ("
+                + perSecond(total.getCount(), System.nanoTime() - startTime) + "/s), lost: " + getLost()
+                + ", pending: " + getPending();
+    }
+
+}
@@ -1,8 +1,9 @@
 package org.openmuc.framework.app.modbus;
 
+import org.openmuc.framework.app.modbus.WorkloadConfig.ChannelWorkload;
+import org.openmuc.framework.data.Flag;
 import org.openmuc.framework.data.Record;
 import org.openmuc.framework.data.Value;
-import org.openmuc.framework.data.ShortValue;
 import org.openmuc.framework.dataaccess.Channel;
 import org.openmuc.framework.dataaccess.DataAccessService;
 import org.openmuc.framework.dataaccess.RecordListener;
@@ -13,12 +14,14 @@ import org.osgi.service.component.annotations.Reference;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Timer;
-import java.util.TimerTask;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
 
+/**
+ * Reads and writes Modbus channels with the workload configured by {@link WorkloadConfig} and captures the values to
+ * a CSV or binary file.
+ */
 @Component(service = {})
 public final class ModbusApp {
 
@@ -26,13 +29,12 @@ public final class ModbusApp {
     private static final String APP_NAME = "OpenMUC Modbus Reader/Writer App";
 
     private DataAccessService dataAccessService;
-    private Channel modbusChannel;
-    private RecordListener modbusListener;
+    private final Map<Channel, RecordListener> listeners = new HashMap<>();
 
-    private Timer writeTimer;
-    private int writeCounter = 100; // Starting value for write
+    private WorkloadEngine workloadEngine;
+    private LatencyProbe latencyProbe;
 
-    private static final String CSV_FILE_PATH = "modbus_data.csv";
+    private CaptureWriter captureWriter;
 
     @Reference
     public void setDataAccessService(DataAccessService dataAccessService) {
@@ -43,103 +45,118 @@ public final class ModbusApp {
     private void activate() {
         logger.info("Activating {}", APP_NAME);
 
-        // Initialize CSV file with headers
-        initializeCSV();
-
-        modbusChannel = dataAccessService.getChannel("register1");
-        if (modbusChannel == null) {
-            logger.error("Failed to get Modbus channel 'register1'. Check channels.xml configuration.");
+        WorkloadConfig config;
+        CaptureConfig captureConfig;
+        try {
+            config = new WorkloadConfig();
+            captureConfig = new CaptureConfig();
+        } catch (IllegalArgumentException e) {
+            logger.error("Invalid workload configuration: {}", e.getMessage());
             return;
         }
 
+        // Open the capture file, writing it continues in the background
+        try {
+            captureWriter = new CaptureWriter(captureConfig);
+        } catch (IOException e) {
+            logger.error("Failed to open capture file {}, values aren't logged", captureConfig.getFile(), e);
+        }
+
         // Set up reader
-        modbusListener = new ModbusListener();
-        modbusChannel.addListener(modbusListener);
-        logger.info("Reader: Listening to Modbus channel 'register1'");
-
-        // Set up writer (periodic)
-        writeTimer = new Timer();
-        writeTimer.scheduleAtFixedRate(new TimerTask() {
-            @Override
-            public void run() {
-                writeCounter++;
-                writeToModbus(writeCounter);
+        for (ChannelWorkload workload : config.getChannels()) {
+            Channel channel = dataAccessService.getChannel(workload.getChannelId());
+            if (channel != null && !listeners.containsKey(channel)) {
+                RecordListener listener = new ModbusListener(channel.getId());
+                channel.addListener(listener);
+                listeners.put(channel, listener);
+                logger.info("Reader: Listening to Modbus channel '{}'", channel.getId());
             }
-        }, 0, 5000); // Write every 5 seconds
-        logger.info("Writer: Scheduled periodic writes to 'register1' every 5 seconds");
+        }
+
+        // Set up writer
+        if (config.isLatencyMode()) {
+            latencyProbe = new LatencyProbe(config, config.getLatencyTimeoutMs());
+            latencyProbe.start(config.getStatisticsIntervalMs());
+            logger.info("Measuring the latency from writing a value until it is read back");
+        }
+        workloadEngine = new WorkloadEngine(config, dataAccessService::getChannel, new WorkloadListener(),
+                latencyProbe);
+        workloadEngine.start();
     }
 
     @Deactivate
     private void deactivate() {
         logger.info("Deactivating {}", APP_NAME);
 
-        if (modbusChannel != null && modbusListener != null) {
-            modbusChannel.removeListener(modbusListener);
+        if (workloadEngine != null) {
+            workloadEngine.stop();
+        }
+        if (latencyProbe != null) {
+            latencyProbe.stop();
+        }
+
+        for (Map.Entry<Channel, RecordListener> entry : listeners.entrySet()) {
+            entry.getKey().removeListener(entry.getValue());
         }
+        listeners.clear();
 
-        if (writeTimer != null) {
-            writeTimer.cancel();
+        if (captureWriter != null) {
+            captureWriter.close();
         }
 
         logger.info("{} deactivated successfully", APP_NAME);
     }
 
-    public void writeToModbus(Number valueToWrite) {
-        if (modbusChannel == null) {
-            logger.error("Cannot write: Modbus channel 'register1' not initialized.");
-            return;
+    private class WorkloadListener implements WorkloadEngine.OperationListener {
+        @Override
+        public void written(Channel channel, Value value, Flag flag) {
+            if (flag == Flag.VALID) {
+                logger.debug("Wrote value {} to Modbus channel '{}'", value, channel.getId());
+                // Capture the write action
+                capture(ECaptureAction.WRITE, channel.getId(), value, flag);
+            }
+            else {
+                logger.warn("Failed to write value {} to Modbus channel '{}': {}", value, channel.getId(), flag);
+            }
         }
 
-        try {
-            Value value = new ShortValue(valueToWrite.shortValue());
-            logger.info("Writing value {} to Modbus channel 'register1'", valueToWrite);
-            modbusChannel.write(value);
-            logger.info("Successfully wrote value {} to Modbus channel 'register1'", valueToWrite);
-
-            // Log the write action to CSV
-            saveToCSV("WRITE", valueToWrite);
-        } catch (Exception e) {
-            logger.error("Failed to write value {} to Modbus channel 'register1': {}", valueToWrite, e.getMessage(), e);
+        @Override
+        public void read(Channel channel, Record record) {
+            // observing a record twice does no harm, the pending value is removed on the first match
+            if (latencyProbe != null) {
+                latencyProbe.observe(channel.getId(), record);
+            }
         }
     }
 
     private class ModbusListener implements RecordListener {
+        private final String channelId;
+
+        ModbusListener(String channelId) {
+            this.channelId = channelId;
+        }
+
         @Override
         public void newRecord(Record record) {
+            if (latencyProbe != null) {
+                latencyProbe.observe(channelId, record);
+            }
             if (record != null && record.getValue() != null) {
-                Number readValue = record.getValue().asShort(); // if INT16
-
+                logger.debug("Read value from {}: {} (Timestamp: {}) (DataType: {})", channelId, record.getValue(),
+                        record.getTimestamp(), record.getValue().getValueType());
 
-                logger.info("Read value from register1: {} (Timestamp: {}) (DataType: {})",
-                        readValue, record.getTimestamp(), record.getValue().getValueType());
-
-                // Log the read action to CSV
-                saveToCSV("READ", readValue);
-            } else {
-                logger.warn("Received null record or value from register1");
+                // Capture the read action
+                capture(ECaptureAction.READ, channelId, record.getValue(), record.getFlag());
+            }
+            else {
+                logger.warn("Received null record or value from {}", channelId);
             }
         }
     }
 
-    private void initializeCSV() {
-        try (FileWriter writer = new FileWriter(CSV_FILE_PATH, true)) {
-            writer.append("Timestamp,Action,Value\n");
-            logger.info("Initialized CSV file: {}", CSV_FILE_PATH);
-        } catch (IOException e) {
-            logger.error("Failed to initialize CSV file", e);
-        }
-    }
-
-    private void saveToCSV(String action, Number value) {
-        try (FileWriter writer = new FileWriter(CSV_FILE_PATH, true)) {
-            writer.append(Instant.now().toString())
-                    .append(',')
-                    .append(action)
-                    .append(',')
-                    .append(value.toString())
-                    .append('\n');
-        } catch (IOException e) {
-            logger.error("Failed to write to CSV", e);
+    private void capture(ECaptureAction action, String channelId, Value value, Flag flag) {
+        if (captureWriter != null) {
+            captureWriter.write(action, channelId, value, flag);
         }
     }
 }
@@ -0,0 +1,234 @@
+/*
+ * Copyright 2011-2024 Fraunhofer ISE
+ *
+ * This file is part of OpenMUC.
+ * For more information visit http://www.openmuc.org
+ *
+ * OpenMUC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenMUC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenMUC. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.openmuc.framework.app.modbus;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Workload of the Modbus app, read from system properties with the prefix {@value #PREFIX}.
+ * <p>
+ * Global settings apply to all channels listed in {@code channels}. Rate, read ratio and pattern can be overridden per
+ * channel with {@code channel.<channelId>.<setting>}, e.g.
+ * {@code org.openmuc.framework.app.modbus.channel.register1.rate}.
+ */
+public class WorkloadConfig {
+
+    public static final String PREFIX = "org.openmuc.framework.app.modbus.";
+
+    private static final String CHANNELS = "channels";
+    private static final String RATE = "rate";
+    private static final String READ_RATIO = "readRatio";
+    private static final String PATTERN = "pattern";
+    private static final String MIN = "min";
+    private static final String MAX = "max";
+    private static final String STEP_LENGTH = "stepLength";
+    private static final String MAX_IN_FLIGHT = "maxInFlight";
+    private static final String THREADS = "threads";
+    private static final String STATISTICS_INTERVAL = "statisticsInterval";
+    private static final String LATENCY_MODE = "latencyMode";
+    private static final String LATENCY_TIMEOUT = "latencyTimeout";
+
+    private final List<ChannelWorkload> channels;
+    private final int maxInFlight;
+    private final int threads;
+    private final long statisticsIntervalMs;
+    private final boolean latencyMode;
+    private final long latencyTimeoutMs;
+
+    /**
+     * Workload of one channel.
+     */
+    public static class ChannelWorkload {
+        private final String channelId;
+        private final double rate;
+        private final double readRatio;
+        private final EValuePattern pattern;
+        private final long min;
+        private final long max;
+        private final long stepLength;
+
+        ChannelWorkload(String channelId, double rate, double readRatio, EValuePattern pattern, long min, long max,
+                long stepLength) {
+            this.channelId = channelId;
+            this.rate = rate;
+            this.readRatio = readRatio;
+            this.pattern = pattern;
+            this.min = min;
+            this.max = max;
+            this.stepLength = stepLength;
+        }
+
+        public String getChannelId() {
+            return channelId;
+        }
+
+        /**
+         * @return operations per second
+         */
+        public double getRate() {
+            return rate;
+        }
+
+        /**
+         * @return fraction of the operations which are reads, between 0 and 1
+         */
+        public double getReadRatio() {
+            return readRatio;
+        }
+
+        public EValuePattern getPattern() {
+            return pattern;
+        }
+
+        public long getMin() {
+            return min;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        public long getStepLength() {
+            return stepLength;
+        }
+    }
+
+    /**
+     * Reads the workload from the system properties.
+     * 
+     * @throws IllegalArgumentException
+     *             if a setting is invalid
+     */
+    public WorkloadConfig() {
+        this(System.getProperties());
+    }
+
+    /**
+     * @param properties
+     *            properties to read the settings from
+     * @throws IllegalArgumentException
+     *             if a setting is invalid
+     */
+    public WorkloadConfig(Properties properties) {
+        maxInFlight = (int) getLong(properties, MAX_IN_FLIGHT, 100, 1);
+        threads = (int) getLong(properties, THREADS, 4, 1);
+        statisticsIntervalMs = getLong(properties, STATISTICS_INTERVAL, 10000, 0);
+        latencyMode = Boolean.parseBoolean(properties.getProperty(PREFIX + LATENCY_MODE, "false").trim());
+        latencyTimeoutMs = getLong(properties, LATENCY_TIMEOUT, 10000, 1);
+
+        double rate = getDouble(properties, RATE, 0.2);
+        double readRatio = getDouble(properties, READ_RATIO, 0);
+        String pattern = properties.getProperty(PREFIX + PATTERN, "ramp");
+        long min = getLong(properties, MIN, 100, Long.MIN_VALUE);
+        long max = getLong(properties, MAX, Short.MAX_VALUE, min);
+        long stepLength = getLong(properties, STEP_LENGTH, 10, 1);
+
+        List<ChannelWorkload> channelWorkloads = new ArrayList<>();
+        for (String channelId : properties.getProperty(PREFIX + CHANNELS, "register1").split(",")) {
+            channelId = channelId.trim();
+            if (channelId.isEmpty()) {
+                continue;
+            }
+            String channelPrefix = "channel." + channelId + ".";
+            double channelRate = getDouble(properties, channelPrefix + RATE, rate);
+            double channelReadRatio = getDouble(properties, channelPrefix + READ_RATIO, readRatio);
+            if (channelRate <= 0 || channelReadRatio < 0 || channelReadRatio > 1) {
+                throw new IllegalArgumentException("Invalid rate or read ratio of channel " + channelId);
+            }
+            channelWorkloads.add(new ChannelWorkload(channelId, channelRate, channelReadRatio,
+                    EValuePattern.fromString(properties.getProperty(PREFIX + channelPrefix + PATTERN, pattern)), min,
+                    max, stepLength));
+        }
+        channels = Collections.unmodifiableList(channelWorkloads);
+    }
+
+    static double getDouble(Properties properties, String key, double defaultValue) {
+        String value = properties.getProperty(PREFIX + key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid value of " + PREFIX + key + ": " + value);
+        }
+    }
+
+    static long getLong(Properties properties, String key, long defaultValue, long minValue) {
+        String value = properties.getProperty(PREFIX + key);
+        if (value == null) {
+            return defaultValue;
+        }
+        long result;
+        try {
+            result = Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid value of " + PREFIX + key + ": " + value);
+        }
+        if (result < minValue) {
+            throw new IllegalArgumentException(PREFIX + key + " has to be at least " + minValue);
+        }
+        return result;
+    }
+
+    public List<ChannelWorkload> getChannels() {
+        return channels;
+    }
+
+    /**
+     * @return maximum number of reads and writes executed at the same time
+     */
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    /**
+     * @return number of threads executing the reads and writes
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * @return interval of the statistics log in ms, 0 to log only at shutdown
+     */
+    public long getStatisticsIntervalMs() {
+        return statisticsIntervalMs;
+    }
+
+    /**
+     * @return true if written values are sequence numbers whose latency until they are read back is measured
+     */
+    public boolean isLatencyMode() {
+        return latencyMode;
+    }
+
+    /**
+     * @return time in ms after which a written value which wasn't read back is counted as lost
+     */
+    public long getLatencyTimeoutMs() {
+        return latencyTimeoutMs;
+    }
+
+}
@@ -0,0 +1,333 @@
+/*
+ * Copyright 2011-2024 Fraunhofer ISE
+ *
+ * This file is part of OpenMUC.
+ * For more information visit http://www.openmuc.org
+ *
+ * OpenMUC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenMUC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenMUC. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.openmuc.framework.app.modbus;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import org.openmuc.framework.app.modbus.WorkloadConfig.ChannelWorkload;
+import org.openmuc.framework.data.BooleanValue;
+import org.openmuc.framework.data.ByteArrayValue;
+import org.openmuc.framework.data.ByteValue;
+import org.openmuc.framework.data.DoubleValue;
+import org.openmuc.framework.data.Flag;
+import org.openmuc.framework.data.FloatValue;
+import org.openmuc.framework.data.IntValue;
+import org.openmuc.framework.data.LongValue;
+import org.openmuc.framework.data.Record;
+import org.openmuc.framework.data.ShortValue;
+import org.openmuc.framework.data.StringValue;
+import org.openmuc.framework.data.Value;
+import org.openmuc.framework.data.ValueType;
+import org.openmuc.framework.dataaccess.Channel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Generates a configurable read and write load on a set of channels.
+ * <p>
+ * Every channel gets a task on a scheduled executor, which fires at the configured rate. The task doesn't read or write
+ * itself, it only submits the operation to a pool of worker threads, because {@link Channel#write(Value)} and
+ * {@link Channel#read()} block until the driver finished. At most {@code maxInFlight} operations are executed or queued
+ * at the same time. If the limit is reached, the operation is skipped and counted instead of delaying the schedule.
+ * Writes of the same channel are executed one after the other, reads run in parallel.
+ */
+public class WorkloadEngine {
+
+    private static final Logger logger = LoggerFactory.getLogger(WorkloadEngine.class);
+
+    /**
+     * Notified about every executed operation, on the worker thread.
+     */
+    public interface OperationListener {
+        void written(Channel channel, Value value, Flag flag);
+
+        void read(Channel channel, Record record);
+    }
+
+    /**
+     * Supplies the value of a write, e.g. to tag it for latency measurements.
+     */
+    public interface ValueSupplier {
+        /**
+         * @param channel
+         *            written channel
+         * @param patternValue
+         *            next value of the channel's pattern
+         * @return the value to write
+         */
+        Value nextValue(Channel channel, long patternValue);
+    }
+
+    private final WorkloadConfig config;
+    private final Function<String, Channel> channelLookup;
+    private final OperationListener listener;
+    private final ValueSupplier valueSupplier;
+    private final Semaphore inFlight;
+
+    private final LongAdder writes = new LongAdder();
+    private final LongAdder writeFailures = new LongAdder();
+    private final LongAdder reads = new LongAdder();
+    private final LongAdder readFailures = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+    private final AtomicLong lastOperations = new AtomicLong();
+
+    private ScheduledExecutorService scheduler;
+    private ThreadPoolExecutor workers;
+    private long startTime;
+
+    /**
+     * @param config
+     *            workload to generate
+     * @param channelLookup
+     *            returns the channel of an ID or null if it doesn't exist
+     * @param listener
+     *            listener of executed operations, may be null
+     * @param valueSupplier
+     *            supplier of written values, if null the pattern value is converted to the channel's value type
+     */
+    public WorkloadEngine(WorkloadConfig config, Function<String, Channel> channelLookup, OperationListener listener,
+            ValueSupplier valueSupplier) {
+        this.config = config;
+        this.channelLookup = channelLookup;
+        this.listener = listener;
+        this.valueSupplier = valueSupplier != null ? valueSupplier
+                : (channel, patternValue) -> toValue(channel.getValueType(), patternValue);
+        this.inFlight = new Semaphore(config.getMaxInFlight());
+    }
+
+    /**
+     * Starts the workload of all existing channels.
+     * 
+     * @return number of channels with a workload
+     */
+    public synchronized int start() {
+        AtomicInteger threadCount = new AtomicInteger();
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "modbusAppScheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        workers = (ThreadPoolExecutor) Executors.newFixedThreadPool(config.getThreads(), runnable -> {
+            Thread thread = new Thread(runnable, "modbusAppWorker" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        List<String> started = new ArrayList<>();
+        for (ChannelWorkload workload : config.getChannels()) {
+            Channel channel = channelLookup.apply(workload.getChannelId());
+            if (channel == null) {
+                logger.error("Channel {} doesn't exist, check the channels.xml configuration.",
+                        workload.getChannelId());
+                continue;
+            }
+            long periodNs = Math.max(1, (long) (1e9 / workload.getRate()));
+            ChannelTask task = new ChannelTask(channel, workload);
+            scheduler.scheduleAtFixedRate(task::tick, 0, periodNs, TimeUnit.NANOSECONDS);
+            started.add(workload.getChannelId());
+        }
+
+        startTime = System.nanoTime();
+        if (config.getStatisticsIntervalMs() > 0) {
+            scheduler.scheduleAtFixedRate(this::logStatistics, config.getStatisticsIntervalMs(),
+                    config.getStatisticsIntervalMs(), TimeUnit.MILLISECONDS);
+        }
+        logger.info("Started workload on channels {}", started);
+        return started.size();
+    }
+
+    /**
+     * Stops scheduling operations and waits for the operations in flight.
+     */
+    public synchronized void stop() {
+        if (scheduler == null) {
+            return;
+        }
+        scheduler.shutdownNow();
+        workers.shutdown();
+        try {
+            if (!workers.awaitTermination(5, TimeUnit.SECONDS)) {
+                workers.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        scheduler = null;
+        logger.info("Workload stopped: {}", this);
+    }
+
+    private void logStatistics() {
+        long operations = getWrites() + getReads();
+        long interval = operations - lastOperations.getAndSet(operations);
+        logger.info("Workload: {} ops/s, {}", interval * 1000 / config.getStatisticsIntervalMs(), this);
+    }
+
+    private class ChannelTask {
+        private final Channel channel;
+        private final ChannelWorkload workload;
+        /** Only accessed by the scheduler thread */
+        private long writeIndex = 0;
+        /** Serializes the writes of the channel, so values reach the device in the order they were supplied */
+        private final Object writeLock = new Object();
+
+        ChannelTask(Channel channel, ChannelWorkload workload) {
+            this.channel = channel;
+            this.workload = workload;
+        }
+
+        void tick() {
+            if (!inFlight.tryAcquire()) {
+                skipped.increment();
+                return;
+            }
+            Runnable operation;
+            if (workload.getReadRatio() > 0 && ThreadLocalRandom.current().nextDouble() < workload.getReadRatio()) {
+                operation = this::read;
+            }
+            else {
+                long patternValue = workload.getPattern()
+                        .value(writeIndex++, workload.getMin(), workload.getMax(), workload.getStepLength());
+                operation = () -> write(patternValue);
+            }
+            try {
+                workers.execute(() -> {
+                    try {
+                        operation.run();
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                inFlight.release();
+            }
+        }
+
+        private void write(long patternValue) {
+            Value value;
+            Flag flag;
+            synchronized (writeLock) {
+                value = valueSupplier.nextValue(channel, patternValue);
+                try {
+                    flag = channel.write(value);
+                } catch (RuntimeException e) {
+                    logger.debug("Write to channel {} failed", channel.getId(), e);
+                    flag = Flag.UNKNOWN_ERROR;
+                }
+            }
+            writes.increment();
+            if (flag != Flag.VALID) {
+                writeFailures.increment();
+            }
+            if (listener != null) {
+                listener.written(channel, value, flag);
+            }
+        }
+
+        private void read() {
+            Record record;
+            try {
+                record = channel.read();
+            } catch (RuntimeException e) {
+                logger.debug("Read of channel {} failed", channel.getId(), e);
+                record = new Record(Flag.UNKNOWN_ERROR);
+            }
+            reads.increment();
+            if (record == null || record.getFlag() != Flag.VALID) {
+                readFailures.increment();
+            }
+            if (listener != null && record != null) {
+                listener.read(channel, record);
+            }
+        }
+    }
+
+    /**
+     * Converts a pattern value to a value of the given type.
+     */
+    public static Value toValue(ValueType valueType, long value) {
+        switch (valueType) {
+        case BOOLEAN:
+            return new BooleanValue(value != 0);
+        case BYTE:
+            return new ByteValue((byte) value);
+        case SHORT:
+            return new ShortValue((short) value);
+        case INTEGER:
+            return new IntValue((int) value);
+        case LONG:
+            return new LongValue(value);
+        case FLOAT:
+            return new FloatValue(value);
+        case DOUBLE:
+            return new DoubleValue(value);
+        case STRING:
+            return new StringValue(Long.toString(value));
+        case BYTE_ARRAY:
+        default:
+            return new ByteArrayValue(ByteBuffer.allocate(8).putLong(value).array());
+        }
+    }
+
+    public long getWrites() {
+        return writes.sum();
+    }
+
+    public long getWriteFailures() {
+        return writeFailures.sum();
+    }
+
+    public long getReads() {
+        return reads.sum();
+    }
+
+    public long getReadFailures() {
+        return readFailures.sum();
+    }
+
+    /**
+     * @return number of operations skipped because {@code maxInFlight} operations were in flight
+     */
+    public long getSkipped() {
+        return skipped.sum();
+    }
+
+    @Override
+    public String toString() {
+        long millis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+        return "writes: " + getWrites() + " (" + getWriteFailures() + " failed), reads: " + getReads() + " ("
+                + getReadFailures() + " failed), skipped: " + getSkipped() + ", average: "
+                + (getWrites() + getReads()) * 1000 / millis + " ops/s";
+    }
+
+}
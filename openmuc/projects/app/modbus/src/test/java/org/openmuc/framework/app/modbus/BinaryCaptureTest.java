@@ -0,0 +1,254 @@
+/*
+ * Copyright 2011-2024 Fraunhofer ISE
+ *
+ * This file is part of OpenMUC.
+ * For more information visit http://www.openmuc.org
+ *
+ * OpenMUC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenMUC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenMUC. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.openmuc.framework.app.modbus;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.openmuc.framework.data.BooleanValue;
+import org.openmuc.framework.data.ByteArrayValue;
+import org.openmuc.framework.data.ByteValue;
+import org.openmuc.framework.data.DoubleValue;
+import org.openmuc.framework.data.Flag;
+import org.openmuc.framework.data.FloatValue;
+import org.openmuc.framework.data.IntValue;
+import org.openmuc.framework.data.LongValue;
+import org.openmuc.framework.data.ShortValue;
+import org.openmuc.framework.data.StringValue;
+import org.openmuc.framework.data.Value;
+
+/**
+ * Round trips of the binary capture format through {@link BinaryCaptureEncoder}, {@link BinaryCaptureReader} and
+ * {@link CaptureConverter}.
+ */
+public class BinaryCaptureTest {
+
+    private static final long TIMESTAMP = 1_700_000_000_000L;
+
+    @TempDir
+    File directory;
+
+    @Test
+    public void allValueTypesAreDecoded() throws IOException {
+        List<CaptureRecord> records = new ArrayList<>();
+        records.add(record(0, ECaptureAction.READ, "bool", new BooleanValue(true), Flag.VALID));
+        records.add(record(1, ECaptureAction.WRITE, "byte", new ByteValue((byte) -7), Flag.VALID));
+        records.add(record(1, ECaptureAction.READ, "short", new ShortValue(Short.MIN_VALUE), Flag.VALID));
+        records.add(record(5, ECaptureAction.READ, "int", new IntValue(-123456), Flag.VALID));
+        // timestamps may go back
+        records.add(record(-1000, ECaptureAction.READ, "long", new LongValue(Long.MAX_VALUE), Flag.VALID));
+        records.add(record(10, ECaptureAction.WRITE, "float", new FloatValue(3.25f), Flag.VALID));
+        records.add(record(10, ECaptureAction.READ, "double", new DoubleValue(Double.NaN), Flag.VALID));
+        records.add(record(11, ECaptureAction.READ, "string", new StringValue("\u00e4\u00f6\u00fc"), Flag.VALID));
+        records.add(record(12, ECaptureAction.READ, "bytes", new ByteArrayValue(new byte[] { 1, -1 }), Flag.VALID));
+        records.add(record(13, ECaptureAction.READ, "int", null, Flag.DRIVER_ERROR_TIMEOUT));
+
+        assertRecords(records, read(encode(1024, records)));
+    }
+
+    @Test
+    public void recordsSpanMultipleBlocks() throws IOException {
+        List<CaptureRecord> records = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            records.add(record(i * 1000L, ECaptureAction.READ, "channel" + i % 3, new IntValue(i), Flag.VALID));
+        }
+
+        byte[] bytes = encode(64, records);
+
+        assertTrue(blockOffsets(bytes).size() > 5);
+        assertRecords(records, read(bytes));
+    }
+
+    @Test
+    public void appendedRecordsAreRead() throws IOException {
+        List<CaptureRecord> first = Arrays.asList(record(0, ECaptureAction.READ, "a", new IntValue(1), Flag.VALID));
+        List<CaptureRecord> second = Arrays.asList(record(5, ECaptureAction.WRITE, "a", new IntValue(2), Flag.VALID));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encode(out, true, 1024, first);
+        encode(out, false, 1024, second);
+
+        List<CaptureRecord> expected = new ArrayList<>(first);
+        expected.addAll(second);
+        assertRecords(expected, read(out.toByteArray()));
+    }
+
+    @Test
+    public void blockWithWrongChecksumIsSkipped() throws IOException {
+        List<CaptureRecord> first = Arrays.asList(record(0, ECaptureAction.READ, "a", new IntValue(1), Flag.VALID),
+                record(1, ECaptureAction.READ, "b", new IntValue(2), Flag.VALID));
+        List<CaptureRecord> second = Arrays.asList(record(2, ECaptureAction.READ, "a", new IntValue(3), Flag.VALID));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encode(out, true, 1024, first);
+        encode(out, false, 1024, second);
+        byte[] bytes = out.toByteArray();
+        // flip a bit in the payload of the first block
+        bytes[blockOffsets(bytes).get(0) + BinaryCaptureEncoder.BLOCK_HEADER_SIZE + 10] ^= 1;
+
+        try (BinaryCaptureReader reader = new BinaryCaptureReader(new ByteArrayInputStream(bytes))) {
+            assertRecords(second, readAll(reader));
+            assertEquals(1, reader.getCorruptBlocks());
+            assertFalse(reader.isTruncated());
+        }
+    }
+
+    @Test
+    public void truncatedBlockIsDetected() throws IOException {
+        List<CaptureRecord> first = Arrays.asList(record(0, ECaptureAction.READ, "a", new IntValue(1), Flag.VALID));
+        List<CaptureRecord> second = Arrays.asList(record(2, ECaptureAction.READ, "a", new IntValue(3), Flag.VALID));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encode(out, true, 1024, first);
+        encode(out, false, 1024, second);
+        byte[] bytes = out.toByteArray();
+
+        try (BinaryCaptureReader reader = new BinaryCaptureReader(
+                new ByteArrayInputStream(Arrays.copyOf(bytes, bytes.length - 3)))) {
+            assertRecords(first, readAll(reader));
+            assertTrue(reader.isTruncated());
+        }
+    }
+
+    @Test
+    public void invalidHeaderIsRejected() {
+        assertThrows(IOException.class, () -> new BinaryCaptureReader(new ByteArrayInputStream(new byte[] { 'M' })));
+        assertThrows(IOException.class,
+                () -> new BinaryCaptureReader(new ByteArrayInputStream("MBCP\u0002".getBytes(StandardCharsets.UTF_8))));
+    }
+
+    @Test
+    public void gzippedCaptureIsConvertedToCsv() throws IOException {
+        List<CaptureRecord> records = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            records.add(record(i, ECaptureAction.values()[i % 2], "channel" + i % 2, new DoubleValue(i / 4.0),
+                    Flag.VALID));
+        }
+
+        File input = new File(directory, "capture.bin.gz");
+        try (OutputStream out = new GZIPOutputStream(new FileOutputStream(input))) {
+            out.write(encode(64, records));
+        }
+        File output = new File(directory, "capture.csv");
+
+        assertEquals(records.size(), CaptureConverter.convert(input.getPath(), output.getPath()));
+
+        CsvCaptureEncoder csv = new CsvCaptureEncoder();
+        StringBuilder expected = new StringBuilder(CsvCaptureEncoder.HEADER);
+        for (CaptureRecord record : records) {
+            expected.append(csv.toLine(record));
+        }
+        assertEquals(expected.toString(), new String(Files.readAllBytes(output.toPath()), StandardCharsets.UTF_8));
+    }
+
+    private static CaptureRecord record(long timeOffset, ECaptureAction action, String channelId,
+            Value value, Flag flag) {
+        return new CaptureRecord(TIMESTAMP + timeOffset, action, channelId, value, flag);
+    }
+
+    private static byte[] encode(int blockSize, List<CaptureRecord> records) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encode(out, true, blockSize, records);
+        return out.toByteArray();
+    }
+
+    private static void encode(OutputStream out, boolean empty, int blockSize, List<CaptureRecord> records)
+            throws IOException {
+        BinaryCaptureEncoder encoder = new BinaryCaptureEncoder(blockSize);
+        encoder.open(out, empty);
+        for (CaptureRecord record : records) {
+            encoder.encode(record);
+        }
+        encoder.flush();
+    }
+
+    private static List<CaptureRecord> read(byte[] bytes) throws IOException {
+        try (BinaryCaptureReader reader = new BinaryCaptureReader(new ByteArrayInputStream(bytes))) {
+            List<CaptureRecord> records = readAll(reader);
+            assertEquals(0, reader.getCorruptBlocks());
+            assertFalse(reader.isTruncated());
+            return records;
+        }
+    }
+
+    private static List<CaptureRecord> readAll(BinaryCaptureReader reader) throws IOException {
+        List<CaptureRecord> records = new ArrayList<>();
+        CaptureRecord record;
+        while ((record = reader.next()) != null) {
+            records.add(record);
+        }
+        return records;
+    }
+
+    /**
+     * @return the offsets of the blocks in an encoded file
+     */
+    private static List<Integer> blockOffsets(byte[] bytes) {
+        List<Integer> offsets = new ArrayList<>();
+        int offset = BinaryCaptureEncoder.MAGIC.length + 1;
+        while (offset < bytes.length) {
+            offsets.add(offset);
+            int length = (bytes[offset] & 0xff) << 24 | (bytes[offset + 1] & 0xff) << 16
+                    | (bytes[offset + 2] & 0xff) << 8 | bytes[offset + 3] & 0xff;
+            offset += BinaryCaptureEncoder.BLOCK_HEADER_SIZE + length;
+        }
+        return offsets;
+    }
+
+    private static void assertRecords(List<CaptureRecord> expected, List<CaptureRecord> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            CaptureRecord e = expected.get(i);
+            CaptureRecord a = actual.get(i);
+            String message = "record " + i;
+            assertEquals(e.getTimestamp(), a.getTimestamp(), message);
+            assertEquals(e.getAction(), a.getAction(), message);
+            assertEquals(e.getChannelId(), a.getChannelId(), message);
+            assertEquals(e.getFlag(), a.getFlag(), message);
+            if (e.getValue() == null) {
+                assertNull(a.getValue(), message);
+            }
+            else {
+                assertEquals(e.getValue().getValueType(), a.getValue().getValueType(), message);
+                assertEquals(e.getValue().asString(), a.getValue().asString(), message);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2011-2024 Fraunhofer ISE
+ *
+ * This file is part of OpenMUC.
+ * For more information visit http://www.openmuc.org
+ *
+ * OpenMUC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenMUC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenMUC. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.openmuc.framework.app.modbus;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.openmuc.framework.data.Flag;
+import org.openmuc.framework.data.IntValue;
+
+public class CaptureWriterTest {
+
+    @TempDir
+    File directory;
+
+    @Test
+    public void rotatedFilesAreCompressed() throws Exception {
+        Properties properties = properties("csv");
+        properties.setProperty(WorkloadConfig.PREFIX + "capture.maxFileSize", "1");
+        properties.setProperty(WorkloadConfig.PREFIX + "capture.gzip", "true");
+        CaptureWriter writer = new CaptureWriter(new CaptureConfig(properties));
+
+        // one record per batch, every batch exceeds the maximum file size
+        for (int i = 0; i < 3; i++) {
+            assertTrue(writer.write(ECaptureAction.READ, "channel", new IntValue(i), Flag.VALID));
+            awaitProcessed(writer, i + 1);
+        }
+        writer.close();
+
+        assertEquals(3, writer.getWritten());
+        assertEquals(0, writer.getDropped());
+
+        List<String> lines = new ArrayList<>();
+        int rotatedFiles = 0;
+        for (File file : directory.listFiles()) {
+            if (file.getName().equals("capture.csv")) {
+                assertEquals(CsvCaptureEncoder.HEADER.length(), file.length());
+                continue;
+            }
+            assertTrue(file.getName().matches("capture-\\d{8}-\\d{6}-\\d{3}(-\\d+)?\\.csv\\.gz"), file.getName());
+            List<String> fileLines = readGzipLines(file);
+            assertEquals(CsvCaptureEncoder.HEADER.trim(), fileLines.get(0));
+            lines.addAll(fileLines.subList(1, fileLines.size()));
+            rotatedFiles++;
+        }
+        assertEquals(3, rotatedFiles);
+        assertEquals(3, lines.size());
+        for (String line : lines) {
+            assertTrue(line.matches(".*,READ,channel,[0-2],VALID"), line);
+        }
+    }
+
+    @Test
+    public void writerSurvivesEncoderFailure() throws Exception {
+        CaptureWriter writer = new CaptureWriter(new CaptureConfig(properties("binary")));
+
+        // the binary encoder fails on a record without flag
+        assertTrue(writer.write(ECaptureAction.READ, "channel", new IntValue(1), null));
+        awaitProcessed(writer, 1);
+        assertTrue(writer.write(ECaptureAction.WRITE, "channel", new IntValue(2), Flag.VALID));
+        writer.close();
+
+        assertEquals(1, writer.getWritten());
+        assertEquals(1, writer.getDropped());
+
+        try (BinaryCaptureReader reader = new BinaryCaptureReader(
+                new FileInputStream(new File(directory, "capture.bin")))) {
+            CaptureRecord record = reader.next();
+            assertEquals(ECaptureAction.WRITE, record.getAction());
+            assertEquals(2, record.getValue().asInt());
+            assertEquals(null, reader.next());
+        }
+    }
+
+    @Test
+    public void fileWithAnotherHeaderIsMovedAside() throws Exception {
+        File file = new File(directory, "capture.csv");
+        byte[] oldContent = "Timestamp,Action,Value\n2024-01-01T00:00:00Z,READ,1\n".getBytes(StandardCharsets.UTF_8);
+        Files.write(file.toPath(), oldContent);
+
+        CaptureWriter writer = new CaptureWriter(new CaptureConfig(properties("csv")));
+        assertTrue(writer.write(ECaptureAction.READ, "channel", new IntValue(2), Flag.VALID));
+        writer.close();
+
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        assertEquals(2, lines.size());
+        assertEquals(CsvCaptureEncoder.HEADER.trim(), lines.get(0));
+        assertTrue(lines.get(1).matches(".*,READ,channel,2,VALID"), lines.get(1));
+
+        File[] moved = directory.listFiles((dir, name) -> !name.equals("capture.csv"));
+        assertEquals(1, moved.length);
+        assertTrue(moved[0].getName().matches("capture-\\d{8}-\\d{6}-\\d{3}\\.csv"), moved[0].getName());
+        assertArrayEquals(oldContent, Files.readAllBytes(moved[0].toPath()));
+    }
+
+    @Test
+    public void fileWithTheSameHeaderIsAppendedTo() throws Exception {
+        CaptureWriter writer = new CaptureWriter(new CaptureConfig(properties("csv")));
+        assertTrue(writer.write(ECaptureAction.READ, "channel", new IntValue(1), Flag.VALID));
+        writer.close();
+        writer = new CaptureWriter(new CaptureConfig(properties("csv")));
+        assertTrue(writer.write(ECaptureAction.WRITE, "channel", new IntValue(2), Flag.VALID));
+        writer.close();
+
+        assertEquals(1, directory.listFiles().length);
+        List<String> lines = Files.readAllLines(new File(directory, "capture.csv").toPath(), StandardCharsets.UTF_8);
+        assertEquals(3, lines.size());
+        assertTrue(lines.get(2).matches(".*,WRITE,channel,2,VALID"), lines.get(2));
+    }
+
+    @Test
+    public void recordsAppendedAfterATruncatedBlockAreRead() throws Exception {
+        CaptureWriter writer = new CaptureWriter(new CaptureConfig(properties("binary")));
+        // one block per batch
+        assertTrue(writer.write(ECaptureAction.READ, "channel", new IntValue(1), Flag.VALID));
+        awaitProcessed(writer, 1);
+        assertTrue(writer.write(ECaptureAction.READ, "channel", new IntValue(2), Flag.VALID));
+        writer.close();
+
+        // the writer crashed while writing the second block
+        File file = new File(directory, "capture.bin");
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            out.setLength(out.length() - 3);
+        }
+
+        writer = new CaptureWriter(new CaptureConfig(properties("binary")));
+        assertTrue(writer.write(ECaptureAction.WRITE, "channel", new IntValue(3), Flag.VALID));
+        writer.close();
+
+        try (BinaryCaptureReader reader = new BinaryCaptureReader(new FileInputStream(file))) {
+            assertEquals(1, reader.next().getValue().asInt());
+            CaptureRecord record = reader.next();
+            assertEquals(ECaptureAction.WRITE, record.getAction());
+            assertEquals(3, record.getValue().asInt());
+            assertEquals(null, reader.next());
+            assertFalse(reader.isTruncated());
+            assertEquals(0, reader.getCorruptBlocks());
+        }
+    }
+
+    private Properties properties(String format) {
+        Properties properties = new Properties();
+        properties.setProperty(WorkloadConfig.PREFIX + "capture.format", format);
+        properties.setProperty(WorkloadConfig.PREFIX + "capture.file",
+                new File(directory, "capture." + (format.equals("csv") ? "csv" : "bin")).getPath());
+        properties.setProperty(WorkloadConfig.PREFIX + "capture.flushInterval", "0");
+        return properties;
+    }
+
+    private static void awaitProcessed(CaptureWriter writer, long records) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (writer.getWritten() + writer.getDropped() < records && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(records, writer.getWritten() + writer.getDropped());
+    }
+
+    private static List<String> readGzipLines(File file) throws IOException {
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new GZIPInputStream(new FileInputStream(file)), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2011-2024 Fraunhofer ISE
+ *
+ * This file is part of OpenMUC.
+ * For more information visit http://www.openmuc.org
+ *
+ * OpenMUC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenMUC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenMUC. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.openmuc.framework.app.modbus;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void bucketsCoverValuesWithOnePercentPrecision() {
+        int lastIndex = -1;
+        for (long value = 0; value < 1 << 20; value += 1 + value / 200) {
+            int index = LatencyHistogram.index(value);
+            long highest = LatencyHistogram.highestEquivalentValue(index);
+
+            assertTrue(index >= lastIndex, "index of " + value);
+            assertTrue(highest >= value, "highest value of " + value + ": " + highest);
+            assertTrue(highest - value <= value / 100, "precision of " + value + ": " + highest);
+            assertEquals(index, LatencyHistogram.index(highest), "bucket of " + highest);
+            lastIndex = index;
+        }
+    }
+
+    @Test
+    public void valuesBelow256AreExact() {
+        for (int value = 0; value < 256; value++) {
+            assertEquals(value, LatencyHistogram.highestEquivalentValue(LatencyHistogram.index(value)));
+        }
+    }
+
+    @Test
+    public void extremeValuesAreRecorded() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE);
+
+        assertEquals(2, histogram.getCount());
+        assertEquals(0, histogram.getValueAtPercentile(50));
+        assertEquals(Long.MAX_VALUE, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void percentilesOfUniformValues() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getValueAtPercentile(50));
+
+        for (int value = 1; value <= 10000; value++) {
+            histogram.record(value);
+        }
+
+        assertEquals(10000, histogram.getCount());
+        assertEquals(10000, histogram.getMax());
+        assertEquals(5000, histogram.getValueAtPercentile(50), 50);
+        assertEquals(9900, histogram.getValueAtPercentile(99), 99);
+        assertEquals(10000, histogram.getValueAtPercentile(100));
+        assertEquals(1, histogram.getValueAtPercentile(0));
+    }
+
+    @Test
+    public void addMergesHistograms() {
+        LatencyHistogram first = new LatencyHistogram();
+        LatencyHistogram second = new LatencyHistogram();
+        for (int i = 0; i < 99; i++) {
+            first.record(10);
+        }
+        second.record(100000);
+
+        first.add(second);
+
+        assertEquals(100, first.getCount());
+        assertEquals(100000, first.getMax());
+        assertEquals(10, first.getValueAtPercentile(99));
+        assertEquals(100000, first.getValueAtPercentile(100));
+    }
+
+}
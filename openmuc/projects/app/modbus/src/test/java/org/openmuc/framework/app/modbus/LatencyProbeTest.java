@@ -0,0 +1,187 @@
+/*
+ * Copyright 2011-2024 Fraunhofer ISE
+ *
+ * This file is part of OpenMUC.
+ * For more information visit http://www.openmuc.org
+ *
+ * OpenMUC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenMUC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenMUC. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.openmuc.framework.app.modbus;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.junit.jupiter.api.Test;
+import org.openmuc.framework.data.Flag;
+import org.openmuc.framework.data.IntValue;
+import org.openmuc.framework.data.Record;
+import org.openmuc.framework.data.Value;
+import org.openmuc.framework.data.ValueType;
+import org.openmuc.framework.dataaccess.Channel;
+
+public class LatencyProbeTest {
+
+    private static final String CHANNEL_ID = "register1";
+
+    @Test
+    public void observedValueIsMeasured() {
+        LatencyProbe probe = new LatencyProbe(config(0, 999), 10000);
+        Channel channel = channel(null);
+
+        Value value = probe.nextValue(channel, 0);
+        probe.observe(CHANNEL_ID, new Record(value, 0L));
+        probe.observe(CHANNEL_ID, new Record(value, 1L));
+
+        assertEquals(1, probe.getWritten());
+        assertEquals(1, probe.getHistogram().getCount());
+        assertEquals(0, probe.getLost());
+        assertEquals(0, probe.getPending());
+    }
+
+    @Test
+    public void valuesOverwrittenBeforeTheyWereObservedAreLost() {
+        LatencyProbe probe = new LatencyProbe(config(0, 999), 10000);
+        Channel channel = channel(null);
+
+        Value first = probe.nextValue(channel, 0);
+        probe.nextValue(channel, 0);
+        Value third = probe.nextValue(channel, 0);
+        Value fourth = probe.nextValue(channel, 0);
+        probe.observe(CHANNEL_ID, new Record(third, 0L));
+        probe.observe(CHANNEL_ID, new Record(first, 1L));
+
+        assertEquals(4, probe.getWritten());
+        assertEquals(1, probe.getHistogram().getCount());
+        assertEquals(2, probe.getLost());
+        assertEquals(1, probe.getPending());
+
+        probe.observe(CHANNEL_ID, new Record(fourth, 2L));
+        assertEquals(2, probe.getHistogram().getCount());
+        assertEquals(2, probe.getLost());
+        assertEquals(0, probe.getPending());
+    }
+
+    @Test
+    public void valuesOfOtherWritersAreIgnored() {
+        LatencyProbe probe = new LatencyProbe(config(0, 999), 10000);
+        probe.nextValue(channel(null), 0);
+
+        probe.observe(CHANNEL_ID, new Record(new IntValue(500), 0L));
+        probe.observe("unknown", new Record(new IntValue(0), 0L));
+        probe.observe(CHANNEL_ID, new Record(Flag.DRIVER_ERROR_TIMEOUT));
+
+        assertEquals(0, probe.getHistogram().getCount());
+        assertEquals(0, probe.getLost());
+        assertEquals(1, probe.getPending());
+    }
+
+    @Test
+    public void sequenceNumbersWrapAroundInTheValueRange() {
+        LatencyProbe probe = new LatencyProbe(config(100, 102), 10000);
+        Channel channel = channel(null);
+
+        for (int expected : new int[] { 100, 101, 102, 100 }) {
+            Value value = probe.nextValue(channel, 0);
+            assertEquals(expected, value.asInt());
+            probe.observe(CHANNEL_ID, new Record(value, 0L));
+        }
+        assertEquals(4, probe.getHistogram().getCount());
+        assertEquals(0, probe.getLost());
+    }
+
+    @Test
+    public void valuesWhichNeverShowUpExpire() throws InterruptedException {
+        LatencyProbe probe = new LatencyProbe(config(0, 999), 1);
+        probe.nextValue(channel(null), 0);
+        probe.nextValue(channel(null), 0);
+        probe.start(0);
+        try {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (probe.getPending() > 0 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+        } finally {
+            probe.stop();
+        }
+
+        assertEquals(0, probe.getPending());
+        assertEquals(2, probe.getLost());
+        assertEquals(0, probe.getHistogram().getCount());
+    }
+
+    @Test
+    public void concurrentWritesOfAChannelAreNotCountedAsLost() throws InterruptedException {
+        Properties properties = properties(0, 1_000_000);
+        properties.setProperty(WorkloadConfig.PREFIX + "rate", "5000");
+        properties.setProperty(WorkloadConfig.PREFIX + "threads", "8");
+        WorkloadConfig config = new WorkloadConfig(properties);
+        LatencyProbe probe = new LatencyProbe(config, 10000);
+        // the device applies a written value after a short random delay, a value written later by another worker
+        // thread would overtake it
+        Channel channel = channel(value -> {
+            LockSupport.parkNanos((long) (Math.random() * 200_000));
+            probe.observe(CHANNEL_ID, new Record(value, System.currentTimeMillis()));
+        });
+        WorkloadEngine engine = new WorkloadEngine(config, id -> channel, null, probe);
+
+        engine.start();
+        Thread.sleep(300);
+        engine.stop();
+
+        assertTrue(probe.getWritten() > 100, "written: " + probe.getWritten());
+        assertEquals(0, probe.getLost());
+        assertEquals(probe.getWritten(), probe.getHistogram().getCount());
+    }
+
+    private interface ValueWriter {
+        void write(Value value);
+    }
+
+    private static Channel channel(ValueWriter writer) {
+        return (Channel) Proxy.newProxyInstance(Channel.class.getClassLoader(), new Class<?>[] { Channel.class },
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                    case "getId":
+                        return CHANNEL_ID;
+                    case "getValueType":
+                        return ValueType.INTEGER;
+                    case "write":
+                        writer.write((Value) args[0]);
+                        return Flag.VALID;
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    private static WorkloadConfig config(long min, long max) {
+        return new WorkloadConfig(properties(min, max));
+    }
+
+    private static Properties properties(long min, long max) {
+        Properties properties = new Properties();
+        properties.setProperty(WorkloadConfig.PREFIX + "channels", CHANNEL_ID);
+        properties.setProperty(WorkloadConfig.PREFIX + "min", String.valueOf(min));
+        properties.setProperty(WorkloadConfig.PREFIX + "max", String.valueOf(max));
+        properties.setProperty(WorkloadConfig.PREFIX + "statisticsInterval", "0");
+        return properties;
+    }
+
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2011-2024 Fraunhofer ISE
+ *
+ * This file is part of OpenMUC.
+ * For more information visit http://www.openmuc.org
+ *
+ * OpenMUC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenMUC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenMUC. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.openmuc.framework.app.modbus;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.openmuc.framework.app.modbus.WorkloadConfig.ChannelWorkload;
+
+public class WorkloadConfigTest {
+
+    @Test
+    public void defaultsApplyWithoutProperties() {
+        WorkloadConfig config = new WorkloadConfig(new Properties());
+
+        assertEquals(100, config.getMaxInFlight());
+        assertEquals(4, config.getThreads());
+        assertEquals(10000, config.getStatisticsIntervalMs());
+        assertFalse(config.isLatencyMode());
+
+        List<ChannelWorkload> channels = config.getChannels();
+        assertEquals(1, channels.size());
+        assertEquals("register1", channels.get(0).getChannelId());
+        assertEquals(0.2, channels.get(0).getRate(), 0);
+        assertEquals(0, channels.get(0).getReadRatio(), 0);
+        assertEquals(EValuePattern.RAMP, channels.get(0).getPattern());
+    }
+
+    @Test
+    public void channelSettingsOverrideGlobalSettings() {
+        Properties properties = new Properties();
+        properties.setProperty(WorkloadConfig.PREFIX + "channels", " a, b ,,c");
+        properties.setProperty(WorkloadConfig.PREFIX + "rate", "5");
+        properties.setProperty(WorkloadConfig.PREFIX + "readRatio", "0.5");
+        properties.setProperty(WorkloadConfig.PREFIX + "pattern", "step");
+        properties.setProperty(WorkloadConfig.PREFIX + "channel.b.rate", "20");
+        properties.setProperty(WorkloadConfig.PREFIX + "channel.b.pattern", "RANDOM");
+        properties.setProperty(WorkloadConfig.PREFIX + "channel.c.readRatio", "1");
+        properties.setProperty(WorkloadConfig.PREFIX + "latencyMode", "true");
+
+        WorkloadConfig config = new WorkloadConfig(properties);
+        List<ChannelWorkload> channels = config.getChannels();
+
+        assertEquals(3, channels.size());
+        assertChannel(channels.get(0), "a", 5, 0.5, EValuePattern.STEP);
+        assertChannel(channels.get(1), "b", 20, 0.5, EValuePattern.RANDOM);
+        assertChannel(channels.get(2), "c", 5, 1, EValuePattern.STEP);
+        assertTrue(config.isLatencyMode());
+    }
+
+    private static void assertChannel(ChannelWorkload channel, String channelId, double rate, double readRatio,
+            EValuePattern pattern) {
+        assertEquals(channelId, channel.getChannelId());
+        assertEquals(rate, channel.getRate(), 0);
+        assertEquals(readRatio, channel.getReadRatio(), 0);
+        assertEquals(pattern, channel.getPattern());
+    }
+
+    @Test
+    public void invalidSettingsAreRejected() {
+        assertInvalid("threads", "0");
+        assertInvalid("maxInFlight", "many");
+        assertInvalid("rate", "0");
+        assertInvalid("readRatio", "1.5");
+        assertInvalid("pattern", "sine");
+        assertInvalid("max", "10");
+    }
+
+    private static void assertInvalid(String key, String value) {
+        Properties properties = new Properties();
+        properties.setProperty(WorkloadConfig.PREFIX + key, value);
+        assertThrows(IllegalArgumentException.class, () -> new WorkloadConfig(properties), key);
+    }
+
+    @Test
+    public void rampCountsUpAndWraps() {
+        for (int n = 0; n < 7; n++) {
+            assertEquals(10 + n % 3, EValuePattern.RAMP.value(n, 10, 12, 1));
+        }
+    }
+
+    @Test
+    public void stepAlternatesAfterStepLength() {
+        long[] expected = { -1, -1, 1, 1, -1, -1, 1 };
+        for (int n = 0; n < expected.length; n++) {
+            assertEquals(expected[n], EValuePattern.STEP.value(n, -1, 1, 2));
+        }
+    }
+
+    @Test
+    public void randomStaysWithinRange() {
+        Set<Long> values = new HashSet<>();
+        for (int n = 0; n < 1000; n++) {
+            long value = EValuePattern.RANDOM.value(n, 5, 8, 1);
+            assertTrue(value >= 5 && value <= 8, "value " + value);
+            values.add(value);
+        }
+        assertEquals(4, values.size());
+    }
+
+    @Test
+    public void patternIsParsedIgnoringCase() {
+        assertEquals(EValuePattern.STEP, EValuePattern.fromString(" Step "));
+        assertThrows(IllegalArgumentException.class, () -> EValuePattern.fromString("sine"));
+    }
+
+}
@@ -68,7 +68,10 @@ public final class SamplingTask extends DeviceTask {
         }
         else {
             for (ChannelRecordContainerImpl channelRecordContainer : channelRecordContainers) {
-                channelRecordContainer.getChannel().setNewRecord(channelRecordContainer.getRecord());
+                // drivers with report by exception set no record for unchanged channels, the latest record is kept
+                if (channelRecordContainer.getRecord() != null) {
+                    channelRecordContainer.getChannel().setNewRecord(channelRecordContainer.getRecord());
+                }
             }
         }
     }
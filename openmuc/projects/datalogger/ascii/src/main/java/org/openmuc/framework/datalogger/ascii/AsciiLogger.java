@@ -56,7 +56,12 @@ public class AsciiLogger implements DataLoggerService {
     private static HashMap<String, Long> lastLoggedLineList = new HashMap<>();
     private final String loggerDirectory;
     private final HashMap<String, LogChannel> logChannelList = new HashMap<>();
+    /*
+     * open log file writers by logging interval and time offset
+     */
+    private final HashMap<List<Integer>, LogFileWriter> logFileWriters = new HashMap<>();
     private boolean isFillUpFiles = true;
+    private long flushPeriod = 0;
     private static final long MS_PER_DAY = 86400000;
 
     public AsciiLogger() {
@@ -96,6 +101,11 @@ public class AsciiLogger implements DataLoggerService {
 
         String filename = LoggerUtils.buildFilename(loggerInterval_loggerTimeOffset, calendar);
         File file = new File(directoryPath + filename);
+        try {
+            LoggerUtils.removeIncompleteLastLine(file);
+        } catch (IOException e) {
+            logger.error("Could not repair file " + file.getAbsolutePath(), e);
+        }
         RandomAccessFile raf = LoggerUtils.getRandomAccessFile(file, "r");
         PrintWriter out = null;
 
@@ -211,6 +221,23 @@ public class AsciiLogger implements DataLoggerService {
     protected void deactivate(ComponentContext context) {
 
         logger.info("Deactivating Ascii Logger");
+        closeLogFileWriters();
+    }
+
+    private synchronized void closeLogFileWriters() {
+        for (LogFileWriter logFileWriter : logFileWriters.values()) {
+            logFileWriter.close();
+        }
+        logFileWriters.clear();
+    }
+
+    /*
+     * Writes the buffered lines, so they are found by the readers.
+     */
+    private synchronized void flushLogFileWriters() {
+        for (LogFileWriter logFileWriter : logFileWriters.values()) {
+            logFileWriter.flush();
+        }
     }
 
     private void createDirectory(String loggerDirectory) {
@@ -235,6 +262,8 @@ public class AsciiLogger implements DataLoggerService {
     public void setChannelsToLog(List<LogChannel> logChannels) {
 
         Calendar calendar = new GregorianCalendar(Locale.getDefault());
+        // the files are filled up or renamed below and the groups may change
+        closeLogFileWriters();
         logChannelList.clear();
 
         logger.trace("channels to log:");
@@ -321,13 +350,19 @@ public class AsciiLogger implements DataLoggerService {
 
             logTimeArray = it.next().getKey();
             LogIntervalContainerGroup group = logIntervalGroups.get(logTimeArray);
-            LogFileWriter fileOutHandler = new LogFileWriter(loggerDirectory, isFillUpFiles);
+            LogFileWriter fileOutHandler = logFileWriters.computeIfAbsent(logTimeArray,
+                    key -> new LogFileWriter(loggerDirectory, isFillUpFiles, flushPeriod));
 
             calendar.setTimeInMillis(timestamp);
 
             fileOutHandler.log(group, logTimeArray.get(0), logTimeArray.get(1), calendar, logChannelList);
             setLastLoggedLineTimeStamp(logTimeArray.get(0), logTimeArray.get(1), calendar.getTimeInMillis());
         }
+
+        // groups with longer logging intervals are flushed here as well
+        for (LogFileWriter logFileWriter : logFileWriters.values()) {
+            logFileWriter.flushIfDue();
+        }
     }
 
     @Override
@@ -337,6 +372,7 @@ public class AsciiLogger implements DataLoggerService {
         LogFileReader reader = null;
 
         if (logChannel != null) {
+            flushLogFileWriters();
             reader = new LogFileReader(loggerDirectory, logChannel);
             return reader.getValues(startTime, endTime).get(channelId);
         } // TODO: hier einfuegen, dass nach Logdateien gesucht werden soll, die vorhanden
@@ -365,12 +401,12 @@ public class AsciiLogger implements DataLoggerService {
         if (logChannel == null) {
             throw new IOException("ChannelID (" + channelId + ") not available. It's not a logging Channel.");
         }
+        flushLogFileWriters();
         reader = new LogFileReader(loggerDirectory, logChannel);
         // attempt to find a record within the last day
         long endTime = System.currentTimeMillis();
         long startTime = endTime - MS_PER_DAY;
-        Map<String, List<Record>> recordsMap = reader.getValues(startTime, endTime);
-        Map<String, Record> latestRecordsMap = LoggerUtils.findLatestValue(recordsMap);
+        Map<String, Record> latestRecordsMap = reader.getLatestValue(startTime, endTime);
         Record record = latestRecordsMap.get(channelId);
         if (record != null) {
             return record;
@@ -385,8 +421,7 @@ public class AsciiLogger implements DataLoggerService {
         if (file == null) {
             return null;
         }
-        recordsMap = reader.getValues(file.getPath());
-        latestRecordsMap = LoggerUtils.findLatestValue(recordsMap);
+        latestRecordsMap = reader.getLatestValue(file.getPath());
         record = latestRecordsMap.get(channelId);
         return record;
     }
@@ -407,6 +442,14 @@ public class AsciiLogger implements DataLoggerService {
             logger.debug("Property: {} not found in system.properties. Using default value: true", fillUpPropertyStr);
             isFillUpFiles = true;
         }
+
+        String flushPeriodPropertyStr = AsciiLogger.class.getPackage().getName().toLowerCase() + ".flushPeriod";
+        String flushPeriodProperty = System.getProperty(flushPeriodPropertyStr);
+
+        if (flushPeriodProperty != null) {
+            flushPeriod = Long.parseLong(flushPeriodProperty.trim()) * 1000;
+            logger.debug("Property: {} is set to {}", flushPeriodPropertyStr, flushPeriodProperty);
+        }
     }
 
     @Override
@@ -0,0 +1,274 @@
+/*
+ * Copyright 2011-2024 Fraunhofer ISE
+ *
+ * This file is part of OpenMUC.
+ * For more information visit http://www.openmuc.org
+ *
+ * OpenMUC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenMUC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenMUC. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.openmuc.framework.datalogger.ascii;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.openmuc.framework.datalogger.ascii.utils.Const;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sidecar index of a log file, stored next to it with the extension {@link Const#EXTENSION_INDEX}.<br>
+ * <br>
+ * The index holds pairs of the unix timestamp in ms and the byte offset of every {@link Const#INDEX_LINES}th data
+ * line, or of the first line after {@link Const#INDEX_BLOCK_SIZE} bytes. Entries are appended after their lines were
+ * written, so they never point beyond the log file, and the line of a timestamp is found with a binary search.
+ */
+final class LogFileIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(LogFileIndex.class);
+
+    private static final int ENTRY_SIZE = 16;
+
+    private final File indexFile;
+    private long[] timestamps = new long[16];
+    private long[] offsets = new long[16];
+    private int size;
+
+    private int written;
+    private long position;
+    private long entryPosition;
+    private int linesSinceEntry;
+
+    private LogFileIndex(File dataFile) {
+        indexFile = getIndexFile(dataFile);
+    }
+
+    static File getIndexFile(File dataFile) {
+        return new File(dataFile.getPath() + Const.EXTENSION_INDEX);
+    }
+
+    /**
+     * Reads the index of a log file. Entries beyond the end of the log file, e.g. of a replaced file, are left out.
+     *
+     * @param dataFile
+     *            the log file
+     * @return the index, empty if the log file has none
+     */
+    static LogFileIndex read(File dataFile) {
+        LogFileIndex index = new LogFileIndex(dataFile);
+        long dataLength = dataFile.length();
+        long entries = index.indexFile.length() / ENTRY_SIZE;
+        if (entries == 0) {
+            return index;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(index.indexFile)))) {
+            for (long i = 0; i < entries; i++) {
+                long timestamp = in.readLong();
+                long offset = in.readLong();
+                if (offset >= dataLength || (index.size > 0 && offset <= index.offsets[index.size - 1])) {
+                    break;
+                }
+                index.add(timestamp, offset);
+            }
+        } catch (IOException e) {
+            logger.warn("Could not read index {}: {}", index.indexFile.getAbsolutePath(), e.getMessage());
+            index.size = 0;
+        }
+        return index;
+    }
+
+    /**
+     * Creates an empty index for a new log file and deletes the index left by a previous file of the same name.
+     *
+     * @param dataFile
+     *            the log file
+     * @param headerLength
+     *            length of the header, i.e. offset of the first data line
+     * @return the index
+     */
+    static LogFileIndex create(File dataFile, long headerLength) {
+        LogFileIndex index = new LogFileIndex(dataFile);
+        if (index.indexFile.exists() && !index.indexFile.delete()) {
+            logger.warn("Could not delete index {}", index.indexFile.getAbsolutePath());
+        }
+        index.position = headerLength;
+        index.linesSinceEntry = Const.INDEX_LINES;
+        return index;
+    }
+
+    /**
+     * Opens the index of an existing log file for appending. Invalid entries are removed and the lines written without
+     * index, e.g. by the fill up after a restart or before the index existed, are indexed.
+     *
+     * @param dataFile
+     *            the log file, which has to end with a complete line
+     * @return the index
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    static LogFileIndex open(File dataFile) throws IOException {
+        LogFileIndex index = read(dataFile);
+        index.written = index.size;
+        try (RandomAccessFile raf = new RandomAccessFile(index.indexFile, "rw")) {
+            raf.setLength((long) index.size * ENTRY_SIZE);
+        }
+
+        long start = 0;
+        if (index.size > 0) {
+            start = index.offsets[index.size - 1];
+        }
+        index.position = start;
+        index.entryPosition = start;
+        index.linesSinceEntry = Const.INDEX_LINES;
+
+        try (FileInputStream in = new FileInputStream(dataFile)) {
+            in.getChannel().position(start);
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, Const.CHAR_SET),
+                    Const.WRITE_BUFFER_SIZE);
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int length = line.length() + 1;
+                if (!line.isEmpty() && Character.isDigit(line.charAt(0))) {
+                    if (index.position == start && index.size > 0) {
+                        // already indexed
+                        index.linesSinceEntry = 0;
+                    }
+                    index.addLine(parseTimestamp(line), length);
+                }
+                else {
+                    index.position += length;
+                }
+            }
+        } catch (NumberFormatException e) {
+            throw new IOException("Unexpected line in " + dataFile.getAbsolutePath(), e);
+        }
+        index.write();
+        return index;
+    }
+
+    /**
+     * Returns the unix timestamp in ms of a data line, read from the column after the date and time.
+     *
+     * @param line
+     *            a data line
+     * @return the timestamp
+     * @throws NumberFormatException
+     *             if the line has no timestamp
+     */
+    static long parseTimestamp(String line) {
+        int begin = 0;
+        for (int i = 1; i < Const.NUM_OF_TIME_TYPES_IN_HEADER; i++) {
+            begin = line.indexOf(Const.SEPARATOR, begin);
+            if (begin < 0) {
+                throw new NumberFormatException("Missing timestamp column");
+            }
+            begin += Const.SEPARATOR.length();
+        }
+        int end = line.indexOf(Const.SEPARATOR, begin);
+        if (end < 0) {
+            end = line.length();
+        }
+        Double timestampS = Double.parseDouble(line.substring(begin, end));
+        return ((Double) (timestampS * (1000))).longValue();
+    }
+
+    /**
+     * Registers a line appended to the log file. Its entry, if it gets one, is stored with the next {@link #write()}.
+     *
+     * @param timestamp
+     *            unix timestamp of the line in ms
+     * @param length
+     *            length of the line in bytes including the line separator
+     */
+    void addLine(long timestamp, int length) {
+        if (linesSinceEntry >= Const.INDEX_LINES || position - entryPosition >= Const.INDEX_BLOCK_SIZE) {
+            add(timestamp, position);
+            entryPosition = position;
+            linesSinceEntry = 0;
+        }
+        ++linesSinceEntry;
+        position += length;
+    }
+
+    /**
+     * Appends the entries added since the last call to the index file. Has to be called after the lines were written
+     * to the log file.
+     *
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    void write() throws IOException {
+        if (written == size) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((size - written) * ENTRY_SIZE);
+        for (int i = written; i < size; i++) {
+            buffer.putLong(timestamps[i]).putLong(offsets[i]);
+        }
+        try (FileOutputStream out = new FileOutputStream(indexFile, true)) {
+            out.write(buffer.array());
+        }
+        written = size;
+    }
+
+    /**
+     * Returns the offset to start reading at for lines from the given timestamp on, which is the offset of the last
+     * entry before the timestamp or of the first entry.
+     *
+     * @param timestamp
+     *            unix timestamp in ms
+     * @return the offset or -1 if the index is empty
+     */
+    long getOffset(long timestamp) {
+        if (size == 0) {
+            return -1;
+        }
+        int low = 0;
+        int high = size - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (timestamps[mid] < timestamp) {
+                low = mid;
+            }
+            else {
+                high = mid - 1;
+            }
+        }
+        return offsets[low];
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    private void add(long timestamp, long offset) {
+        if (size == timestamps.length) {
+            timestamps = Arrays.copyOf(timestamps, size * 2);
+            offsets = Arrays.copyOf(offsets, size * 2);
+        }
+        timestamps[size] = timestamp;
+        offsets[size] = offset;
+        ++size;
+    }
+}
@@ -20,9 +20,14 @@
  */
 package org.openmuc.framework.datalogger.ascii;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -41,10 +46,18 @@ import org.openmuc.framework.datalogger.spi.LogChannel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Reads the records of a channel from the log files.<br>
+ * <br>
+ * The files are read through a buffer. A range is read from the line the {@link LogFileIndex} of the file points to
+ * and until the first line after the range, the latest record is read backwards from the end of the file.
+ */
 public class LogFileReader {
 
     private static final Logger logger = LoggerFactory.getLogger(LogFileReader.class);
 
+    private static final int READ_BACK_SIZE = 8192;
+
     private final String[] ids;
     private final String path;
     private final int loggingInterval;
@@ -52,7 +65,7 @@ public class LogFileReader {
     private int unixTimestampColumn;
     private long startTimestamp;
     private long endTimestamp;
-    private long firstTimestampFromFile;
+    private long firstValuePos;
 
     /**
      * LogFileReader Constructor
@@ -68,7 +81,6 @@ public class LogFileReader {
         ids = new String[] { logChannel.getId(), Const.TIMESTAMP_STRING };
         this.loggingInterval = logChannel.getLoggingInterval();
         this.logTimeOffset = logChannel.getLoggingTimeOffset();
-        firstTimestampFromFile = -1;
     }
 
     /**
@@ -98,18 +110,10 @@ public class LogFileReader {
                 logger.trace("using " + filenames.get(i));
             }
 
-            String filepath;
-            if (path.endsWith(File.separator)) {
-                filepath = path + filenames.get(i);
-            }
-            else {
-                filepath = path + File.separatorChar + filenames.get(i);
-            }
-
             if (i > 0) {
                 nextFile = true;
             }
-            processFile(recordsMap, filepath, nextFile);
+            processFile(recordsMap, getFilepath(filenames.get(i)), nextFile);
         }
         return recordsMap;
     }
@@ -176,7 +180,60 @@ public class LogFileReader {
     }
 
     /**
-     * Reads the file line by line
+     * Get the latest record between start time stamp and end time stamp. The files are read backwards from their end,
+     * so usually only the last line is read.
+     *
+     * @param startTimestamp
+     *            start time stamp
+     * @param endTimestamp
+     *            end time stamp
+     * @return the latest record of every id, ids without record in the time span are left out
+     */
+    public Map<String, Record> getLatestValue(long startTimestamp, long endTimestamp) {
+
+        this.startTimestamp = startTimestamp;
+        this.endTimestamp = endTimestamp;
+
+        List<String> filenames = LoggerUtils.getFilenames(loggingInterval, logTimeOffset, this.startTimestamp,
+                this.endTimestamp);
+
+        for (int i = filenames.size() - 1; i >= 0; i--) {
+            Map<String, Record> recordMap = processFileBackwards(getFilepath(filenames.get(i)));
+            if (recordMap != null && !recordMap.isEmpty()) {
+                return recordMap;
+            }
+        }
+        return new HashMap<>();
+    }
+
+    /**
+     * Get the latest record of the given file
+     *
+     * @param filePath
+     *            to be read from
+     * @return the latest record of every id, ids without record are left out
+     */
+    public Map<String, Record> getLatestValue(String filePath) {
+        this.startTimestamp = 0;
+        this.endTimestamp = Long.MAX_VALUE;
+        Map<String, Record> recordMap = processFileBackwards(filePath);
+        if (recordMap == null) {
+            return new HashMap<>();
+        }
+        return recordMap;
+    }
+
+    private String getFilepath(String filename) {
+        if (path.endsWith(File.separator)) {
+            return path + filename;
+        }
+        else {
+            return path + File.separatorChar + filename;
+        }
+    }
+
+    /**
+     * Reads the file line by line, starting at the line the index points to.
      *
      * @param filepath
      *            file path
@@ -187,75 +244,216 @@ public class LogFileReader {
     private Map<String, List<Record>> processFile(Map<String, List<Record>> recordsMap, String filepath,
             Boolean nextFile) {
 
-        String line = null;
-        long currentPosition = 0;
-        long rowSize;
-        long firstTimestamp = 0;
-        String firstValueLine = null;
-        long currentTimestamp = 0;
-
-        RandomAccessFile raf = LoggerUtils.getRandomAccessFile(new File(filepath), "r");
-        if (raf == null) {
+        File file = new File(filepath);
+        FileInputStream in = openFile(file);
+        if (in == null) {
             return null;
         }
         try {
-            Map<String, Integer> channelsColumnsMap = null;
-            while (channelsColumnsMap == null) {
-                line = raf.readLine();
-                channelsColumnsMap = LoggerUtils.getColumnNumbersByNames(line, ids);
+            BufferedReader reader = newReader(in);
+            Map<String, Integer> channelsColumnsMap = readHeader(reader);
+            if (channelsColumnsMap == null) {
+                return null;
             }
-            unixTimestampColumn = channelsColumnsMap.get(Const.TIMESTAMP_STRING);
-            firstValueLine = raf.readLine();
-
-            rowSize = firstValueLine.length() + 1l; // +1 because of "\n"
-
-            // rewind the position to the start of the firstValue line
-            currentPosition = raf.getFilePointer() - rowSize;
 
-            firstTimestamp = (long) (Double.valueOf((firstValueLine.split(Const.SEPARATOR))[unixTimestampColumn])
-                    * 1000);
-
-            if (nextFile || startTimestamp < firstTimestamp) {
-                startTimestamp = firstTimestamp;
+            String line = reader.readLine();
+            if (!nextFile && line != null) {
+                long offset = getStartPosition(file, line);
+                if (offset > firstValuePos) {
+                    in.getChannel().position(offset - 1);
+                    BufferedReader startReader = newReader(in);
+                    int previous = startReader.read();
+                    String startLine = startReader.readLine();
+
+                    if (previous == Const.LINESEPARATOR && isLineNotAfterStart(startLine)) {
+                        reader = startReader;
+                        line = startLine;
+                    }
+                    else {
+                        logger.debug("Start position of {} not found, reading from the first line", filepath);
+                        in.getChannel().position(firstValuePos);
+                        reader = newReader(in);
+                        line = reader.readLine();
+                    }
+                }
             }
 
-            if (startTimestamp >= firstTimestamp) {
-                long filepos = getFilePosition(loggingInterval, startTimestamp, firstTimestamp, currentPosition,
-                        rowSize);
-                raf.seek(filepos);
-
-                currentTimestamp = startTimestamp;
-
-                while ((line = raf.readLine()) != null && currentTimestamp <= endTimestamp) {
-
-                    processLine(line, channelsColumnsMap, recordsMap);
-                    currentTimestamp += loggingInterval;
+            while (line != null) {
+                if (!line.startsWith(Const.COMMENT_SIGN)
+                        && readRecordsFromLine(line, channelsColumnsMap, recordsMap) > endTimestamp) {
+                    break;
                 }
-                raf.close();
-            }
-            else {
-                recordsMap = null; // because the column of the channel was not identified
+                line = reader.readLine();
             }
         } catch (IOException e) {
             logger.error(e.getMessage());
             recordsMap = null;
+        } finally {
+            close(in);
         }
         return recordsMap;
     }
 
     /**
-     * Process the line: ignore comments, read records
+     * Reads the data lines of the file backwards from its end, until a line within the requested interval is found.
      *
-     * @param line
-     *            the line to process
-     * @param recordsMap
-     *            list of records
+     * @param filepath
+     *            file path
+     * @return the records of the line, null if the file can't be read
      */
-    private void processLine(String line, Map<String, Integer> channelsColumnsMap,
-            Map<String, List<Record>> recordsMap) {
+    private Map<String, Record> processFileBackwards(String filepath) {
 
-        if (!line.startsWith(Const.COMMENT_SIGN)) {
-            readRecordsFromLine(line, channelsColumnsMap, recordsMap);
+        FileInputStream in = openFile(new File(filepath));
+        if (in == null) {
+            return null;
+        }
+        try {
+            Map<String, Integer> channelsColumnsMap = readHeader(newReader(in));
+            if (channelsColumnsMap == null) {
+                return null;
+            }
+            FileChannel channel = in.getChannel();
+
+            // an incomplete last line is ignored
+            long lineEnd = findLineSeparatorBefore(channel, channel.size());
+            while (lineEnd >= firstValuePos) {
+                long lineStart = findLineSeparatorBefore(channel, lineEnd) + 1;
+                ByteBuffer buffer = ByteBuffer.allocate((int) (lineEnd - lineStart));
+                readFully(channel, buffer, lineStart);
+                String line = new String(buffer.array(), Const.CHAR_SET);
+
+                if (!line.startsWith(Const.COMMENT_SIGN)) {
+                    Map<String, List<Record>> recordsMap = new HashMap<>();
+                    long timestamp = readRecordsFromLine(line, channelsColumnsMap, recordsMap);
+                    if (!recordsMap.isEmpty()) {
+                        return LoggerUtils.findLatestValue(recordsMap);
+                    }
+                    if (timestamp != Long.MIN_VALUE && timestamp < startTimestamp) {
+                        break;
+                    }
+                }
+                lineEnd = lineStart - 1;
+            }
+        } catch (IOException e) {
+            logger.error(e.getMessage());
+            return null;
+        } finally {
+            close(in);
+        }
+        return new HashMap<>();
+    }
+
+    /**
+     * Reads the header until the line with the column names and sets the position of the first value line.
+     *
+     * @return the columns of the ids, null if the file has no column names
+     */
+    private Map<String, Integer> readHeader(BufferedReader reader) throws IOException {
+        long position = 0;
+        Map<String, Integer> channelsColumnsMap = null;
+        while (channelsColumnsMap == null) {
+            String line = reader.readLine();
+            if (line == null) {
+                return null;
+            }
+            position += line.length() + 1l; // +1 because of "\n"
+            channelsColumnsMap = LoggerUtils.getColumnNumbersByNames(line, ids);
+        }
+        unixTimestampColumn = channelsColumnsMap.get(Const.TIMESTAMP_STRING);
+        firstValuePos = position;
+        return channelsColumnsMap;
+    }
+
+    /**
+     * Get the position to start reading the start time stamp from. For files with index it is the position of an
+     * indexed line before the start time stamp, for files without index the position of the start time stamp if no
+     * line is missing, without Header. The position is checked before reading from it.
+     *
+     * @param file
+     *            the log file
+     * @param firstValueLine
+     *            the first line after the header
+     * @return the position to start reading from
+     */
+    private long getStartPosition(File file, String firstValueLine) {
+
+        LogFileIndex index = LogFileIndex.read(file);
+        if (!index.isEmpty()) {
+            return index.getOffset(startTimestamp);
+        }
+
+        try {
+            long firstTimestamp = LogFileIndex.parseTimestamp(firstValueLine);
+            if (startTimestamp <= firstTimestamp || loggingInterval <= 0) {
+                return firstValuePos;
+            }
+            long rowSize = firstValueLine.length() + 1l; // +1 because of "\n"
+            long numberOfLinesToSkip = (startTimestamp - firstTimestamp) / loggingInterval;
+            return numberOfLinesToSkip * rowSize + firstValuePos;
+        } catch (NumberFormatException e) {
+            return firstValuePos;
+        }
+    }
+
+    private boolean isLineNotAfterStart(String line) {
+        if (line == null || line.startsWith(Const.COMMENT_SIGN)) {
+            return false;
+        }
+        try {
+            return LogFileIndex.parseTimestamp(line) <= startTimestamp;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns the position of the last line separator before the position, or the position before the first value line
+     * if there is none.
+     */
+    private long findLineSeparatorBefore(FileChannel channel, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(READ_BACK_SIZE);
+        while (position > firstValuePos) {
+            int length = (int) Math.min(READ_BACK_SIZE, position - firstValuePos);
+            long blockStart = position - length;
+            buffer.clear();
+            buffer.limit(length);
+            readFully(channel, buffer, blockStart);
+            for (int i = length - 1; i >= 0; i--) {
+                if (buffer.get(i) == Const.LINESEPARATOR) {
+                    return blockStart + i;
+                }
+            }
+            position = blockStart;
+        }
+        return firstValuePos - 1;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+        }
+    }
+
+    private static BufferedReader newReader(FileInputStream in) {
+        return new BufferedReader(new InputStreamReader(in, Const.CHAR_SET), Const.WRITE_BUFFER_SIZE);
+    }
+
+    private static FileInputStream openFile(File file) {
+        try {
+            return new FileInputStream(file);
+        } catch (FileNotFoundException e) {
+            logger.warn("Requested logfile: '{}' not found.", file.getAbsolutePath());
+        }
+        return null;
+    }
+
+    private static void close(FileInputStream in) {
+        try {
+            in.close();
+        } catch (IOException e) {
+            logger.warn(e.getMessage());
         }
     }
 
@@ -264,9 +462,9 @@ public class LogFileReader {
      *
      * @param line
      *            to read
-     * @return Records read from line
+     * @return the time stamp of the line, Long.MIN_VALUE if it has none
      */
-    private void readRecordsFromLine(String line, Map<String, Integer> channelsColumnsMap,
+    private long readRecordsFromLine(String line, Map<String, Integer> channelsColumnsMap,
             Map<String, List<Record>> recordsMap) {
 
         String columnValue[] = line.split(Const.SEPARATOR);
@@ -293,11 +491,13 @@ public class LogFileReader {
                     logger.trace("timestampMS: " + sdf.format(timestampMS) + " " + timestampMS);
                 }
             }
+            return timestampMS;
         } catch (NumberFormatException e) {
             logger.warn("It's not a timestamp.\n", e.getMessage());
         } catch (ArrayIndexOutOfBoundsException e) {
             logger.error("Array Index Out Of Bounds Exception. ", e);
         }
+        return Long.MIN_VALUE;
     }
 
     /**
@@ -308,42 +508,7 @@ public class LogFileReader {
      * @return true if it is a part of the requested interval, if not false.
      */
     private boolean isTimestampPartOfRequestedInterval(long lineTimestamp) {
-        boolean result = false;
-
-        // TODO tidy up, move to better place, is asked each line!
-        if (firstTimestampFromFile == -1) {
-            firstTimestampFromFile = lineTimestamp;
-        }
-
-        if (lineTimestamp >= startTimestamp && lineTimestamp <= endTimestamp) {
-            result = true;
-        }
-        return result;
-    }
-
-    /**
-     * Get the position of the startTimestamp, without Header.
-     *
-     * @param loggingInterval
-     *            logging interval
-     * @param startTimestamp
-     *            start time stamp
-     * @return the position of the start timestamp as long.
-     */
-    private long getFilePosition(int loggingInterval, long startTimestamp, long firstTimestampOfFile,
-            long firstValuePos, long rowSize) {
-
-        long timeOffsetMs = startTimestamp - firstTimestampOfFile;
-        long numberOfLinesToSkip = timeOffsetMs / loggingInterval;
-
-        // if offset isn't a multiple of loggingInterval add an additional line
-        if (timeOffsetMs % loggingInterval != 0) {
-            ++numberOfLinesToSkip;
-        }
-
-        long pos = numberOfLinesToSkip * rowSize + firstValuePos;
-
-        return pos;
+        return lineTimestamp >= startTimestamp && lineTimestamp <= endTimestamp;
     }
 
     // TODO support ints, booleans, ...
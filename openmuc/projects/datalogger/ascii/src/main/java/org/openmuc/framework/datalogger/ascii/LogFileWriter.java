@@ -21,10 +21,8 @@
 package org.openmuc.framework.datalogger.ascii;
 
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
-import java.io.PrintStream;
-import java.io.UnsupportedEncodingException;
+import java.io.IOException;
 import java.util.Calendar;
 import java.util.GregorianCalendar;
 import java.util.List;
@@ -45,19 +43,48 @@ import org.openmuc.framework.datalogger.spi.LoggingRecord;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Writes the lines of a logging interval group to the log file of the day.<br>
+ * <br>
+ * The file stays open between logging cycles and is only reopened on day change or if it was renamed or deleted. The
+ * lines are collected and written together, either every cycle or, with a flush period, when the period passed or
+ * {@link Const#WRITE_BUFFER_SIZE} is exceeded. Only complete lines are written, and an incomplete last line left by a
+ * crash is removed when the file is opened again.<br>
+ * <br>
+ * The offsets of the written lines are appended to the {@link LogFileIndex} of the file after the lines.
+ */
 public class LogFileWriter {
 
     private static final Logger logger = LoggerFactory.getLogger(LogFileWriter.class);
     private final StringBuilder sb = new StringBuilder();
     private final StringBuilder sbValue = new StringBuilder();
+    private final StringBuilder lines = new StringBuilder();
     private final String directoryPath;
     private final boolean isFillUpFiles;
+    private final long flushPeriod;
     private File actualFile;
+    private FileOutputStream out;
+    private LogFileIndex index;
+    private long lastFlush;
 
     public LogFileWriter(String directoryPath, boolean isFillUpFiles) {
+        this(directoryPath, isFillUpFiles, 0);
+    }
+
+    /**
+     * @param directoryPath
+     *            directory of the log files
+     * @param isFillUpFiles
+     *            fill up missing lines with error 32
+     * @param flushPeriod
+     *            time in ms the lines may be buffered, 0 to write them every logging cycle
+     */
+    public LogFileWriter(String directoryPath, boolean isFillUpFiles, long flushPeriod) {
 
         this.isFillUpFiles = isFillUpFiles;
         this.directoryPath = directoryPath;
+        this.flushPeriod = flushPeriod;
+        lastFlush = System.currentTimeMillis();
     }
 
     /**
@@ -77,9 +104,7 @@ public class LogFileWriter {
     public void log(LogIntervalContainerGroup group, int loggingInterval, int logTimeOffset, Calendar calendar,
             Map<String, LogChannel> logChannelList) {
 
-        PrintStream out = getStream(group, loggingInterval, logTimeOffset, calendar, logChannelList);
-
-        if (out == null) {
+        if (!openFile(group, loggingInterval, logTimeOffset, calendar, logChannelList)) {
             return;
         }
 
@@ -88,18 +113,80 @@ public class LogFileWriter {
         // TODO match column with container id, so that they don't get mixed up
 
         if (isFillUpFiles) {
-            fillUpFile(loggingInterval, logTimeOffset, calendar, logChannelList, logRecordContainer, out);
+            fillUpFile(loggingInterval, logTimeOffset, calendar, logChannelList, logRecordContainer);
+        }
+
+        appendLine(getLoggingLine(logRecordContainer, logChannelList, calendar, false), calendar.getTimeInMillis());
+
+        if (flushPeriod == 0 || lines.length() >= Const.WRITE_BUFFER_SIZE) {
+            flush();
+        }
+    }
+
+    /**
+     * Writes the buffered lines if the flush period passed since they were written last.
+     */
+    public void flushIfDue() {
+        if (System.currentTimeMillis() - lastFlush >= flushPeriod) {
+            flush();
+        }
+    }
+
+    /**
+     * Writes the buffered lines to the log file.
+     */
+    public void flush() {
+        lastFlush = System.currentTimeMillis();
+        if (out == null || lines.length() == 0) {
+            return;
         }
+        try {
+            // a single write of complete lines, so readers and crashes don't see half a line
+            out.write(lines.toString().getBytes(Const.CHAR_SET));
+        } catch (IOException e) {
+            logger.error("Could not write to " + actualFile.getAbsolutePath(), e);
+            closeStream();
+        }
+        lines.setLength(0);
+        if (index != null) {
+            try {
+                index.write();
+            } catch (IOException e) {
+                logger.warn("Could not write index of " + actualFile.getAbsolutePath(), e);
+                index = null;
+            }
+        }
+    }
 
-        String logLine = getLoggingLine(logRecordContainer, logChannelList, calendar, false);
+    /**
+     * Writes the buffered lines and closes the log file.
+     */
+    public void close() {
+        flush();
+        closeStream();
+    }
+
+    private void closeStream() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                logger.error("Could not close " + actualFile.getAbsolutePath(), e);
+            }
+            out = null;
+        }
+        index = null;
+    }
 
-        out.print(logLine); // print because of println makes different newline char on different systems
-        out.flush();
-        out.close();
+    private void appendLine(String line, long timestamp) {
+        lines.append(line);
+        if (index != null) {
+            index.addLine(timestamp, line.length());
+        }
     }
 
     private void fillUpFile(int loggingInterval, int logTimeOffset, Calendar calendar,
-            Map<String, LogChannel> logChannelList, List<LoggingRecord> loggingRecords, PrintStream out) {
+            Map<String, LogChannel> logChannelList, List<LoggingRecord> loggingRecords) {
 
         Long lastLoglineTimestamp = AsciiLogger.getLastLoggedLineTimeStamp(loggingInterval, logTimeOffset);
 
@@ -118,7 +205,8 @@ public class LogFileWriter {
 
                     for (int i = 1; i < numOfErrorLines; ++i) {
                         errCalendar.setTimeInMillis(lastLoglineTimestamp + ((long) loggingInterval * i));
-                        out.print(getLoggingLine(loggingRecords, logChannelList, errCalendar, true));
+                        appendLine(getLoggingLine(loggingRecords, logChannelList, errCalendar, true),
+                                errCalendar.getTimeInMillis());
                     }
                 }
             }
@@ -291,41 +379,53 @@ public class LogFileWriter {
     }
 
     /**
-     * Returns the PrintStream for logging.
+     * Opens the log file of the day, unless it is open already. The lines buffered for the previous file are written
+     * to it before.
      *
      * @param group
      * @param loggingInterval
      * @param date
      * @param logChannelList
-     * @return the PrintStream for logging.
+     * @return true if the log file is open.
      */
-    private PrintStream getStream(LogIntervalContainerGroup group, int loggingInterval, int logTimeOffset,
+    private boolean openFile(LogIntervalContainerGroup group, int loggingInterval, int logTimeOffset,
             Calendar calendar, Map<String, LogChannel> logChannelList) {
 
         String filename = LoggerUtils.buildFilename(loggingInterval, logTimeOffset, calendar);
 
+        if (out != null && actualFile.getName().equals(filename) && actualFile.exists()) {
+            return true;
+        }
+        close();
+
         File file = new File(directoryPath + filename);
         actualFile = file;
-        PrintStream out = null;
 
         try {
-            if (file.exists()) {
-                out = new PrintStream(new FileOutputStream(file, true), false, Const.CHAR_SET.toString());
-            }
-            else {
-                out = new PrintStream(new FileOutputStream(file, true), false, Const.CHAR_SET.toString());
+            LoggerUtils.removeIncompleteLastLine(file);
+            boolean isNewFile = file.length() == 0;
+            out = new FileOutputStream(file, true);
+            if (isNewFile) {
                 String headerString = LogFileHeader.getIESDataFormatHeaderString(group, file.getName(), loggingInterval,
                         logChannelList);
 
-                out.print(headerString);
-                out.flush();
+                byte[] header = headerString.getBytes(Const.CHAR_SET);
+                out.write(header);
+                index = LogFileIndex.create(file, header.length);
             }
-        } catch (UnsupportedEncodingException e) {
-            logger.error("", e);
-        } catch (FileNotFoundException e) {
+        } catch (IOException e) {
             logger.error("", e);
+            closeStream();
+            return false;
+        }
+        if (index == null) {
+            try {
+                index = LogFileIndex.open(file);
+            } catch (IOException e) {
+                logger.warn("Could not index " + file.getAbsolutePath(), e);
+            }
         }
-        return out;
+        return true;
     }
 
     /**
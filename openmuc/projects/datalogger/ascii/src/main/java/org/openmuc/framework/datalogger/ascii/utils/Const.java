@@ -33,6 +33,7 @@ public class Const {
 
     public static final String EXTENSION = ".dat";
     public static final String EXTENSION_OLD = ".old";
+    public static final String EXTENSION_INDEX = ".idx";
 
     public static final String HEADER_SIGN = "##";
     public static final String COMMENT_SIGN = "#";
@@ -66,6 +67,17 @@ public class Const {
 
     public static final int NUM_OF_TIME_TYPES_IN_HEADER = 3;
 
+    /*
+     * Number of characters a log file writer buffers before writing them, if a flush period is set.
+     */
+    public static final int WRITE_BUFFER_SIZE = 65536;
+
+    /*
+     * A log file index stores the offset of every INDEX_LINES line, or of the first line after INDEX_BLOCK_SIZE bytes.
+     */
+    public static final int INDEX_LINES = 64;
+    public static final int INDEX_BLOCK_SIZE = 65536;
+
     private Const() {
     }
 }
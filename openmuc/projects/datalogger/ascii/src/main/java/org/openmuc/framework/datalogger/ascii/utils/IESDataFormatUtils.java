@@ -22,12 +22,20 @@ package org.openmuc.framework.datalogger.ascii.utils;
 
 import java.text.DecimalFormat;
 import java.text.DecimalFormatSymbols;
+import java.util.HashMap;
 import java.util.Locale;
+import java.util.Map;
 
 import org.openmuc.framework.datalogger.ascii.exceptions.WrongScalingException;
 
 public class IESDataFormatUtils {
 
+    /*
+     * DecimalFormat is expensive to create and not thread safe, so every thread keeps one per pattern.
+     */
+    private static final ThreadLocal<Map<String, DecimalFormat>> decimalFormats = ThreadLocal
+            .withInitial(HashMap::new);
+
     /**
      * Convert a double value into a string with the maximal allowed length of maxLength.
      * 
@@ -59,7 +67,8 @@ public class IESDataFormatUtils {
             format = getFormat(valueWork);
         }
 
-        DecimalFormat df = new DecimalFormat(format, new DecimalFormatSymbols(Locale.ENGLISH));
+        DecimalFormat df = decimalFormats.get().computeIfAbsent(format,
+                pattern -> new DecimalFormat(pattern, new DecimalFormatSymbols(Locale.ENGLISH)));
         String doubleString = df.format(valueWork);
 
         if (doubleString.length() > maxLength) {
@@ -219,6 +219,9 @@ public class LoggerUtils {
                     if (!file.renameTo(fileWithNewName)) {
                         logger.error("Could not rename file to ", newName);
                     }
+                    else {
+                        deleteIndex(file);
+                    }
                 }
             }
         }
@@ -262,6 +265,19 @@ public class LoggerUtils {
             if (!file.renameTo(fileWithNewName)) {
                 logger.error("Could not rename file to " + newName);
             }
+            else {
+                deleteIndex(file);
+            }
+        }
+    }
+
+    /**
+     * Deletes the index of a log file which was renamed, since .old files aren't read.
+     */
+    private static void deleteIndex(File file) {
+        File index = new File(file.getPath() + Const.EXTENSION_INDEX);
+        if (index.exists() && !index.delete()) {
+            logger.warn("Could not delete index " + index.getAbsolutePath());
         }
     }
 
@@ -644,6 +660,46 @@ public class LoggerUtils {
         return writer;
     }
 
+    /**
+     * Removes the last line of a file if it isn't terminated by a line separator, e.g. because the logger was killed
+     * while writing it. So lines appended afterwards start at the beginning of a line.
+     *
+     * @param file
+     *            the log file, nothing is done if it doesn't exist
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    public static void removeIncompleteLastLine(File file) throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            long length = raf.length();
+            byte[] buffer = new byte[4096];
+            long end = length;
+            while (end > 0) {
+                int size = (int) Math.min(buffer.length, end);
+                raf.seek(end - size);
+                raf.readFully(buffer, 0, size);
+                for (int i = size - 1; i >= 0; i--) {
+                    if (buffer[i] == Const.LINESEPARATOR) {
+                        long completeLength = end - size + i + 1;
+                        if (completeLength < length) {
+                            logger.warn("Removing incomplete last line of " + file.getAbsolutePath());
+                            raf.setLength(completeLength);
+                        }
+                        return;
+                    }
+                }
+                end -= size;
+            }
+            if (length > 0) {
+                logger.warn("Removing incomplete content of " + file.getAbsolutePath());
+                raf.setLength(0);
+            }
+        }
+    }
+
     public static Map<String, Boolean> areHeadersIdentical(String loggerDirectory, List<LogChannel> channels,
             Calendar calendar) {
 
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2011-2024 Fraunhofer ISE
+ *
+ * This file is part of OpenMUC.
+ * For more information visit http://www.openmuc.org
+ *
+ * OpenMUC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenMUC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenMUC. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.openmuc.framework.datalogger.ascii.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.openmuc.framework.data.DoubleValue;
+import org.openmuc.framework.data.Record;
+import org.openmuc.framework.data.ValueType;
+import org.openmuc.framework.datalogger.ascii.AsciiLogger;
+import org.openmuc.framework.datalogger.ascii.LogFileReader;
+import org.openmuc.framework.datalogger.ascii.LogFileWriter;
+import org.openmuc.framework.datalogger.ascii.LogIntervalContainerGroup;
+import org.openmuc.framework.datalogger.spi.LogChannel;
+import org.openmuc.framework.datalogger.spi.LoggingRecord;
+
+public class LogFileReaderTestIndex {
+
+    // Logs 1 channel every 10 s from 1 to 3 o'clock, without the lines from 01:10:00 to 01:19:50. The value of a line
+    // is its number of intervals since 1 o'clock.
+
+    static String fileDate0 = "20660607";
+    static int loggingInterval = 10000; // ms
+    static int loggingTimeOffset = 0; // ms
+    static String ext = ".dat";
+    static String Channel0Name = "power";
+    static String dateFormat = "yyyyMMdd HH:mm:ss";
+
+    LogChannelTestImpl channelTestImpl = new LogChannelTestImpl(Channel0Name, "", "Comment", "W", ValueType.DOUBLE, 0.0,
+            0.0, false, 1000, 0, "", loggingInterval, loggingTimeOffset, false, false);
+
+    @BeforeAll
+    public static void setup() {
+
+        System.out.println("### Setup() LogFileReaderTestIndex");
+
+        TestUtils.createTestFolder();
+
+        HashMap<String, LogChannel> logChannelList = new HashMap<>();
+
+        LogChannelTestImpl ch1 = new LogChannelTestImpl(Channel0Name, "", "dummy description", "kW", ValueType.DOUBLE,
+                0.0, 0.0, false, 1000, 0, "", loggingInterval, loggingTimeOffset, false, false);
+
+        logChannelList.put(Channel0Name, ch1);
+
+        Calendar calendar = TestUtils.stringToDate(dateFormat, fileDate0 + " 01:00:00");
+        LogFileWriter lfw = new LogFileWriter(TestUtils.TESTFOLDERPATH, false);
+
+        for (int i = 0; i < ((60 * 60 * 2) * (1000d / loggingInterval)); i++) {
+            if (i < 60 || i >= 120) {
+                LoggingRecord container1 = new LoggingRecord(Channel0Name,
+                        new Record(new DoubleValue(i), calendar.getTimeInMillis()));
+
+                LogIntervalContainerGroup group = new LogIntervalContainerGroup();
+                group.add(container1);
+
+                lfw.log(group, loggingInterval, 0, calendar, logChannelList);
+                AsciiLogger.setLastLoggedLineTimeStamp(loggingInterval, 0, calendar.getTimeInMillis());
+            }
+            calendar.add(Calendar.MILLISECOND, loggingInterval);
+        }
+        lfw.close();
+    }
+
+    @AfterAll
+    public static void tearDown() {
+
+        System.out.println("tearing down");
+        TestUtils.deleteTestFolder();
+    }
+
+    @Test
+    public void tc400_t1_t2_after_missing_lines() {
+
+        System.out.println("### Begin test tc400_t1_t2_after_missing_lines");
+
+        assertTrue(new File(TestUtils.TESTFOLDERPATH + fileDate0 + "_" + loggingInterval + ext + ".idx").exists());
+
+        long t1 = TestUtils.stringToDate(dateFormat, fileDate0 + " 01:50:00").getTimeInMillis();
+        long t2 = TestUtils.stringToDate(dateFormat, fileDate0 + " 01:51:00").getTimeInMillis();
+
+        LogFileReader fr = new LogFileReader(TestUtils.TESTFOLDERPATH, channelTestImpl);
+        List<Record> records = fr.getValues(t1, t2).get(channelTestImpl.getId());
+
+        assertEquals(7, records.size());
+        assertEquals(t1, records.get(0).getTimestamp());
+        assertEquals(300, records.get(0).getValue().asDouble(), 0);
+        assertEquals(306, records.get(6).getValue().asDouble(), 0);
+    }
+
+    @Test
+    public void tc401_t1_t2_after_missing_lines_without_index() {
+
+        System.out.println("### Begin test tc401_t1_t2_after_missing_lines_without_index");
+
+        long t1 = TestUtils.stringToDate(dateFormat, fileDate0 + " 01:21:00").getTimeInMillis();
+        long t2 = TestUtils.stringToDate(dateFormat, fileDate0 + " 01:22:00").getTimeInMillis();
+
+        LogFileReader fr = new LogFileReader(TestUtils.TESTFOLDERPATH, channelTestImpl);
+        List<Record> indexed = fr.getValues(t1, t2).get(channelTestImpl.getId());
+
+        File index = new File(TestUtils.TESTFOLDERPATH + fileDate0 + "_" + loggingInterval + ext + ".idx");
+        File moved = new File(index.getPath() + ".moved");
+        assertTrue(index.renameTo(moved));
+        List<Record> notIndexed;
+        try {
+            notIndexed = fr.getValues(t1, t2).get(channelTestImpl.getId());
+        } finally {
+            moved.renameTo(index);
+        }
+
+        assertEquals(7, indexed.size());
+        assertEquals(indexed.size(), notIndexed.size());
+        for (int i = 0; i < indexed.size(); i++) {
+            assertEquals(indexed.get(i).getTimestamp(), notIndexed.get(i).getTimestamp());
+        }
+        assertEquals(126, notIndexed.get(0).getValue().asDouble(), 0);
+    }
+
+    @Test
+    public void tc402_latest_value() {
+
+        System.out.println("### Begin test tc402_latest_value");
+
+        long t1 = TestUtils.stringToDate(dateFormat, fileDate0 + " 00:00:00").getTimeInMillis();
+        long t2 = TestUtils.stringToDate(dateFormat, fileDate0 + " 23:59:59").getTimeInMillis();
+        long t3 = TestUtils.stringToDate(dateFormat, fileDate0 + " 01:15:00").getTimeInMillis();
+
+        LogFileReader fr = new LogFileReader(TestUtils.TESTFOLDERPATH, channelTestImpl);
+
+        Record record = fr.getLatestValue(t1, t2).get(channelTestImpl.getId());
+        assertEquals(719, record.getValue().asDouble(), 0);
+
+        record = fr.getLatestValue(t1, t3).get(channelTestImpl.getId());
+        assertEquals(59, record.getValue().asDouble(), 0);
+    }
+}
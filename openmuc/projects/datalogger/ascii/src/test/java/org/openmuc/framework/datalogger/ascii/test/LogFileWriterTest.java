@@ -20,16 +20,23 @@
  */
 package org.openmuc.framework.datalogger.ascii.test;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.Calendar;
 import java.util.HashMap;
 import java.util.List;
 
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.openmuc.framework.data.BooleanValue;
 import org.openmuc.framework.data.ByteArrayValue;
 import org.openmuc.framework.data.ByteValue;
@@ -61,6 +68,8 @@ public class LogFileWriterTest {
     private static String dateFormat = "yyyyMMdd HH:mm:s";
     private static String fileDate1 = "20880808";
     private static String fileDate2 = "20880809";
+    private static String fileDate3 = "20880812";
+    private static String fileDate4 = "20880813";
     private static String ch01 = "FLOAT";
     private static String ch02 = "DOUBLE";
     private static String ch03 = "BOOLEAN";
@@ -169,6 +178,57 @@ public class LogFileWriterTest {
         }
     }
 
+    /**
+     * Benchmark without assertions, remove the annotation to compare the logging cycles per second of 5k channels
+     * logged every second by a writer per cycle, a long-lived writer and a long-lived buffering writer.
+     */
+    @Disabled("benchmark")
+    @Test
+    public void printCycleThroughput(@TempDir File directory) {
+        int channels = 5000;
+        int cycles = 600;
+        int interval = 1000;
+        HashMap<String, LogChannel> benchmarkChannels = new HashMap<>();
+        for (int i = 0; i < channels; i++) {
+            String channelId = "channel" + i;
+            benchmarkChannels.put(channelId, new LogChannelTestImpl(channelId, "", "dummy description", dummy,
+                    ValueType.DOUBLE, 0.0, 0.0, false, interval, 0, "", interval, 0, false, false));
+        }
+
+        for (int round = 0; round < 2; round++) {
+            for (String mode : new String[] { "writer per cycle", "long-lived writer", "buffering writer" }) {
+                File modeDirectory = new File(directory, round + mode.replace(' ', '-'));
+                modeDirectory.mkdir();
+                String path = modeDirectory.getPath() + "/";
+                Calendar cycleCalendar = TestUtils.stringToDate(dateFormat, fileDate1 + " 00:00:00");
+                LogFileWriter writer = new LogFileWriter(path, false, mode.equals("buffering writer") ? interval : 0);
+
+                long start = System.nanoTime();
+                for (int cycle = 0; cycle < cycles; cycle++) {
+                    long timestamp = cycleCalendar.getTimeInMillis();
+                    LogIntervalContainerGroup group = new LogIntervalContainerGroup();
+                    for (int i = 0; i < channels; i++) {
+                        group.add(new LoggingRecord("channel" + i, new Record(new DoubleValue(cycle + i), timestamp)));
+                    }
+                    if (mode.equals("writer per cycle")) {
+                        writer = new LogFileWriter(path, false);
+                    }
+                    writer.log(group, interval, 0, cycleCalendar, benchmarkChannels);
+                    writer.flushIfDue();
+                    if (mode.equals("writer per cycle")) {
+                        writer.close();
+                    }
+                    cycleCalendar.add(Calendar.MILLISECOND, interval);
+                }
+                writer.close();
+                long elapsedNs = System.nanoTime() - start;
+
+                System.out.println(String.format("%s: %d cycles/s with %d channels", mode,
+                        cycles * 1_000_000_000L / elapsedNs, channels));
+            }
+        }
+    }
+
     @AfterAll
     public static void tearDown() {
 
@@ -361,4 +421,69 @@ public class LogFileWriterTest {
         assertTrue(assertT);
     }
 
+    @Test
+    public void tc303_check_incomplete_last_line_is_removed() throws IOException {
+
+        System.out.println("### Begin test tc303_check_incomplete_last_line_is_removed");
+
+        Calendar calendar = TestUtils.stringToDate(dateFormat, fileDate3 + time);
+        String filename = TestUtils.TESTFOLDERPATH + fileDate3 + "_" + loggingInterval + ext;
+        new File(filename).delete();
+
+        LogFileWriter lfw = new LogFileWriter(TestUtils.TESTFOLDERPATH, false);
+        for (int i = 0; i < 2; ++i) {
+            lfw.log(getGroup(calendar.getTimeInMillis(), i, true, (byte) i, "line" + i), loggingInterval,
+                    loggingTimeOffset, calendar, logChannelList);
+            calendar.add(Calendar.MILLISECOND, loggingInterval);
+        }
+        lfw.close();
+
+        // a line the logger was killed writing
+        Files.write(Paths.get(filename), "4089334800;\t-21.555".getBytes(Const.CHAR_SET), StandardOpenOption.APPEND);
+
+        lfw = new LogFileWriter(TestUtils.TESTFOLDERPATH, false);
+        lfw.log(getGroup(calendar.getTimeInMillis(), 2, true, (byte) 2, "line2"), loggingInterval, loggingTimeOffset,
+                calendar, logChannelList);
+        lfw.close();
+
+        List<String> lines = Files.readAllLines(Paths.get(filename), Const.CHAR_SET);
+        int numDataLines = 0;
+        for (String line : lines) {
+            if (!line.isEmpty() && Character.isDigit(line.charAt(0))) {
+                assertTrue(line.contains("line" + numDataLines), line);
+                ++numDataLines;
+            }
+        }
+
+        System.out.println(" data lines = " + numDataLines + " (3 expected)");
+        assertEquals(3, numDataLines);
+    }
+
+    @Test
+    public void tc304_check_lines_are_buffered_until_flush() {
+
+        System.out.println("### Begin test tc304_check_lines_are_buffered_until_flush");
+
+        Calendar calendar = TestUtils.stringToDate(dateFormat, fileDate4 + time);
+        File file = new File(TestUtils.TESTFOLDERPATH + fileDate4 + "_" + loggingInterval + ext);
+        file.delete();
+
+        LogFileWriter lfw = new LogFileWriter(TestUtils.TESTFOLDERPATH, false, 60000);
+        lfw.log(getGroup(calendar.getTimeInMillis(), 0, true, (byte) 0, "buffered"), loggingInterval,
+                loggingTimeOffset, calendar, logChannelList);
+        long headerLength = file.length();
+        calendar.add(Calendar.MILLISECOND, loggingInterval);
+        lfw.log(getGroup(calendar.getTimeInMillis(), 1, true, (byte) 1, "buffered"), loggingInterval,
+                loggingTimeOffset, calendar, logChannelList);
+
+        assertEquals(headerLength, file.length());
+        lfw.flushIfDue();
+        assertEquals(headerLength, file.length());
+
+        lfw.flush();
+        System.out.println(" header length = " + headerLength + ", after flush = " + file.length());
+        assertTrue(file.length() > headerLength);
+        lfw.close();
+    }
+
 }
@@ -0,0 +1,349 @@
+/*
+ * Copyright 2011-2024 Fraunhofer ISE
+ *
+ * This file is part of OpenMUC.
+ * For more information visit http://www.openmuc.org
+ *
+ * OpenMUC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenMUC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenMUC. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.openmuc.framework.datalogger.slotsdb;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Maintains the rollups of one channel while its values are appended.<br>
+ * <br>
+ * The rollups are stored next to the .slots files in the file {@value #FILE_NAME} of the day folder of the channel.
+ * It holds the buckets of all {@link ERollupTier}s starting on this day, each bucket with minimum, maximum and sum as
+ * double and count as int. A bucket is written when the first value of the next bucket is appended and when the
+ * channel is flushed. The rollup file stays open until the .slots files of its day are closed. Buckets are continued
+ * after a restart.<br>
+ * <br>
+ * Not thread safe, it's used under the lock of the channel.
+ */
+final class ChannelRollups {
+
+    static final String FILE_NAME = "rollups";
+
+    private static final int BUCKET_SIZE = 28;
+    private static final ERollupTier[] TIERS = ERollupTier.values();
+
+    private final File rootNode;
+    private final String label;
+    private final DiskUsage diskUsage;
+    private final SimpleDateFormat sdf = new SimpleDateFormat("yyyyMMdd");
+    private final Bucket[] current = new Bucket[TIERS.length];
+    private long lastTimestamp = Long.MIN_VALUE;
+    private RandomAccessFile raf;
+    private File openFile;
+
+    /**
+     * @param rootNode
+     *            root folder of the database
+     * @param label
+     *            encoded label of the channel
+     * @param diskUsage
+     *            counts the bytes of new rollup files
+     */
+    ChannelRollups(File rootNode, String label, DiskUsage diskUsage) {
+        this.rootNode = rootNode;
+        this.label = label;
+        this.diskUsage = diskUsage;
+    }
+
+    /**
+     * Adds a valid value to the current bucket of every tier. Values not newer than the last one are ignored like by
+     * the .slots files.
+     * 
+     * @param value
+     *            the value
+     * @param timestamp
+     *            the timestamp of the value
+     * @throws IOException
+     *             if a finished bucket can't be written
+     */
+    void add(double value, long timestamp) throws IOException {
+        if (timestamp <= lastTimestamp || Double.isNaN(value)) {
+            return;
+        }
+        lastTimestamp = timestamp;
+        for (int i = 0; i < TIERS.length; i++) {
+            long start = timestamp - Math.floorMod(timestamp, TIERS[i].getPeriod());
+            Bucket bucket = current[i];
+            if (bucket == null) {
+                bucket = load(TIERS[i], start);
+                current[i] = bucket;
+            }
+            else if (bucket.start != start) {
+                // later buckets can't be stored yet, since values only move forward
+                write(bucket);
+                bucket = create(TIERS[i], start);
+                current[i] = bucket;
+            }
+            bucket.add(value);
+        }
+    }
+
+    /**
+     * Writes the current buckets, if values were added since they were written.
+     * 
+     * @throws IOException
+     *             if a bucket can't be written
+     */
+    void flush() throws IOException {
+        for (Bucket bucket : current) {
+            if (bucket != null) {
+                write(bucket);
+            }
+        }
+    }
+
+    /**
+     * Writes the current buckets of a day and closes its rollup file, if it's open.
+     * 
+     * @param day
+     *            day folder name in yyyyMMdd format
+     * @throws IOException
+     *             if a bucket can't be written
+     */
+    void close(String day) throws IOException {
+        if (raf == null || !openFile.getParentFile().getParentFile().getName().equals(day)) {
+            return;
+        }
+        try {
+            for (Bucket bucket : current) {
+                if (bucket != null && bucket.file.equals(openFile)) {
+                    write(bucket);
+                }
+            }
+        } finally {
+            raf.close();
+            raf = null;
+            openFile = null;
+        }
+    }
+
+    /**
+     * Writes the current buckets and closes the open rollup file.
+     * 
+     * @throws IOException
+     *             if a bucket can't be written
+     */
+    void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            if (raf != null) {
+                raf.close();
+                raf = null;
+                openFile = null;
+            }
+        }
+    }
+
+    /**
+     * Returns the current bucket of a tier, which may not be written yet.
+     * 
+     * @param tier
+     *            the tier
+     * @return the current bucket or null if there is none
+     */
+    Rollup getCurrent(ERollupTier tier) {
+        Bucket bucket = current[tier.ordinal()];
+        if (bucket == null || bucket.count == 0) {
+            return null;
+        }
+        return bucket.toRollup(tier.getPeriod());
+    }
+
+    /*
+     * Returns a new bucket, containing the values of a bucket already stored before a restart.
+     */
+    private Bucket load(ERollupTier tier, long start) throws IOException {
+        Bucket bucket = create(tier, start);
+        File file = bucket.file;
+        if (file.length() >= bucket.position + BUCKET_SIZE) {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+                byte[] bytes = new byte[BUCKET_SIZE];
+                raf.seek(bucket.position);
+                raf.readFully(bytes);
+                ByteBuffer stored = ByteBuffer.wrap(bytes);
+                double min = stored.getDouble();
+                double max = stored.getDouble();
+                double sum = stored.getDouble();
+                int count = stored.getInt();
+                if (count > 0) {
+                    bucket.min = min;
+                    bucket.max = max;
+                    bucket.sum = sum;
+                    bucket.count = count;
+                }
+            }
+        }
+        return bucket;
+    }
+
+    private Bucket create(ERollupTier tier, long start) throws IOException {
+        String day = sdf.format(new Date(start));
+        long dayStart;
+        try {
+            dayStart = sdf.parse(day).getTime();
+        } catch (ParseException e) {
+            throw new IOException("Unable to parse Timestamp from: " + day + " String.");
+        }
+        File file = new File(rootNode, day + "/" + label + "/" + FILE_NAME);
+        return new Bucket(file, getPosition(tier, dayStart, start), start);
+    }
+
+    private void write(Bucket bucket) throws IOException {
+        if (!bucket.dirty) {
+            return;
+        }
+        RandomAccessFile out = open(bucket.file);
+        long length = out.length();
+        if (length < getFileSize()) {
+            out.setLength(getFileSize());
+            diskUsage.add(bucket.file.getParentFile().getParentFile().getName(), getFileSize() - length);
+        }
+        ByteBuffer bytes = ByteBuffer.allocate(BUCKET_SIZE);
+        bytes.putDouble(bucket.min).putDouble(bucket.max).putDouble(bucket.sum).putInt(bucket.count);
+        out.seek(bucket.position);
+        out.write(bytes.array());
+        bucket.dirty = false;
+    }
+
+    /*
+     * Returns the open rollup file, the file of the previous day is closed when the buckets moved on.
+     */
+    private RandomAccessFile open(File file) throws IOException {
+        if (raf != null && !file.equals(openFile)) {
+            RandomAccessFile previous = raf;
+            raf = null;
+            previous.close();
+        }
+        if (raf == null) {
+            file.getParentFile().mkdirs();
+            raf = new RandomAccessFile(file, "rw");
+            openFile = file;
+        }
+        return raf;
+    }
+
+    /**
+     * Reads the stored buckets of a tier starting between from and to of a rollup file.
+     * 
+     * @param file
+     *            the rollup file of a day
+     * @param tier
+     *            the tier
+     * @param dayStart
+     *            midnight of the day of the file
+     * @param from
+     *            the earliest bucket start
+     * @param to
+     *            the latest bucket start
+     * @return the buckets containing values
+     * @throws IOException
+     *             if the file can't be read
+     */
+    static List<Rollup> read(File file, ERollupTier tier, long dayStart, long from, long to) throws IOException {
+        long period = tier.getPeriod();
+        long alignedDayStart = dayStart - Math.floorMod(dayStart, period);
+        long first = Math.max(0, Math.floorDiv(from - alignedDayStart + period - 1, period));
+        long last = Math.min(tier.getBucketsPerDay() - 1, Math.floorDiv(to - alignedDayStart, period));
+        List<Rollup> rollups = new ArrayList<>();
+        if (first > last) {
+            return rollups;
+        }
+
+        byte[] bytes = new byte[(int) (last - first + 1) * BUCKET_SIZE];
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            long position = getPosition(tier, dayStart, alignedDayStart + first * period);
+            if (raf.length() < position + bytes.length) {
+                return rollups;
+            }
+            raf.seek(position);
+            raf.readFully(bytes);
+        }
+        ByteBuffer buckets = ByteBuffer.wrap(bytes);
+        for (long i = first; i <= last; i++) {
+            double min = buckets.getDouble();
+            double max = buckets.getDouble();
+            double sum = buckets.getDouble();
+            int count = buckets.getInt();
+            if (count > 0) {
+                rollups.add(new Rollup(alignedDayStart + i * period, period, min, max, sum / count, count));
+            }
+        }
+        return rollups;
+    }
+
+    private static long getPosition(ERollupTier tier, long dayStart, long start) {
+        long period = tier.getPeriod();
+        long position = 0;
+        for (int i = 0; i < tier.ordinal(); i++) {
+            position += TIERS[i].getBucketsPerDay() * (long) BUCKET_SIZE;
+        }
+        long index = (start - (dayStart - Math.floorMod(dayStart, period))) / period;
+        return position + index * BUCKET_SIZE;
+    }
+
+    private static long getFileSize() {
+        long size = 0;
+        for (ERollupTier tier : TIERS) {
+            size += tier.getBucketsPerDay() * (long) BUCKET_SIZE;
+        }
+        return size;
+    }
+
+    private static final class Bucket {
+
+        private final File file;
+        private final long position;
+        private final long start;
+        private double min = Double.POSITIVE_INFINITY;
+        private double max = Double.NEGATIVE_INFINITY;
+        private double sum;
+        private int count;
+        private boolean dirty;
+
+        Bucket(File file, long position, long start) {
+            this.file = file;
+            this.position = position;
+            this.start = start;
+        }
+
+        void add(double value) {
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+            sum += value;
+            count++;
+            dirty = true;
+        }
+
+        Rollup toRollup(long period) {
+            return new Rollup(start, period, min, max, sum / count, count);
+        }
+    }
+}
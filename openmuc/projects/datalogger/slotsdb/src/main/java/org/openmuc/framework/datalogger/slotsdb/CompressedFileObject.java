@@ -0,0 +1,732 @@
+/*
+ * Copyright 2011-2024 Fraunhofer ISE
+ *
+ * This file is part of OpenMUC.
+ * For more information visit http://www.openmuc.org
+ *
+ * OpenMUC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenMUC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenMUC. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.openmuc.framework.datalogger.slotsdb;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import org.openmuc.framework.data.DoubleValue;
+import org.openmuc.framework.data.Flag;
+import org.openmuc.framework.data.Record;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * FileObject storing the slots in compressed chunks.<br>
+ * <br>
+ * The file starts with a 24 byte header (magic number and slots per chunk as int, start timestamp and storing period
+ * as long), followed by chunks of {@value #CHUNK_SLOTS} slots. Timestamps aren't stored, they follow from the slot
+ * position. A chunk has a 20 byte header (number of slots, number of value bits, number of flag bytes, chunk number
+ * and CRC32 as int), the values, the flags and its length as int:
+ * <ul>
+ * <li>Values are XOR encoded with the previous value like in Facebook's Gorilla. An unchanged value takes 1 bit, a
+ * slowly changing value only its meaningful bits. Missing values are stored as NaN like in the uncompressed format.
+ * <li>Flags are run-length encoded as pairs of flag code and varint run length.
+ * </ul>
+ * The chunk index holding the file offset of every chunk is built from the chunk headers when a file is opened. So a
+ * range read only reads and decodes the chunks containing the range.<br>
+ * <br>
+ * Appended values are encoded into the last chunk in memory. It's written as a new version when it's full or flushed,
+ * in front of the previous version if there is space, otherwise behind it. So the previous version stays unchanged
+ * until the new one is written completely and the latest version always ends the file. A version written partially by
+ * a crash is skipped, the version with the most slots is continued. Full chunks and closed files contain only the
+ * latest version. Readers of the file verify the CRC of every chunk and read again if the last chunk was rewritten
+ * meanwhile.
+ */
+public final class CompressedFileObject extends FileObject {
+
+    private static final Logger logger = LoggerFactory.getLogger(CompressedFileObject.class);
+
+    static final int MAGIC = 0x534C5A31; // "SLZ1"
+    static final int CHUNK_SLOTS = 1024;
+
+    private static final int FILE_HEADER_SIZE = 24;
+    private static final int CHUNK_HEADER_SIZE = 20;
+    private static final int CHUNK_TRAILER_SIZE = 4;
+    private static final int READ_ATTEMPTS = 3;
+
+    private int chunkSlots = CHUNK_SLOTS;
+    private long slots;
+    /*
+     * chunk index: file offsets of the chunks, when writing the last one is the latest version of the chunk held in
+     * openChunk
+     */
+    private long[] chunkOffsets = new long[8];
+    private int chunks;
+    /*
+     * end of the full chunks, where the versions of the last chunk start
+     */
+    private long openStart = FILE_HEADER_SIZE;
+    /*
+     * length of the latest version of the chunk held in openChunk, 0 if it wasn't written yet
+     */
+    private int openLength;
+    private RandomAccessFile raf;
+    private ChunkEncoder openChunk;
+    private boolean dirty;
+
+    public CompressedFileObject(File file) throws IOException {
+        super(file);
+        length = dataFile.length();
+        if (length >= FILE_HEADER_SIZE) {
+            try (RandomAccessFile in = new RandomAccessFile(dataFile, "r")) {
+                if (in.readInt() != MAGIC) {
+                    throw new IOException(dataFile + " is no compressed slots file.");
+                }
+                chunkSlots = in.readInt();
+                startTimeStamp = in.readLong();
+                storagePeriod = in.readLong();
+                loadChunkIndex(in);
+            }
+        }
+    }
+
+    /**
+     * Returns true if the file was written by a CompressedFileObject.
+     * 
+     * @param file
+     *            an existing .slots file
+     * @return true if the file starts with the magic number
+     * @throws IOException
+     *             if the file can't be read
+     */
+    public static boolean isCompressed(File file) throws IOException {
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            return in.length() >= 4 && in.readInt() == MAGIC;
+        }
+    }
+
+    /*
+     * Collects the offsets of the full chunks by skipping from chunk header to chunk header. Only the last full chunk
+     * may have been written partially, so its CRC is verified. The latest version of the last chunk follows.
+     */
+    private void loadChunkIndex(RandomAccessFile in) throws IOException {
+        chunks = 0;
+        slots = 0;
+        length = in.length();
+        long position = FILE_HEADER_SIZE;
+        byte[] header = new byte[CHUNK_HEADER_SIZE];
+        while (position + CHUNK_HEADER_SIZE <= length) {
+            in.seek(position);
+            in.readFully(header);
+            long chunkLength = ChunkDecoder.chunkLength(header, 0);
+            if (chunkLength < 0 || position + chunkLength > length || ChunkDecoder.size(header, 0) != chunkSlots
+                    || ChunkDecoder.number(header, 0) != chunks) {
+                break;
+            }
+            addChunk(position);
+            slots += chunkSlots;
+            position += chunkLength;
+        }
+        if (chunks > 0 && !ChunkDecoder.isValid(readChunks(chunks - 1, chunks - 1, in), 0, chunks - 1)) {
+            position = chunkOffsets[--chunks];
+            slots -= chunkSlots;
+        }
+        openStart = position;
+
+        if (position < length) {
+            byte[] versions = new byte[(int) (length - position)];
+            in.seek(position);
+            in.readFully(versions);
+            int latest = findLatestVersion(versions, chunks);
+            if (latest >= 0) {
+                addChunk(position + latest);
+                slots += ChunkDecoder.size(versions, latest);
+            }
+        }
+    }
+
+    /*
+     * Returns the offset of the latest version of a chunk or -1 if there is none. It usually ends the versions, unless
+     * the logger crashed while writing it. Then the valid version with the most slots is searched.
+     */
+    private static int findLatestVersion(byte[] versions, int number) {
+        if (versions.length >= CHUNK_TRAILER_SIZE) {
+            int last = versions.length - ByteBuffer.wrap(versions).getInt(versions.length - CHUNK_TRAILER_SIZE);
+            if (last >= 0 && ChunkDecoder.isValid(versions, last, number)) {
+                return last;
+            }
+        }
+        int latest = -1;
+        for (int offset = 0; offset + CHUNK_HEADER_SIZE + CHUNK_TRAILER_SIZE <= versions.length; offset++) {
+            if (ChunkDecoder.isValid(versions, offset, number)
+                    && (latest < 0 || ChunkDecoder.size(versions, offset) >= ChunkDecoder.size(versions, latest))) {
+                latest = offset;
+            }
+        }
+        return latest;
+    }
+
+    private void addChunk(long offset) {
+        if (chunks == chunkOffsets.length) {
+            chunkOffsets = Arrays.copyOf(chunkOffsets, chunks * 2);
+        }
+        chunkOffsets[chunks++] = offset;
+    }
+
+    @Override
+    public void createFileAndHeader(long startTimeStamp, long stepIntervall) throws IOException {
+        if (!dataFile.exists() || length < FILE_HEADER_SIZE) {
+            dataFile.getParentFile().mkdirs();
+            this.startTimeStamp = startTimeStamp;
+            storagePeriod = stepIntervall;
+            slots = 0;
+            chunks = 0;
+
+            raf = new RandomAccessFile(dataFile, "rw");
+            raf.setLength(0);
+            raf.writeInt(MAGIC);
+            raf.writeInt(chunkSlots);
+            raf.writeLong(startTimeStamp);
+            raf.writeLong(stepIntervall);
+            length = FILE_HEADER_SIZE;
+            openStart = length;
+            openLength = 0;
+            addChunk(length);
+            openChunk = new ChunkEncoder(chunkSlots);
+        }
+    }
+
+    /*
+     * Prepares appending to the last chunk, which is decoded again if it isn't full.
+     */
+    private void enableOutput() throws IOException {
+        if (raf == null) {
+            raf = new RandomAccessFile(dataFile, "rw");
+        }
+        if (openChunk != null) {
+            return;
+        }
+        openChunk = new ChunkEncoder(chunkSlots);
+        openLength = 0;
+        if (chunks > 0 && chunkOffsets[chunks - 1] >= openStart) {
+            byte[] chunk = readChunks(chunks - 1, chunks - 1, raf);
+            openLength = (int) ChunkDecoder.chunkLength(chunk, 0);
+            if (ChunkDecoder.size(chunk, 0) == chunkSlots) {
+                /*
+                 * the logger crashed before the full chunk was moved behind the previous chunk
+                 */
+                writeAtOpenStart(Arrays.copyOf(chunk, openLength));
+                openStart += openLength;
+                openLength = 0;
+            }
+            else {
+                openChunk.restore(chunk); // continue the last chunk
+            }
+        }
+        long end = openLength == 0 ? openStart : chunkOffsets[chunks - 1] + openLength;
+        if (raf.length() > end) {
+            if (openLength == 0) {
+                logger.warn("Removing chunk written partially from " + dataFile);
+            }
+            raf.setLength(end); // remove versions written partially
+        }
+        length = end;
+        if (openChunk.size == 0) {
+            addChunk(openStart);
+        }
+    }
+
+    @Override
+    public void append(double value, long timestamp, byte flag) throws IOException {
+        if (timestamp < startTimeStamp) {
+            return;
+        }
+        long slot = (getClosestTimestamp(timestamp) - startTimeStamp) / storagePeriod;
+        if (slot < slots) {
+            /*
+             * value has already been stored for this timeslot
+             */
+            return;
+        }
+        enableOutput();
+        /*
+         * there may be missing values -> fill up with NaN
+         */
+        while (slots < slot) {
+            add(Double.NaN, Flag.NO_VALUE_RECEIVED_YET.getCode());
+        }
+        add(value, flag);
+    }
+
+    private void add(double value, byte flag) throws IOException {
+        openChunk.add(value, flag);
+        slots++;
+        dirty = true;
+        if (openChunk.size == chunkSlots) {
+            writeAtOpenStart(openChunk.encode(chunks - 1));
+            openStart = length;
+            openLength = 0;
+            addChunk(openStart);
+            openChunk = new ChunkEncoder(chunkSlots);
+            dirty = false;
+        }
+    }
+
+    private void writeOpenChunk() throws IOException {
+        writeVersion(openChunk.encode(chunks - 1));
+        dirty = false;
+    }
+
+    /*
+     * Writes a version of the last chunk in front of the latest version if there is space, otherwise behind it. The
+     * latest version stays unchanged until the new one is written completely and ends the file.
+     */
+    private void writeVersion(byte[] chunk) throws IOException {
+        long latest = chunkOffsets[chunks - 1];
+        long position = openLength == 0 || openStart + chunk.length <= latest ? openStart : latest + openLength;
+        raf.getChannel().write(ByteBuffer.wrap(chunk), position);
+        length = position + chunk.length;
+        if (position == openStart && raf.length() > length) {
+            raf.setLength(length); // remove the previous versions
+        }
+        chunkOffsets[chunks - 1] = position;
+        openLength = chunk.length;
+    }
+
+    /*
+     * Writes versions of the last chunk until it directly follows the previous chunk.
+     */
+    private void writeAtOpenStart(byte[] chunk) throws IOException {
+        do {
+            writeVersion(chunk);
+        } while (chunkOffsets[chunks - 1] != openStart);
+    }
+
+    @Override
+    public long getTimestampForLatestValue() {
+        return startTimeStamp + (slots - 1) * storagePeriod;
+    }
+
+    @Override
+    public Record read(long timestamp) throws IOException {
+        timestamp = getClosestTimestamp(timestamp);
+        List<Record> records = read(timestamp, timestamp);
+        return records.isEmpty() ? null : records.get(0);
+    }
+
+    @Override
+    public List<Record> read(long start, long end) throws IOException {
+        start = getClosestTimestamp(start);
+        end = getClosestTimestamp(end);
+
+        if (start < startTimeStamp) {
+            start = startTimeStamp;
+        }
+        if (end > getTimestampForLatestValue()) {
+            end = getTimestampForLatestValue();
+        }
+        if (start > end) {
+            return new ArrayList<>(0);
+        }
+
+        long firstSlot = (start - startTimeStamp) / storagePeriod;
+        long lastSlot = (end - startTimeStamp) / storagePeriod;
+        List<Record> toReturn = new ArrayList<>((int) (lastSlot - firstSlot + 1));
+
+        int firstChunk = (int) (firstSlot / chunkSlots);
+        int lastChunk = (int) (lastSlot / chunkSlots);
+        int storedChunks = openChunk == null ? chunks : chunks - 1;
+        if (firstChunk < storedChunks) {
+            readStoredChunks(firstSlot, Math.min(lastSlot, (long) storedChunks * chunkSlots - 1), toReturn);
+        }
+        if (lastChunk >= storedChunks && openChunk != null) {
+            long chunkStart = (long) storedChunks * chunkSlots;
+            ChunkDecoder decoder = new ChunkDecoder(openChunk.values, 0, openChunk.size, openChunk.encodeFlags(), 0);
+            decode(decoder, chunkStart, Math.max(firstSlot, chunkStart), lastSlot, toReturn);
+        }
+        return toReturn;
+    }
+
+    private void readStoredChunks(long firstSlot, long lastSlot, List<Record> toReturn) throws IOException {
+        int firstChunk = (int) (firstSlot / chunkSlots);
+        int size = toReturn.size();
+        for (int attempt = 1;; attempt++) {
+            byte[] region;
+            int lastChunk;
+            try (RandomAccessFile in = new RandomAccessFile(dataFile, "r")) {
+                if (attempt > 1 && openChunk == null) {
+                    loadChunkIndex(in); // the last chunk may have been written again
+                }
+                lastChunk = (int) Math.min(lastSlot / chunkSlots, chunks - 1);
+                if (firstChunk > lastChunk) {
+                    return;
+                }
+                region = readChunks(firstChunk, lastChunk, in);
+            }
+            int chunk = firstChunk;
+            while (chunk <= lastChunk) {
+                int position = (int) (chunkOffsets[chunk] - chunkOffsets[firstChunk]);
+                if (!ChunkDecoder.isValid(region, position, chunk)) {
+                    break;
+                }
+                ChunkDecoder decoder = ChunkDecoder.of(region, position);
+                long chunkStart = (long) chunk * chunkSlots;
+                decode(decoder, chunkStart, Math.max(firstSlot, chunkStart), lastSlot, toReturn);
+                chunk++;
+            }
+            if (chunk > lastChunk) {
+                return;
+            }
+            if (attempt == READ_ATTEMPTS) {
+                logger.warn("Chunk " + chunk + " of " + dataFile + " is corrupted, skipping the following slots.");
+                return;
+            }
+            toReturn.subList(size, toReturn.size()).clear(); // the last chunk was rewritten, read again
+        }
+    }
+
+    /*
+     * Reads the given chunks including their headers. The last chunk may have grown since the index was built, so it
+     * is read until the end of the file.
+     */
+    private byte[] readChunks(int firstChunk, int lastChunk, RandomAccessFile in) throws IOException {
+        long from = chunkOffsets[firstChunk];
+        long to = lastChunk + 1 < chunks ? chunkOffsets[lastChunk + 1] : in.length();
+        byte[] region = new byte[(int) Math.max(0, to - from)];
+        in.seek(from);
+        in.readFully(region);
+        return region;
+    }
+
+    private void decode(ChunkDecoder decoder, long chunkStart, long firstSlot, long lastSlot, List<Record> toReturn) {
+        int last = (int) Math.min(lastSlot - chunkStart, decoder.size - 1);
+        int first = (int) (firstSlot - chunkStart);
+        long timestamp = startTimeStamp + firstSlot * storagePeriod;
+        for (int i = 0; i <= last; i++) {
+            double value = decoder.nextValue();
+            byte flag = decoder.nextFlag();
+            if (i >= first) {
+                if (!Double.isNaN(value)) {
+                    toReturn.add(new Record(new DoubleValue(value), timestamp, Flag.newFlag(flag)));
+                }
+                timestamp += storagePeriod;
+            }
+        }
+    }
+
+    /**
+     * Writes the last chunk behind the previous chunk and closes the file.
+     */
+    @Override
+    public void close() throws IOException {
+        if (raf != null) {
+            flush();
+            if (openLength > 0 && chunkOffsets[chunks - 1] != openStart) {
+                writeAtOpenStart(openChunk.encode(chunks - 1)); // remove the previous versions
+            }
+            raf.close();
+            raf = null;
+        }
+        if (openChunk != null) {
+            if (openChunk.size == 0) {
+                chunks--; // never written
+            }
+            openChunk = null;
+            openLength = 0;
+        }
+    }
+
+    /**
+     * Writes the last chunk, if values were appended since it was written.
+     */
+    @Override
+    public void flush() throws IOException {
+        if (dirty && openChunk.size > 0) {
+            writeOpenChunk();
+        }
+    }
+
+    @Override
+    public void sync() throws IOException {
+        if (raf != null) {
+            flush();
+            raf.getChannel().force(false);
+        }
+        else {
+            forceFile();
+        }
+    }
+
+    /*
+     * Encodes the values and flags of the last chunk.
+     */
+    private static final class ChunkEncoder {
+
+        private byte[] values;
+        private int bits;
+        private int size;
+
+        private long previous;
+        private int leading = -1;
+        private int trailing;
+
+        private byte[] runFlags = new byte[4];
+        private int[] runLengths = new int[4];
+        private int runs;
+
+        ChunkEncoder(int chunkSlots) {
+            values = new byte[chunkSlots + 8];
+        }
+
+        void add(double value, byte flag) {
+            long valueBits = Double.doubleToLongBits(value);
+            if (size == 0) {
+                write(valueBits, 64);
+            }
+            else {
+                long xor = valueBits ^ previous;
+                if (xor == 0) {
+                    write(0, 1);
+                }
+                else {
+                    int leadingZeros = Math.min(Long.numberOfLeadingZeros(xor), 31);
+                    int trailingZeros = Long.numberOfTrailingZeros(xor);
+                    if (leading >= 0 && leadingZeros >= leading && trailingZeros >= trailing) {
+                        write(0b10, 2);
+                        write(xor >>> trailing, 64 - leading - trailing);
+                    }
+                    else {
+                        int significant = 64 - leadingZeros - trailingZeros;
+                        write(0b11, 2);
+                        write(leadingZeros, 5);
+                        write(significant - 1, 6);
+                        write(xor >>> trailingZeros, significant);
+                        leading = leadingZeros;
+                        trailing = trailingZeros;
+                    }
+                }
+            }
+            previous = valueBits;
+            size++;
+
+            if (runs > 0 && runFlags[runs - 1] == flag) {
+                runLengths[runs - 1]++;
+            }
+            else {
+                if (runs == runFlags.length) {
+                    runFlags = Arrays.copyOf(runFlags, runs * 2);
+                    runLengths = Arrays.copyOf(runLengths, runs * 2);
+                }
+                runFlags[runs] = flag;
+                runLengths[runs++] = 1;
+            }
+        }
+
+        /*
+         * Writes the lowest count bits of value, highest bit first.
+         */
+        private void write(long value, int count) {
+            if (((bits + count + 7) >>> 3) > values.length) {
+                values = Arrays.copyOf(values, values.length * 2);
+            }
+            while (count > 0) {
+                int free = 8 - (bits & 7);
+                int put = Math.min(free, count);
+                int part = (int) (value >>> (count - put)) & ((1 << put) - 1);
+                values[bits >>> 3] |= part << (free - put);
+                count -= put;
+                bits += put;
+            }
+        }
+
+        byte[] encodeFlags() {
+            byte[] flags = new byte[runs * 6];
+            int position = 0;
+            for (int i = 0; i < runs; i++) {
+                flags[position++] = runFlags[i];
+                int run = runLengths[i];
+                while ((run & ~0x7F) != 0) {
+                    flags[position++] = (byte) ((run & 0x7F) | 0x80);
+                    run >>>= 7;
+                }
+                flags[position++] = (byte) run;
+            }
+            return Arrays.copyOf(flags, position);
+        }
+
+        /*
+         * Returns the chunk with header and trailer.
+         */
+        byte[] encode(int number) {
+            byte[] flags = encodeFlags();
+            int valueBytes = (bits + 7) >>> 3;
+            int chunkLength = CHUNK_HEADER_SIZE + valueBytes + flags.length + CHUNK_TRAILER_SIZE;
+            ByteBuffer chunk = ByteBuffer.allocate(chunkLength);
+            chunk.putInt(size).putInt(bits).putInt(flags.length).putInt(number);
+            CRC32 crc = new CRC32();
+            crc.update(chunk.array(), 0, 16);
+            crc.update(values, 0, valueBytes);
+            crc.update(flags, 0, flags.length);
+            chunk.putInt((int) crc.getValue()).put(values, 0, valueBytes).put(flags).putInt(chunkLength);
+            return chunk.array();
+        }
+
+        /*
+         * Continues a chunk read from the file. Encoding is deterministic, so the stored bytes stay unchanged.
+         */
+        void restore(byte[] chunk) {
+            ChunkDecoder decoder = ChunkDecoder.of(chunk, 0);
+            int chunkSize = decoder.size;
+            for (int i = 0; i < chunkSize; i++) {
+                add(decoder.nextValue(), decoder.nextFlag());
+            }
+        }
+    }
+
+    /*
+     * Decodes the values and flags of a chunk one slot after the other.
+     */
+    private static final class ChunkDecoder {
+
+        private final byte[] values;
+        private final ByteBuffer words;
+        private long position;
+        private final int size;
+        private int index;
+
+        private long previous;
+        private int leading;
+        private int trailing;
+
+        private final byte[] flags;
+        private int flagPosition;
+        private byte flag;
+        private int run;
+
+        ChunkDecoder(byte[] values, int valueOffset, int size, byte[] flags, int flagOffset) {
+            this.values = values;
+            this.words = ByteBuffer.wrap(values);
+            this.position = (long) valueOffset << 3;
+            this.size = size;
+            this.flags = flags;
+            this.flagPosition = flagOffset;
+        }
+
+        static ChunkDecoder of(byte[] region, int offset) {
+            ByteBuffer header = ByteBuffer.wrap(region, offset, CHUNK_HEADER_SIZE);
+            int size = header.getInt();
+            int valueBits = header.getInt();
+            int valueOffset = offset + CHUNK_HEADER_SIZE;
+            return new ChunkDecoder(region, valueOffset, size, region, valueOffset + ((valueBits + 7) >>> 3));
+        }
+
+        /*
+         * Returns the length of the chunk including header and trailer or -1 if the header is invalid.
+         */
+        static long chunkLength(byte[] region, int offset) {
+            ByteBuffer header = ByteBuffer.wrap(region, offset, CHUNK_HEADER_SIZE);
+            int size = header.getInt();
+            int valueBits = header.getInt();
+            int flagBytes = header.getInt();
+            if (size < 1 || valueBits < 0 || flagBytes < 0) {
+                return -1;
+            }
+            return CHUNK_HEADER_SIZE + ((valueBits + 7L) >>> 3) + flagBytes + CHUNK_TRAILER_SIZE;
+        }
+
+        static int size(byte[] region, int offset) {
+            return ByteBuffer.wrap(region).getInt(offset);
+        }
+
+        static int number(byte[] region, int offset) {
+            return ByteBuffer.wrap(region).getInt(offset + 12);
+        }
+
+        static boolean isValid(byte[] region, int offset, int number) {
+            if (offset + CHUNK_HEADER_SIZE > region.length) {
+                return false;
+            }
+            long length = chunkLength(region, offset);
+            if (length < 0 || offset + length > region.length || number(region, offset) != number) {
+                return false;
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(region);
+            if (buffer.getInt(offset + (int) length - CHUNK_TRAILER_SIZE) != length) {
+                return false;
+            }
+            CRC32 checksum = new CRC32();
+            checksum.update(region, offset, 16);
+            checksum.update(region, offset + CHUNK_HEADER_SIZE, (int) length - CHUNK_HEADER_SIZE - CHUNK_TRAILER_SIZE);
+            return (int) checksum.getValue() == buffer.getInt(offset + 16);
+        }
+
+        double nextValue() {
+            if (index++ == 0) {
+                previous = read(64);
+            }
+            else if (read(1) == 1) {
+                if (read(1) == 1) {
+                    leading = (int) read(5);
+                    int significant = (int) read(6) + 1;
+                    trailing = 64 - leading - significant;
+                }
+                previous ^= read(64 - leading - trailing) << trailing;
+            }
+            return Double.longBitsToDouble(previous);
+        }
+
+        byte nextFlag() {
+            if (run == 0) {
+                flag = flags[flagPosition++];
+                int shift = 0;
+                int b;
+                do {
+                    b = flags[flagPosition++];
+                    run |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while ((b & 0x80) != 0);
+            }
+            run--;
+            return flag;
+        }
+
+        /*
+         * Reads count bits, highest bit first.
+         */
+        private long read(int count) {
+            int index = (int) (position >>> 3);
+            int shift = (int) (position & 7);
+            if (count + shift <= 64 && index + 8 <= values.length) {
+                position += count;
+                return (words.getLong(index) << shift) >>> (64 - count);
+            }
+            long result = 0;
+            while (count > 0) {
+                int offset = (int) (position & 7);
+                int available = 8 - offset;
+                int take = Math.min(available, count);
+                int part = ((values[(int) (position >>> 3)] & 0xFF) >>> (available - take)) & ((1 << take) - 1);
+                result = (result << take) | part;
+                count -= take;
+                position += take;
+            }
+            return result;
+        }
+    }
+}
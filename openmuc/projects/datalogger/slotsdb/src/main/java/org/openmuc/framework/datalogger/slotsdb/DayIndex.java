@@ -0,0 +1,209 @@
+/*
+ * Copyright 2011-2024 Fraunhofer ISE
+ *
+ * This file is part of OpenMUC.
+ * For more information visit http://www.openmuc.org
+ *
+ * OpenMUC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenMUC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenMUC. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.openmuc.framework.datalogger.slotsdb;
+
+import java.io.File;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Day folders per channel.<br>
+ * <br>
+ * The day folders are scanned once, afterwards the writers add the days they create channel folders in and deleted
+ * days are removed. So reads look up the days of a channel instead of listing the root folder and the channel folders
+ * of every day. The days of a channel are kept as bits relative to its first day, a year takes 46 bytes.<br>
+ * <br>
+ * An entry may refer to a folder which doesn't exist (yet), readers have to treat it as empty.
+ */
+final class DayIndex {
+
+    private static final DateTimeFormatter FORMAT = DateTimeFormatter.BASIC_ISO_DATE;
+
+    /*
+     * days by encoded label
+     */
+    private final ConcurrentHashMap<String, Days> channels = new ConcurrentHashMap<>();
+
+    /**
+     * Scans the channel folders of the existing day folders.
+     * 
+     * @param rootNode
+     *            root folder of the database
+     */
+    void scan(File rootNode) {
+        File[] folders = rootNode.listFiles();
+        if (folders == null) {
+            return;
+        }
+        for (File folder : folders) {
+            int day = toDay(folder.getName());
+            String[] labels = folder.list();
+            if (day < 0 || labels == null) {
+                continue;
+            }
+            for (String label : labels) {
+                add(label, day);
+            }
+        }
+    }
+
+    /**
+     * @param label
+     *            encoded label
+     * @param day
+     *            day folder name in yyyyMMdd format
+     */
+    void add(String label, String day) {
+        int epochDay = toDay(day);
+        if (epochDay >= 0) {
+            add(label, epochDay);
+        }
+    }
+
+    private void add(String label, int day) {
+        channels.computeIfAbsent(label, l -> new Days()).add(day);
+    }
+
+    /**
+     * Forgets a deleted day folder.
+     * 
+     * @param day
+     *            day folder name in yyyyMMdd format
+     */
+    void remove(String day) {
+        int epochDay = toDay(day);
+        if (epochDay < 0) {
+            return;
+        }
+        for (Days days : channels.values()) {
+            days.remove(epochDay);
+        }
+    }
+
+    /**
+     * Returns the days of a channel overlapping the range in ascending order.
+     * 
+     * @param label
+     *            encoded label
+     * @param start
+     *            start timestamp
+     * @param end
+     *            end timestamp
+     * @return the day folder names in yyyyMMdd format
+     */
+    List<String> getDays(String label, long start, long end) {
+        Days days = channels.get(label);
+        List<String> toReturn = new ArrayList<>();
+        if (days != null) {
+            for (int day : days.get(Math.max(toDay(start), 0), toDay(end))) {
+                toReturn.add(LocalDate.ofEpochDay(day).format(FORMAT));
+            }
+        }
+        return toReturn;
+    }
+
+    /**
+     * Returns the latest day of a channel before the given one.
+     * 
+     * @param label
+     *            encoded label
+     * @param before
+     *            day folder name in yyyyMMdd format or null for the latest day
+     * @return the day folder name in yyyyMMdd format or null if there is none
+     */
+    String getLatest(String label, String before) {
+        Days days = channels.get(label);
+        if (days == null) {
+            return null;
+        }
+        int day = days.getLatest(before == null ? Integer.MAX_VALUE : toDay(before) - 1);
+        return day < 0 ? null : LocalDate.ofEpochDay(day).format(FORMAT);
+    }
+
+    private static int toDay(long timestamp) {
+        return (int) Instant.ofEpochMilli(timestamp).atZone(ZoneId.systemDefault()).toLocalDate().toEpochDay();
+    }
+
+    /*
+     * Returns the epoch day of a folder name or -1 if it isn't a day after 1970 in yyyyMMdd format.
+     */
+    private static int toDay(String name) {
+        if (name.length() != 8) {
+            return -1;
+        }
+        try {
+            long day = LocalDate.parse(name, FORMAT).toEpochDay();
+            return day < 0 ? -1 : (int) day;
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+
+    private static final class Days {
+        private int first = -1;
+        private BitSet bits = new BitSet();
+
+        synchronized void add(int day) {
+            if (first < 0) {
+                first = day;
+            }
+            else if (day < first) {
+                BitSet shifted = new BitSet();
+                for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1)) {
+                    shifted.set(i + first - day);
+                }
+                bits = shifted;
+                first = day;
+            }
+            bits.set(day - first);
+        }
+
+        synchronized void remove(int day) {
+            if (first >= 0 && day >= first) {
+                bits.clear(day - first);
+            }
+        }
+
+        synchronized int[] get(int from, int to) {
+            if (first < 0 || to < first || to < from) {
+                return new int[0];
+            }
+            int offset = Math.max(from, first);
+            return bits.get(offset - first, to - first + 1).stream().map(i -> i + offset).toArray();
+        }
+
+        synchronized int getLatest(int day) {
+            if (first < 0 || day < first) {
+                return -1;
+            }
+            int i = bits.previousSetBit((int) Math.min((long) day - first, Integer.MAX_VALUE - 1));
+            return i < 0 ? -1 : i + first;
+        }
+    }
+}
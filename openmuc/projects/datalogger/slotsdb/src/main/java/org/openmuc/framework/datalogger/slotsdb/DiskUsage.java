@@ -0,0 +1,105 @@
+/*
+ * Copyright 2011-2024 Fraunhofer ISE
+ *
+ * This file is part of OpenMUC.
+ * For more information visit http://www.openmuc.org
+ *
+ * OpenMUC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenMUC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenMUC. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.openmuc.framework.datalogger.slotsdb;
+
+import java.io.File;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bytes stored per day folder.<br>
+ * <br>
+ * The folders are scanned once, afterwards the counters are updated by the writers with the bytes they add. So the
+ * size of the database is summed up from the days instead of walking all files.
+ */
+final class DiskUsage {
+
+    private final ConcurrentHashMap<String, LongAdder> days = new ConcurrentHashMap<>();
+
+    /**
+     * Scans the sizes of the existing day folders.
+     * 
+     * @param rootNode
+     *            root folder of the database
+     */
+    void scan(File rootNode) {
+        days.clear();
+        File[] folders = rootNode.listFiles();
+        if (folders == null) {
+            return;
+        }
+        for (File folder : folders) {
+            if (folder.isDirectory()) {
+                add(folder.getName(), getSize(folder));
+            }
+        }
+    }
+
+    private static long getSize(File folder) {
+        long size = 0;
+        File[] files = folder.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                size += f.isDirectory() ? getSize(f) : f.length();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @param day
+     *            day folder name in yyyyMMdd format
+     * @param bytes
+     *            bytes added to the folder, negative if removed
+     */
+    void add(String day, long bytes) {
+        if (bytes != 0) {
+            days.computeIfAbsent(day, d -> new LongAdder()).add(bytes);
+        }
+    }
+
+    /**
+     * Forgets a deleted day folder.
+     * 
+     * @param day
+     *            day folder name in yyyyMMdd format
+     */
+    void remove(String day) {
+        days.remove(day);
+    }
+
+    long get(String day) {
+        LongAdder size = days.get(day);
+        return size == null ? 0 : size.sum();
+    }
+
+    /**
+     * @return the bytes stored in all day folders
+     */
+    long getTotal() {
+        long total = 0;
+        for (LongAdder size : days.values()) {
+            total += size.sum();
+        }
+        return total;
+    }
+}
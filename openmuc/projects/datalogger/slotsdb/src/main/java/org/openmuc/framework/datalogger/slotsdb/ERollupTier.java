@@ -0,0 +1,69 @@
+/*
+ * Copyright 2011-2024 Fraunhofer ISE
+ *
+ * This file is part of OpenMUC.
+ * For more information visit http://www.openmuc.org
+ *
+ * OpenMUC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenMUC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenMUC. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.openmuc.framework.datalogger.slotsdb;
+
+/**
+ * Resolutions of the rollups maintained alongside the logged values. Buckets are aligned to multiples of the period
+ * since the epoch.
+ */
+public enum ERollupTier {
+
+    MINUTE(60000L),
+    QUARTER_HOUR(900000L),
+    HOUR(3600000L);
+
+    private static final long MAX_DAY_LENGTH = 25 * 3600000L; // day with daylight saving time change
+
+    private final long period;
+
+    private ERollupTier(long period) {
+        this.period = period;
+    }
+
+    public long getPeriod() {
+        return period;
+    }
+
+    /*
+     * Buckets starting in one day, plus the bucket starting before midnight if midnight isn't aligned to the period.
+     */
+    int getBucketsPerDay() {
+        return (int) (MAX_DAY_LENGTH / period) + 1;
+    }
+
+    /**
+     * Returns the coarsest tier whose period doesn't exceed the given resolution.
+     * 
+     * @param resolution
+     *            the requested resolution in ms
+     * @return the tier or null if the resolution is finer than all tiers
+     */
+    public static ERollupTier forResolution(long resolution) {
+        ERollupTier[] tiers = values();
+        for (int i = tiers.length - 1; i >= 0; i--) {
+            if (tiers[i].period <= resolution) {
+                return tiers[i];
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,644 @@
+/*
+ * Copyright 2011-2024 Fraunhofer ISE
+ *
+ * This file is part of OpenMUC.
+ * For more information visit http://www.openmuc.org
+ *
+ * OpenMUC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenMUC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenMUC. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.openmuc.framework.datalogger.slotsdb;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import org.openmuc.framework.data.DoubleValue;
+import org.openmuc.framework.data.Flag;
+import org.openmuc.framework.data.Record;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * File storing the events of one channel and day with their own timestamps.<br>
+ * <br>
+ * The file starts with an 8 byte header (magic number and events per block as int), followed by blocks of up to
+ * {@value #BLOCK_EVENTS} events sorted by timestamp. A block has a 28 byte header (number of events and block number
+ * as int, first and last timestamp as long and CRC32 as int), followed by 17 bytes per event (timestamp as long, value
+ * as double and flag code as byte) and its length as int.<br>
+ * <br>
+ * The block headers are the sparse time index of the file. It's built when the file is opened by skipping from block
+ * header to block header. Blocks, which don't start before the end of all previous blocks, are searched binary, so a
+ * range read only reads the blocks containing the range. Only blocks containing events older than previous blocks are
+ * checked one by one.<br>
+ * <br>
+ * Appended events are inserted into the last block in memory, so events arriving out of order are stored sorted as
+ * long as they are younger than the previous blocks. It's written as a new version when it's full or flushed, in front
+ * of the previous version if there is space, otherwise behind it. So the previous version stays unchanged until the
+ * new one is written completely and the latest version always ends the file. A version written partially by a crash is
+ * skipped, the version with the most events is continued. Full blocks and closed files contain only the latest
+ * version.
+ */
+final class EventFile {
+
+    private static final Logger logger = LoggerFactory.getLogger(EventFile.class);
+
+    static final String FILE_NAME = "events";
+    static final int MAGIC = 0x534C4531; // "SLE1"
+    static final int BLOCK_EVENTS = 128;
+
+    private static final int FILE_HEADER_SIZE = 8;
+    private static final int BLOCK_HEADER_SIZE = 28;
+    private static final int BLOCK_TRAILER_SIZE = 4;
+    private static final int EVENT_SIZE = 17;
+
+    private final File file;
+    private int blockEvents = BLOCK_EVENTS;
+    private long length;
+
+    /*
+     * sparse index of the complete blocks
+     */
+    private long[] positions = new long[8];
+    private long[] firstTimestamps = new long[8];
+    private long[] lastTimestamps = new long[8];
+    private int[] sizes = new int[8];
+    private int blocks;
+    /*
+     * indexes of the blocks starting at or after the end of all previous blocks and of the other, late blocks
+     */
+    private int[] orderedBlocks = new int[8];
+    private int ordered;
+    private int[] lateBlocks = new int[0];
+    private int lates;
+    private long indexedTimestamp = Long.MIN_VALUE;
+    private long latestTimestamp = Long.MIN_VALUE;
+
+    /*
+     * end of the complete blocks, where the versions of the last block start
+     */
+    private long openStart = FILE_HEADER_SIZE;
+    /*
+     * latest version of the last block, which isn't complete yet. It's held in openBlock while writing.
+     */
+    private long lastBlockPosition = -1;
+    private int lastBlockSize;
+    private Block openBlock;
+    private RandomAccessFile raf;
+    private volatile long lastAccess = System.nanoTime();
+
+    /**
+     * Opens an event file and builds its index.
+     * 
+     * @param file
+     *            the event file, which may not exist yet
+     * @throws IOException
+     *             if the file can't be read
+     */
+    EventFile(File file) throws IOException {
+        this.file = file;
+        length = file.length();
+        if (length >= FILE_HEADER_SIZE) {
+            try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+                if (in.readInt() != MAGIC) {
+                    throw new IOException(file + " is no event file.");
+                }
+                blockEvents = in.readInt();
+                loadIndex(in.getChannel());
+            }
+        }
+    }
+
+    /*
+     * Only the last complete block may have been written partially, so its CRC is verified. The versions of the last
+     * block follow.
+     */
+    private void loadIndex(FileChannel in) throws IOException {
+        long position = FILE_HEADER_SIZE;
+        ByteBuffer header = ByteBuffer.allocate(BLOCK_HEADER_SIZE);
+        while (position + BLOCK_HEADER_SIZE <= length) {
+            header.clear();
+            if (in.read(header, position) < BLOCK_HEADER_SIZE) {
+                break;
+            }
+            header.flip();
+            int size = header.getInt();
+            int number = header.getInt();
+            long first = header.getLong();
+            long last = header.getLong();
+            long end = position + getBlockLength(size);
+            if (size != blockEvents || number != blocks || first > last || end > length) {
+                break;
+            }
+            addBlock(position, size, first, last);
+            position = end;
+        }
+        if (blocks > 0 && !readEvents(in, positions[blocks - 1], blockEvents, blocks - 1, new Block(blockEvents))) {
+            position = positions[blocks - 1];
+            removeLastBlock();
+        }
+        openStart = position;
+
+        if (position < length) {
+            ByteBuffer versions = ByteBuffer.allocate((int) (length - position));
+            readFully(in, versions, position);
+            int latest = findLatestVersion(versions.array(), blocks);
+            if (latest >= 0) {
+                lastBlockPosition = position + latest;
+                lastBlockSize = versions.getInt(latest);
+                latestTimestamp = Math.max(latestTimestamp, versions.getLong(latest + 16));
+                position = lastBlockPosition + getBlockLength(lastBlockSize);
+            }
+        }
+        length = position;
+    }
+
+    /*
+     * Returns the offset of the latest version of a block or -1 if there is none. It usually ends the versions, unless
+     * the logger crashed while writing it. Then the valid version with the most events is searched.
+     */
+    private int findLatestVersion(byte[] versions, int number) {
+        ByteBuffer buffer = ByteBuffer.wrap(versions);
+        if (versions.length >= BLOCK_TRAILER_SIZE) {
+            int last = versions.length - buffer.getInt(versions.length - BLOCK_TRAILER_SIZE);
+            if (last >= 0 && isValid(versions, last, number)) {
+                return last;
+            }
+        }
+        int latest = -1;
+        for (int offset = 0; offset + BLOCK_HEADER_SIZE + BLOCK_TRAILER_SIZE <= versions.length; offset++) {
+            if (isValid(versions, offset, number) && (latest < 0 || buffer.getInt(offset) >= buffer.getInt(latest))) {
+                latest = offset;
+            }
+        }
+        return latest;
+    }
+
+    private boolean isValid(byte[] region, int offset, int number) {
+        if (offset + BLOCK_HEADER_SIZE > region.length) {
+            return false;
+        }
+        ByteBuffer header = ByteBuffer.wrap(region, offset, BLOCK_HEADER_SIZE);
+        int size = header.getInt();
+        if (size < 1 || size > blockEvents || header.getInt() != number || header.getLong() > header.getLong()) {
+            return false;
+        }
+        int blockLength = getBlockLength(size);
+        if (offset + blockLength > region.length) {
+            return false;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(region);
+        if (buffer.getInt(offset + blockLength - BLOCK_TRAILER_SIZE) != blockLength) {
+            return false;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(region, offset, 24);
+        crc.update(region, offset + BLOCK_HEADER_SIZE, size * EVENT_SIZE);
+        return (int) crc.getValue() == buffer.getInt(offset + 24);
+    }
+
+    private static int getBlockLength(int size) {
+        return BLOCK_HEADER_SIZE + size * EVENT_SIZE + BLOCK_TRAILER_SIZE;
+    }
+
+    private void addBlock(long position, int size, long first, long last) {
+        if (blocks == positions.length) {
+            int capacity = blocks * 2;
+            positions = Arrays.copyOf(positions, capacity);
+            firstTimestamps = Arrays.copyOf(firstTimestamps, capacity);
+            lastTimestamps = Arrays.copyOf(lastTimestamps, capacity);
+            sizes = Arrays.copyOf(sizes, capacity);
+        }
+        if (first < indexedTimestamp) {
+            if (lates == lateBlocks.length) {
+                lateBlocks = Arrays.copyOf(lateBlocks, Math.max(8, lates * 2));
+            }
+            lateBlocks[lates++] = blocks;
+        }
+        else {
+            if (ordered == orderedBlocks.length) {
+                orderedBlocks = Arrays.copyOf(orderedBlocks, ordered * 2);
+            }
+            orderedBlocks[ordered++] = blocks;
+        }
+        positions[blocks] = position;
+        firstTimestamps[blocks] = first;
+        lastTimestamps[blocks] = last;
+        sizes[blocks] = size;
+        blocks++;
+        indexedTimestamp = Math.max(indexedTimestamp, last);
+        latestTimestamp = Math.max(latestTimestamp, last);
+    }
+
+    private void removeLastBlock() {
+        blocks--;
+        if (lates > 0 && lateBlocks[lates - 1] == blocks) {
+            lates--;
+        }
+        else {
+            ordered--;
+        }
+        indexedTimestamp = Long.MIN_VALUE;
+        for (int i = 0; i < blocks; i++) {
+            indexedTimestamp = Math.max(indexedTimestamp, lastTimestamps[i]);
+        }
+        latestTimestamp = indexedTimestamp;
+    }
+
+    /*
+     * Prepares appending to the last block, which is read again if it isn't complete.
+     */
+    private void enableOutput() throws IOException {
+        if (openBlock != null) {
+            return;
+        }
+        openBlock = new Block(blockEvents);
+        if (lastBlockPosition >= 0) {
+            try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+                readEvents(in.getChannel(), lastBlockPosition, lastBlockSize, blocks, openBlock);
+            }
+            if (openBlock.size == blockEvents) {
+                /*
+                 * the logger crashed before the complete block was moved behind the previous block
+                 */
+                completeOpenBlock();
+            }
+        }
+    }
+
+    /*
+     * The file is created with its first block, so it's never shorter than a .slots header and isn't deleted as
+     * corrupted .slots file.
+     */
+    private void openOutput() throws IOException {
+        if (length < FILE_HEADER_SIZE) {
+            file.getParentFile().mkdirs();
+            raf = new RandomAccessFile(file, "rw");
+            ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+            header.putInt(MAGIC).putInt(blockEvents).flip();
+            raf.getChannel().write(header, 0);
+            length = FILE_HEADER_SIZE;
+        }
+        else {
+            raf = new RandomAccessFile(file, "rw");
+        }
+        if (raf.length() > length) {
+            logger.warn("Removing " + (raf.length() - length) + " bytes written partially from " + file);
+            raf.setLength(length); // remove block written partially
+        }
+    }
+
+    /**
+     * Inserts an event into the last block.
+     * 
+     * @param value
+     *            the value
+     * @param timestamp
+     *            the timestamp of the event
+     * @param flag
+     *            the flag code
+     * @throws IOException
+     *             if the file can't be written
+     */
+    void append(double value, long timestamp, byte flag) throws IOException {
+        enableOutput();
+        openBlock.insert(timestamp, value, flag);
+        latestTimestamp = Math.max(latestTimestamp, timestamp);
+        if (openBlock.size == blockEvents) {
+            completeOpenBlock();
+        }
+    }
+
+    private void completeOpenBlock() throws IOException {
+        byte[] block = openBlock.encode(blocks);
+        do {
+            writeVersion(block);
+        } while (lastBlockPosition != openStart);
+        addBlock(openStart, openBlock.size, openBlock.timestamps[0], openBlock.timestamps[openBlock.size - 1]);
+        openStart = length;
+        openBlock = new Block(blockEvents);
+        lastBlockPosition = -1;
+        lastBlockSize = 0;
+    }
+
+    private void writeOpenBlock() throws IOException {
+        writeVersion(openBlock.encode(blocks));
+        openBlock.dirty = false;
+    }
+
+    /*
+     * Writes a version of the last block in front of the latest version if there is space, otherwise behind it. The
+     * latest version stays unchanged until the new one is written completely and ends the file.
+     */
+    private void writeVersion(byte[] block) throws IOException {
+        if (raf == null) {
+            openOutput();
+        }
+        long position = openStart;
+        if (lastBlockPosition >= 0 && openStart + block.length > lastBlockPosition) {
+            position = lastBlockPosition + getBlockLength(lastBlockSize);
+        }
+        raf.getChannel().write(ByteBuffer.wrap(block), position);
+        length = position + block.length;
+        if (position == openStart && raf.length() > length) {
+            raf.setLength(length); // remove the previous versions
+        }
+        lastBlockPosition = position;
+        lastBlockSize = openBlock.size;
+    }
+
+    /**
+     * Returns the events between start and end sorted by timestamp.
+     * 
+     * @param start
+     *            start timestamp, inclusive
+     * @param end
+     *            end timestamp, inclusive
+     * @return the events
+     * @throws IOException
+     *             if the file can't be read
+     */
+    List<Record> read(long start, long end) throws IOException {
+        List<Record> toReturn = new ArrayList<>();
+        if (start > end || (blocks == 0 && lastBlockPosition < 0 && openBlock == null)) {
+            return toReturn;
+        }
+        if (blocks == 0 && openBlock != null) {
+            openBlock.read(start, end, toReturn); // may not be written yet
+        }
+        else if (raf != null) {
+            read(raf.getChannel(), start, end, toReturn);
+        }
+        else {
+            try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+                read(in.getChannel(), start, end, toReturn);
+            }
+        }
+        if (!isSorted(toReturn)) {
+            toReturn.sort(Comparator.comparingLong(Record::getTimestamp));
+        }
+        return toReturn;
+    }
+
+    private void read(FileChannel in, long start, long end, List<Record> toReturn) throws IOException {
+        for (int i = findFirstOrderedBlock(start); i < ordered; i++) {
+            int block = orderedBlocks[i];
+            if (firstTimestamps[block] > end) {
+                break;
+            }
+            readEvents(in, block, start, end, toReturn);
+        }
+        for (int i = 0; i < lates; i++) {
+            int block = lateBlocks[i];
+            if (firstTimestamps[block] <= end && lastTimestamps[block] >= start) {
+                readEvents(in, block, start, end, toReturn);
+            }
+        }
+        if (openBlock != null) {
+            openBlock.read(start, end, toReturn);
+        }
+        else if (lastBlockPosition >= 0) {
+            Block last = new Block(lastBlockSize);
+            if (readEvents(in, lastBlockPosition, lastBlockSize, blocks, last)) {
+                last.read(start, end, toReturn);
+            }
+        }
+    }
+
+    /*
+     * The first and last timestamps of the ordered blocks are ascending.
+     */
+    private int findFirstOrderedBlock(long start) {
+        int low = 0;
+        int high = ordered;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (lastTimestamps[orderedBlocks[middle]] < start) {
+                low = middle + 1;
+            }
+            else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private void readEvents(FileChannel in, int block, long start, long end, List<Record> toReturn)
+            throws IOException {
+        Block events = new Block(sizes[block]);
+        if (readEvents(in, positions[block], sizes[block], block, events)) {
+            events.read(start, end, toReturn);
+        }
+    }
+
+    /*
+     * Returns false if the CRC of the block doesn't match.
+     */
+    private boolean readEvents(FileChannel in, long position, int size, int number, Block block) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(getBlockLength(size));
+        readFully(in, buffer, position);
+        if (!isValid(buffer.array(), 0, number)) {
+            logger.warn("Block " + number + " of " + file + " is corrupted, skipping its events.");
+            return false;
+        }
+        buffer.position(BLOCK_HEADER_SIZE);
+        for (int i = 0; i < size; i++) {
+            block.timestamps[i] = buffer.getLong();
+            block.values[i] = buffer.getDouble();
+            block.flags[i] = buffer.get();
+        }
+        block.size = size;
+        return true;
+    }
+
+    private static void readFully(FileChannel in, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (in.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of event file.");
+            }
+        }
+    }
+
+    private static boolean isSorted(List<Record> records) {
+        for (int i = 1; i < records.size(); i++) {
+            if (records.get(i - 1).getTimestamp() > records.get(i).getTimestamp()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the length of the stored events, without events not written yet.
+     * 
+     * @return length in bytes
+     */
+    long getLength() {
+        return length;
+    }
+
+    void touch() {
+        lastAccess = System.nanoTime();
+    }
+
+    long getLastAccess() {
+        return lastAccess;
+    }
+
+    /**
+     * Returns the latest event.
+     * 
+     * @return the event with the highest timestamp or null if there is none
+     * @throws IOException
+     *             if the file can't be read
+     */
+    Record readLatest() throws IOException {
+        if (latestTimestamp == Long.MIN_VALUE) {
+            return null;
+        }
+        List<Record> records = read(latestTimestamp, latestTimestamp);
+        return records.isEmpty() ? null : records.get(records.size() - 1);
+    }
+
+    /**
+     * Writes the last block, if events were added since it was written.
+     * 
+     * @throws IOException
+     *             if the file can't be written
+     */
+    void flush() throws IOException {
+        if (openBlock != null && openBlock.dirty) {
+            writeOpenBlock();
+        }
+    }
+
+    /**
+     * Writes the last block and forces the file to the storage device.
+     * 
+     * @throws IOException
+     *             if the file can't be written
+     */
+    void sync() throws IOException {
+        flush();
+        if (raf != null) {
+            raf.getChannel().force(false);
+        }
+    }
+
+    /**
+     * Writes the last block behind the previous block and closes the file.
+     * 
+     * @throws IOException
+     *             if the file can't be written
+     */
+    void close() throws IOException {
+        flush();
+        if (raf != null) {
+            if (lastBlockPosition > openStart) {
+                byte[] block = openBlock.encode(blocks);
+                do {
+                    writeVersion(block); // remove the previous versions
+                } while (lastBlockPosition != openStart);
+            }
+            raf.close();
+            raf = null;
+        }
+        openBlock = null;
+    }
+
+    private static final class Block {
+
+        private final long[] timestamps;
+        private final double[] values;
+        private final byte[] flags;
+        private int size;
+        private boolean dirty;
+
+        Block(int capacity) {
+            timestamps = new long[capacity];
+            values = new double[capacity];
+            flags = new byte[capacity];
+        }
+
+        /*
+         * Inserts behind events with the same timestamp, so appending in order only moves the end.
+         */
+        void insert(long timestamp, double value, byte flag) {
+            int index = size;
+            if (size > 0 && timestamp < timestamps[size - 1]) {
+                index = upperBound(timestamp);
+                System.arraycopy(timestamps, index, timestamps, index + 1, size - index);
+                System.arraycopy(values, index, values, index + 1, size - index);
+                System.arraycopy(flags, index, flags, index + 1, size - index);
+            }
+            timestamps[index] = timestamp;
+            values[index] = value;
+            flags[index] = flag;
+            size++;
+            dirty = true;
+        }
+
+        /*
+         * Returns the block with header and trailer.
+         */
+        byte[] encode(int number) {
+            int blockLength = getBlockLength(size);
+            ByteBuffer block = ByteBuffer.allocate(blockLength);
+            block.putInt(size).putInt(number).putLong(timestamps[0]).putLong(timestamps[size - 1]);
+            block.position(BLOCK_HEADER_SIZE);
+            for (int i = 0; i < size; i++) {
+                block.putLong(timestamps[i]).putDouble(values[i]).put(flags[i]);
+            }
+            block.putInt(blockLength);
+            CRC32 crc = new CRC32();
+            crc.update(block.array(), 0, 24);
+            crc.update(block.array(), BLOCK_HEADER_SIZE, size * EVENT_SIZE);
+            block.putInt(24, (int) crc.getValue());
+            return block.array();
+        }
+
+        private int upperBound(long timestamp) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (timestamps[middle] <= timestamp) {
+                    low = middle + 1;
+                }
+                else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        void read(long start, long end, List<Record> toReturn) {
+            int i = 0;
+            if (size > 0 && timestamps[0] < start) {
+                i = upperBound(start - 1);
+            }
+            for (; i < size && timestamps[i] <= end; i++) {
+                toReturn.add(new Record(new DoubleValue(values[i]), timestamps[i], Flag.newFlag(flags[i])));
+            }
+        }
+    }
+}
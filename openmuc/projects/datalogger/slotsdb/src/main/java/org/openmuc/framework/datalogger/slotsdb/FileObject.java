@@ -21,160 +21,115 @@
 
 package org.openmuc.framework.datalogger.slotsdb;
 
-import java.io.BufferedOutputStream;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.util.Collections;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.List;
-import java.util.Vector;
 
-import org.openmuc.framework.data.DoubleValue;
-import org.openmuc.framework.data.Flag;
 import org.openmuc.framework.data.Record;
 
-public final class FileObject {
+/**
+ * A .slots file containing the values of one channel with a fixed storing period.<br>
+ * <br>
+ * The file starts with a 16 byte header (start timestamp and storing period as long), followed by one 9 byte slot
+ * (value as double and flag code as byte) per storing period.<br>
+ * <br>
+ * Files may be followed by zeroed slots, which are pre-allocated by {@link MappedFileObject}. Because there is no flag
+ * with code 0, these are not counted as stored values.<br>
+ * <br>
+ * Files written by {@link CompressedFileObject} start with a magic number instead and store the slots in compressed
+ * chunks.
+ */
+public abstract class FileObject {
+
+    protected static final int HEADER_SIZE = 16;
+    protected static final int SLOT_SIZE = 9;
 
-    private long startTimeStamp; // byte 0-7 in file (cached)
-    private long storagePeriod; // byte 8-15 in file (cached)
-    private final File dataFile;
-    private DataOutputStream dos;
-    private BufferedOutputStream bos;
-    private FileOutputStream fos;
-    private DataInputStream dis;
-    private FileInputStream fis;
-    private boolean canWrite;
-    private boolean canRead;
+    protected long startTimeStamp; // byte 0-7 in file (cached)
+    protected long storagePeriod; // byte 8-15 in file (cached)
+    protected final File dataFile;
     /*
      * File length will be cached to avoid system calls an improve I/O Performance
      */
-    private long length = 0;
+    protected long length = 0;
 
-    public FileObject(String filename) throws IOException {
-        canWrite = false;
-        canRead = false;
-        dataFile = new File(filename);
-        length = dataFile.length();
-        if (dataFile.exists() && length >= 16) {
-            /*
-             * File already exists -> get file Header (startTime and step-frequency) TODO: compare to starttime and
-             * frequency in constructor! new file needed? update to file-array!
-             */
-            try {
-                fis = new FileInputStream(dataFile);
-                try {
-                    dis = new DataInputStream(fis);
-                    try {
-                        startTimeStamp = dis.readLong();
-                        storagePeriod = dis.readLong();
-                    } finally {
-                        if (dis != null) {
-                            dis.close();
-                            dis = null;
-                        }
-                    }
-                } finally {
-                    if (dis != null) {
-                        dis.close();
-                        dis = null;
-                    }
-                }
-            } finally {
-                if (fis != null) {
-                    fis.close();
-                    fis = null;
-                }
-            }
-        }
+    protected FileObject(File file) {
+        dataFile = file;
     }
 
-    public FileObject(File file) throws IOException {
-        canWrite = false;
-        canRead = false;
-        dataFile = file;
+    /*
+     * Reads the header of an uncompressed file and the number of stored slots.
+     */
+    protected void readHeader() throws IOException {
         length = dataFile.length();
-        if (dataFile.exists() && length >= 16) {
+        if (dataFile.exists() && length >= HEADER_SIZE) {
             /*
              * File already exists -> get file Header (startTime and step-frequency)
              */
-            fis = new FileInputStream(dataFile);
-            try {
-                dis = new DataInputStream(fis);
-                try {
-                    startTimeStamp = dis.readLong();
-                    storagePeriod = dis.readLong();
-                } finally {
-                    if (dis != null) {
-                        dis.close();
-                        dis = null;
-                    }
-                }
-            } finally {
-                if (fis != null) {
-                    fis.close();
-                    fis = null;
-                }
+            try (RandomAccessFile raf = new RandomAccessFile(dataFile, "r")) {
+                startTimeStamp = raf.readLong();
+                storagePeriod = raf.readLong();
+                length = HEADER_SIZE + countSlots(raf, (length - HEADER_SIZE) / SLOT_SIZE) * SLOT_SIZE;
             }
-
         }
     }
 
-    private void enableOutput() throws IOException {
-        /*
-         * Close Input Streams, for enabling output.
-         */
-        if (dis != null) {
-            dis.close();
-            dis = null;
-        }
-        if (fis != null) {
-            fis.close();
-            fis = null;
-        }
-
-        /*
-         * enabling output
-         */
-        if (fos == null || dos == null || bos == null) {
-            fos = new FileOutputStream(dataFile, true);
-            bos = new BufferedOutputStream(fos);
-            dos = new DataOutputStream(bos);
+    /*
+     * Stored slots are never followed by a pre-allocated slot, so the first pre-allocated slot can be searched
+     * binary. The file may be truncated by the logger meanwhile, slots beyond its end aren't stored.
+     */
+    private static long countSlots(RandomAccessFile raf, long slots) throws IOException {
+        long low = 0;
+        long high = slots;
+        while (low < high) {
+            long middle = (low + high) >>> 1;
+            raf.seek(HEADER_SIZE + middle * SLOT_SIZE + 8);
+            if (raf.read() <= 0) { // 0: pre-allocated, -1: end of file
+                high = middle;
+            }
+            else {
+                low = middle + 1;
+            }
         }
-        canRead = false;
-        canWrite = true;
+        return low;
     }
 
-    private void enableInput() throws IOException {
-        /*
-         * Close Output Streams for enabling input.
-         */
-        if (dos != null) {
-            dos.flush();
-            dos.close();
-            dos = null;
-        }
-        if (bos != null) {
-            bos.close();
-            bos = null;
+    /**
+     * Creates a FileObject for the given file. Existing files are opened in their format. New files are compressed if
+     * configured with {@link SlotsDb#COMPRESSED}, otherwise they are memory mapped if configured with
+     * {@link SlotsDb#MEMORY_MAPPED}.
+     * 
+     * @param file
+     *            the .slots file, which may not exist yet
+     * @return a new FileObject
+     * @throws IOException
+     *             if the header of an existing file can't be read
+     */
+    public static FileObject open(File file) throws IOException {
+        boolean compressed = file.length() > 0 ? CompressedFileObject.isCompressed(file)
+                : Boolean.parseBoolean(SlotsDb.COMPRESSED);
+        if (compressed) {
+            return new CompressedFileObject(file);
         }
-        if (fos != null) {
-            fos.close();
-            fos = null;
+        if (Boolean.parseBoolean(SlotsDb.MEMORY_MAPPED)) {
+            return new MappedFileObject(file);
         }
+        return new StreamFileObject(file);
+    }
 
-        /*
-         * enabling input
-         */
-        if (fis == null || dis == null) {
-            fis = new FileInputStream(dataFile);
-            dis = new DataInputStream(fis);
-        }
-        canWrite = false;
-        canRead = true;
+    /**
+     * @see #open(File)
+     * 
+     * @param filename
+     *            path of the .slots file
+     * @return a new FileObject
+     * @throws IOException
+     *             if the header of an existing file can't be read
+     */
+    public static FileObject open(String filename) throws IOException {
+        return open(new File(filename));
     }
 
     /**
@@ -205,86 +160,21 @@ public final class FileObject {
      * @throws IOException
      *             if an I/O error occurs.
      */
-    public void createFileAndHeader(long startTimeStamp, long stepIntervall) throws IOException {
-        if (!dataFile.exists() || length < 16) {
-            dataFile.getParentFile().mkdirs();
-            if (dataFile.exists() && length < 16) {
-                dataFile.delete(); // file corrupted (header shorter that 16
-            }
-            // bytes)
-            dataFile.createNewFile();
-            this.startTimeStamp = startTimeStamp;
-            storagePeriod = stepIntervall;
+    public abstract void createFileAndHeader(long startTimeStamp, long stepIntervall) throws IOException;
 
-            /*
-             * Do not close Output streams, because after writing the header -> data will follow!
-             */
-            fos = new FileOutputStream(dataFile);
-            bos = new BufferedOutputStream(fos);
-            dos = new DataOutputStream(bos);
-            dos.writeLong(startTimeStamp);
-            dos.writeLong(stepIntervall);
-            dos.flush();
-            length += 16; /* wrote 2*8 Bytes */
-            canWrite = true;
-            canRead = false;
-        }
-    }
-
-    public void append(double value, long timestamp, byte flag) throws IOException {
-        long writePosition = getBytePosition(timestamp);
-        if (writePosition == length) {
-            /*
-             * value for this timeslot has not been saved yet "AND" some value has been stored in last timeslot
-             */
-            if (!canWrite) {
-                enableOutput();
-            }
+    public abstract void append(double value, long timestamp, byte flag) throws IOException;
 
-            dos.writeDouble(value);
-            dos.writeByte(flag);
-            length += 9;
-        }
-        else {
-            if (length > writePosition) {
-                /*
-                 * value has already been stored for this timeslot -> handle? AVERAGE, MIN, MAX, LAST speichern?!
-                 */
-            }
-            else {
-                /*
-                 * there are missing some values missing -> fill up with NaN!
-                 */
-                if (!canWrite) {
-                    enableOutput();
-                }
-                long rowsToFillWithNan = (writePosition - length) / 9;// TODO:
-                                                                      // stimmt
-                                                                      // Berechnung?
-                for (int i = 0; i < rowsToFillWithNan; i++) {
-                    dos.writeDouble(Double.NaN); // TODO: festlegen welcher Wert
-                                                 // undefined sein soll NaN
-                                                 // ok?
-                    dos.writeByte(Flag.NO_VALUE_RECEIVED_YET.getCode()); // TODO:
-                                                                         // festlegen
-                    // welcher Wert
-                    // undefined sein
-                    // soll 00 ok?
-                    length += 9;
-                }
-                dos.writeDouble(value);
-                dos.writeByte(flag);
-                length += 9;
-            }
-        }
-        /*
-         * close(); OutputStreams will not be closed or flushed. Data will be written to disk after calling flush()
-         * method.
-         */
+    /**
+     * Returns the length of the stored data, including values not flushed yet.
+     * 
+     * @return length in bytes
+     */
+    public long getLength() {
+        return length;
     }
 
     public long getTimestampForLatestValue() {
-        return startTimeStamp + (((length - 16) / 9) - 1) * storagePeriod;
+        return startTimeStamp + (((length - HEADER_SIZE) / SLOT_SIZE) - 1) * storagePeriod;
     }
 
     /**
@@ -294,7 +184,7 @@ public final class FileObject {
      *            the searched timestamp
      * @return position the position of the timestamp
      */
-    private long getBytePosition(long timestamp) {
+    protected long getBytePosition(long timestamp) {
         if (timestamp >= startTimeStamp) {
 
             /*
@@ -308,7 +198,7 @@ public final class FileObject {
             if (pos % 1 != 0) { /* faster */
                 pos = Math.round(pos);
             }
-            return (long) (pos * 9 + 16);
+            return (long) (pos * SLOT_SIZE + HEADER_SIZE);
         }
         else {
             // not in file! should never happen...
@@ -320,7 +210,7 @@ public final class FileObject {
      * Calculates the closest timestamp to wanted timestamp getByteposition does a similar thing (Math.round()), for
      * byte position.
      */
-    private long getClosestTimestamp(long timestamp) {
+    protected long getClosestTimestamp(long timestamp) {
         // return Math.round((double) (timestamp -
         // startTimeStamp)/storagePeriod)*storagePeriod+startTimeStamp; /*
         // slower */
@@ -332,21 +222,7 @@ public final class FileObject {
         return (long) ts * storagePeriod + startTimeStamp;
     }
 
-    public Record read(long timestamp) throws IOException {
-        timestamp = getClosestTimestamp(timestamp); // round to: startTimestamp
-        // + n*stepIntervall
-        if (timestamp >= startTimeStamp && timestamp <= getTimestampForLatestValue()) {
-            if (!canRead) {
-                enableInput();
-            }
-            fis.getChannel().position(getBytePosition(timestamp));
-            Double toReturn = dis.readDouble();
-            if (!Double.isNaN(toReturn)) {
-                return new Record(new DoubleValue(toReturn), timestamp, Flag.newFlag(dis.readByte()));
-            }
-        }
-        return null;
-    }
+    public abstract Record read(long timestamp) throws IOException;
 
     /**
      * Returns a List of Value Objects containing the measured Values between provided start and end timestamp
@@ -359,55 +235,7 @@ public final class FileObject {
      * @throws IOException
      *             if an I/O error occurs.
      */
-    public List<Record> read(long start, long end) throws IOException {
-        start = getClosestTimestamp(start); // round to: startTimestamp +
-                                            // n*stepIntervall
-        end = getClosestTimestamp(end); // round to: startTimestamp +
-                                        // n*stepIntervall
-
-        List<Record> toReturn = new Vector<>();
-
-        if (start < end) {
-            if (start < startTimeStamp) {
-                // of this file.
-                start = startTimeStamp;
-            }
-            if (end > getTimestampForLatestValue()) {
-                end = getTimestampForLatestValue();
-            }
-
-            if (!canRead) {
-                enableInput();
-            }
-
-            long timestampcounter = start;
-            long startPos = getBytePosition(start);
-            long endPos = getBytePosition(end);
-
-            fis.getChannel().position(startPos);
-
-            byte[] b = new byte[(int) (endPos - startPos) + 9];
-            dis.read(b, 0, b.length);
-            ByteBuffer bb = ByteBuffer.wrap(b);
-            bb.rewind();
-
-            for (int i = 0; i <= (endPos - startPos) / 9; i++) {
-                double d = bb.getDouble();
-                Flag s = Flag.newFlag(bb.get());
-                if (!Double.isNaN(d)) {
-                    toReturn.add(new Record(new DoubleValue(d), timestampcounter, s));
-                }
-                timestampcounter += storagePeriod;
-            }
-
-        }
-        else if (start == end) {
-            toReturn.add(read(start));
-            toReturn.removeAll(Collections.singleton(null));
-        }
-        return toReturn; // Always return a list -> might be empty -> never is
-                         // null, to avoid NP's
-    }
+    public abstract List<Record> read(long start, long end) throws IOException;
 
     public List<Record> readFully() throws IOException {
         return read(startTimeStamp, getTimestampForLatestValue());
@@ -419,27 +247,7 @@ public final class FileObject {
      * @throws IOException
      *             if an I/O error occurs.
      */
-    public void close() throws IOException {
-        canRead = false;
-        canWrite = false;
-        if (dos != null) {
-            dos.flush();
-            dos.close();
-            dos = null;
-        }
-        if (fos != null) {
-            fos.close();
-            fos = null;
-        }
-        if (dis != null) {
-            dis.close();
-            dis = null;
-        }
-        if (fis != null) {
-            fis.close();
-            fis = null;
-        }
-    }
+    public abstract void close() throws IOException;
 
     /**
      * Flushes the underlying Data Streams.
@@ -447,9 +255,24 @@ public final class FileObject {
      * @throws IOException
      *             if an I/O error occurs.
      */
-    public void flush() throws IOException {
-        if (dos != null) {
-            dos.flush();
+    public abstract void flush() throws IOException;
+
+    /**
+     * Flushes the file and forces the written values to the storage device.
+     * 
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    public abstract void sync() throws IOException;
+
+    /*
+     * Forces a file written by another FileObject, e.g. the first value of a new file, to the storage device.
+     */
+    protected void forceFile() throws IOException {
+        if (dataFile.exists()) {
+            try (FileChannel channel = FileChannel.open(dataFile.toPath(), StandardOpenOption.WRITE)) {
+                channel.force(false);
+            }
         }
     }
 }
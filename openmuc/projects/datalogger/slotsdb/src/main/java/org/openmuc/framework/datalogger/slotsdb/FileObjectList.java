@@ -48,6 +48,8 @@ public final class FileObjectList {
     private String foldername;
     private long firstTS;
     private int size;
+    private final boolean readOnly;
+    private volatile long lastAccess = System.nanoTime();
 
     /**
      * Creates a FileObjectList<br>
@@ -59,8 +61,25 @@ public final class FileObjectList {
      *             if an I/O error occurs.
      */
     public FileObjectList(String foldername) throws IOException {
+        this(foldername, false);
+    }
+
+    /**
+     * Creates a FileObjectList<br>
+     * and creates a FileObject for every File. A read only list doesn't delete corrupted or empty files, because they
+     * may be created by the logger right now.
+     * 
+     * @param foldername
+     *            name of the folder
+     * @param readOnly
+     *            true if the files are only read
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    public FileObjectList(String foldername, boolean readOnly) throws IOException {
         // File folder = new File(foldername);
         this.foldername = foldername;
+        this.readOnly = readOnly;
         reLoadFolder(foldername);
     }
 
@@ -93,10 +112,10 @@ public final class FileObjectList {
                                            // file.
                     String[] split = file.getName().split("\\.");
                     if (("." + split[split.length - 1]).equals(SlotsDb.FILE_EXTENSION)) {
-                        files.add(new FileObject(file));
+                        files.add(FileObject.open(file));
                     }
                 }
-                else {
+                else if (!readOnly) {
                     file.delete();
                 }
             }
@@ -305,6 +324,33 @@ public final class FileObjectList {
         return firstTS;
     }
 
+    /**
+     * Returns the length of the stored data of all FileObjects in this list.
+     * 
+     * @return length in bytes
+     */
+    public long getLength() {
+        long length = 0;
+        for (FileObject f : files) {
+            length += f.getLength();
+        }
+        return length;
+    }
+
+    /**
+     * Marks this list as used for {@link #getLastAccess()}.
+     */
+    public void touch() {
+        lastAccess = System.nanoTime();
+    }
+
+    /**
+     * @return the time of the last {@link #touch()} in ns as of {@link System#nanoTime()}
+     */
+    public long getLastAccess() {
+        return lastAccess;
+    }
+
     /**
      * Flushes all FileObjects in this list.
      * 
@@ -316,4 +362,16 @@ public final class FileObjectList {
             f.flush();
         }
     }
+
+    /**
+     * Flushes all FileObjects in this list and forces them to the storage device.
+     * 
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    public void sync() throws IOException {
+        for (FileObject f : files) {
+            f.sync();
+        }
+    }
 }
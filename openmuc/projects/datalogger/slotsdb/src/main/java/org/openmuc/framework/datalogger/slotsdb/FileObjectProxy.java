@@ -23,50 +23,106 @@ package org.openmuc.framework.datalogger.slotsdb;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.URLEncoder;
 import java.nio.charset.Charset;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
-import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
-import java.util.Vector;
-
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.openmuc.framework.data.Flag;
 import org.openmuc.framework.data.Record;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Stores and reads the values of all channels in the SlotsDB folder structure.<br>
+ * <br>
+ * Appending and flushing lock only the channel concerned, so channels are logged in parallel and the flush timer
+ * doesn't block logging. Range reads and {@link #readLatest(String)} don't lock at all: they open their own
+ * FileObjects and only see complete slots, so history queries run in parallel with each other and with logging. The
+ * days of a channel are looked up in a {@link DayIndex}, ranges over several days are read by a {@link RecordCursor},
+ * which reads the next days in parallel on a small pool of I/O threads.
+ * Closing open files of other channels (new day, open file limit) locks one channel at a time and is never done while
+ * holding a channel lock, which rules out deadlocks.
+ */
 public final class FileObjectProxy {
 
     private static final Logger logger = LoggerFactory.getLogger(FileObjectProxy.class);
 
+    /*
+     * Number of I/O threads reading days of range queries, also the number of days a cursor reads in advance.
+     */
+    private static final int READ_THREADS = 4;
+
     private final File rootNode;
-    private HashMap<String, FileObjectList> openFilesHM;
-    private final HashMap<String, String> encodedLabels;
-    private final SimpleDateFormat sdf;
-    private final Date date;
+    /*
+     * open FileObjectLists by <label>/<yyyyMMdd>, labels are URL encoded and can't contain '/'
+     */
+    private final ConcurrentHashMap<String, FileObjectList> openFilesHM;
+    /*
+     * open EventFiles by <label>/<yyyyMMdd>
+     */
+    private final ConcurrentHashMap<String, EventFile> openEventsHM;
+    private final ConcurrentHashMap<String, String> encodedLabels;
+    private final ConcurrentHashMap<String, ReentrantLock> channelLocks;
+    private final ConcurrentHashMap<String, ChannelRollups> rollups;
+    private final boolean rollupsEnabled;
+    /*
+     * <label>/<yyyyMMdd> of the files appended to since the last sync, if committed by a GroupCommitWriter
+     */
+    private final Set<String> unsynced;
+    private final boolean groupCommit;
+    private final DiskUsage diskUsage;
+    private final DayIndex dayIndex;
+    private final ThreadPoolExecutor readExecutor;
+    private final ReentrantLock evictionLock;
+    private final ThreadLocal<SimpleDateFormat> sdf;
     private final Timer timer;
-    private List<File> days;
-    private long size;
+    private volatile List<File> days;
+    private volatile long size;
 
     /*
      * Flush Period in Seconds. if flush_period == 0 -> write directly to disk.
      */
     private int flush_period = 0;
+    private boolean flushEachValue;
     private int limit_days;
     private int limit_size;
     private int max_open_files;
 
-    private String strCurrentDay;
-    private long currentDayFirstTS;
-    private long currentDayLastTS;
+    private volatile Day currentDay;
+
+    /*
+     * Caches the folder name of a day, because SimpleDateFormat uses a lot cpu-time.
+     */
+    private static final class Day {
+        private final String name;
+        private final long firstTS;
+        private final long lastTS;
+
+        Day(String name, long firstTS) {
+            this.name = name;
+            this.firstTS = firstTS;
+            this.lastTS = firstTS + 86399999;
+        }
+    }
 
     /**
      * Creates an instance of a FileObjectProxy<br>
@@ -76,9 +132,24 @@ public final class FileObjectProxy {
      *            root node path
      */
     public FileObjectProxy(String rootNodePath) {
-        timer = new Timer();
-        date = new Date();
-        sdf = new SimpleDateFormat("yyyyMMdd");
+        this(rootNodePath, "true".equalsIgnoreCase(SlotsDb.ROLLUPS),
+                SlotsDb.MAX_OPEN_FOLDERS != null ? Integer.parseInt(SlotsDb.MAX_OPEN_FOLDERS)
+                        : SlotsDb.MAX_OPEN_FOLDERS_DEFAULT);
+    }
+
+    /**
+     * Creates an instance of a FileObjectProxy with the given settings instead of the system properties.
+     * 
+     * @param rootNodePath
+     *            root node path
+     * @param rollupsEnabled
+     *            maintain rollups of the logged values
+     * @param maxOpenFiles
+     *            number of open folders and event files before the least recently used ones are closed
+     */
+    FileObjectProxy(String rootNodePath, boolean rollupsEnabled, int maxOpenFiles) {
+        timer = new Timer("slotsdb", true);
+        sdf = ThreadLocal.withInitial(() -> new SimpleDateFormat("yyyyMMdd"));
 
         if (!rootNodePath.endsWith("/")) {
             rootNodePath += "/";
@@ -87,19 +158,45 @@ public final class FileObjectProxy {
 
         rootNode = new File(rootNodePath);
         rootNode.mkdirs();
-        openFilesHM = new HashMap<>();
-        encodedLabels = new HashMap<>();
+        openFilesHM = new ConcurrentHashMap<>();
+        openEventsHM = new ConcurrentHashMap<>();
+        encodedLabels = new ConcurrentHashMap<>();
+        channelLocks = new ConcurrentHashMap<>();
+        rollups = new ConcurrentHashMap<>();
+        this.rollupsEnabled = rollupsEnabled;
+        unsynced = ConcurrentHashMap.newKeySet();
+        groupCommit = SlotsDb.COMMIT_WINDOW != null;
+        diskUsage = new DiskUsage();
+        dayIndex = new DayIndex();
+        evictionLock = new ReentrantLock();
+        readExecutor = new ThreadPoolExecutor(READ_THREADS, READ_THREADS, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, "slotsdb-reader");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        readExecutor.allowCoreThreadTimeOut(true);
 
         loadDays();
+        dayIndex.scan(rootNode);
 
-        if (SlotsDb.FLUSH_PERIOD != null) {
+        if (groupCommit) {
+            logger.info("Data is committed to disk by the writer thread.");
+        }
+        else if (SlotsDb.FLUSH_PERIOD != null) {
             flush_period = Integer.parseInt(SlotsDb.FLUSH_PERIOD);
-            logger.info("Flushing Data every: " + flush_period + "s. to disk.");
-            createScheduledFlusher();
+            if (flush_period > 0) {
+                logger.info("Flushing Data every: " + flush_period + "s. to disk.");
+                createScheduledFlusher();
+            }
+            else {
+                logger.info("Writing Data directly to disk.");
+            }
         }
         else {
             logger.info("No Flush Period set. Writing Data directly to disk.");
         }
+        flushEachValue = flush_period == 0 && !groupCommit;
 
         if (SlotsDb.DATA_LIFETIME_IN_DAYS != null) {
             limit_days = Integer.parseInt(SlotsDb.DATA_LIFETIME_IN_DAYS);
@@ -116,33 +213,35 @@ public final class FileObjectProxy {
                 limit_size = SlotsDb.MINIMUM_DATABASE_SIZE;
             }
             logger.info("Size Limit: " + limit_size + " MB.");
+            diskUsage.scan(rootNode);
             createScheduledSizeWatcher();
         }
         else {
             logger.info("Size Limit: UNLIMITED MB.");
         }
 
-        if (SlotsDb.MAX_OPEN_FOLDERS != null) {
-            max_open_files = Integer.parseInt(SlotsDb.MAX_OPEN_FOLDERS);
+        max_open_files = maxOpenFiles;
+        if (max_open_files != SlotsDb.MAX_OPEN_FOLDERS_DEFAULT) {
             logger.info("Maximum open Files for Database changed to: " + max_open_files);
         }
         else {
-            max_open_files = SlotsDb.MAX_OPEN_FOLDERS_DEFAULT;
             logger.info("Maximum open Files for Database is set to: " + max_open_files + " (default).");
         }
+
+        logger.info("Rollups are " + (rollupsEnabled ? "enabled." : "disabled."));
     }
 
     /*
      * loads a sorted list of all days in SLOTSDB. Necessary for search- and delete jobs.
      */
     private void loadDays() {
-        days = new Vector<>();
+        List<File> folders = new ArrayList<>();
         for (File f : rootNode.listFiles()) {
             if (f.isDirectory()) {
-                days.add(f);
+                folders.add(f);
             }
         }
-        days = sortFolders(days);
+        days = sortFolders(folders);
     }
 
     private List<File> sortFolders(List<File> days) {
@@ -152,7 +251,9 @@ public final class FileObjectProxy {
             public int compare(File f1, File f2) {
                 int i = 0;
                 try {
-                    i = Long.valueOf(sdf.parse(f1.getName()).getTime()).compareTo(sdf.parse(f2.getName()).getTime());
+                    SimpleDateFormat format = sdf.get();
+                    i = Long.valueOf(format.parse(f1.getName()).getTime())
+                            .compareTo(format.parse(f2.getName()).getTime());
                 } catch (ParseException e) {
                     logger.error("Error during sorting Files: Folder doesn't match yyyymmdd Format?");
                 }
@@ -202,13 +303,15 @@ public final class FileObjectProxy {
             limit.setTimeInMillis(System.currentTimeMillis() - (86400000L * limit_days));
             try {
                 for (File curElement : days) {
-                    if (sdf.parse(curElement.getName()).getTime() + 86400000 < limit
+                    if (sdf.get().parse(curElement.getName()).getTime() + 86400000 < limit
                             .getTimeInMillis()) { /*
                                                    * compare folder 's oldest value to limit
                                                    */
                         logger.info("Folder: " + curElement.getName() + " is older then " + limit_days
                                 + " Days. Will be deleted.");
                         deleteRecursiveFolder(curElement);
+                        diskUsage.remove(curElement.getName());
+                        dayIndex.remove(curElement.getName());
                     }
                     else {
                         /* oldest existing Folder is not to be deleted yet */
@@ -231,7 +334,7 @@ public final class FileObjectProxy {
         @Override
         public void run() {
             try {
-                while ((getDiskUsage(rootNode) / 1000000 > limit_size)
+                while ((getDiskUsage() / 1000000 > limit_size)
                         && (days.size() >= 2)) { /*
                                                   * avoid deleting current folder
                                                   */
@@ -247,7 +350,9 @@ public final class FileObjectProxy {
                 logger.info("Exceeded Maximum Database Size: " + limit_size + " MB. Current size: " + (size / 1000000)
                         + " MB. Deleting: " + days.get(0).getCanonicalPath());
                 deleteRecursiveFolder(days.get(0));
-                days.remove(0);
+                diskUsage.remove(days.get(0).getName());
+                dayIndex.remove(days.get(0).getName());
+                loadDays();
                 clearOpenFilesHashMap();
             }
         }
@@ -271,23 +376,13 @@ public final class FileObjectProxy {
     }
 
     /*
-     * recursive function to get the size of a folder. sums up all files. needs an initial LONG to store size to.
+     * The size of the database is summed up from the sizes of the days, which are counted when files are written.
      */
-    private long getDiskUsage(File folder) throws IOException {
-        size = 0;
-        recursive_size_walker(folder);
+    private long getDiskUsage() {
+        size = diskUsage.getTotal();
         return size;
     }
 
-    private void recursive_size_walker(File folder) throws IOException {
-        for (File f : folder.listFiles()) {
-            size += f.length();
-            if (f.isDirectory()) {
-                recursive_size_walker(f);
-            }
-        }
-    }
-
     /**
      * Appends a new Value to Slots Database.
      * 
@@ -304,44 +399,73 @@ public final class FileObjectProxy {
      * @throws IOException
      *             if an I/O error occurs.
      */
-    public synchronized void appendValue(String id, double value, long timestamp, byte state, long storingPeriod)
+    public void appendValue(String id, double value, long timestamp, byte state, long storingPeriod)
             throws IOException {
-        FileObject toStoreIn = null;
-
         id = encodeLabel(id);
 
         String strDate = getStrDate(timestamp);
+        String key = id + "/" + strDate;
 
         /*
          * If there is no FileObjectList for this folder, a new one will be created. (This will be the first value
          * stored for this day) Eventually existing FileObjectLists from the day before will be flushed and closed. Also
-         * the Hashtable size will be monitored, to not have too many opened Filestreams.
+         * the Hashtable size will be monitored, to not have too many opened Filestreams. This locks other channels, so
+         * it's done before locking this channel.
          */
-        if (!openFilesHM.containsKey(id + strDate)) {
+        if (!openFilesHM.containsKey(key)) {
             deleteEntryFromLastDay(timestamp, id);
             controlHashtableSize();
-            FileObjectList first = new FileObjectList(rootNode.getPath() + "/" + strDate + "/" + id);
-            openFilesHM.put(id + strDate, first);
+        }
 
-            /*
-             * If FileObjectList for this label does not contain any FileObjects yet, a new one will be created. Data
-             * will be stored and List reloaded for next Value to store.
-             */
-            if (first.size() == 0) {
-                toStoreIn = new FileObject(
-                        rootNode.getPath() + "/" + strDate + "/" + id + "/" + timestamp + SlotsDb.FILE_EXTENSION);
-                toStoreIn.createFileAndHeader(timestamp, storingPeriod);
-                toStoreIn.append(value, timestamp, state);
-                toStoreIn.close(); /* close() also calls flush(). */
-                openFilesHM.get(id + strDate).reLoadFolder();
-                return;
+        if (groupCommit) {
+            unsynced.add(key);
+        }
+        ReentrantLock lock = getChannelLock(id);
+        lock.lock();
+        try {
+            FileObjectList list = openFilesHM.get(key);
+            if (list == null) {
+                list = new FileObjectList(rootNode.getPath() + "/" + strDate + "/" + id);
+                openFilesHM.put(key, list);
+                dayIndex.add(id, strDate);
+            }
+            long length = list.getLength();
+            boolean stored = appendValue(list, id, strDate, value, timestamp, state, storingPeriod);
+            list.touch();
+            diskUsage.add(strDate, list.getLength() - length);
+            if (stored && rollupsEnabled && state == Flag.VALID.getCode()) {
+                rollups.computeIfAbsent(id, label -> new ChannelRollups(rootNode, label, diskUsage)).add(value,
+                        timestamp);
             }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * Returns false if the value wasn't stored, because its slot was stored already or is before the current file.
+     */
+    private boolean appendValue(FileObjectList listToStoreIn, String id, String strDate, double value, long timestamp,
+            byte state, long storingPeriod) throws IOException {
+        FileObject toStoreIn = null;
+
+        /*
+         * If FileObjectList for this label does not contain any FileObjects yet, a new one will be created. Data will
+         * be stored and List reloaded for next Value to store.
+         */
+        if (listToStoreIn.size() == 0) {
+            toStoreIn = FileObject.open(
+                    rootNode.getPath() + "/" + strDate + "/" + id + "/" + timestamp + SlotsDb.FILE_EXTENSION);
+            toStoreIn.createFileAndHeader(timestamp, storingPeriod);
+            toStoreIn.append(value, timestamp, state);
+            toStoreIn.close(); /* close() also calls flush(). */
+            listToStoreIn.reLoadFolder();
+            return true;
         }
 
         /*
          * There is a FileObjectList for this day.
          */
-        FileObjectList listToStoreIn = openFilesHM.get(id + strDate);
         if (listToStoreIn.size() > 0) {
             toStoreIn = listToStoreIn.getCurrentFileObject();
 
@@ -349,7 +473,7 @@ public final class FileObjectProxy {
              * If StartTimeStamp is newer then the Timestamp of the value to store, this value can't be stored.
              */
             if (toStoreIn.getStartTimeStamp() > timestamp) {
-                return;
+                return false;
             }
         }
         if (toStoreIn == null) {
@@ -360,30 +484,102 @@ public final class FileObjectProxy {
          * The storing Period may have changed. In this case, a new FileObject must be created.
          */
         if (toStoreIn.getStoringPeriod() == storingPeriod || toStoreIn.getStoringPeriod() == 0) {
-            toStoreIn = openFilesHM.get(id + strDate).getCurrentFileObject();
+            long latest = toStoreIn.getTimestampForLatestValue();
             toStoreIn.append(value, timestamp, state);
-            if (flush_period == 0) {
+            if (flushEachValue) {
                 toStoreIn.flush();
             }
-            else {
-                return;
-            }
+            return toStoreIn.getTimestampForLatestValue() != latest;
         }
         else {
             /*
              * Intervall changed -> create new File (if there are no newer values for this day, or file)
              */
             if (toStoreIn.getTimestampForLatestValue() < timestamp) {
-                toStoreIn = new FileObject(
+                toStoreIn = FileObject.open(
                         rootNode.getPath() + "/" + strDate + "/" + id + "/" + timestamp + SlotsDb.FILE_EXTENSION);
                 toStoreIn.createFileAndHeader(timestamp, storingPeriod);
                 toStoreIn.append(value, timestamp, state);
-                if (flush_period == 0) {
-                    toStoreIn.flush();
-                }
-                openFilesHM.get(id + strDate).reLoadFolder();
+                toStoreIn.close(); // the list opens it again
+                listToStoreIn.closeAllFiles();
+                listToStoreIn.reLoadFolder();
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Appends an event with its own timestamp to the event file of its day. Events may arrive out of order. NaN values
+     * aren't stored, like they aren't returned from the .slots files.
+     * 
+     * @param id
+     *            ID
+     * @param value
+     *            Value
+     * @param timestamp
+     *            time stamp of the event
+     * @param state
+     *            State
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    public void appendEvent(String id, double value, long timestamp, byte state) throws IOException {
+        if (Double.isNaN(value)) {
+            return;
+        }
+        id = encodeLabel(id);
+
+        String strDate = getStrDate(timestamp);
+        String key = id + "/" + strDate;
+        boolean newDay = false;
+        if (!openEventsHM.containsKey(key)) {
+            /*
+             * Events of the day before may still arrive, but most likely logging moved on to this day.
+             */
+            String lastKey = id + "/" + getStrDate(timestamp - 86400000);
+            EventFile lastDay = openEventsHM.get(lastKey);
+            if (lastDay != null) {
+                close(lastKey, lastDay);
             }
+            controlHashtableSize();
+            newDay = !new File(rootNode, strDate).exists();
+        }
+        if (groupCommit) {
+            unsynced.add(key);
         }
+
+        ReentrantLock lock = getChannelLock(id);
+        lock.lock();
+        try {
+            EventFile events = openEventsHM.get(key);
+            if (events == null) {
+                events = new EventFile(new File(rootNode, strDate + "/" + id + "/" + EventFile.FILE_NAME));
+                openEventsHM.put(key, events);
+                dayIndex.add(id, strDate);
+            }
+            long length = events.getLength();
+            events.append(value, timestamp, state);
+            if (flushEachValue) {
+                events.flush();
+            }
+            events.touch();
+            diskUsage.add(strDate, events.getLength() - length);
+        } finally {
+            lock.unlock();
+        }
+
+        if (newDay) {
+            loadDays();
+        }
+    }
+
+    private static String getDay(String key) {
+        return key.substring(key.lastIndexOf('/') + 1);
+    }
+
+    private ReentrantLock getChannelLock(String label) {
+        return channelLocks.computeIfAbsent(label, l -> new ReentrantLock());
     }
 
     private String encodeLabel(String label) throws IOException {
@@ -391,37 +587,49 @@ public final class FileObjectProxy {
         if (encodedLabel == null) {
             encodedLabel = URLEncoder.encode(label, Charset.defaultCharset().toString()); // encodes label to supported
                                                                                           // String for Filenames.
-            encodedLabels.put(label, encodedLabel);
+            encodedLabels.putIfAbsent(label, encodedLabel);
         }
         return encodedLabel;
     }
 
-    public synchronized Record read(String label, long timestamp) throws IOException {
+    public Record read(String label, long timestamp) throws IOException {
         // label = URLEncoder.encode(label,Charset.defaultCharset().toString());
         // //encodes label to supported String for Filenames.
         label = encodeLabel(label);
 
         String strDate = getStrDate(timestamp);
+        String key = label + "/" + strDate;
 
-        if (!openFilesHM.containsKey(label + strDate)) {
+        if (!openFilesHM.containsKey(key)) {
             controlHashtableSize();
-            FileObjectList fol = new FileObjectList(rootNode.getPath() + "/" + strDate + "/" + label);
-            openFilesHM.put(label + strDate, fol);
         }
-        FileObject toReadFrom = openFilesHM.get(label + strDate).getFileObjectForTimestamp(timestamp);
-        if (toReadFrom != null) {
-            return toReadFrom.read(timestamp); // null if no value for timestamp
-                                               // is available
+
+        ReentrantLock lock = getChannelLock(label);
+        lock.lock();
+        try {
+            FileObjectList fol = openFilesHM.get(key);
+            if (fol == null) {
+                fol = new FileObjectList(rootNode.getPath() + "/" + strDate + "/" + label);
+                openFilesHM.put(key, fol);
+            }
+            fol.touch();
+            FileObject toReadFrom = fol.getFileObjectForTimestamp(timestamp);
+            if (toReadFrom != null) {
+                return toReadFrom.read(timestamp); // null if no value for timestamp
+                                                   // is available
+            }
+            return null;
+        } finally {
+            lock.unlock();
         }
-        return null;
     }
 
-    public synchronized List<Record> read(String label, long start, long end) throws IOException {
+    public List<Record> read(String label, long start, long end) throws IOException {
         if (logger.isTraceEnabled()) {
             logger.trace("Called: read(" + label + ", " + start + ", " + end + ")");
         }
 
-        List<Record> toReturn = new Vector<>();
+        List<Record> toReturn = new ArrayList<>();
 
         if (start > end) {
             logger.trace("Invalid Read Request: startTS > endTS");
@@ -429,8 +637,14 @@ public final class FileObjectProxy {
         }
 
         if (start == end) {
-            toReturn.add(read(label, start)); // let other read function handle.
-            toReturn.removeAll(Collections.singleton(null));
+            Record record = read(label, start); // let other read function handle.
+            if (record != null) {
+                toReturn.add(record);
+            }
+            String encodedLabel = encodeLabel(label);
+            for (String strDate : dayIndex.getDays(encodedLabel, start, end)) {
+                toReturn = addEvents(toReturn, encodedLabel, strDate, start, end);
+            }
             return toReturn;
         }
         if (end > 50000000000000L) { /*
@@ -439,150 +653,185 @@ public final class FileObjectProxy {
             end = 50000000000000L;
         }
 
-        // label = URLEncoder.encode(label,Charset.defaultCharset().toString());
-        // //encodes label to supported String for Filenames.
         label = encodeLabel(label);
+        List<String> days = dayIndex.getDays(label, start, end);
+        logger.trace("Found " + days.size() + " days to read from.");
 
-        String strStartDate = getStrDate(start);
-        String strEndDate = getStrDate(end);
-
-        List<FileObject> toRead = new Vector<>();
-
-        if (!strStartDate.equals(strEndDate)) {
-            logger.trace("Reading Multiple Days. Scanning for Folders.");
-            List<FileObjectList> days = new Vector<>();
-
-            /*
-             * Check for Folders matching criteria: Folder contains data between start & end timestamp. Folder contains
-             * label.
-             */
-            String strSubfolder;
-            for (File folder : rootNode.listFiles()) {
-                if (folder.isDirectory()) {
-                    if (isFolderBetweenStartAndEnd(folder.getName(), start, end)) {
-                        if (Arrays.asList(folder.list()).contains(label)) {
-                            strSubfolder = rootNode.getPath() + "/" + folder.getName() + "/" + label;
-                            days.add(new FileObjectList(strSubfolder));
-                            logger.trace(strSubfolder + " contains " + SlotsDb.FILE_EXTENSION + " files to read from.");
-                        }
-                    }
-                }
-            }
-            /*
-             * Sort days, because rootNode.listFiles() is unsorted. FileObjectLists MUST be sorted, otherwise data
-             * output wouldn't be sorted.
-             */
-            Collections.sort(days, new Comparator<FileObjectList>() {
+        if (days.size() == 1) {
+            return readDay(label, days.get(0), start, end);
+        }
+        try (RecordCursor cursor = readCursor(label, days, start, end)) {
+            cursor.forEachRemaining(toReturn::add);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        logger.trace("Selected days contain " + toReturn.size() + " Values.");
+        return toReturn;
+    }
 
-                @Override
-                public int compare(FileObjectList f1, FileObjectList f2) {
-                    return Long.valueOf(f1.getFirstTS()).compareTo(f2.getFirstTS());
-                }
-            });
+    /**
+     * Returns a cursor over the values and events of a channel between start and end. Unlike
+     * {@link #read(String, long, long)} the days are read while the records are iterated, so long ranges are read in
+     * parallel and with bounded memory, and reading stops when the cursor is closed.
+     * 
+     * @param label
+     *            the channel ID
+     * @param start
+     *            start timestamp
+     * @param end
+     *            end timestamp
+     * @return the cursor, which has to be closed if it isn't iterated to the end
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    public RecordCursor readCursor(String label, long start, long end) throws IOException {
+        if (start > end) {
+            return new RecordCursor(Collections.emptyList(), readExecutor, 0);
+        }
+        if (start == end) {
+            return new RecordCursor(Collections.singletonList(() -> read(label, start, end)), readExecutor, 1);
+        }
+        String encodedLabel = encodeLabel(label);
+        long last = Math.min(end, 50000000000000L);
+        return readCursor(encodedLabel, dayIndex.getDays(encodedLabel, start, last), start, last);
+    }
 
-            /*
-             * Create a list with all file-objects that must be read for this reading request.
-             */
-            if (days.size() == 0) {
-                return toReturn;
-            }
-            else if (days.size() == 1) {
-                toRead.addAll(days.get(0).getFileObjectsFromTo(start, end));
-            }
-            else { // days.size()>1
-                toRead.addAll(days.get(0).getFileObjectsStartingAt(start));
-                for (int i = 1; i < days.size() - 1; i++) {
-                    toRead.addAll(days.get(i).getAllFileObjects());
-                }
-                toRead.addAll(days.get(days.size() - 1).getFileObjectsUntil(end));
-            }
-            toRead.removeAll(Collections.singleton(null));
-        }
-        else { // Start == End Folder -> only 1 FileObjectList must be read.
-            File folder = new File(rootNode.getPath() + "/" + strStartDate + "/" + label);
-            FileObjectList fol;
-            if (folder.list() != null) {
-                if (folder.list().length > 0) { // Are there Files in the
-                                                // folder, that should be read?
-                    fol = new FileObjectList(rootNode.getPath() + "/" + strStartDate + "/" + label);
-                    toRead.addAll(fol.getFileObjectsFromTo(start, end));
-                }
-            }
+    private RecordCursor readCursor(String label, List<String> days, long start, long end) {
+        List<Callable<List<Record>>> reads = new ArrayList<>(days.size());
+        for (String strDate : days) {
+            reads.add(() -> readDay(label, strDate, start, end));
         }
-        logger.trace("Found " + toRead.size() + " " + SlotsDb.FILE_EXTENSION + " files to read from.");
+        return new RecordCursor(reads, readExecutor, READ_THREADS);
+    }
+
+    /*
+     * Reads the values and events of an encoded label logged on a day between start and end.
+     */
+    private List<Record> readDay(String label, String strDate, long start, long end) throws IOException {
+        FileObjectList fol = new FileObjectList(rootNode.getPath() + "/" + strDate + "/" + label, true);
+        List<FileObject> toRead = fol.getFileObjectsFromTo(start, end);
+        List<Record> toReturn = new ArrayList<>();
 
         /*
          * Read all FileObjects: first (2nd,3rd,4th....n-1) last first and last will be read separately, to not exceed
          * timestamp range.
          */
-        if (toRead != null) {
-            if (toRead.size() > 1) {
-                toReturn.addAll(toRead.get(0).read(start, toRead.get(0).getTimestampForLatestValue()));
-                toRead.get(0).close();
-                for (int i = 1; i < toRead.size() - 1; i++) {
-                    toReturn.addAll(toRead.get(i).readFully());
-                    toRead.get(i).close();
-                }
-                toReturn.addAll(
-                        toRead.get(toRead.size() - 1).read(toRead.get(toRead.size() - 1).getStartTimeStamp(), end));
-                toRead.get(toRead.size() - 1).close();
+        if (toRead.size() > 1) {
+            toReturn.addAll(toRead.get(0).read(start, toRead.get(0).getTimestampForLatestValue()));
+            toRead.get(0).close();
+            for (int i = 1; i < toRead.size() - 1; i++) {
+                toReturn.addAll(toRead.get(i).readFully());
+                toRead.get(i).close();
+            }
+            toReturn.addAll(toRead.get(toRead.size() - 1).read(toRead.get(toRead.size() - 1).getStartTimeStamp(), end));
+            toRead.get(toRead.size() - 1).close();
+        }
+        else if (toRead.size() == 1) { // single FileObject
+            toReturn.addAll(toRead.get(0).read(start, end));
+            toRead.get(0).close();
+        }
+        /*
+         * Some Values might be null -> remove
+         */
+        toReturn.removeAll(Collections.singleton(null));
+        return addEvents(toReturn, label, strDate, start, end);
+    }
 
-                /*
-                 * Some Values might be null -> remove
-                 */
-                toReturn.removeAll(Collections.singleton(null));
+    /*
+     * Adds the events logged on a day between start and end to the sorted records.
+     */
+    private List<Record> addEvents(List<Record> records, String label, String strDate, long start, long end)
+            throws IOException {
+        List<Record> events = readEvents(label, strDate, start, end);
+        if (events.isEmpty()) {
+            return records;
+        }
+        if (records.isEmpty()) {
+            return events;
+        }
+        records.addAll(events);
+        records.sort(Comparator.comparingLong(Record::getTimestamp));
+        return records;
+    }
 
-            }
-            else if (toRead.size() == 1) { // single FileObject
-                toReturn.addAll(toRead.get(0).read(start, end));
-                toReturn.removeAll(Collections.singleton(null));
-            }
+    /*
+     * Reads the events of an encoded label logged on a day. Open EventFiles are read under the channel lock, because
+     * they hold the last block in memory.
+     */
+    private List<Record> readEvents(String label, String strDate, long start, long end) throws IOException {
+        ReentrantLock lock = getChannelLock(label);
+        lock.lock();
+        try {
+            EventFile events = getEventFile(label, strDate);
+            return events == null ? new ArrayList<>(0) : events.read(start, end);
+        } finally {
+            lock.unlock();
         }
-        logger.trace("Selected " + SlotsDb.FILE_EXTENSION + " files contain " + toReturn.size() + " Values.");
-        return toReturn;
     }
 
-    public synchronized Record readLatest(String label) throws IOException {
+    private Record readLatestEvent(String label, String strDate) throws IOException {
+        EventFile events = getEventFile(label, strDate);
+        return events == null ? null : events.readLatest();
+    }
+
+    /*
+     * Returns the open EventFile of a day, a new one opened for reading or null if there are no events.
+     */
+    private EventFile getEventFile(String label, String strDate) throws IOException {
+        String key = label + "/" + strDate;
+        File file = new File(rootNode, strDate + "/" + label + "/" + EventFile.FILE_NAME);
+        EventFile events = openEventsHM.get(key);
+        if (events == null && file.exists()) {
+            events = new EventFile(file);
+        }
+        return events;
+    }
+
+    public Record readLatest(String label) throws IOException {
         if (logger.isTraceEnabled()) {
             logger.trace("Called: readLatest(" + label + ")");
         }
         label = encodeLabel(label);
 
         /*
-         * Checks for the folder with the latest day
+         * Checks the days of the channel starting with the latest one
          */
-        long latestDay = 0;
-        File latestFolder = null;
-        for (File folder : rootNode.listFiles()) {
-            if (folder.isDirectory()) {
-                if (getFolderTimestamp(folder.getName()) > latestDay) {
-                    latestFolder = folder;
-                    latestDay = getFolderTimestamp(folder.getName());
-                }
+        String strDate = dayIndex.getLatest(label, null);
+        while (strDate != null) {
+            Record latestRecord = readLatest(label, strDate);
+            if (latestRecord != null) {
+                return latestRecord;
             }
+            strDate = dayIndex.getLatest(label, strDate);
         }
-        if (latestFolder == null) {
-            return null;
-        }
+        return null;
+    }
 
+    private Record readLatest(String label, String strDate) throws IOException {
         /*
          * Get list of all fileObjects
          */
-        String strSubfolder;
-        FileObjectList fileObjects = null;
-        if (Arrays.asList(latestFolder.list()).contains(label)) {
-            strSubfolder = rootNode.getPath() + "/" + latestFolder.getName() + "/" + label;
-            fileObjects = new FileObjectList(strSubfolder);
-            logger.trace(strSubfolder + " contains " + SlotsDb.FILE_EXTENSION + " files to read from.");
+        String strSubfolder = rootNode.getPath() + "/" + strDate + "/" + label;
+        FileObjectList fileObjects = new FileObjectList(strSubfolder, true);
+        logger.trace(strSubfolder + " contains " + SlotsDb.FILE_EXTENSION + " files to read from.");
+
+        /*
+         * The latest event of the day is the latest Record, unless there is a newer value in a file.
+         */
+        Record latestRecord = null;
+        ReentrantLock lock = getChannelLock(label);
+        lock.lock();
+        try {
+            latestRecord = readLatestEvent(label, strDate);
+        } finally {
+            lock.unlock();
         }
 
         /*
          * For each file get the latest Record and compare those
          */
-        List<FileObject> toRead = new Vector<>();
-        toRead = fileObjects.getAllFileObjects();
-        long latestTimestamp = 0;
-        Record latestRecord = null;
+        List<FileObject> toRead = fileObjects.getAllFileObjects();
+        long latestTimestamp = latestRecord == null ? 0 : latestRecord.getTimestamp();
         for (FileObject file : toRead) {
             long timestamp = file.getTimestampForLatestValue();
             if (timestamp > latestTimestamp) {
@@ -590,86 +839,195 @@ public final class FileObjectProxy {
                 latestRecord = file.read(timestamp); // function calculates closest available timestamp to given
                                                      // timestamp. This should always be equal though
             }
+            file.close();
         }
         return latestRecord;
     }
 
     /**
-     * Return timestamp of the folder with given name
+     * Returns the rollups of a channel between start and end. They are read from the coarsest {@link ERollupTier} whose
+     * period doesn't exceed the resolution. Finer resolutions and days logged without rollups are aggregated from the
+     * logged values.
      * 
-     * @param name
-     *            of the folder
-     * @return timestamp in ms
+     * @param label
+     *            the channel ID
+     * @param start
+     *            start timestamp, the rollup containing it is the first one returned
+     * @param end
+     *            end timestamp, the rollup containing it is the last one returned
+     * @param resolution
+     *            the requested resolution in ms
+     * @return the rollups sorted by timestamp
+     * @throws IOException
+     *             if an I/O error occurs.
      */
-    private long getFolderTimestamp(String name) {
+    public List<Rollup> readRollups(String label, long start, long end, long resolution) throws IOException {
+        if (logger.isTraceEnabled()) {
+            logger.trace("Called: readRollups(" + label + ", " + start + ", " + end + ", " + resolution + ")");
+        }
+        if (start > end || resolution <= 0) {
+            return new ArrayList<>(0);
+        }
+
+        ERollupTier tier = ERollupTier.forResolution(resolution);
+        long period = tier != null ? tier.getPeriod() : resolution;
+        long first = start - Math.floorMod(start, period);
+        if (tier == null || !rollupsEnabled) {
+            return aggregate(label, first, getBucketEnd(end, period), period);
+        }
+        String encodedLabel = encodeLabel(label);
+
+        List<Rollup> toReturn = new ArrayList<>();
+        SimpleDateFormat format = sdf.get();
+        Calendar day = Calendar.getInstance();
+        day.setTimeInMillis(first);
+        day.set(Calendar.HOUR_OF_DAY, 0);
+        day.set(Calendar.MINUTE, 0);
+        day.set(Calendar.SECOND, 0);
+        day.set(Calendar.MILLISECOND, 0);
+        while (day.getTimeInMillis() <= end) {
+            long dayStart = day.getTimeInMillis();
+            String strDate = format.format(day.getTime());
+            day.add(Calendar.DAY_OF_MONTH, 1);
+
+            File folder = new File(rootNode, strDate + "/" + encodedLabel);
+            File file = new File(folder, ChannelRollups.FILE_NAME);
+            if (file.exists()) {
+                toReturn.addAll(ChannelRollups.read(file, tier, dayStart, first, end));
+            }
+            else if (folder.isDirectory()) {
+                toReturn.addAll(aggregate(label, Math.max(first, dayStart),
+                        Math.min(getBucketEnd(end, period), day.getTimeInMillis() - 1), period));
+            }
+        }
+        toReturn = merge(toReturn);
+
+        /*
+         * The current rollup may not be written yet.
+         */
+        Rollup current = null;
+        ReentrantLock lock = getChannelLock(encodedLabel);
+        lock.lock();
         try {
-            sdf.parse(name);
-        } catch (ParseException e) {
-            logger.error("Unable to parse Timestamp from: " + name + " folder. " + e.getMessage());
+            ChannelRollups channelRollups = rollups.get(encodedLabel);
+            if (channelRollups != null) {
+                current = channelRollups.getCurrent(tier);
+            }
+        } finally {
+            lock.unlock();
         }
-        return sdf.getCalendar().getTimeInMillis();
+        if (current != null && current.getTimestamp() >= first && current.getTimestamp() <= end) {
+            int i = toReturn.size();
+            while (i > 0 && toReturn.get(i - 1).getTimestamp() > current.getTimestamp()) {
+                i--;
+            }
+            if (i > 0 && toReturn.get(i - 1).getTimestamp() == current.getTimestamp()) {
+                toReturn.set(i - 1, current);
+            }
+            else {
+                toReturn.add(i, current);
+            }
+        }
+        return toReturn;
     }
 
-    /**
-     * Parses a Timestamp in Milliseconds from a String in yyyyMMdd Format <br>
-     * e.g.: 25.Sept.2011: 20110925 <br>
-     * would return: 1316901600000 ms. equal to (25.09.2011 - 00:00:00) <br>
-     * 
-     * @param name
-     *            in "yyyyMMdd" Format
-     * @param start
-     *            start time stamp
-     * @param end
-     *            end time stamp
-     * @return boolean true if yes else false
+    /*
+     * Returns the last timestamp of the rollup containing the timestamp, rollups are always returned completely.
      */
-    private boolean isFolderBetweenStartAndEnd(String name, long start, long end) {
-        try {
-            sdf.parse(name);
-        } catch (ParseException e) {
-            logger.error("Unable to parse Timestamp from: " + name + " folder. " + e.getMessage());
-        }
-        if (start <= sdf.getCalendar().getTimeInMillis() + 86399999 && sdf.getCalendar().getTimeInMillis() <= end) { // if
-                                                                                                                     // start
-                                                                                                                     // <=
-                                                                                                                     // folder.lastTSofDay
-                                                                                                                     // &&
-                                                                                                                     // folder.firstTSofDay
-                                                                                                                     // <=
-                                                                                                                     // end
-            return true;
+    private static long getBucketEnd(long timestamp, long period) {
+        return timestamp - Math.floorMod(timestamp, period) + period - 1;
+    }
+
+    /*
+     * Aggregates the valid logged values between start and end to rollups of the given period.
+     */
+    private List<Rollup> aggregate(String label, long start, long end, long period) throws IOException {
+        List<Rollup> toReturn = new ArrayList<>();
+        long bucket = 0;
+        double min = 0;
+        double max = 0;
+        double sum = 0;
+        long count = 0;
+        for (Record record : read(label, start, end)) {
+            double value = record.getValue().asDouble();
+            if (record.getFlag() != Flag.VALID || Double.isNaN(value)) {
+                continue;
+            }
+            long timestamp = record.getTimestamp();
+            if (timestamp < start || timestamp > end) {
+                continue; // read returns the closest slots
+            }
+            long bucketStart = timestamp - Math.floorMod(timestamp, period);
+            if (count > 0 && bucketStart != bucket) {
+                toReturn.add(new Rollup(bucket, period, min, max, sum / count, count));
+                count = 0;
+            }
+            if (count == 0) {
+                bucket = bucketStart;
+                min = value;
+                max = value;
+                sum = 0;
+            }
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+            sum += value;
+            count++;
         }
-        return false;
+        if (count > 0) {
+            toReturn.add(new Rollup(bucket, period, min, max, sum / count, count));
+        }
+        return toReturn;
     }
 
     /*
-     * strCurrentDay holds the current Day in yyyyMMdd format, because SimpleDateFormat uses a lot cpu-time.
-     * currentDayFirstTS and ... currentDayLastTS mark the first and last timestamp of this day. If a TS exceeds this
-     * range, strCurrentDay, currentDayFirstTS, currentDayLastTS will be updated.
+     * Combines sorted rollups with the same timestamp, which are split by midnight if it isn't aligned to the period.
      */
-    private String getStrDate(long timestamp) throws IOException {
-        if (strCurrentDay != null) {
-            if (timestamp >= currentDayFirstTS && timestamp <= currentDayLastTS) {
-                return strCurrentDay;
+    private static List<Rollup> merge(List<Rollup> rollups) {
+        List<Rollup> toReturn = new ArrayList<>(rollups.size());
+        for (Rollup rollup : rollups) {
+            int last = toReturn.size() - 1;
+            if (last >= 0 && toReturn.get(last).getTimestamp() == rollup.getTimestamp()) {
+                Rollup other = toReturn.get(last);
+                long count = other.getCount() + rollup.getCount();
+                double avg = (other.getAvg() * other.getCount() + rollup.getAvg() * rollup.getCount()) / count;
+                toReturn.set(last, new Rollup(rollup.getTimestamp(), rollup.getPeriod(),
+                        Math.min(other.getMin(), rollup.getMin()), Math.max(other.getMax(), rollup.getMax()), avg,
+                        count));
+            }
+            else {
+                toReturn.add(rollup);
             }
         }
+        return toReturn;
+    }
+
+    /*
+     * currentDay holds the current Day in yyyyMMdd format and its first and last timestamp. If a TS exceeds this range,
+     * currentDay will be replaced.
+     */
+    private String getStrDate(long timestamp) throws IOException {
+        Day day = currentDay;
+        if (day != null && timestamp >= day.firstTS && timestamp <= day.lastTS) {
+            return day.name;
+        }
         /*
          * timestamp for other day or not initialized yet.
          */
-        date.setTime(timestamp);
-        strCurrentDay = sdf.format(date);
+        SimpleDateFormat format = sdf.get();
+        String name = format.format(new Date(timestamp));
+        long firstTS = 0;
         try {
-            currentDayFirstTS = sdf.parse(strCurrentDay).getTime();
+            firstTS = format.parse(name).getTime();
         } catch (ParseException e) {
-            logger.error("Unable to parse Timestamp from: " + currentDayFirstTS + " String.");
+            logger.error("Unable to parse Timestamp from: " + name + " String.");
         }
-        currentDayLastTS = currentDayFirstTS + 86399999;
-        return strCurrentDay;
+        currentDay = new Day(name, firstTS);
+        return name;
     }
 
     private void deleteEntryFromLastDay(long timestamp, String label) throws IOException {
         String strDate = getStrDate(timestamp - 86400000);
-        if (openFilesHM.containsKey(label + strDate)) {
+        if (openFilesHM.containsKey(label + "/" + strDate)) {
             /*
              * Value for new day has been registered! Close and flush all connections! Empty Hashtable!
              */
@@ -681,12 +1039,20 @@ public final class FileObjectProxy {
         }
     }
 
+    /*
+     * Returns true if the folder of the label for the day of the timestamp is open for appending.
+     */
+    boolean isOpen(String label, long timestamp) throws IOException {
+        return openFilesHM.containsKey(encodeLabel(label) + "/" + getStrDate(timestamp));
+    }
+
     private void clearOpenFilesHashMap() throws IOException {
-        Iterator<FileObjectList> itr = openFilesHM.values().iterator();
-        while (itr.hasNext()) { // kick out everything
-            itr.next().closeAllFiles();
+        for (Map.Entry<String, FileObjectList> entry : openFilesHM.entrySet()) { // kick out everything
+            close(entry.getKey(), entry.getValue());
+        }
+        for (Map.Entry<String, EventFile> entry : openEventsHM.entrySet()) {
+            close(entry.getKey(), entry.getValue());
         }
-        openFilesHM = new HashMap<>();
     }
 
     private void controlHashtableSize() throws IOException {
@@ -696,36 +1062,204 @@ public final class FileObjectProxy {
          * storage Intervall is reconfigured. Continuous reconfiguring of measurement points may lead to a
          * "Too many open files" Exception. In this case SlotsDb.MAX_OPEN_FOLDERS should be decreased...
          */
-        if (openFilesHM.size() > max_open_files) {
+        int open = openFilesHM.size() + openEventsHM.size();
+        if (open <= max_open_files || !evictionLock.tryLock()) { // another thread is closing files already
+            return;
+        }
+        try {
             logger.debug("More then " + max_open_files
                     + " DataStreams are opened. Flushing and closing some to not exceed OS-Limit.");
-            Iterator<FileObjectList> itr = openFilesHM.values().iterator();
-            for (int i = 0; i < (max_open_files / 5); i++) { // randomly kick
-                                                             // out some of
-                                                             // the
-                                                             // FileObjectLists.
-                                                             // -> the needed
-                                                             // ones will be
-                                                             // reinitialized,
-                                                             // no problem
-                                                             // here.
-                itr.next().closeAllFiles();
-                itr.remove();
+            closeLeastRecentlyUsed(open - max_open_files + max_open_files / 5);
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /*
+     * Closes the least recently used FileObjectLists and EventFiles, they are opened again when they are needed.
+     */
+    private void closeLeastRecentlyUsed(int count) throws IOException {
+        List<OpenFile> openFiles = new ArrayList<>(openFilesHM.size() + openEventsHM.size());
+        for (Map.Entry<String, FileObjectList> entry : openFilesHM.entrySet()) {
+            openFiles.add(new OpenFile(entry.getKey(), entry.getValue(), null, entry.getValue().getLastAccess()));
+        }
+        for (Map.Entry<String, EventFile> entry : openEventsHM.entrySet()) {
+            openFiles.add(new OpenFile(entry.getKey(), null, entry.getValue(), entry.getValue().getLastAccess()));
+        }
+        openFiles.sort(Comparator.comparingLong(openFile -> openFile.lastAccess));
+        for (int i = 0; i < count && i < openFiles.size(); i++) {
+            OpenFile openFile = openFiles.get(i);
+            if (openFile.files != null) {
+                close(openFile.key, openFile.files);
+            }
+            else {
+                close(openFile.key, openFile.events);
             }
         }
     }
 
+    private static final class OpenFile {
+        private final String key;
+        private final FileObjectList files;
+        private final EventFile events;
+        private final long lastAccess;
+
+        OpenFile(String key, FileObjectList files, EventFile events, long lastAccess) {
+            this.key = key;
+            this.files = files;
+            this.events = events;
+            this.lastAccess = lastAccess;
+        }
+    }
+
+    /*
+     * Closes the FileObjectList of another channel under that channel's lock. Must not be called while holding a
+     * channel lock.
+     */
+    private void close(String key, FileObjectList list) throws IOException {
+        String label = key.substring(0, key.lastIndexOf('/'));
+        ReentrantLock lock = getChannelLock(label);
+        lock.lock();
+        try {
+            if (openFilesHM.remove(key, list)) {
+                long length = list.getLength();
+                if (groupCommit) {
+                    list.sync();
+                }
+                list.closeAllFiles();
+                diskUsage.add(getDay(key), list.getLength() - length);
+                ChannelRollups channelRollups = rollups.get(label);
+                if (channelRollups != null) {
+                    channelRollups.close(getDay(key));
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void close(String key, EventFile events) throws IOException {
+        ReentrantLock lock = getChannelLock(key.substring(0, key.lastIndexOf('/')));
+        lock.lock();
+        try {
+            if (openEventsHM.remove(key, events)) {
+                long length = events.getLength();
+                if (groupCommit) {
+                    events.sync();
+                }
+                events.close();
+                diskUsage.add(getDay(key), events.getLength() - length);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Flushes the files appended to since the last sync and forces them to the storage device. Files closed meanwhile
+     * were synced when they were closed.
+     * 
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    public void sync() throws IOException {
+        Iterator<String> keys = unsynced.iterator();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            keys.remove();
+            ReentrantLock lock = getChannelLock(key.substring(0, key.lastIndexOf('/')));
+            lock.lock();
+            try {
+                FileObjectList files = openFilesHM.get(key);
+                if (files != null) {
+                    long length = files.getLength();
+                    files.sync();
+                    diskUsage.add(getDay(key), files.getLength() - length);
+                }
+                EventFile events = openEventsHM.get(key);
+                if (events != null) {
+                    long length = events.getLength();
+                    events.sync();
+                    diskUsage.add(getDay(key), events.getLength() - length);
+                }
+            } catch (IOException e) {
+                unsynced.add(key);
+                throw e;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Stops the scheduled jobs and the read threads and closes all open files. Memory mapped files release their
+     * mapping and cut off their pre-allocated slots. The proxy can't be used afterwards.
+     * 
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    public void close() throws IOException {
+        timer.cancel();
+        readExecutor.shutdown();
+        clearOpenFilesHashMap();
+        for (Map.Entry<String, ChannelRollups> entry : rollups.entrySet()) {
+            ReentrantLock lock = getChannelLock(entry.getKey());
+            lock.lock();
+            try {
+                entry.getValue().close();
+            } finally {
+                lock.unlock();
+            }
+        }
+        logger.info("SlotsDB files closed.");
+    }
+
     /**
      * Flushes all Datastreams from all FileObjectLists and FileObjects
      * 
      * @throws IOException
      *             if an I/O error occurs.
      */
-    public synchronized void flush() throws IOException {
+    public void flush() throws IOException {
+
+        for (Map.Entry<String, FileObjectList> entry : openFilesHM.entrySet()) {
+            String key = entry.getKey();
+            ReentrantLock lock = getChannelLock(key.substring(0, key.lastIndexOf('/')));
+            lock.lock();
+            try {
+                if (openFilesHM.get(key) == entry.getValue()) { // not closed meanwhile
+                    long length = entry.getValue().getLength();
+                    entry.getValue().flush();
+                    diskUsage.add(getDay(key), entry.getValue().getLength() - length);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
 
-        Iterator<FileObjectList> itr = openFilesHM.values().iterator();
-        while (itr.hasNext()) {
-            itr.next().flush();
+        for (Map.Entry<String, EventFile> entry : openEventsHM.entrySet()) {
+            String key = entry.getKey();
+            ReentrantLock lock = getChannelLock(key.substring(0, key.lastIndexOf('/')));
+            lock.lock();
+            try {
+                if (openEventsHM.get(key) == entry.getValue()) { // not closed meanwhile
+                    long length = entry.getValue().getLength();
+                    entry.getValue().flush();
+                    diskUsage.add(getDay(key), entry.getValue().getLength() - length);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        for (Map.Entry<String, ChannelRollups> entry : rollups.entrySet()) {
+            ReentrantLock lock = getChannelLock(entry.getKey());
+            lock.lock();
+            try {
+                entry.getValue().flush();
+            } finally {
+                lock.unlock();
+            }
         }
 
         logger.info("Data from " + openFilesHM.size() + " Folders flushed to disk.");
@@ -0,0 +1,286 @@
+/*
+ * Copyright 2011-2024 Fraunhofer ISE
+ *
+ * This file is part of OpenMUC.
+ * For more information visit http://www.openmuc.org
+ *
+ * OpenMUC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenMUC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenMUC. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.openmuc.framework.datalogger.slotsdb;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes logged values behind the logging threads and commits them in groups.<br>
+ * <br>
+ * Values are queued and appended by a single writer thread, so logging never waits for file I/O unless the queue is
+ * full. The writer syncs all files changed since the last commit once per commit window, measured from the oldest
+ * value not committed yet. So a value queued by {@link #append(String, double, long, byte, Integer)} is on the storage
+ * device at most a commit window and the duration of the sync later, which bounds the values lost by a crash. Values
+ * failing to be appended are counted and not committed. The metrics are logged every {@value #METRICS_LOG_MINUTES}
+ * minutes and when the writer is closed.
+ */
+final class GroupCommitWriter {
+
+    private static final Logger logger = LoggerFactory.getLogger(GroupCommitWriter.class);
+
+    static final int QUEUE_CAPACITY = 65536;
+
+    private static final int BATCH_SIZE = 4096;
+    private static final int SAMPLE_BUFFER_SIZE = 1024;
+    private static final long IDLE_POLL_MILLIS = 100;
+    private static final long METRICS_LOG_MINUTES = 15;
+
+    private final FileObjectProxy proxy;
+    private final long commitWindowNanos;
+    private final BlockingQueue<Entry> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    private final AtomicLong fullQueueWaits = new AtomicLong();
+    private long committed;
+    private long failed;
+    private long commits;
+    private long maxCommitSize;
+    /*
+     * commit latencies in microseconds of the last SAMPLE_BUFFER_SIZE commits
+     */
+    private final long[] latencySamples = new long[SAMPLE_BUFFER_SIZE];
+    private int sampleCount = 0;
+    private int nextSample = 0;
+
+    private static final class Entry {
+        private final String channelId;
+        private final double value;
+        private final long timestamp;
+        private final byte flag;
+        private final Integer storingPeriod;
+        private final long queueTime;
+
+        Entry(String channelId, double value, long timestamp, byte flag, Integer storingPeriod) {
+            this.channelId = channelId;
+            this.value = value;
+            this.timestamp = timestamp;
+            this.flag = flag;
+            this.storingPeriod = storingPeriod;
+            this.queueTime = System.nanoTime();
+        }
+    }
+
+    /**
+     * Creates and starts the writer thread.
+     * 
+     * @param proxy
+     *            the proxy appending the values
+     * @param commitWindow
+     *            the maximum time in ms between queuing a value and syncing it to the storage device
+     */
+    GroupCommitWriter(FileObjectProxy proxy, long commitWindow) {
+        this.proxy = proxy;
+        commitWindowNanos = TimeUnit.MILLISECONDS.toNanos(commitWindow);
+        writer = new Thread(this::run, "slotsdb-writer");
+        writer.setDaemon(true);
+        writer.start();
+        logger.info("Committing values to disk every " + commitWindow + " ms.");
+    }
+
+    /**
+     * Queues a value. Waits only while the queue is full.
+     * 
+     * @param channelId
+     *            the channel ID
+     * @param value
+     *            the value
+     * @param timestamp
+     *            the timestamp
+     * @param flag
+     *            the flag code
+     * @param storingPeriod
+     *            the storing period or null for an event
+     * @throws InterruptedException
+     *             if interrupted while waiting for the queue
+     */
+    void append(String channelId, double value, long timestamp, byte flag, Integer storingPeriod)
+            throws InterruptedException {
+        Entry entry = new Entry(channelId, value, timestamp, flag, storingPeriod);
+        if (!queue.offer(entry)) {
+            fullQueueWaits.incrementAndGet();
+            queue.put(entry);
+        }
+    }
+
+    private void run() {
+        List<Entry> batch = new ArrayList<>(BATCH_SIZE);
+        long pending = 0;
+        long windowStart = 0;
+        long nextMetricsLog = System.nanoTime() + TimeUnit.MINUTES.toNanos(METRICS_LOG_MINUTES);
+        while (running || !queue.isEmpty()) {
+            try {
+                Entry first;
+                if (pending == 0) {
+                    first = queue.poll(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                }
+                else {
+                    first = queue.poll(windowStart + commitWindowNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+                }
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, BATCH_SIZE - 1);
+                    if (pending == 0) {
+                        windowStart = first.queueTime;
+                    }
+                    pending += write(batch);
+                }
+            } catch (InterruptedException e) {
+                running = false;
+            }
+            if (pending > 0 && (System.nanoTime() - windowStart >= commitWindowNanos || !running)) {
+                /*
+                 * everything queued meanwhile is committed with the same sync, so a writer falling behind catches up
+                 */
+                while (pending < QUEUE_CAPACITY && queue.drainTo(batch, BATCH_SIZE) > 0) {
+                    pending += write(batch);
+                }
+                if (commit(windowStart, pending)) {
+                    pending = 0;
+                }
+                else {
+                    windowStart = System.nanoTime(); // retry after another window
+                }
+            }
+            if (System.nanoTime() - nextMetricsLog >= 0) {
+                logger.info(toString());
+                nextMetricsLog += TimeUnit.MINUTES.toNanos(METRICS_LOG_MINUTES);
+            }
+        }
+    }
+
+    /*
+     * Appends and clears the batch, returns the number of values appended.
+     */
+    private int write(List<Entry> batch) {
+        int appended = 0;
+        for (Entry entry : batch) {
+            try {
+                if (entry.storingPeriod == null) {
+                    proxy.appendEvent(entry.channelId, entry.value, entry.timestamp, entry.flag);
+                }
+                else {
+                    proxy.appendValue(entry.channelId, entry.value, entry.timestamp, entry.flag,
+                            entry.storingPeriod);
+                }
+                appended++;
+            } catch (IOException e) {
+                logger.error("error logging records", e);
+            }
+        }
+        if (appended < batch.size()) {
+            synchronized (this) {
+                failed += batch.size() - appended;
+            }
+        }
+        batch.clear();
+        return appended;
+    }
+
+    private boolean commit(long windowStart, long pending) {
+        try {
+            proxy.sync();
+        } catch (IOException e) {
+            logger.error("Committing " + pending + " values failed: " + e.getMessage());
+            return false;
+        }
+        long latency = System.nanoTime() - windowStart;
+        synchronized (this) {
+            latencySamples[nextSample] = latency / 1000;
+            nextSample = (nextSample + 1) % SAMPLE_BUFFER_SIZE;
+            sampleCount = Math.min(sampleCount + 1, SAMPLE_BUFFER_SIZE);
+            commits++;
+            committed += pending;
+            maxCommitSize = Math.max(maxCommitSize, pending);
+        }
+        return true;
+    }
+
+    /**
+     * @param percentile
+     *            percentile between 0 and 100
+     * @return the latency percentile from queuing the oldest value of a commit to syncing it of the recent commits in
+     *         microseconds or -1 if nothing was committed
+     */
+    synchronized long getCommitLatencyPercentile(double percentile) {
+        if (sampleCount == 0) {
+            return -1;
+        }
+        long[] sorted = Arrays.copyOf(latencySamples, sampleCount);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100.0 * sampleCount) - 1;
+        return sorted[Math.max(0, Math.min(sampleCount - 1, index))];
+    }
+
+    synchronized long getCommits() {
+        return commits;
+    }
+
+    /**
+     * @return the number of values on the storage device
+     */
+    synchronized long getCommitted() {
+        return committed;
+    }
+
+    /**
+     * @return the number of values failed to be appended
+     */
+    synchronized long getFailed() {
+        return failed;
+    }
+
+    long getFullQueueWaits() {
+        return fullQueueWaits.get();
+    }
+
+    /**
+     * Appends and commits the queued values and stops the writer thread.
+     */
+    void close() {
+        running = false;
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        logger.info(toString());
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "Group commit: values: " + committed + ", failed: " + failed + ", commits: " + commits
+                + ", max values per commit: " + maxCommitSize + ", full queue waits: " + fullQueueWaits.get()
+                + ", latency p50/p90/p99: " + getCommitLatencyPercentile(50) + "/" + getCommitLatencyPercentile(90)
+                + "/" + getCommitLatencyPercentile(99) + " us";
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright 2011-2024 Fraunhofer ISE
+ *
+ * This file is part of OpenMUC.
+ * For more information visit http://www.openmuc.org
+ *
+ * OpenMUC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenMUC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenMUC. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.openmuc.framework.datalogger.slotsdb;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openmuc.framework.data.DoubleValue;
+import org.openmuc.framework.data.Flag;
+import org.openmuc.framework.data.Record;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * FileObject writing and reading through a memory mapping of the file.<br>
+ * <br>
+ * For appending, the file is mapped with enough pre-allocated slots for one day, so an append only copies 9 bytes
+ * into the page cache. Range reads compute the offsets of the first and last slot and decode the slots directly from
+ * the mapping. When the file is closed it is truncated to the stored slots. If the file wasn't closed, e.g. after a
+ * crash, the zeroed pre-allocated slots are detected when it is opened again.
+ */
+public final class MappedFileObject extends FileObject {
+
+    private static final Logger logger = LoggerFactory.getLogger(MappedFileObject.class);
+
+    private static final long MILLIS_PER_DAY = 86400000L;
+    private static final int MIN_PREALLOCATED_SLOTS = 1024;
+
+    private MappedByteBuffer buffer;
+    private boolean writable;
+
+    public MappedFileObject(File file) throws IOException {
+        super(file);
+        readHeader();
+    }
+
+    @Override
+    public void createFileAndHeader(long startTimeStamp, long stepIntervall) throws IOException {
+        if (!dataFile.exists() || length < HEADER_SIZE) {
+            dataFile.getParentFile().mkdirs();
+            if (dataFile.exists() && length < HEADER_SIZE) {
+                dataFile.delete(); // file corrupted (header shorter that 16 bytes)
+            }
+            dataFile.createNewFile();
+            this.startTimeStamp = startTimeStamp;
+            storagePeriod = stepIntervall;
+            length = 0;
+
+            mapForWriting(HEADER_SIZE);
+            buffer.putLong(0, startTimeStamp);
+            buffer.putLong(8, stepIntervall);
+            length = HEADER_SIZE;
+        }
+    }
+
+    /*
+     * Maps the file writable with at least the required size, pre-allocating the slots of a day.
+     */
+    private void mapForWriting(long requiredSize) throws IOException {
+        if (writable && buffer.capacity() >= requiredSize) {
+            return;
+        }
+        long preallocatedSlots = storagePeriod > 0 ? MILLIS_PER_DAY / storagePeriod + 2 : MIN_PREALLOCATED_SLOTS;
+        preallocatedSlots = Math.max(preallocatedSlots, MIN_PREALLOCATED_SLOTS);
+        long size = Math.max(requiredSize, HEADER_SIZE + preallocatedSlots * SLOT_SIZE);
+        if (writable) {
+            size = Math.max(size, 2L * buffer.capacity());
+        }
+        size = Math.min(size, Integer.MAX_VALUE);
+        if (size < requiredSize) {
+            throw new IOException("File " + dataFile + " exceeds the maximum size of a mapping");
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(dataFile, "rw"); FileChannel channel = raf.getChannel()) {
+            buffer = channel.map(MapMode.READ_WRITE, 0, size);
+        }
+        writable = true;
+    }
+
+    /*
+     * Returns a mapping containing all stored slots. The mapping stays valid after the channel is closed.
+     */
+    private MappedByteBuffer mapForReading() throws IOException {
+        if (buffer == null || buffer.capacity() < length) {
+            try (RandomAccessFile raf = new RandomAccessFile(dataFile, "r"); FileChannel channel = raf.getChannel()) {
+                buffer = channel.map(MapMode.READ_ONLY, 0, length);
+            }
+            writable = false;
+        }
+        return buffer;
+    }
+
+    @Override
+    public void append(double value, long timestamp, byte flag) throws IOException {
+        long writePosition = getBytePosition(timestamp);
+        if (writePosition < length) {
+            /*
+             * value has already been stored for this timeslot
+             */
+            return;
+        }
+        mapForWriting(writePosition + SLOT_SIZE);
+        /*
+         * there may be missing values -> fill up with NaN
+         */
+        while (length < writePosition) {
+            putSlot((int) length, Double.NaN, Flag.NO_VALUE_RECEIVED_YET.getCode());
+            length += SLOT_SIZE;
+        }
+        putSlot((int) length, value, flag);
+        length += SLOT_SIZE;
+    }
+
+    private void putSlot(int position, double value, byte flag) {
+        buffer.putDouble(position, value);
+        buffer.put(position + 8, flag);
+    }
+
+    @Override
+    public Record read(long timestamp) throws IOException {
+        timestamp = getClosestTimestamp(timestamp);
+        if (timestamp >= startTimeStamp && timestamp <= getTimestampForLatestValue()) {
+            MappedByteBuffer mapping = mapForReading();
+            int position = (int) getBytePosition(timestamp);
+            double value = mapping.getDouble(position);
+            if (!Double.isNaN(value)) {
+                return new Record(new DoubleValue(value), timestamp, Flag.newFlag(mapping.get(position + 8)));
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public List<Record> read(long start, long end) throws IOException {
+        start = getClosestTimestamp(start);
+        end = getClosestTimestamp(end);
+
+        if (start < startTimeStamp) {
+            start = startTimeStamp;
+        }
+        if (end > getTimestampForLatestValue()) {
+            end = getTimestampForLatestValue();
+        }
+        if (start > end) {
+            return new ArrayList<>(0);
+        }
+
+        MappedByteBuffer mapping = mapForReading();
+        int startPosition = (int) getBytePosition(start);
+        int endPosition = (int) getBytePosition(end);
+        List<Record> toReturn = new ArrayList<>((endPosition - startPosition) / SLOT_SIZE + 1);
+
+        long timestamp = start;
+        for (int position = startPosition; position <= endPosition; position += SLOT_SIZE) {
+            double value = mapping.getDouble(position);
+            if (!Double.isNaN(value)) {
+                toReturn.add(new Record(new DoubleValue(value), timestamp, Flag.newFlag(mapping.get(position + 8))));
+            }
+            timestamp += storagePeriod;
+        }
+        return toReturn;
+    }
+
+    /**
+     * Releases the mapping and truncates the file to the stored slots.
+     */
+    @Override
+    public void close() throws IOException {
+        if (writable) {
+            buffer = null;
+            writable = false;
+            try (RandomAccessFile raf = new RandomAccessFile(dataFile, "rw")) {
+                raf.setLength(length);
+            } catch (IOException e) {
+                // e.g. on Windows while the mapping isn't garbage collected yet, the slots are skipped when opened
+                logger.warn("Unable to truncate {}, the pre-allocated slots stay on disk", dataFile, e);
+            }
+        }
+        buffer = null;
+    }
+
+    /**
+     * Values are written to the page cache by {@link #append(double, long, byte)} and are visible to all readers of the
+     * file immediately, like flushed streams.
+     */
+    @Override
+    public void flush() throws IOException {
+        // nothing to do
+    }
+
+    @Override
+    public void sync() throws IOException {
+        if (writable) {
+            buffer.force();
+        }
+        else {
+            forceFile();
+        }
+    }
+}
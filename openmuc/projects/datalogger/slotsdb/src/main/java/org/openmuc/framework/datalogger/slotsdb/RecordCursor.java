@@ -0,0 +1,131 @@
+/*
+ * Copyright 2011-2024 Fraunhofer ISE
+ *
+ * This file is part of OpenMUC.
+ * For more information visit http://www.openmuc.org
+ *
+ * OpenMUC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenMUC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenMUC. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.openmuc.framework.datalogger.slotsdb;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.openmuc.framework.data.Record;
+
+/**
+ * Iterates the records of a channel in a time range day by day.<br>
+ * <br>
+ * The next days are read and decoded in advance by the I/O threads of the {@link FileObjectProxy}, so the files of
+ * several days are read in parallel while the records of the current day are consumed. At most the current day and
+ * the prefetched days are held in memory, however long the range is. Closing the cursor, e.g. after the records needed
+ * were found, cancels the days not read yet.<br>
+ * <br>
+ * The cursor isn't thread safe. Errors reading a day are thrown as {@link UncheckedIOException}.
+ */
+public final class RecordCursor implements Iterator<Record>, Closeable {
+
+    private final Iterator<Callable<List<Record>>> days;
+    private final ExecutorService executor;
+    private final ArrayDeque<Future<List<Record>>> prefetched;
+    private Iterator<Record> current = Collections.emptyIterator();
+
+    /**
+     * @param days
+     *            reads the records of a day sorted by timestamp, in order of the days
+     * @param executor
+     *            executor reading the days
+     * @param prefetch
+     *            number of days read in advance
+     */
+    RecordCursor(List<Callable<List<Record>>> days, ExecutorService executor, int prefetch) {
+        this.days = days.iterator();
+        this.executor = executor;
+        prefetched = new ArrayDeque<>(prefetch);
+        for (int i = 0; i < prefetch && this.days.hasNext(); i++) {
+            prefetched.add(executor.submit(this.days.next()));
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (!current.hasNext()) {
+            Future<List<Record>> day = prefetched.poll();
+            if (day == null) {
+                return false;
+            }
+            if (days.hasNext()) {
+                prefetched.add(executor.submit(days.next()));
+            }
+            current = get(day).iterator();
+        }
+        return true;
+    }
+
+    private List<Record> get(Future<List<Record>> day) {
+        try {
+            return day.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            close();
+            throw new UncheckedIOException(new InterruptedIOException("Interrupted while reading"));
+        } catch (ExecutionException e) {
+            close();
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw new UncheckedIOException((IOException) cause);
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    @Override
+    public Record next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return current.next();
+    }
+
+    /**
+     * Stops reading, days not read yet are skipped.
+     */
+    @Override
+    public void close() {
+        for (Future<List<Record>> day : prefetched) {
+            day.cancel(false);
+        }
+        prefetched.clear();
+        while (days.hasNext()) {
+            days.next();
+        }
+        current = Collections.emptyIterator();
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2011-2024 Fraunhofer ISE
+ *
+ * This file is part of OpenMUC.
+ * For more information visit http://www.openmuc.org
+ *
+ * OpenMUC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenMUC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenMUC. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.openmuc.framework.datalogger.slotsdb;
+
+/**
+ * Minimum, maximum, average and number of the valid values logged in a time interval.
+ */
+public final class Rollup {
+
+    private final long timestamp;
+    private final long period;
+    private final double min;
+    private final double max;
+    private final double avg;
+    private final long count;
+
+    public Rollup(long timestamp, long period, double min, double max, double avg, long count) {
+        this.timestamp = timestamp;
+        this.period = period;
+        this.min = min;
+        this.max = max;
+        this.avg = avg;
+        this.count = count;
+    }
+
+    /**
+     * Returns the start of the interval.
+     * 
+     * @return the start of the interval in ms since 1970
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Returns the length of the interval.
+     * 
+     * @return the length of the interval in ms
+     */
+    public long getPeriod() {
+        return period;
+    }
+
+    public double getMin() {
+        return min;
+    }
+
+    public double getMax() {
+        return max;
+    }
+
+    public double getAvg() {
+        return avg;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    @Override
+    public String toString() {
+        return "timestamp: " + timestamp + "; period: " + period + "; min: " + min + "; max: " + max + "; avg: " + avg
+                + "; count: " + count;
+    }
+}
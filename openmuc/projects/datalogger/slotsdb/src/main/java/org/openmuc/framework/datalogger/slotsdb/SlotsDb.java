@@ -73,6 +73,30 @@ public final class SlotsDb implements DataLoggerService {
      */
     public static final String FLUSH_PERIOD = System
             .getProperty(SlotsDb.class.getPackage().getName().toLowerCase() + ".flushperiod");
+    /*
+     * set to a time in ms to log values by a writer thread, which syncs them to disk once per commit window. The flush
+     * period is ignored then.
+     */
+    public static final String COMMIT_WINDOW = System
+            .getProperty(SlotsDb.class.getPackage().getName().toLowerCase() + ".commit_window");
+    /*
+     * set to true to write and read .slots files through memory mappings instead of streams. Appends only copy into the
+     * page cache and range reads decode directly from the mapping.
+     */
+    public static final String MEMORY_MAPPED = System
+            .getProperty(SlotsDb.class.getPackage().getName().toLowerCase() + ".memory_mapped");
+    /*
+     * set to true to write new .slots files in chunks of XOR encoded values and run-length encoded flags. Existing
+     * files are read and appended in the format they were written in.
+     */
+    public static final String COMPRESSED = System
+            .getProperty(SlotsDb.class.getPackage().getName().toLowerCase() + ".compressed");
+    /*
+     * set to true to maintain rollups (min, max, avg and count per minute, quarter hour and hour) of the logged values.
+     * The rollup file of a channel takes about 45 KB per day, whatever the storing period.
+     */
+    public static final String ROLLUPS = System
+            .getProperty(SlotsDb.class.getPackage().getName().toLowerCase() + ".rollups");
     /*
      * configures how long data will at least be stored in the SLOTSDB.
      */
@@ -98,6 +122,7 @@ public final class SlotsDb implements DataLoggerService {
     private static final Logger logger = LoggerFactory.getLogger(SlotsDb.class);
     private final HashMap<String, Integer> loggingIntervalsById = new HashMap<>();
     private FileObjectProxy fileObjectProxy;
+    private GroupCommitWriter groupCommitWriter;
 
     @Activate
     protected void activate(ComponentContext context) {
@@ -107,11 +132,21 @@ public final class SlotsDb implements DataLoggerService {
         }
 
         fileObjectProxy = new FileObjectProxy(rootFolder);
+        if (COMMIT_WINDOW != null) {
+            groupCommitWriter = new GroupCommitWriter(fileObjectProxy, Long.parseLong(COMMIT_WINDOW));
+        }
     }
 
     @Deactivate
     protected void deactivate(ComponentContext context) {
-        // TODO
+        if (groupCommitWriter != null) {
+            groupCommitWriter.close();
+        }
+        try {
+            fileObjectProxy.close();
+        } catch (IOException e) {
+            logger.error("error closing data files", e);
+        }
     }
 
     @Override
@@ -129,6 +164,47 @@ public final class SlotsDb implements DataLoggerService {
         return fileObjectProxy.readLatest(channelId);
     }
 
+    /**
+     * Returns the records of a channel like {@link #getRecords(String, long, long)}, but reads them day by day while
+     * they are iterated. The next days are read in parallel, so long time ranges are read faster and with bounded
+     * memory, and reading stops as soon as the cursor is closed.
+     * 
+     * @param channelId
+     *            the channel ID.
+     * @param startTime
+     *            the starting time in milliseconds since midnight, January 1, 1970 UTC. inclusive
+     * @param endTime
+     *            the ending time in milliseconds since midnight, January 1, 1970 UTC. inclusive
+     * @return the cursor over the records sorted by timestamp, which has to be closed
+     * @throws IOException
+     *             if any kind of error occurs accessing the logged data.
+     */
+    public RecordCursor getRecordCursor(String channelId, long startTime, long endTime) throws IOException {
+        return fileObjectProxy.readCursor(channelId, startTime, endTime);
+    }
+
+    /**
+     * Returns the minimum, maximum, average and number of the valid values of a channel per interval, e.g. to plot a
+     * long time range. The intervals are the rollups of the coarsest {@link ERollupTier} not exceeding the requested
+     * resolution, so a year is read from 8760 hourly rollups instead of millions of logged values.
+     * 
+     * @param channelId
+     *            the channel ID.
+     * @param startTime
+     *            the starting time in milliseconds since midnight, January 1, 1970 UTC. inclusive
+     * @param endTime
+     *            the ending time in milliseconds since midnight, January 1, 1970 UTC. inclusive
+     * @param resolution
+     *            the requested resolution in milliseconds
+     * @return the rollups sorted by timestamp
+     * @throws IOException
+     *             if any kind of error occurs accessing the logged data.
+     */
+    public List<Rollup> getRollups(String channelId, long startTime, long endTime, long resolution)
+            throws IOException {
+        return fileObjectProxy.readRollups(channelId, startTime, endTime, resolution);
+    }
+
     @Override
     public void setChannelsToLog(List<LogChannel> channels) {
         loggingIntervalsById.clear();
@@ -140,17 +216,7 @@ public final class SlotsDb implements DataLoggerService {
     @Override
     public void log(List<LoggingRecord> containers, long timestamp) {
         for (LoggingRecord container : containers) {
-            Double value;
-            if (container.getRecord().getValue() == null) {
-                value = Double.NaN;
-            }
-            else {
-                try {
-                    value = container.getRecord().getValue().asDouble();
-                } catch (TypeConversionException e) {
-                    value = Double.NaN;
-                }
-            }
+            double value = getValue(container.getRecord());
 
             // Long timestamp = container.getRecord().getTimestamp();
             // if (timestamp == null) {
@@ -159,17 +225,60 @@ public final class SlotsDb implements DataLoggerService {
 
             try {
                 String channelId = container.getChannelId();
-                fileObjectProxy.appendValue(channelId, value, timestamp, container.getRecord().getFlag().getCode(),
-                        loggingIntervalsById.get(channelId));
+                byte flag = container.getRecord().getFlag().getCode();
+                if (groupCommitWriter != null) {
+                    groupCommitWriter.append(channelId, value, timestamp, flag, loggingIntervalsById.get(channelId));
+                }
+                else {
+                    fileObjectProxy.appendValue(channelId, value, timestamp, flag,
+                            loggingIntervalsById.get(channelId));
+                }
             } catch (IOException e) {
                 logger.error("error logging records", e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
             }
         }
     }
 
+    /**
+     * Logs the records with their own timestamps, which don't have to follow a storing period. Records without
+     * timestamp are logged with the given timestamp.
+     */
     @Override
     public void logEvent(List<LoggingRecord> containers, long timestamp) {
-        logger.warn("Event logging is not implemented, yet.");
+        for (LoggingRecord container : containers) {
+            Record record = container.getRecord();
+            Long recordTimestamp = record.getTimestamp();
+            long eventTimestamp = recordTimestamp != null ? recordTimestamp : timestamp;
+            try {
+                if (groupCommitWriter != null) {
+                    groupCommitWriter.append(container.getChannelId(), getValue(record), eventTimestamp,
+                            record.getFlag().getCode(), null);
+                }
+                else {
+                    fileObjectProxy.appendEvent(container.getChannelId(), getValue(record), eventTimestamp,
+                            record.getFlag().getCode());
+                }
+            } catch (IOException e) {
+                logger.error("error logging events", e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private static double getValue(Record record) {
+        if (record.getValue() == null) {
+            return Double.NaN;
+        }
+        try {
+            return record.getValue().asDouble();
+        } catch (TypeConversionException e) {
+            return Double.NaN;
+        }
     }
 
     @Override
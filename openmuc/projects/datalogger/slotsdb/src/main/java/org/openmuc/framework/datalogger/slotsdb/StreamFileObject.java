@@ -0,0 +1,348 @@
+/*
+ * Copyright 2011-2024 Fraunhofer ISE
+ *
+ * This file is part of OpenMUC.
+ * For more information visit http://www.openmuc.org
+ *
+ * OpenMUC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenMUC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenMUC. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.openmuc.framework.datalogger.slotsdb;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+import java.util.Vector;
+
+import org.openmuc.framework.data.DoubleValue;
+import org.openmuc.framework.data.Flag;
+import org.openmuc.framework.data.Record;
+
+/**
+ * FileObject writing and reading through streams.
+ */
+public final class StreamFileObject extends FileObject {
+
+    private DataOutputStream dos;
+    private BufferedOutputStream bos;
+    private FileOutputStream fos;
+    private DataInputStream dis;
+    private FileInputStream fis;
+    private boolean canWrite;
+    private boolean canRead;
+
+    public StreamFileObject(String filename) throws IOException {
+        this(new File(filename));
+    }
+
+    public StreamFileObject(File file) throws IOException {
+        super(file);
+        readHeader();
+        canWrite = false;
+        canRead = false;
+    }
+
+    private void enableOutput() throws IOException {
+        /*
+         * Close Input Streams, for enabling output.
+         */
+        if (dis != null) {
+            dis.close();
+            dis = null;
+        }
+        if (fis != null) {
+            fis.close();
+            fis = null;
+        }
+
+        /*
+         * enabling output
+         */
+        if (fos == null || dos == null || bos == null) {
+            if (dataFile.length() > length) {
+                /*
+                 * remove slots pre-allocated by a MappedFileObject, appending would start behind them
+                 */
+                try (RandomAccessFile raf = new RandomAccessFile(dataFile, "rw")) {
+                    raf.setLength(length);
+                }
+            }
+            fos = new FileOutputStream(dataFile, true);
+            bos = new BufferedOutputStream(fos);
+            dos = new DataOutputStream(bos);
+        }
+        canRead = false;
+        canWrite = true;
+    }
+
+    private void enableInput() throws IOException {
+        /*
+         * Close Output Streams for enabling input.
+         */
+        if (dos != null) {
+            dos.flush();
+            dos.close();
+            dos = null;
+        }
+        if (bos != null) {
+            bos.close();
+            bos = null;
+        }
+        if (fos != null) {
+            fos.close();
+            fos = null;
+        }
+
+        /*
+         * enabling input
+         */
+        if (fis == null || dis == null) {
+            fis = new FileInputStream(dataFile);
+            dis = new DataInputStream(fis);
+        }
+        canWrite = false;
+        canRead = true;
+    }
+
+    /**
+     * creates the file, if it doesn't exist.
+     * 
+     * @param startTimeStamp
+     *            for file header
+     * @param stepIntervall
+     *            for file header
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    @Override
+    public void createFileAndHeader(long startTimeStamp, long stepIntervall) throws IOException {
+        if (!dataFile.exists() || length < 16) {
+            dataFile.getParentFile().mkdirs();
+            if (dataFile.exists() && length < 16) {
+                dataFile.delete(); // file corrupted (header shorter that 16
+            }
+            // bytes)
+            dataFile.createNewFile();
+            this.startTimeStamp = startTimeStamp;
+            storagePeriod = stepIntervall;
+
+            /*
+             * Do not close Output streams, because after writing the header -> data will follow!
+             */
+            fos = new FileOutputStream(dataFile);
+            bos = new BufferedOutputStream(fos);
+            dos = new DataOutputStream(bos);
+            dos.writeLong(startTimeStamp);
+            dos.writeLong(stepIntervall);
+            dos.flush();
+            length += 16; /* wrote 2*8 Bytes */
+            canWrite = true;
+            canRead = false;
+        }
+    }
+
+    @Override
+    public void append(double value, long timestamp, byte flag) throws IOException {
+        long writePosition = getBytePosition(timestamp);
+        if (writePosition == length) {
+            /*
+             * value for this timeslot has not been saved yet "AND" some value has been stored in last timeslot
+             */
+            if (!canWrite) {
+                enableOutput();
+            }
+
+            dos.writeDouble(value);
+            dos.writeByte(flag);
+            length += 9;
+        }
+        else {
+            if (length > writePosition) {
+                /*
+                 * value has already been stored for this timeslot -> handle? AVERAGE, MIN, MAX, LAST speichern?!
+                 */
+            }
+            else {
+                /*
+                 * there are missing some values missing -> fill up with NaN!
+                 */
+                if (!canWrite) {
+                    enableOutput();
+                }
+                long rowsToFillWithNan = (writePosition - length) / 9;// TODO:
+                                                                      // stimmt
+                                                                      // Berechnung?
+                for (int i = 0; i < rowsToFillWithNan; i++) {
+                    dos.writeDouble(Double.NaN); // TODO: festlegen welcher Wert
+                                                 // undefined sein soll NaN
+                                                 // ok?
+                    dos.writeByte(Flag.NO_VALUE_RECEIVED_YET.getCode()); // TODO:
+                                                                         // festlegen
+                    // welcher Wert
+                    // undefined sein
+                    // soll 00 ok?
+                    length += 9;
+                }
+                dos.writeDouble(value);
+                dos.writeByte(flag);
+                length += 9;
+            }
+        }
+        /*
+         * close(); OutputStreams will not be closed or flushed. Data will be written to disk after calling flush()
+         * method.
+         */
+    }
+
+    @Override
+    public Record read(long timestamp) throws IOException {
+        timestamp = getClosestTimestamp(timestamp); // round to: startTimestamp
+        // + n*stepIntervall
+        if (timestamp >= startTimeStamp && timestamp <= getTimestampForLatestValue()) {
+            if (!canRead) {
+                enableInput();
+            }
+            fis.getChannel().position(getBytePosition(timestamp));
+            Double toReturn = dis.readDouble();
+            if (!Double.isNaN(toReturn)) {
+                return new Record(new DoubleValue(toReturn), timestamp, Flag.newFlag(dis.readByte()));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns a List of Value Objects containing the measured Values between provided start and end timestamp
+     * 
+     * @param start
+     *            start timestamp
+     * @param end
+     *            end timestamp
+     * @return a list of records
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    @Override
+    public List<Record> read(long start, long end) throws IOException {
+        start = getClosestTimestamp(start); // round to: startTimestamp +
+                                            // n*stepIntervall
+        end = getClosestTimestamp(end); // round to: startTimestamp +
+                                        // n*stepIntervall
+
+        List<Record> toReturn = new Vector<>();
+
+        if (start < end) {
+            if (start < startTimeStamp) {
+                // of this file.
+                start = startTimeStamp;
+            }
+            if (end > getTimestampForLatestValue()) {
+                end = getTimestampForLatestValue();
+            }
+
+            if (!canRead) {
+                enableInput();
+            }
+
+            long timestampcounter = start;
+            long startPos = getBytePosition(start);
+            long endPos = getBytePosition(end);
+
+            fis.getChannel().position(startPos);
+
+            byte[] b = new byte[(int) (endPos - startPos) + 9];
+            dis.read(b, 0, b.length);
+            ByteBuffer bb = ByteBuffer.wrap(b);
+            bb.rewind();
+
+            for (int i = 0; i <= (endPos - startPos) / 9; i++) {
+                double d = bb.getDouble();
+                Flag s = Flag.newFlag(bb.get());
+                if (!Double.isNaN(d)) {
+                    toReturn.add(new Record(new DoubleValue(d), timestampcounter, s));
+                }
+                timestampcounter += storagePeriod;
+            }
+
+        }
+        else if (start == end) {
+            toReturn.add(read(start));
+            toReturn.removeAll(Collections.singleton(null));
+        }
+        return toReturn; // Always return a list -> might be empty -> never is
+                         // null, to avoid NP's
+    }
+
+    /**
+     * Closes and Flushes underlying Input- and OutputStreams
+     * 
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    @Override
+    public void close() throws IOException {
+        canRead = false;
+        canWrite = false;
+        if (dos != null) {
+            dos.flush();
+            dos.close();
+            dos = null;
+        }
+        if (fos != null) {
+            fos.close();
+            fos = null;
+        }
+        if (dis != null) {
+            dis.close();
+            dis = null;
+        }
+        if (fis != null) {
+            fis.close();
+            fis = null;
+        }
+    }
+
+    /**
+     * Flushes the underlying Data Streams.
+     * 
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    @Override
+    public void flush() throws IOException {
+        if (dos != null) {
+            dos.flush();
+        }
+    }
+
+    @Override
+    public void sync() throws IOException {
+        if (dos != null) {
+            dos.flush();
+            fos.getFD().sync();
+        }
+        else {
+            forceFile();
+        }
+    }
+}
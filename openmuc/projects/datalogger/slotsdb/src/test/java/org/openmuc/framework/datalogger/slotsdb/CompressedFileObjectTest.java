@@ -0,0 +1,201 @@
+/*
+ * Copyright 2011-2024 Fraunhofer ISE
+ *
+ * This file is part of OpenMUC.
+ * For more information visit http://www.openmuc.org
+ *
+ * OpenMUC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenMUC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenMUC. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.openmuc.framework.datalogger.slotsdb;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.openmuc.framework.data.Flag;
+import org.openmuc.framework.data.Record;
+
+public class CompressedFileObjectTest {
+
+    private static final long START = 1_700_000_000_000L;
+    private static final long PERIOD = 1000;
+    private static final int FILE_HEADER_SIZE = 24;
+
+    private static final double[] VALUES = { 0, 0, 0, 1.5, -1.5, Double.MAX_VALUE, -Double.MAX_VALUE, Double.MIN_VALUE,
+            1e300, -0.0, 42, 42, Double.POSITIVE_INFINITY, 3.14159, 3.14160, Double.NaN };
+    private static final Flag[] FLAGS = { Flag.VALID, Flag.VALID, Flag.TIMEOUT, Flag.VALID, Flag.UNKNOWN_ERROR,
+            Flag.UNKNOWN_ERROR, Flag.UNKNOWN_ERROR, Flag.VALID };
+
+    @TempDir
+    File directory;
+
+    @Test
+    public void valuesAndFlagsAreDecodedAsAppended() throws IOException {
+        File file = new File(directory, "channel.slots");
+        CompressedFileObject fileObject = new CompressedFileObject(file);
+        fileObject.createFileAndHeader(START, PERIOD);
+        int slots = 2 * CompressedFileObject.CHUNK_SLOTS + 100;
+        append(fileObject, 0, slots);
+
+        assertValues(fileObject.read(START, START + slots * PERIOD), 0, slots);
+        assertValues(fileObject.read(START + 1000 * PERIOD, START + 1100 * PERIOD), 1000, 1101);
+        fileObject.close();
+
+        CompressedFileObject reopened = new CompressedFileObject(file);
+        assertValues(reopened.readFully(), 0, slots);
+        assertValues(reopened.read(START + 1020 * PERIOD, START + 2060 * PERIOD), 1020, 2061);
+        assertEquals(value(5), reopened.read(START + 5 * PERIOD).getValue().asDouble(), 0);
+    }
+
+    @Test
+    public void appendingContinuesAfterReopen() throws IOException {
+        File file = new File(directory, "channel.slots");
+        CompressedFileObject fileObject = new CompressedFileObject(file);
+        fileObject.createFileAndHeader(START, PERIOD);
+        append(fileObject, 0, 1500);
+        fileObject.close();
+
+        for (int i = 1; i <= 3; i++) {
+            fileObject = new CompressedFileObject(file);
+            append(fileObject, 1500 * i, 1500 * (i + 1));
+            fileObject.close();
+        }
+        assertValues(new CompressedFileObject(file).readFully(), 0, 6000);
+    }
+
+    @Test
+    public void readersSeeFlushedVersions() throws IOException {
+        File file = new File(directory, "channel.slots");
+        CompressedFileObject fileObject = new CompressedFileObject(file);
+        fileObject.createFileAndHeader(START, PERIOD);
+        for (int i = 0; i < 1200; i++) {
+            append(fileObject, i, i + 1);
+            fileObject.flush();
+            if (i % 97 == 0) {
+                assertValues(new CompressedFileObject(file).readFully(), 0, i + 1);
+            }
+        }
+        long length = file.length();
+        fileObject.close();
+
+        assertTrue(file.length() <= length);
+        assertEquals(fileObject.getLength(), file.length());
+        assertValues(new CompressedFileObject(file).readFully(), 0, 1200);
+    }
+
+    @Test
+    public void truncatedVersionIsSkipped() throws IOException {
+        File file = new File(directory, "channel.slots");
+        CompressedFileObject fileObject = new CompressedFileObject(file);
+        fileObject.createFileAndHeader(START, PERIOD);
+        append(fileObject, 0, 1);
+        fileObject.flush();
+        append(fileObject, 1, 2);
+        fileObject.flush();
+
+        // not closed like after a crash while the second version was appended behind the first
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 3);
+        }
+        CompressedFileObject reopened = new CompressedFileObject(file);
+        assertValues(reopened.readFully(), 0, 1);
+
+        append(reopened, 1, 20);
+        reopened.close();
+        assertEquals(reopened.getLength(), file.length());
+        assertValues(new CompressedFileObject(file).readFully(), 0, 20);
+    }
+
+    @Test
+    public void partiallyOverwrittenVersionIsSkipped() throws IOException {
+        File file = new File(directory, "channel.slots");
+        CompressedFileObject fileObject = new CompressedFileObject(file);
+        fileObject.createFileAndHeader(START, PERIOD);
+        for (int i = 0; i < 3; i++) {
+            fileObject.append(7, START + i * PERIOD, Flag.VALID.getCode());
+            fileObject.flush();
+        }
+
+        // the versions were appended behind each other, a crash while writing the next one in front of the latest
+        // one leaves the first version partially overwritten
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(FILE_HEADER_SIZE + 2);
+            raf.write(new byte[10]);
+        }
+        CompressedFileObject reopened = new CompressedFileObject(file);
+        List<Record> records = reopened.readFully();
+        assertEquals(3, records.size());
+
+        reopened.append(8, START + 3 * PERIOD, Flag.VALID.getCode());
+        reopened.close();
+        records = new CompressedFileObject(file).readFully();
+        assertEquals(4, records.size());
+        assertEquals(7, records.get(2).getValue().asDouble(), 0);
+        assertEquals(8, records.get(3).getValue().asDouble(), 0);
+    }
+
+    @Test
+    public void fullChunkIsMovedBehindThePreviousChunk() throws IOException {
+        File file = new File(directory, "channel.slots");
+        CompressedFileObject fileObject = new CompressedFileObject(file);
+        fileObject.createFileAndHeader(START, PERIOD);
+        int slots = CompressedFileObject.CHUNK_SLOTS + 10;
+        for (int i = 0; i < slots; i++) {
+            append(fileObject, i, i + 1);
+            fileObject.flush();
+        }
+        // not closed, so the versions of the second chunk stay in the file
+        CompressedFileObject reopened = new CompressedFileObject(file);
+        assertValues(reopened.readFully(), 0, slots);
+        assertValues(reopened.read(START + 1000 * PERIOD, START + 1030 * PERIOD), 1000, 1031);
+    }
+
+    private static void append(FileObject fileObject, int from, int to) throws IOException {
+        for (int i = from; i < to; i++) {
+            fileObject.append(value(i), START + i * PERIOD, flag(i).getCode());
+        }
+    }
+
+    private static double value(int slot) {
+        return slot % 50 < VALUES.length ? VALUES[slot % 50] : slot * 0.25;
+    }
+
+    private static Flag flag(int slot) {
+        return FLAGS[(slot / 3) % FLAGS.length];
+    }
+
+    /*
+     * NaN values aren't returned, they are stored like missing values.
+     */
+    private static void assertValues(List<Record> records, int from, int to) {
+        int index = 0;
+        for (int i = from; i < to; i++) {
+            if (Double.isNaN(value(i))) {
+                continue;
+            }
+            Record record = records.get(index++);
+            assertEquals(START + i * PERIOD, record.getTimestamp());
+            assertEquals(Double.doubleToLongBits(value(i)), Double.doubleToLongBits(record.getValue().asDouble()));
+            assertEquals(flag(i), record.getFlag());
+        }
+        assertEquals(index, records.size());
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2011-2024 Fraunhofer ISE
+ *
+ * This file is part of OpenMUC.
+ * For more information visit http://www.openmuc.org
+ *
+ * OpenMUC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenMUC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenMUC. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.openmuc.framework.datalogger.slotsdb;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class DayIndexTest {
+
+    private static final long LONG_AGO = 0;
+    private static final long FAR_AHEAD = 50000000000000L;
+
+    @TempDir
+    File directory;
+
+    private DayIndex dayIndex;
+
+    @BeforeEach
+    public void setUp() {
+        dayIndex = new DayIndex();
+    }
+
+    @Test
+    public void scanFindsChannelFoldersOfDayFolders() {
+        assertTrue(new File(directory, "20231113/a").mkdirs());
+        assertTrue(new File(directory, "20231115/a").mkdirs());
+        assertTrue(new File(directory, "20231115/b").mkdirs());
+        assertTrue(new File(directory, "2023111/c").mkdirs());
+        assertTrue(new File(directory, "notaday/c").mkdirs());
+        assertTrue(new File(directory, "19691231/c").mkdirs());
+
+        dayIndex.scan(directory);
+
+        assertEquals(Arrays.asList("20231113", "20231115"), dayIndex.getDays("a", LONG_AGO, FAR_AHEAD));
+        assertEquals(Arrays.asList("20231115"), dayIndex.getDays("b", LONG_AGO, FAR_AHEAD));
+        assertTrue(dayIndex.getDays("c", LONG_AGO, FAR_AHEAD).isEmpty());
+    }
+
+    @Test
+    public void daysOverlappingTheRangeAreReturned() {
+        dayIndex.add("a", "20231113");
+        dayIndex.add("a", "20231114");
+        dayIndex.add("a", "20231115");
+
+        // last millisecond of the first day until midnight of the last day
+        assertEquals(Arrays.asList("20231113", "20231114", "20231115"),
+                dayIndex.getDays("a", startOf(14) - 1, startOf(15)));
+        assertEquals(Arrays.asList("20231114"), dayIndex.getDays("a", startOf(14), startOf(15) - 1));
+        assertEquals(Arrays.asList("20231114"), dayIndex.getDays("a", startOf(14) + 1000, startOf(14) + 1000));
+        assertTrue(dayIndex.getDays("a", startOf(16), FAR_AHEAD).isEmpty());
+        assertTrue(dayIndex.getDays("a", startOf(15), startOf(14)).isEmpty());
+        assertTrue(dayIndex.getDays("unknown", LONG_AGO, FAR_AHEAD).isEmpty());
+    }
+
+    @Test
+    public void earlierDaysAreAddedInOrder() {
+        dayIndex.add("a", "20231113");
+        dayIndex.add("a", "20231101");
+        dayIndex.add("a", "20231107");
+        dayIndex.add("a", "20231113");
+        dayIndex.add("a", "2023-11-13");
+
+        assertEquals(Arrays.asList("20231101", "20231107", "20231113"), dayIndex.getDays("a", LONG_AGO, FAR_AHEAD));
+    }
+
+    @Test
+    public void removedDaysAreForgottenForAllChannels() {
+        dayIndex.add("a", "20231113");
+        dayIndex.add("a", "20231114");
+        dayIndex.add("b", "20231113");
+
+        dayIndex.remove("20231113");
+        dayIndex.remove("notaday");
+
+        assertEquals(Arrays.asList("20231114"), dayIndex.getDays("a", LONG_AGO, FAR_AHEAD));
+        assertTrue(dayIndex.getDays("b", LONG_AGO, FAR_AHEAD).isEmpty());
+        assertNull(dayIndex.getLatest("b", null));
+    }
+
+    @Test
+    public void latestDayBeforeTheGivenOneIsReturned() {
+        dayIndex.add("a", "20231113");
+        dayIndex.add("a", "20231115");
+
+        assertEquals("20231115", dayIndex.getLatest("a", null));
+        assertEquals("20231113", dayIndex.getLatest("a", "20231115"));
+        assertEquals("20231113", dayIndex.getLatest("a", "20231114"));
+        assertNull(dayIndex.getLatest("a", "20231113"));
+        assertNull(dayIndex.getLatest("unknown", null));
+    }
+
+    private static long startOf(int dayOfMonth) {
+        return LocalDate.of(2023, 11, dayOfMonth).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+}
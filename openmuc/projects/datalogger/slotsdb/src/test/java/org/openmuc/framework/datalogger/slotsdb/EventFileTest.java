@@ -0,0 +1,191 @@
+/*
+ * Copyright 2011-2024 Fraunhofer ISE
+ *
+ * This file is part of OpenMUC.
+ * For more information visit http://www.openmuc.org
+ *
+ * OpenMUC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenMUC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenMUC. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.openmuc.framework.datalogger.slotsdb;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.openmuc.framework.data.Flag;
+import org.openmuc.framework.data.Record;
+
+public class EventFileTest {
+
+    private static final long START = 1_700_000_000_000L;
+    private static final int FILE_HEADER_SIZE = 8;
+    private static final int BLOCK_HEADER_SIZE = 28;
+
+    @TempDir
+    File directory;
+
+    @Test
+    public void eventsArrivingOutOfOrderAreReadSorted() throws IOException {
+        File file = new File(directory, EventFile.FILE_NAME);
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            order.add(i);
+        }
+        Collections.shuffle(order, new Random(1));
+
+        EventFile events = new EventFile(file);
+        for (int i : order) {
+            append(events, i);
+        }
+        assertEvents(events.read(START, START + 100), 0, 100);
+        assertEvents(events.read(START + 10, START + 19), 10, 20);
+        events.close();
+
+        EventFile reopened = new EventFile(file);
+        assertEvents(reopened.read(START, START + 100), 0, 100);
+        assertEquals(START + 99, reopened.readLatest().getTimestamp());
+    }
+
+    @Test
+    public void lateEventsAreStoredInLaterBlocks() throws IOException {
+        File file = new File(directory, EventFile.FILE_NAME);
+        EventFile events = new EventFile(file);
+        for (int i = 300; i < 600; i++) {
+            append(events, i);
+        }
+        // older than the complete blocks
+        for (int i = 0; i < 300; i++) {
+            append(events, i);
+        }
+        assertEvents(events.read(START, START + 600), 0, 600);
+        events.close();
+
+        EventFile reopened = new EventFile(file);
+        assertEvents(reopened.read(START, START + 600), 0, 600);
+        assertEvents(reopened.read(START + 250, START + 349), 250, 350);
+        assertEquals(START + 599, reopened.readLatest().getTimestamp());
+    }
+
+    @Test
+    public void appendingContinuesAfterReopen() throws IOException {
+        File file = new File(directory, EventFile.FILE_NAME);
+        EventFile events = new EventFile(file);
+        for (int i = 100; i < 200; i++) {
+            append(events, i);
+        }
+        events.close();
+
+        events = new EventFile(file);
+        for (int i = 0; i < 100; i++) {
+            append(events, i);
+        }
+        events.close();
+        assertEvents(new EventFile(file).read(START, START + 200), 0, 200);
+    }
+
+    @Test
+    public void truncatedVersionIsSkipped() throws IOException {
+        File file = new File(directory, EventFile.FILE_NAME);
+        EventFile events = new EventFile(file);
+        for (int i = 0; i < 2; i++) {
+            append(events, i);
+            events.flush();
+        }
+
+        // not closed like after a crash while the second version was appended behind the first
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 3);
+        }
+        EventFile reopened = new EventFile(file);
+        assertEvents(reopened.read(START, START + 10), 0, 1);
+
+        for (int i = 1; i < 10; i++) {
+            append(reopened, i);
+        }
+        reopened.close();
+        assertEquals(reopened.getLength(), file.length());
+        assertEvents(new EventFile(file).read(START, START + 10), 0, 10);
+    }
+
+    @Test
+    public void partiallyOverwrittenVersionIsSkipped() throws IOException {
+        File file = new File(directory, EventFile.FILE_NAME);
+        EventFile events = new EventFile(file);
+        for (int i = 2; i >= 0; i--) {
+            append(events, i);
+            events.flush();
+        }
+
+        // the versions were appended behind each other, a crash while writing the next one in front of the latest
+        // one leaves the first version partially overwritten
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(FILE_HEADER_SIZE + BLOCK_HEADER_SIZE + 4);
+            raf.write(new byte[10]);
+        }
+        EventFile reopened = new EventFile(file);
+        assertEvents(reopened.read(START, START + 10), 0, 3);
+
+        append(reopened, 3);
+        reopened.close();
+        assertEvents(new EventFile(file).read(START, START + 10), 0, 4);
+    }
+
+    @Test
+    public void corruptedBlockIsSkipped() throws IOException {
+        File file = new File(directory, EventFile.FILE_NAME);
+        EventFile events = new EventFile(file);
+        for (int i = 0; i < 2 * EventFile.BLOCK_EVENTS + 10; i++) {
+            append(events, i);
+        }
+        events.close();
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(FILE_HEADER_SIZE + BLOCK_HEADER_SIZE + 3);
+            raf.write(0xFF);
+        }
+        EventFile reopened = new EventFile(file);
+        assertEvents(reopened.read(START, START + 1000), EventFile.BLOCK_EVENTS, 2 * EventFile.BLOCK_EVENTS + 10);
+    }
+
+    @Test
+    public void emptyFileHasNoEvents() throws IOException {
+        EventFile events = new EventFile(new File(directory, EventFile.FILE_NAME));
+        assertNull(events.readLatest());
+        assertEquals(0, events.read(START, START + 1000).size());
+    }
+
+    private static void append(EventFile events, int i) throws IOException {
+        events.append(i * 0.5, START + i, (i % 3 == 0 ? Flag.VALID : Flag.TIMEOUT).getCode());
+    }
+
+    private static void assertEvents(List<Record> records, int from, int to) {
+        assertEquals(to - from, records.size());
+        for (int i = from; i < to; i++) {
+            Record record = records.get(i - from);
+            assertEquals(START + i, record.getTimestamp());
+            assertEquals(i * 0.5, record.getValue().asDouble(), 0);
+            assertEquals(i % 3 == 0 ? Flag.VALID : Flag.TIMEOUT, record.getFlag());
+        }
+    }
+}
@@ -0,0 +1,389 @@
+/*
+ * Copyright 2011-2024 Fraunhofer ISE
+ *
+ * This file is part of OpenMUC.
+ * For more information visit http://www.openmuc.org
+ *
+ * OpenMUC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenMUC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenMUC. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.openmuc.framework.datalogger.slotsdb;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Disabled;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.openmuc.framework.data.Flag;
+import org.openmuc.framework.data.Record;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class FileObjectProxyTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(FileObjectProxyTest.class);
+
+    private static final long START = LocalDate.of(2023, 11, 14)
+            .atTime(12, 0)
+            .atZone(ZoneId.systemDefault())
+            .toInstant()
+            .toEpochMilli();
+    private static final String START_DAY = "20231114";
+    private static final long PERIOD = 1000;
+    private static final long MINUTE = 60000;
+
+    @TempDir
+    File directory;
+
+    private FileObjectProxy proxy;
+
+    @BeforeEach
+    public void setUp() {
+        proxy = new FileObjectProxy(directory.getPath());
+    }
+
+    @Test
+    public void channelsAreWrittenAndReadConcurrently() throws Exception {
+        int channels = 4;
+        int values = 300;
+        AtomicBoolean writing = new AtomicBoolean(true);
+        ExecutorService executor = Executors.newFixedThreadPool(channels + 2);
+        try {
+            List<Future<?>> writers = new ArrayList<>();
+            for (int i = 0; i < channels; i++) {
+                String label = "channel" + i;
+                writers.add(executor.submit((Callable<Void>) () -> {
+                    for (int j = 0; j < values; j++) {
+                        proxy.appendValue(label, j, START + j * PERIOD, Flag.VALID.getCode(), PERIOD);
+                    }
+                    return null;
+                }));
+            }
+            List<Future<?>> readers = new ArrayList<>();
+            for (int i = 0; i < 2; i++) {
+                String label = "channel" + i;
+                readers.add(executor.submit((Callable<Void>) () -> {
+                    while (writing.get()) {
+                        assertAscending(proxy.read(label, START, START + values * PERIOD));
+                        proxy.readLatest(label);
+                        proxy.read(label, START);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> writer : writers) {
+                writer.get();
+            }
+            writing.set(false);
+            for (Future<?> reader : readers) {
+                reader.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        for (int i = 0; i < channels; i++) {
+            String label = "channel" + i;
+            List<Record> records = proxy.read(label, START, START + values * PERIOD);
+            assertEquals(values, records.size());
+            for (int j = 0; j < values; j++) {
+                assertEquals(START + j * PERIOD, records.get(j).getTimestamp());
+                assertEquals(j, records.get(j).getValue().asDouble(), 0);
+            }
+            assertEquals(values - 1, proxy.readLatest(label).getValue().asDouble(), 0);
+        }
+    }
+
+    @Test
+    public void rollupsAreOptIn() throws IOException {
+        proxy.appendValue("channel", 1, START, Flag.VALID.getCode(), PERIOD);
+        proxy.flush();
+
+        File folder = new File(directory, START_DAY + "/channel");
+        assertTrue(folder.isDirectory());
+        assertFalse(new File(folder, ChannelRollups.FILE_NAME).exists());
+    }
+
+    @Test
+    public void rollupsContainOnlyStoredValues() throws IOException {
+        FileObjectProxy rollupProxy = newProxy(true, SlotsDb.MAX_OPEN_FOLDERS_DEFAULT);
+        for (int i = 0; i < 180; i++) {
+            rollupProxy.appendValue("channel", i, START + i * PERIOD, Flag.VALID.getCode(), PERIOD);
+            // rejected by the .slots file, since the slot is stored already
+            rollupProxy.appendValue("channel", 1000, START + i * PERIOD + 400, Flag.VALID.getCode(), PERIOD);
+            rollupProxy.appendValue("channel", -1000, START + i * PERIOD - 3000, Flag.VALID.getCode(), PERIOD);
+        }
+        rollupProxy.appendValue("channel", 1000, START - PERIOD, Flag.VALID.getCode(), PERIOD);
+
+        assertMinuteRollups(rollupProxy.readRollups("channel", START, START + 3 * MINUTE - 1, MINUTE));
+        rollupProxy.flush();
+
+        assertTrue(new File(directory, START_DAY + "/channel/" + ChannelRollups.FILE_NAME).exists());
+        assertMinuteRollups(newProxy(true, SlotsDb.MAX_OPEN_FOLDERS_DEFAULT).readRollups("channel", START,
+                START + 3 * MINUTE - 1, MINUTE));
+        // aggregated from the .slots files
+        assertMinuteRollups(new FileObjectProxy(directory.getPath()).readRollups("channel", START,
+                START + 3 * MINUTE - 1, MINUTE));
+    }
+
+    @Test
+    public void nanEventsAreNotStored() throws IOException {
+        proxy.appendEvent("channel", Double.NaN, START, Flag.VALID.getCode());
+        proxy.appendEvent("channel", 1, START + PERIOD, Flag.VALID.getCode());
+        proxy.appendEvent("channel", Double.NaN, START + 2 * PERIOD, Flag.VALID.getCode());
+
+        List<Record> records = proxy.read("channel", START, START + 3 * PERIOD);
+        assertEquals(1, records.size());
+        assertEquals(START + PERIOD, records.get(0).getTimestamp());
+        assertEquals(START + PERIOD, proxy.readLatest("channel").getTimestamp());
+    }
+
+    @Test
+    public void leastRecentlyUsedFoldersAreClosed() throws IOException {
+        FileObjectProxy lruProxy = newProxy(false, 5);
+        for (int i = 0; i < 6; i++) {
+            lruProxy.appendValue("channel" + i, i, START, Flag.VALID.getCode(), PERIOD);
+        }
+        lruProxy.appendValue("channel0", 0, START + PERIOD, Flag.VALID.getCode(), PERIOD);
+        assertTrue(lruProxy.isOpen("channel1", START));
+
+        // exceeds the limit, closes the limit / 5 + 1 least recently used folders
+        lruProxy.appendValue("channel6", 6, START, Flag.VALID.getCode(), PERIOD);
+
+        assertTrue(lruProxy.isOpen("channel0", START));
+        assertFalse(lruProxy.isOpen("channel1", START));
+        assertFalse(lruProxy.isOpen("channel2", START));
+        for (int i = 3; i < 7; i++) {
+            assertTrue(lruProxy.isOpen("channel" + i, START));
+        }
+
+        // closed folders are opened again for appending
+        lruProxy.appendValue("channel1", 1, START + PERIOD, Flag.VALID.getCode(), PERIOD);
+        assertTrue(lruProxy.isOpen("channel1", START));
+        for (int i = 0; i < 7; i++) {
+            List<Record> records = lruProxy.read("channel" + i, START, START + PERIOD);
+            assertEquals(i < 2 ? 2 : 1, records.size());
+            assertEquals(i, records.get(0).getValue().asDouble(), 0);
+        }
+    }
+
+    @Test
+    public void cursorReadsAcrossMidnight() throws IOException {
+        long period = 10 * MINUTE;
+        // from 22:00 on the first day until 02:00 on the third day
+        long first = START + 10 * 60 * MINUTE;
+        int values = 28 * 6 + 1;
+        for (int i = 0; i < values; i++) {
+            proxy.appendValue("channel", i, first + i * period, Flag.VALID.getCode(), period);
+        }
+        proxy.appendEvent("channel", -1, first + 12 * period + 1, Flag.VALID.getCode());
+        proxy.flush();
+
+        long start = first + period;
+        long end = first + (values - 2) * period;
+        List<Record> records = new ArrayList<>();
+        try (RecordCursor cursor = proxy.readCursor("channel", start, end)) {
+            cursor.forEachRemaining(records::add);
+        }
+        assertEquals(values - 2 + 1, records.size());
+        assertAscending(records);
+        assertEquals(start, records.get(0).getTimestamp());
+        assertEquals(end, records.get(records.size() - 1).getTimestamp());
+        assertEquals(records, proxy.read("channel", start, end));
+
+        // from 23:59:59.999 on the first day until midnight of the second day
+        long midnight = first + 12 * period;
+        try (RecordCursor cursor = proxy.readCursor("channel", midnight - 1, midnight)) {
+            assertEquals(midnight, cursor.next().getTimestamp());
+            assertFalse(cursor.hasNext());
+        }
+        try (RecordCursor cursor = proxy.readCursor("channel", end, start)) {
+            assertFalse(cursor.hasNext());
+        }
+        try (RecordCursor cursor = proxy.readCursor("channel", START - MINUTE, START)) {
+            assertFalse(cursor.hasNext());
+        }
+    }
+
+    @Test
+    public void closeWritesAndClosesAllFiles() throws IOException {
+        FileObjectProxy rollupProxy = newProxy(true, SlotsDb.MAX_OPEN_FOLDERS_DEFAULT);
+        for (int i = 0; i < 180; i++) {
+            rollupProxy.appendValue("channel", i, START + i * PERIOD, Flag.VALID.getCode(), PERIOD);
+        }
+        rollupProxy.appendEvent("events", 7, START, Flag.VALID.getCode());
+
+        rollupProxy.close();
+
+        assertFalse(rollupProxy.isOpen("channel", START));
+        assertTrue(new File(directory, START_DAY + "/channel/" + ChannelRollups.FILE_NAME).exists());
+        FileObjectProxy reopened = newProxy(true, SlotsDb.MAX_OPEN_FOLDERS_DEFAULT);
+        assertEquals(180, reopened.read("channel", START, START + 179 * PERIOD).size());
+        assertEquals(7, reopened.read("events", START, START).get(0).getValue().asDouble(), 0);
+        assertMinuteRollups(reopened.readRollups("channel", START, START + 3 * MINUTE - 1, MINUTE));
+        reopened.close();
+    }
+
+    /**
+     * Benchmark without assertions, remove the annotation to measure the logging and range query throughput while 10k
+     * channels log at 1 s and 16 threads query the last 10 minutes of random channels.
+     */
+    @Disabled("benchmark")
+    @Test
+    public void printMixedLoadThroughput() throws Exception {
+        int channels = 10000;
+        int readers = 16;
+        int seconds = 120;
+        String[] labels = new String[channels];
+        for (int i = 0; i < channels; i++) {
+            labels[i] = "channel" + i;
+        }
+        // enough open folders for all channels, otherwise every second closes and opens each folder
+        FileObjectProxy loadProxy = newProxy(false, 2 * channels);
+        AtomicBoolean writing = new AtomicBoolean(true);
+        AtomicLong lastSecond = new AtomicLong(-1);
+        LongAdder queries = new LongAdder();
+        LongAdder queryNs = new LongAdder();
+        LongAdder records = new LongAdder();
+        ExecutorService executor = Executors.newFixedThreadPool(readers);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < readers; i++) {
+                Random random = new Random(i);
+                futures.add(executor.submit((Callable<Void>) () -> {
+                    while (writing.get()) {
+                        long second = lastSecond.get();
+                        if (second < 0) {
+                            Thread.yield();
+                            continue;
+                        }
+                        long end = START + second * PERIOD;
+                        long start = System.nanoTime();
+                        records.add(loadProxy.read(labels[random.nextInt(channels)], end - 10 * MINUTE, end).size());
+                        queryNs.add(System.nanoTime() - start);
+                        queries.increment();
+                    }
+                    return null;
+                }));
+            }
+
+            long start = System.nanoTime();
+            for (int second = 0; second < seconds; second++) {
+                long timestamp = START + second * PERIOD;
+                for (int i = 0; i < channels; i++) {
+                    loadProxy.appendValue(labels[i], i, timestamp, Flag.VALID.getCode(), PERIOD);
+                }
+                lastSecond.set(second);
+            }
+            long elapsedNs = System.nanoTime() - start;
+            writing.set(false);
+            for (Future<?> future : futures) {
+                future.get();
+            }
+
+            logger.info("{} channels, {} readers: {} appends/s ({} s logged per s), {} queries/s, {} us per query "
+                    + "({} records)", channels, readers, (long) channels * seconds * 1_000_000_000L / elapsedNs,
+                    Math.round(seconds * 1e10 / elapsedNs) / 10.0, queries.sum() * 1_000_000_000L / elapsedNs,
+                    queryNs.sum() / Math.max(1, queries.sum()) / 1000, records.sum());
+        } finally {
+            executor.shutdownNow();
+            loadProxy.close();
+        }
+    }
+
+    /**
+     * Benchmark without assertions, remove the annotation to measure the throughput of 100 event channels producing
+     * 50k events/s together, 1% of the events arrive up to 1 s late, and the latency of 1-minute range reads.
+     */
+    @Disabled("benchmark")
+    @Test
+    public void printEventThroughput() throws IOException {
+        int channels = 100;
+        int eventsPerSecond = 50000;
+        int seconds = 120;
+        String[] labels = new String[channels];
+        for (int i = 0; i < channels; i++) {
+            labels[i] = "events" + i;
+        }
+        Random random = new Random(0);
+        int events = eventsPerSecond * seconds;
+        long[] timestamps = new long[events];
+        for (int i = 0; i < events; i++) {
+            timestamps[i] = START + (long) i * 1000 / eventsPerSecond;
+            if (random.nextInt(100) == 0) {
+                timestamps[i] -= random.nextInt(1000);
+            }
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < events; i++) {
+            proxy.appendEvent(labels[i % channels], i, timestamps[i], Flag.VALID.getCode());
+        }
+        long appendNs = System.nanoTime() - start;
+
+        int reads = 1000;
+        long records = 0;
+        start = System.nanoTime();
+        for (int i = 0; i < reads; i++) {
+            long from = START + random.nextInt(seconds - 60) * PERIOD;
+            records += proxy.read(labels[random.nextInt(channels)], from, from + MINUTE).size();
+        }
+        long readNs = System.nanoTime() - start;
+
+        logger.info("{} events/s ({} times the target of {} events/s), 1-minute read {} us ({} records per read)",
+                (long) events * 1_000_000_000L / appendNs,
+                Math.round(events * 1e10 / appendNs / eventsPerSecond) / 10.0, eventsPerSecond, readNs / reads / 1000,
+                records / reads);
+    }
+
+    private FileObjectProxy newProxy(boolean rollupsEnabled, int maxOpenFiles) {
+        return new FileObjectProxy(directory.getPath(), rollupsEnabled, maxOpenFiles);
+    }
+
+    private static void assertMinuteRollups(List<Rollup> rollups) {
+        assertEquals(3, rollups.size());
+        for (int i = 0; i < 3; i++) {
+            Rollup rollup = rollups.get(i);
+            assertEquals(START + i * MINUTE, rollup.getTimestamp());
+            assertEquals(60, rollup.getCount());
+            assertEquals(i * 60, rollup.getMin(), 0);
+            assertEquals(i * 60 + 59, rollup.getMax(), 0);
+            assertEquals(i * 60 + 29.5, rollup.getAvg(), 1e-9);
+        }
+    }
+
+    private static void assertAscending(List<Record> records) {
+        for (int i = 1; i < records.size(); i++) {
+            assertTrue(records.get(i - 1).getTimestamp() < records.get(i).getTimestamp());
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2011-2024 Fraunhofer ISE
+ *
+ * This file is part of OpenMUC.
+ * For more information visit http://www.openmuc.org
+ *
+ * OpenMUC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenMUC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenMUC. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.openmuc.framework.datalogger.slotsdb;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.openmuc.framework.data.Flag;
+import org.openmuc.framework.data.Record;
+
+public class GroupCommitWriterTest {
+
+    private static final long START = LocalDate.of(2023, 11, 14)
+            .atTime(12, 0)
+            .atZone(ZoneId.systemDefault())
+            .toInstant()
+            .toEpochMilli();
+    private static final int PERIOD = 1000;
+
+    @TempDir
+    File directory;
+
+    @Test
+    public void valuesAreAppendedInQueueOrder() throws Exception {
+        FileObjectProxy proxy = new FileObjectProxy(directory.getPath());
+        GroupCommitWriter writer = new GroupCommitWriter(proxy, 20);
+        int values = 5000;
+        for (int i = 0; i < values; i++) {
+            writer.append("channel", i, START + i * PERIOD, Flag.VALID.getCode(), PERIOD);
+            writer.append("events", i, START + i, Flag.VALID.getCode(), null);
+        }
+        writer.close();
+
+        assertEquals(2 * values, writer.getCommitted());
+        assertEquals(0, writer.getFailed());
+        assertTrue(writer.getCommits() >= 1);
+        assertTrue(writer.getCommitLatencyPercentile(50) >= 0);
+
+        // values arriving out of order would be rejected by the .slots files
+        List<Record> records = proxy.read("channel", START, START + values * PERIOD);
+        assertEquals(values, records.size());
+        for (int i = 0; i < values; i++) {
+            assertEquals(i, records.get(i).getValue().asDouble(), 0);
+        }
+        assertEquals(values, proxy.read("events", START, START + values).size());
+    }
+
+    @Test
+    public void failedValuesAreCountedAndNotCommitted() throws Exception {
+        FileObjectProxy proxy = new FileObjectProxy(directory.getPath());
+        GroupCommitWriter writer = new GroupCommitWriter(proxy, 20);
+        // the day folder of the first values can't be created
+        File blocked = new File(directory, "20231114");
+        assertTrue(blocked.createNewFile());
+        long day = 24 * 3600 * 1000L;
+        for (int i = 0; i < 10; i++) {
+            writer.append("channel", i, START + i * PERIOD, Flag.VALID.getCode(), PERIOD);
+        }
+        for (int i = 0; i < 10; i++) {
+            writer.append("channel", i, START + day + i * PERIOD, Flag.VALID.getCode(), PERIOD);
+        }
+        writer.close();
+
+        assertEquals(10, writer.getFailed());
+        assertEquals(10, writer.getCommitted());
+    }
+}
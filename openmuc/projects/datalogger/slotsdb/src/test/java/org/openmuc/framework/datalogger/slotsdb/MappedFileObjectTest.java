@@ -0,0 +1,181 @@
+/*
+ * Copyright 2011-2024 Fraunhofer ISE
+ *
+ * This file is part of OpenMUC.
+ * For more information visit http://www.openmuc.org
+ *
+ * OpenMUC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenMUC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenMUC. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.openmuc.framework.datalogger.slotsdb;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.jupiter.api.Disabled;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.openmuc.framework.data.Flag;
+import org.openmuc.framework.data.Record;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class MappedFileObjectTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(MappedFileObjectTest.class);
+
+    private static final long START = 1_700_000_000_000L;
+    private static final long PERIOD = 1000;
+    private static final long STORED_LENGTH = FileObject.HEADER_SIZE + 4 * FileObject.SLOT_SIZE;
+
+    @TempDir
+    File directory;
+
+    @Test
+    public void fileIsPreallocatedAndTruncatedOnClose() throws IOException {
+        File file = new File(directory, "channel.slots");
+        MappedFileObject fileObject = new MappedFileObject(file);
+        appendValues(fileObject);
+
+        assertTrue(file.length() > STORED_LENGTH);
+        assertEquals(STORED_LENGTH, fileObject.getLength());
+        assertValues(fileObject);
+
+        fileObject.close();
+        assertEquals(STORED_LENGTH, file.length());
+        assertValues(new MappedFileObject(file));
+    }
+
+    @Test
+    public void preallocatedTailIsSkippedAfterCrash() throws IOException {
+        File file = new File(directory, "channel.slots");
+        // not closed like after a crash, the pre-allocated slots stay in the file
+        appendValues(new MappedFileObject(file));
+        assertTrue(file.length() > STORED_LENGTH);
+
+        MappedFileObject mapped = new MappedFileObject(file);
+        assertEquals(STORED_LENGTH, mapped.getLength());
+        assertValues(mapped);
+
+        StreamFileObject stream = new StreamFileObject(file);
+        assertEquals(STORED_LENGTH, stream.getLength());
+        assertValues(stream);
+
+        // appending continues behind the stored slots and cuts back the pre-allocated tail
+        stream.append(5, START + 4 * PERIOD, Flag.VALID.getCode());
+        stream.close();
+        assertEquals(STORED_LENGTH + FileObject.SLOT_SIZE, file.length());
+        assertEquals(5, new StreamFileObject(file).read(START + 4 * PERIOD).getValue().asDouble(), 0);
+    }
+
+    @Test
+    public void appendingAfterReopenContinuesBehindStoredSlots() throws IOException {
+        File file = new File(directory, "channel.slots");
+        appendValues(new MappedFileObject(file));
+
+        MappedFileObject fileObject = new MappedFileObject(file);
+        fileObject.append(5, START + 4 * PERIOD, Flag.VALID.getCode());
+        // already stored
+        fileObject.append(6, START + 1 * PERIOD, Flag.VALID.getCode());
+        fileObject.close();
+
+        MappedFileObject reopened = new MappedFileObject(file);
+        assertEquals(1, reopened.read(START + PERIOD).getValue().asDouble(), 0);
+        assertEquals(5, reopened.read(START + 4 * PERIOD).getValue().asDouble(), 0);
+        assertEquals(4, reopened.read(START, START + 4 * PERIOD).size());
+    }
+
+    /**
+     * Benchmark without assertions, remove the annotation to compare the append throughput and the latency of 1-day and
+     * 30-day range reads of streamed and memory mapped files with 1 s values.
+     */
+    @Disabled("benchmark")
+    @Test
+    public void printAppendAndRangeReadThroughput() throws IOException {
+        int days = 30;
+        int slotsPerDay = 86400;
+        long day = slotsPerDay * PERIOD;
+
+        for (int round = 0; round < 2; round++) {
+            for (boolean mapped : new boolean[] { false, true }) {
+                File[] files = new File[days];
+                long start = System.nanoTime();
+                for (int d = 0; d < days; d++) {
+                    files[d] = new File(directory, (mapped ? "mapped" : "stream") + round + "-" + d + ".slots");
+                    FileObject fileObject = mapped ? new MappedFileObject(files[d]) : new StreamFileObject(files[d]);
+                    fileObject.createFileAndHeader(START + d * day, PERIOD);
+                    for (int i = 0; i < slotsPerDay; i++) {
+                        fileObject.append(i, START + d * day + i * PERIOD, Flag.VALID.getCode());
+                    }
+                    fileObject.close();
+                }
+                long appendNs = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                long records = read(files[0], mapped);
+                long dayReadNs = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                for (File file : files) {
+                    records += read(file, mapped);
+                }
+                long monthReadNs = System.nanoTime() - start;
+
+                logger.info("{}: {} appends/s, 1-day read {} ms, 30-day read {} ms ({} records)",
+                        mapped ? "MappedFileObject" : "StreamFileObject",
+                        (long) days * slotsPerDay * 1_000_000_000L / appendNs, dayReadNs / 1_000_000,
+                        monthReadNs / 1_000_000, records);
+            }
+        }
+    }
+
+    private static long read(File file, boolean mapped) throws IOException {
+        FileObject fileObject = mapped ? new MappedFileObject(file) : new StreamFileObject(file);
+        try {
+            return fileObject.read(fileObject.getStartTimeStamp(), fileObject.getTimestampForLatestValue()).size();
+        } finally {
+            fileObject.close();
+        }
+    }
+
+    /**
+     * Stores the values 0, 1 and 3, the slot in between is filled with NaN.
+     */
+    private static void appendValues(MappedFileObject fileObject) throws IOException {
+        fileObject.createFileAndHeader(START, PERIOD);
+        fileObject.append(0, START, Flag.VALID.getCode());
+        fileObject.append(1, START + PERIOD, Flag.VALID.getCode());
+        fileObject.append(3, START + 3 * PERIOD, Flag.VALUE_IS_INFINITY.getCode());
+    }
+
+    private static void assertValues(FileObject fileObject) throws IOException {
+        assertEquals(START, fileObject.getStartTimeStamp());
+        assertEquals(PERIOD, fileObject.getStoringPeriod());
+        assertEquals(START + 3 * PERIOD, fileObject.getTimestampForLatestValue());
+
+        List<Record> records = fileObject.read(START, START + 10 * PERIOD);
+        assertEquals(3, records.size());
+        assertEquals(0, records.get(0).getValue().asDouble(), 0);
+        assertEquals(START + PERIOD, records.get(1).getTimestamp());
+        assertEquals(3, records.get(2).getValue().asDouble(), 0);
+        assertEquals(Flag.VALUE_IS_INFINITY, records.get(2).getFlag());
+        assertNull(fileObject.read(START + 2 * PERIOD));
+    }
+
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2011-2024 Fraunhofer ISE
+ *
+ * This file is part of OpenMUC.
+ * For more information visit http://www.openmuc.org
+ *
+ * OpenMUC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenMUC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenMUC. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.openmuc.framework.datalogger.slotsdb;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.openmuc.framework.data.DoubleValue;
+import org.openmuc.framework.data.Record;
+
+public class RecordCursorTest {
+
+    private ExecutorService executor;
+    private AtomicInteger read;
+
+    @BeforeEach
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(2);
+        read = new AtomicInteger();
+    }
+
+    @AfterEach
+    public void tearDown() throws InterruptedException {
+        executor.shutdownNow();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void recordsAreIteratedInOrderOfTheDays() {
+        List<Callable<List<Record>>> days = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            days.add(day(i * 3, i * 3 + 1, i * 3 + 2));
+        }
+        days.add(day());
+        days.add(day(30));
+
+        try (RecordCursor cursor = new RecordCursor(days, executor, 2)) {
+            for (int i = 0; i <= 30; i++) {
+                assertTrue(cursor.hasNext());
+                assertEquals(i, cursor.next().getTimestamp());
+            }
+            assertFalse(cursor.hasNext());
+            assertThrows(NoSuchElementException.class, cursor::next);
+        }
+        assertEquals(12, read.get());
+    }
+
+    @Test
+    public void closingSkipsTheDaysNotReadYet() {
+        List<Callable<List<Record>>> days = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            days.add(day(i));
+        }
+
+        RecordCursor cursor = new RecordCursor(days, executor, 2);
+        assertEquals(0, cursor.next().getTimestamp());
+        cursor.close();
+
+        assertFalse(cursor.hasNext());
+        // the first day and at most the two days prefetched
+        assertTrue(read.get() <= 3);
+    }
+
+    @Test
+    public void emptyCursorHasNoRecords() {
+        RecordCursor cursor = new RecordCursor(Collections.emptyList(), executor, 0);
+        assertFalse(cursor.hasNext());
+        cursor.close();
+    }
+
+    @Test
+    public void readErrorsAreThrownUnchecked() {
+        List<Callable<List<Record>>> days = new ArrayList<>();
+        days.add(day(0));
+        days.add(() -> {
+            throw new IOException("corrupt");
+        });
+        days.add(day(2));
+
+        RecordCursor cursor = new RecordCursor(days, executor, 1);
+        assertEquals(0, cursor.next().getTimestamp());
+        UncheckedIOException e = assertThrows(UncheckedIOException.class, cursor::hasNext);
+        assertEquals("corrupt", e.getCause().getMessage());
+        assertFalse(cursor.hasNext());
+    }
+
+    private Callable<List<Record>> day(long... timestamps) {
+        return () -> {
+            read.incrementAndGet();
+            List<Record> records = new ArrayList<>(timestamps.length);
+            for (long timestamp : timestamps) {
+                records.add(new Record(new DoubleValue(timestamp), timestamp));
+            }
+            return records;
+        };
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2011-2024 Fraunhofer ISE
+ *
+ * This file is part of OpenMUC.
+ * For more information visit http://www.openmuc.org
+ *
+ * OpenMUC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenMUC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenMUC. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.openmuc.framework.driver.modbus;
+
+/**
+ * Defines how the channels of a single write call are transferred to the device.
+ */
+public enum EWriteBatching {
+
+    /** Every channel is written with its own request (default) */
+    NONE,
+
+    /**
+     * Contiguous holding registers are written with FC16 (write multiple registers) and contiguous coils with FC15
+     * (write multiple coils)
+     */
+    MULTIPLE,
+
+    /**
+     * Like MULTIPLE, but holding registers are written with FC23 (read/write multiple registers) which reads back the
+     * written registers within the same request
+     */
+    READ_WRITE_MULTIPLE;
+
+    public static EWriteBatching getEnumfromString(String enumAsString) {
+        for (EWriteBatching value : EWriteBatching.values()) {
+            if (value.toString().equalsIgnoreCase(enumAsString)) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException(enumAsString + " is not supported. Use one of the following values: NONE, "
+                + "MULTIPLE, READ_WRITE_MULTIPLE");
+    }
+}
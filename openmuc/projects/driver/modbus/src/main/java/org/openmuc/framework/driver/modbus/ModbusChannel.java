@@ -68,6 +68,9 @@ public class ModbusChannel {
 
     private String channelAddress;
 
+    /** Decodes the value from the registers of a response, null for coils and discrete inputs */
+    private RegisterDecoder decoder;
+
     /**
      * Is needed when the target device is behind a gateway/bridge which connects Modbus TCP with Modbus+ or Modbus
      * Serial. Note: Some devices requires the unitId even if they are in a Modbus TCP Network and have their own IP.
@@ -87,6 +90,7 @@ public class ModbusChannel {
             setStartAddress(addressParams[ADDRESS]);
             setDatatype(addressParams[DATATYPE]);
             setCount(addressParams[DATATYPE]);
+            setDecoder();
             setAccessFlag(accessFlag);
             setFunctionCode();
         }
@@ -267,6 +271,12 @@ public class ModbusChannel {
         }
     }
 
+    private void setDecoder() {
+        if (!datatype.equals(EDatatype.BOOLEAN)) {
+            decoder = RegisterDecoder.create(datatype, count);
+        }
+    }
+
     private void setAccessFlag(EAccess accessFlag) {
         this.accessFlag = accessFlag;
     }
@@ -295,6 +305,10 @@ public class ModbusChannel {
         return unitId;
     }
 
+    public RegisterDecoder getDecoder() {
+        return decoder;
+    }
+
     public String getChannelAddress() {
         return channelAddress;
     }
@@ -27,6 +27,7 @@ import java.util.List;
 import org.openmuc.framework.data.BooleanValue;
 import org.openmuc.framework.data.Record;
 import org.openmuc.framework.data.Value;
+import org.openmuc.framework.driver.modbus.util.ChangeDetector;
 import org.openmuc.framework.driver.spi.ChannelRecordContainer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -173,22 +174,35 @@ public class ModbusChannelGroup {
         count = maximumAddress - startAddress;
     }
 
-    public void setChannelValues(InputRegister[] inputRegisters, List<ChannelRecordContainer> containers) {
+    /**
+     * Sets the records of the containers from the registers of the group response.
+     * 
+     * @param inputRegisters
+     *            registers of the response
+     * @param containers
+     *            containers of the group
+     * @param changeDetector
+     *            if not null, the record of an unchanged channel is set to null
+     */
+    public void setChannelValues(InputRegister[] inputRegisters, List<ChannelRecordContainer> containers,
+            ChangeDetector changeDetector) {
 
         for (ModbusChannel channel : channels) {
             // determine start index of the registers which contain the values of the channel
             int registerIndex = channel.getStartAddress() - getStartAddress();
-            // create a temporary register array
-            InputRegister[] registers = new InputRegister[channel.getCount()];
-            // copy relevant registers for the channel
-            System.arraycopy(inputRegisters, registerIndex, registers, 0, channel.getCount());
 
-            // now we have a register array which contains the value of the channel
             ChannelRecordContainer container = searchContainer(channel.getChannelAddress(), containers);
 
             long receiveTime = System.currentTimeMillis();
 
-            Value value = ModbusDriverUtil.getRegistersValue(registers, channel.getDatatype());
+            if (changeDetector != null && !changeDetector.hasChanged(container, inputRegisters, registerIndex,
+                    channel.getCount(), receiveTime)) {
+                container.setRecord(null);
+                continue;
+            }
+
+            // decode the value directly from the response registers without copying them
+            Value value = channel.getDecoder().decode(inputRegisters, registerIndex);
 
             if (logger.isTraceEnabled()) {
                 logger.trace("response value channel " + channel.getChannelAddress() + ": " + value.toString());
@@ -198,7 +212,18 @@ public class ModbusChannelGroup {
         }
     }
 
-    public void setChannelValues(BitVector bitVector, List<ChannelRecordContainer> containers) {
+    /**
+     * Sets the records of the containers from the coils or discrete inputs of the group response.
+     * 
+     * @param bitVector
+     *            coils or discrete inputs of the response
+     * @param containers
+     *            containers of the group
+     * @param changeDetector
+     *            if not null, the record of an unchanged channel is set to null
+     */
+    public void setChannelValues(BitVector bitVector, List<ChannelRecordContainer> containers,
+            ChangeDetector changeDetector) {
 
         for (ModbusChannel channel : channels) {
 
@@ -207,8 +232,14 @@ public class ModbusChannelGroup {
             // determine start index of the registers which contain the values of the channel
             int index = channel.getStartAddress() - getStartAddress();
 
-            BooleanValue value = new BooleanValue(bitVector.getBit(index));
             ChannelRecordContainer container = searchContainer(channel.getChannelAddress(), containers);
+
+            if (changeDetector != null && !changeDetector.hasChanged(container, bitVector.getBit(index), receiveTime)) {
+                container.setRecord(null);
+                continue;
+            }
+
+            BooleanValue value = new BooleanValue(bitVector.getBit(index));
             container.setRecord(new Record(value, receiveTime));
         }
     }
@@ -21,6 +21,8 @@
 package org.openmuc.framework.driver.modbus;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Hashtable;
 import java.util.List;
 
@@ -28,7 +30,10 @@ import org.openmuc.framework.data.Flag;
 import org.openmuc.framework.data.Record;
 import org.openmuc.framework.data.Value;
 import org.openmuc.framework.driver.modbus.ModbusChannel.EAccess;
+import org.openmuc.framework.driver.modbus.util.ChangeDetector;
+import org.openmuc.framework.driver.modbus.util.RttEstimator;
 import org.openmuc.framework.driver.spi.ChannelRecordContainer;
+import org.openmuc.framework.driver.spi.ChannelValueContainer;
 import org.openmuc.framework.driver.spi.Connection;
 import org.openmuc.framework.driver.spi.ConnectionException;
 import org.slf4j.Logger;
@@ -50,6 +55,8 @@ import com.ghgande.j2mod.modbus.msg.ReadInputRegistersRequest;
 import com.ghgande.j2mod.modbus.msg.ReadInputRegistersResponse;
 import com.ghgande.j2mod.modbus.msg.ReadMultipleRegistersRequest;
 import com.ghgande.j2mod.modbus.msg.ReadMultipleRegistersResponse;
+import com.ghgande.j2mod.modbus.msg.ReadWriteMultipleRequest;
+import com.ghgande.j2mod.modbus.msg.ReadWriteMultipleResponse;
 import com.ghgande.j2mod.modbus.msg.WriteCoilRequest;
 import com.ghgande.j2mod.modbus.msg.WriteMultipleCoilsRequest;
 import com.ghgande.j2mod.modbus.msg.WriteMultipleRegistersRequest;
@@ -69,10 +76,28 @@ public abstract class ModbusConnection implements Connection {
 
     private int requestTransactionId;
     private final int MAX_RETRIES_FOR_JAMOD = 0;
-    private final int MAX_RETRIES_FOR_DRIVER = 3;
+    // j2mod counts attempts of TCP transactions and replaces values below 1 by its default of 5 attempts
+    private final int MAX_ATTEMPTS_FOR_J2MOD_TCP = 1;
+
+    /** Number of driver retries for read requests, see performModbusReadTransactionWithRetry() */
+    private int maxRetries = 0;
+
+    private EWriteBatching writeBatching = EWriteBatching.NONE;
+    private ChangeDetector changeDetector = null;
+
+    /** Provides the timeout per request, null if the timeout is fixed by the connection */
+    private RttEstimator rttEstimator = null;
 
     public abstract void connect() throws ConnectionException;
 
+    /**
+     * Sets the response timeout of the underlying j2mod connection.
+     * 
+     * @param timeoutMs
+     *            timeout in ms
+     */
+    protected abstract void setTimeout(int timeoutMs);
+
     public ModbusConnection() {
 
         transaction = null;
@@ -89,9 +114,68 @@ public abstract class ModbusConnection implements Connection {
         // request and response.
         // To fix this we set the retries to 0 so the SocketTimeoutException isn't swallowed by the lib and we can
         // handle it, according to our needs
-        // TODO: We might need to implement our own retry mechanism within the driver so that the first timeout doesn't
-        // directly causes a ConnectionException
-        this.transaction.setRetries(MAX_RETRIES_FOR_JAMOD);
+        // The driver implements its own retry mechanism for read requests instead, see
+        // performModbusReadTransactionWithRetry()
+        if (transaction instanceof ModbusTCPTransaction) {
+            this.transaction.setRetries(MAX_ATTEMPTS_FOR_J2MOD_TCP);
+        }
+        else {
+            this.transaction.setRetries(MAX_RETRIES_FOR_JAMOD);
+        }
+    }
+
+    /**
+     * Enables per request timeouts and retries of read requests.
+     * 
+     * @param rttEstimator
+     *            estimator which provides the timeout of each request and collects the RTT statistics of the device
+     * @param maxRetries
+     *            maximum number of retries of a read request after a timeout
+     */
+    public synchronized void setTimeoutSettings(RttEstimator rttEstimator, int maxRetries) {
+        this.rttEstimator = rttEstimator;
+        this.maxRetries = maxRetries;
+    }
+
+    public void setWriteBatching(EWriteBatching writeBatching) {
+        this.writeBatching = writeBatching;
+    }
+
+    public EWriteBatching getWriteBatching() {
+        return writeBatching;
+    }
+
+    /**
+     * Enables report by exception for sampled channels.
+     * 
+     * @param changeDetector
+     *            change detection to use or null to report every sampled channel
+     */
+    public void setChangeDetector(ChangeDetector changeDetector) {
+        this.changeDetector = changeDetector;
+    }
+
+    /**
+     * @return the change detection of the device or null if disabled
+     */
+    public ChangeDetector getChangeDetector() {
+        return changeDetector;
+    }
+
+    protected void logStatistics() {
+        if (rttEstimator != null) {
+            logger.info("Statistics of Modbus device: {}", rttEstimator);
+        }
+        if (changeDetector != null) {
+            logger.info("Change detection of Modbus device: {}", changeDetector);
+        }
+    }
+
+    /**
+     * @return the RTT statistics of the device or null if no RttEstimator is set
+     */
+    public RttEstimator getRttEstimator() {
+        return rttEstimator;
     }
 
     public Value readChannel(ModbusChannel channel) throws ModbusException {
@@ -110,10 +194,10 @@ public abstract class ModbusConnection implements Connection {
             value = ModbusDriverUtil.getBitVectorsValue(readDiscreteInputs(channel));
             break;
         case FC_03_READ_HOLDING_REGISTERS:
-            value = ModbusDriverUtil.getRegistersValue(readHoldingRegisters(channel), channel.getDatatype());
+            value = channel.getDecoder().decode(readHoldingRegisters(channel), 0);
             break;
         case FC_04_READ_INPUT_REGISTERS:
-            value = ModbusDriverUtil.getRegistersValue(readInputRegisters(channel), channel.getDatatype());
+            value = channel.getDecoder().decode(readInputRegisters(channel), 0);
             break;
         default:
             throw new RuntimeException("FunctionCode " + channel.getFunctionCode() + " not supported yet");
@@ -122,6 +206,70 @@ public abstract class ModbusConnection implements Connection {
         return value;
     }
 
+    /**
+     * Change detection applies to sampling only. On-demand reads of the data manager pass {@code true} as
+     * containerListHandle (see ReadTask) and always get the decoded value, without touching the state of the change
+     * detection.
+     * 
+     * @param containerListHandle
+     *            the containerListHandle of the read call
+     * @return true if the read call is an on-demand read
+     */
+    protected static boolean isOnDemandRead(Object containerListHandle) {
+        return Boolean.TRUE.equals(containerListHandle);
+    }
+
+    /**
+     * Reads the channel like {@link #readChannel(ModbusChannel)}. If change detection is enabled, the raw words of the
+     * response are compared with the last reported ones first and null is returned if the channel is unchanged and no
+     * heartbeat is due. An unchanged channel is not decoded at all.
+     * 
+     * @param channel
+     *            channel to read
+     * @param container
+     *            container of the channel
+     * @param receiveTime
+     *            time of the read used for the heartbeat
+     * @return the value of the channel or null if unchanged
+     * @throws ModbusException
+     *             if the channel could not be read. The change detection is reset in this case, so the next read of
+     *             every channel is reported again.
+     */
+    public Value readChannel(ModbusChannel channel, ChannelRecordContainer container, long receiveTime)
+            throws ModbusException {
+
+        if (changeDetector == null) {
+            return readChannel(channel);
+        }
+
+        try {
+            switch (channel.getFunctionCode()) {
+            case FC_01_READ_COILS:
+                BitVector coils = readCoils(channel);
+                return changeDetector.hasChanged(container, coils, receiveTime)
+                        ? ModbusDriverUtil.getBitVectorsValue(coils) : null;
+            case FC_02_READ_DISCRETE_INPUTS:
+                BitVector discreteInputs = readDiscreteInputs(channel);
+                return changeDetector.hasChanged(container, discreteInputs, receiveTime)
+                        ? ModbusDriverUtil.getBitVectorsValue(discreteInputs) : null;
+            case FC_03_READ_HOLDING_REGISTERS:
+                Register[] registers = readHoldingRegisters(channel);
+                return changeDetector.hasChanged(container, registers, 0, registers.length, receiveTime)
+                        ? channel.getDecoder().decode(registers, 0) : null;
+            case FC_04_READ_INPUT_REGISTERS:
+                InputRegister[] inputRegisters = readInputRegisters(channel);
+                return changeDetector.hasChanged(container, inputRegisters, 0, inputRegisters.length,
+                        receiveTime) ? channel.getDecoder().decode(inputRegisters, 0) : null;
+            default:
+                throw new RuntimeException("FunctionCode " + channel.getFunctionCode() + " not supported yet");
+            }
+        } catch (ModbusException | RuntimeException e) {
+            // the channel gets an error flag, so its next value must be reported even if unchanged
+            changeDetector.reset();
+            throw e;
+        }
+    }
+
     public Object readChannelGroupHighLevel(List<ChannelRecordContainer> containers, Object containerListHandle,
             String samplingGroup) throws ConnectionException {
 
@@ -169,19 +317,19 @@ public abstract class ModbusConnection implements Connection {
         switch (channelGroup.getFunctionCode()) {
         case FC_01_READ_COILS:
             BitVector coils = readCoils(channelGroup);
-            channelGroup.setChannelValues(coils, containers);
+            channelGroup.setChannelValues(coils, containers, changeDetector);
             break;
         case FC_02_READ_DISCRETE_INPUTS:
             BitVector discretInput = readDiscreteInputs(channelGroup);
-            channelGroup.setChannelValues(discretInput, containers);
+            channelGroup.setChannelValues(discretInput, containers, changeDetector);
             break;
         case FC_03_READ_HOLDING_REGISTERS:
             Register[] registers = readHoldingRegisters(channelGroup);
-            channelGroup.setChannelValues(registers, containers);
+            channelGroup.setChannelValues(registers, containers, changeDetector);
             break;
         case FC_04_READ_INPUT_REGISTERS:
             InputRegister[] inputRegisters = readInputRegisters(channelGroup);
-            channelGroup.setChannelValues(inputRegisters, containers);
+            channelGroup.setChannelValues(inputRegisters, containers, changeDetector);
             break;
         default:
             throw new RuntimeException("FunctionCode " + channelGroup.getFunctionCode() + " not supported yet");
@@ -212,7 +360,197 @@ public abstract class ModbusConnection implements Connection {
         }
     }
 
+    /**
+     * Writes the values of all containers and sets the flag of each container. Depending on the configured
+     * EWriteBatching contiguous channels are written with a single request. If a batched request is rejected by the
+     * device, the channels of the batch are written one by one to determine the flag of each container.
+     * <p>
+     * NOTE: With batching enabled the channels are written in the order of unit ID, primary table and address instead
+     * of the order of the containers.
+     * 
+     * @param containers
+     *            containers to write
+     * @throws ModbusIOException
+     *             if an IO error occurs. The remaining containers are not written.
+     */
+    public void writeChannels(List<ChannelValueContainer> containers) throws ModbusIOException {
+
+        if (writeBatching == EWriteBatching.NONE) {
+            for (ChannelValueContainer container : containers) {
+                writeContainer(container, getModbusChannel(container.getChannelAddress(), EAccess.WRITE));
+            }
+            return;
+        }
+
+        for (ModbusWriteBatch batch : createWriteBatches(containers)) {
+            if (batch.size() == 1) {
+                writeContainer(batch.getContainers().get(0), batch.getChannels().get(0));
+            }
+            else {
+                writeBatch(batch);
+            }
+        }
+    }
+
+    private void writeContainer(ChannelValueContainer container, ModbusChannel channel) throws ModbusIOException {
+        try {
+            writeChannel(channel, container.getValue());
+            container.setFlag(Flag.VALID);
+
+        } catch (ModbusIOException e) {
+            logger.error("ModbusIOException while writing channel:" + channel.getChannelAddress(), e);
+            throw e;
+
+        } catch (ModbusException e) {
+            logger.error("ModbusException while writing channel: " + channel.getChannelAddress(), e);
+            container.setFlag(Flag.DRIVER_ERROR_CHANNEL_NOT_ACCESSIBLE);
+
+        } catch (Exception e) {
+            logger.error("Exception while writing channel: " + channel.getChannelAddress(), e);
+            container.setFlag(Flag.UNKNOWN_ERROR);
+        }
+    }
+
+    private List<ModbusWriteBatch> createWriteBatches(List<ChannelValueContainer> containers) {
+
+        List<ChannelValueContainer> sortedContainers = new ArrayList<>(containers);
+        List<ModbusChannel> sortedChannels = new ArrayList<>();
+        for (ChannelValueContainer container : sortedContainers) {
+            sortedChannels.add(getModbusChannel(container.getChannelAddress(), EAccess.WRITE));
+        }
+
+        // sort is stable, so writes to the same address keep their order
+        Integer[] order = new Integer[sortedContainers.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingInt((Integer i) -> sortedChannels.get(i).getUnitId())
+                .thenComparing(i -> sortedChannels.get(i).getPrimaryTable())
+                .thenComparingInt(i -> sortedChannels.get(i).getStartAddress()));
+
+        List<ModbusWriteBatch> batches = new ArrayList<>();
+        ModbusWriteBatch batch = null;
+
+        for (int i : order) {
+            ChannelValueContainer container = sortedContainers.get(i);
+            ModbusChannel channel = sortedChannels.get(i);
+
+            try {
+                switch (channel.getFunctionCode()) {
+                case FC_05_WRITE_SINGLE_COIL:
+                    boolean coil = container.getValue().asBoolean();
+                    if (batch == null || !batch.isAppendable(channel, 1)) {
+                        batch = new ModbusWriteBatch(channel, ModbusWriteBatch.MAX_COILS_FC15);
+                        batches.add(batch);
+                    }
+                    batch.add(container, channel, coil);
+                    break;
+                case FC_06_WRITE_SINGLE_REGISTER:
+                case FC_16_WRITE_MULTIPLE_REGISTERS:
+                    Register[] registers = valueToWriteRegisters(channel, container.getValue());
+                    if (batch == null || !batch.isAppendable(channel, registers.length)) {
+                        batch = new ModbusWriteBatch(channel, getMaxBatchRegisters());
+                        batches.add(batch);
+                    }
+                    batch.add(container, channel, registers);
+                    if (registers.length != channel.getCount()) {
+                        // e.g. byte array of different length, address of next channel can't be verified
+                        batch = null;
+                    }
+                    break;
+                default:
+                    // written with its own request
+                    batch = new ModbusWriteBatch(channel, 0);
+                    batch.add(container, channel, new Register[0]);
+                    batches.add(batch);
+                    batch = null;
+                }
+            } catch (Exception e) {
+                logger.error("Exception while writing channel: " + channel.getChannelAddress(), e);
+                container.setFlag(Flag.UNKNOWN_ERROR);
+            }
+        }
+
+        return batches;
+    }
+
+    private Register[] valueToWriteRegisters(ModbusChannel channel, Value value) {
+        if (channel.getFunctionCode() == EFunctionCode.FC_06_WRITE_SINGLE_REGISTER) {
+            return new Register[] { new SimpleRegister(value.asShort()) };
+        }
+        return ModbusDriverUtil.valueToRegisters(value, channel.getDatatype());
+    }
+
+    private int getMaxBatchRegisters() {
+        if (writeBatching == EWriteBatching.READ_WRITE_MULTIPLE) {
+            return ModbusWriteBatch.MAX_REGISTERS_FC23;
+        }
+        return ModbusWriteBatch.MAX_REGISTERS_FC16;
+    }
+
+    private void writeBatch(ModbusWriteBatch batch) throws ModbusIOException {
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("write {} channels with one request, unit ID: {}, {}: {} - {}", batch.size(),
+                    batch.getUnitId(), batch.getPrimaryTable(), batch.getStartAddress(),
+                    batch.getStartAddress() + batch.getCount() - 1);
+        }
+
+        try {
+            if (batch.getPrimaryTable() == EPrimaryTable.COILS) {
+                writeMultipleCoils(batch.getStartAddress(), batch.getCoils(), batch.getUnitId());
+            }
+            else if (writeBatching == EWriteBatching.READ_WRITE_MULTIPLE) {
+                Register[] registers = batch.getRegisters();
+                InputRegister[] readBack = readWriteMultipleRegisters(batch.getStartAddress(), registers,
+                        batch.getUnitId());
+                setFlagsOfReadBack(batch, registers, readBack);
+                return;
+            }
+            else {
+                writeMultipleRegisters(batch.getStartAddress(), batch.getRegisters(), batch.getUnitId());
+            }
+
+            for (ChannelValueContainer container : batch.getContainers()) {
+                container.setFlag(Flag.VALID);
+            }
+
+        } catch (ModbusIOException e) {
+            logger.error("ModbusIOException while writing channels starting at address " + batch.getStartAddress(),
+                    e);
+            throw e;
+
+        } catch (ModbusException e) {
+            // the response doesn't tell which channel caused the error
+            logger.warn("Unable to write {} channels starting at address {} with one request, writing them one by one. "
+                    + "Cause: {}", batch.size(), batch.getStartAddress(), e.getMessage());
+            for (int i = 0; i < batch.size(); i++) {
+                writeContainer(batch.getContainers().get(i), batch.getChannels().get(i));
+            }
+        }
+    }
+
+    private void setFlagsOfReadBack(ModbusWriteBatch batch, Register[] written, InputRegister[] readBack) {
+        for (int i = 0; i < batch.size(); i++) {
+            ModbusChannel channel = batch.getChannels().get(i);
+            int offset = channel.getStartAddress() - batch.getStartAddress();
+            Flag flag = Flag.VALID;
+            for (int j = offset; j < offset + channel.getCount(); j++) {
+                if (readBack == null || j >= readBack.length || readBack[j].getValue() != written[j].getValue()) {
+                    logger.warn("Value read back differs from written value of channel: "
+                            + channel.getChannelAddress());
+                    flag = Flag.DRIVER_ERROR_UNSPECIFIED;
+                    break;
+                }
+            }
+            batch.getContainers().get(i).setFlag(flag);
+        }
+    }
+
     public void setChannelsWithErrorFlag(List<ChannelRecordContainer> containers) {
+        if (changeDetector != null) {
+            changeDetector.reset();
+        }
         for (ChannelRecordContainer container : containers) {
             container.setRecord(new Record(null, null, Flag.DRIVER_ERROR_CHANNEL_TEMPORARILY_NOT_ACCESSIBLE));
         }
@@ -248,8 +586,12 @@ public abstract class ModbusConnection implements Connection {
 
         ModbusResponse response = null;
 
-        // see: performModbusTCPReadTransactionWithRetry()
-        response = performModbusReadTransaction();
+        if (rttEstimator == null) {
+            response = performModbusReadTransaction();
+        }
+        else {
+            response = performModbusReadTransactionWithRetry();
+        }
 
         if (response == null) {
             throw new ModbusException("received response object is null");
@@ -268,85 +610,90 @@ public abstract class ModbusConnection implements Connection {
         return response;
     }
 
-    // FIXME concept with retry is not working after a java.net.SocketTimeoutException: Read timed out
-    // Problem is that the Transaction.excecute() increments the Transaction ID with each execute. Example: Request is
-    // sent with Transaction ID 30, then a timeout happens, when using the retry mechanism below it will resend the
-    // request. the jamod increases the transaction id again to 31 but then it receives the response for id 30. From the
-    // time a timeout happened the response id will be always smaller than the request id, since the jamod doesn't
-    // provide a method to read a response without sending a request.
-    private ModbusResponse performModbusTCPReadTransactionWithRetry() throws ModbusException {
+    /**
+     * Executes a read transaction and retries it up to maxRetries times if no (matching) response was received within
+     * the timeout. Since reads are idempotent they can be repeated safely. The timeout of each attempt is provided by
+     * the RttEstimator and doubled with every retry.
+     * <p>
+     * NOTE: A response to a timed out request might arrive after the retry was sent. For TCP this is detected by the
+     * validity check of j2mod, which compares the transaction IDs of request and response and throws a
+     * ModbusIOException on mismatch, since j2mod makes a single attempt. This causes another retry.
+     */
+    private ModbusResponse performModbusReadTransactionWithRetry() throws ModbusException {
 
-        ModbusResponse response = null;
+        rttEstimator.incrementRequests();
 
-        // NOTE: see comments about max retries in setTransaction()
         int retries = 0;
 
-        while (retries < MAX_RETRIES_FOR_DRIVER) {
-            // +1 because id is incremented within transaction execution
-
-            // int requestId = transaction.getTransactionID() + 1;
+        while (true) {
+            setTimeout(rttEstimator.getTimeout(retries));
             printRequestTraceMsg();
 
+            long startTime = System.nanoTime();
             try {
                 transaction.execute();
             } catch (ModbusIOException e) {
-                // logger.trace("caught ModbusIOException, probably timeout, retry");
+                checkRetryCondition(retries, e);
                 retries++;
-                checkRetryCondition(retries);
                 continue;
             }
 
-            if (isTransactionIdMatching()) {
-                response = transaction.getResponse();
-                break;
-            }
-            else {
-                retries++;
-                checkRetryCondition(retries);
+            // Karn's algorithm: the RTT of a retried request is ambiguous, so only first attempts are sampled
+            if (retries == 0) {
+                rttEstimator.addSample((System.nanoTime() - startTime) / 1_000_000);
             }
 
+            return transaction.getResponse();
         }
-
-        return response;
     }
 
     /**
      * 
      * @param retries
+     *            number of retries done so far
+     * @param cause
+     *            exception of the last attempt
      * @throws ModbusIOException
      *             if max number of retries is reached, which indicates an IO problem.
      */
-    private void checkRetryCondition(int retries) throws ModbusIOException {
-        logger.trace("Failed to get response. Retry {}/{}", retries, MAX_RETRIES_FOR_DRIVER);
-        if (retries == MAX_RETRIES_FOR_DRIVER) {
-            throw new ModbusIOException("Unable to get response. Max number of retries reached");
+    private void checkRetryCondition(int retries, ModbusIOException cause) throws ModbusIOException {
+        if (retries >= maxRetries) {
+            rttEstimator.incrementFailures();
+            if (maxRetries > 0) {
+                logger.debug("Unable to get response. Max number of retries reached. {}", rttEstimator);
+            }
+            throw cause;
         }
+        rttEstimator.incrementRetries();
+        logger.trace("Failed to get response. Retry {}/{}", retries + 1, maxRetries);
     }
 
-    private boolean isTransactionIdMatching() {
-
-        boolean isMatching = false;
-
-        int requestId = transaction.getRequest().getTransactionID();
-        int responseId = transaction.getResponse().getTransactionID();
+    private ModbusResponse executeWriteTransaction() throws ModbusException {
+        printRequestTraceMsg();
 
-        if (requestId == responseId) {
-            isMatching = true;
+        // writes are not idempotent in general and therefore never retried
+        if (rttEstimator == null) {
+            transaction.execute();
         }
         else {
-            logger.warn("Mismatching transaction IDs: request ({}) / response ({}). Retrying transaction...", requestId,
-                    responseId);
+            rttEstimator.incrementRequests();
+            setTimeout(rttEstimator.getTimeout());
+            long startTime = System.nanoTime();
+            try {
+                transaction.execute();
+            } catch (ModbusIOException e) {
+                rttEstimator.incrementFailures();
+                throw e;
+            }
+            rttEstimator.addSample((System.nanoTime() - startTime) / 1_000_000);
         }
 
-        return isMatching;
-    }
-
-    private void executeWriteTransaction() throws ModbusException {
-        printRequestTraceMsg();
-        transaction.execute();
         // FIXME evaluate response
         ModbusResponse response = transaction.getResponse();
-        printResponseTraceMsg(response);
+        if (response != null) {
+            printResponseTraceMsg(response);
+        }
+        return response;
     }
 
     private synchronized BitVector readCoils(int startAddress, int count, int unitID) throws ModbusException {
@@ -478,11 +825,16 @@ public abstract class ModbusConnection implements Connection {
         executeWriteTransaction();
     }
 
-    public synchronized void writeMultipleCoils(ModbusChannel channel, BitVector coils) throws ModbusException {
+    public void writeMultipleCoils(ModbusChannel channel, BitVector coils) throws ModbusException {
+        writeMultipleCoils(channel.getStartAddress(), coils, channel.getUnitId());
+    }
+
+    private synchronized void writeMultipleCoils(int startAddress, BitVector coils, int unitID)
+            throws ModbusException {
         WriteMultipleCoilsRequest writeMultipleCoilsRequest = new WriteMultipleCoilsRequest();
-        writeMultipleCoilsRequest.setReference(channel.getStartAddress());
+        writeMultipleCoilsRequest.setReference(startAddress);
         writeMultipleCoilsRequest.setCoils(coils);
-        writeMultipleCoilsRequest.setUnitID(channel.getUnitId());
+        writeMultipleCoilsRequest.setUnitID(unitID);
         transaction.setRequest(writeMultipleCoilsRequest);
         executeWriteTransaction();
     }
@@ -496,16 +848,43 @@ public abstract class ModbusConnection implements Connection {
         executeWriteTransaction();
     }
 
-    public synchronized void writeMultipleRegisters(ModbusChannel channel, Register[] registers)
+    public void writeMultipleRegisters(ModbusChannel channel, Register[] registers) throws ModbusException {
+        writeMultipleRegisters(channel.getStartAddress(), registers, channel.getUnitId());
+    }
+
+    private synchronized void writeMultipleRegisters(int startAddress, Register[] registers, int unitID)
             throws ModbusException {
         WriteMultipleRegistersRequest writeMultipleRegistersRequest = new WriteMultipleRegistersRequest();
-        writeMultipleRegistersRequest.setReference(channel.getStartAddress());
+        writeMultipleRegistersRequest.setReference(startAddress);
         writeMultipleRegistersRequest.setRegisters(registers);
-        writeMultipleRegistersRequest.setUnitID(channel.getUnitId());
+        writeMultipleRegistersRequest.setUnitID(unitID);
         transaction.setRequest(writeMultipleRegistersRequest);
         executeWriteTransaction();
     }
 
+    /**
+     * Writes the registers and reads them back within one request (FC23)
+     * 
+     * @return the registers read back after writing
+     */
+    private synchronized InputRegister[] readWriteMultipleRegisters(int startAddress, Register[] registers,
+            int unitID) throws ModbusException {
+        ReadWriteMultipleRequest readWriteMultipleRequest = new ReadWriteMultipleRequest(unitID, startAddress,
+                registers.length, startAddress, registers.length);
+        readWriteMultipleRequest.setRegisters(registers);
+
+        if (transaction instanceof ModbusSerialTransaction) {
+            readWriteMultipleRequest.setHeadless();
+        }
+
+        transaction.setRequest(readWriteMultipleRequest);
+        ModbusResponse response = executeWriteTransaction();
+        if (!(response instanceof ReadWriteMultipleResponse)) {
+            throw new ModbusIOException("received no read write multiple registers response");
+        }
+        return ((ReadWriteMultipleResponse) response).getRegisters();
+    }
+
     // FIXME transaction ID unsupported by RTU since it is headless... create own debug for RTU
     private void printRequestTraceMsg() {
 
@@ -563,8 +942,8 @@ public abstract class ModbusConnection implements Connection {
         int responseTransactionId = response.getTransactionID();
 
         if (transaction instanceof ModbusTCPTransaction) {
-            if (responseTransactionId > (requestTransactionId + MAX_RETRIES_FOR_DRIVER)) {
-                logger.warn("responseTransactionId > (lastRequestTransactionId + MAX_RETRIES)");
+            if (responseTransactionId > (requestTransactionId + maxRetries)) {
+                logger.warn("responseTransactionId > (lastRequestTransactionId + maxRetries)");
             }
         }
 
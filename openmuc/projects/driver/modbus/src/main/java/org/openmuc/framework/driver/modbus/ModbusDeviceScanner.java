@@ -0,0 +1,404 @@
+/*
+ * Copyright 2011-2024 Fraunhofer ISE
+ *
+ * This file is part of OpenMUC.
+ * For more information visit http://www.openmuc.org
+ *
+ * OpenMUC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenMUC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenMUC. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.openmuc.framework.driver.modbus;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openmuc.framework.config.ArgumentSyntaxException;
+import org.openmuc.framework.config.DeviceScanInfo;
+import org.openmuc.framework.config.ScanException;
+import org.openmuc.framework.config.ScanInterruptedException;
+import org.openmuc.framework.driver.modbus.ModbusChannel.EAccess;
+import org.openmuc.framework.driver.modbus.rtu.ModbusConfigurationException;
+import org.openmuc.framework.driver.modbus.rtu.ModbusRTUConnection;
+import org.openmuc.framework.driver.modbus.tcp.ModbusTCPConnection;
+import org.openmuc.framework.driver.modbus.util.RttEstimator;
+import org.openmuc.framework.driver.spi.ConnectionException;
+import org.openmuc.framework.driver.spi.DriverDeviceScanListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ghgande.j2mod.modbus.Modbus;
+import com.ghgande.j2mod.modbus.ModbusException;
+import com.ghgande.j2mod.modbus.ModbusSlaveException;
+
+/**
+ * Scans IP ranges (TCP, RTUTCP) or a serial port (RTU) for Modbus devices.
+ * <p>
+ * IP hosts are scanned in parallel by a bounded thread pool. A host is skipped as soon as no TCP connection can be
+ * established within the timeout. Otherwise every unit ID of the range is probed by reading holding register 0. A
+ * unit ID counts as found if it sends a normal response. Gateways answer for unit IDs which don't exist with exception
+ * responses, e.g. illegal data address, so unit IDs which only sent an exception response other than the gateway
+ * exceptions are reported separately. A device without holding register 0 shows up there as well.
+ * <p>
+ * Unit IDs on a serial port are probed one after another, since the bus can only handle one request at a time.
+ */
+public class ModbusDeviceScanner {
+
+    private static final Logger logger = LoggerFactory.getLogger(ModbusDeviceScanner.class);
+
+    private static final int DEFAULT_TIMEOUT_MS = 200;
+    private static final int DEFAULT_THREADS = 32;
+    private static final int MAX_HOSTS = 65536;
+
+    private static final int RTU_SETTINGS_LENGTH = 9;
+
+    /** Exception code of a gateway without a configured path to the unit ID. */
+    private static final int GATEWAY_PATH_UNAVAILABLE = 10;
+
+    private final String mode;
+    private final List<InetAddress> hosts = new ArrayList<>();
+    private int port = Modbus.DEFAULT_PORT;
+    private String serialPort;
+    private String[] serialSettings;
+    private int firstUnitId;
+    private int lastUnitId;
+    private int timeoutMs = DEFAULT_TIMEOUT_MS;
+    private int threads = DEFAULT_THREADS;
+
+    private volatile boolean interrupted = false;
+
+    private enum EProbeResult {
+        NO_RESPONSE,
+        RESPONSE,
+        EXCEPTION_RESPONSE
+    }
+
+    /**
+     * Unit IDs of a device, by the kind of response.
+     */
+    private static class UnitIds {
+        private final List<Integer> responding = new ArrayList<>();
+        private final List<Integer> exceptionOnly = new ArrayList<>();
+
+        private boolean isEmpty() {
+            return responding.isEmpty() && exceptionOnly.isEmpty();
+        }
+    }
+
+    /**
+     * @param settings
+     *            scan settings, see {@link ModbusDriver#getInfo()}
+     * @throws ArgumentSyntaxException
+     *             if the settings are invalid
+     */
+    public ModbusDeviceScanner(String settings) throws ArgumentSyntaxException {
+        String[] settingsArray = settings.trim().split(":");
+        mode = settingsArray[0].toUpperCase();
+
+        if (mode.equals("TCP") || mode.equals("RTUTCP")) {
+            if (settingsArray.length < 2) {
+                throw new ArgumentSyntaxException("Missing IP range in scan settings.");
+            }
+            parseHosts(settingsArray[1]);
+            firstUnitId = 1;
+            lastUnitId = 1;
+            parseOptions(Arrays.copyOfRange(settingsArray, 2, settingsArray.length));
+        }
+        else if (mode.equals("RTU")) {
+            if (settingsArray.length < RTU_SETTINGS_LENGTH + 1) {
+                throw new ArgumentSyntaxException("Missing serial port or serial settings in scan settings.");
+            }
+            serialPort = settingsArray[1];
+            // same layout as the device settings: RTU:<ENCODING>:<BAUDRATE>:...
+            serialSettings = new String[RTU_SETTINGS_LENGTH];
+            serialSettings[0] = mode;
+            System.arraycopy(settingsArray, 2, serialSettings, 1, RTU_SETTINGS_LENGTH - 1);
+            firstUnitId = 1;
+            lastUnitId = 247;
+            parseOptions(Arrays.copyOfRange(settingsArray, RTU_SETTINGS_LENGTH + 1, settingsArray.length));
+        }
+        else {
+            throw new ArgumentSyntaxException("Unknown mode " + settingsArray[0] + ". Use TCP, RTUTCP or RTU.");
+        }
+    }
+
+    private void parseHosts(String ipRange) throws ArgumentSyntaxException {
+        long first;
+        long last;
+
+        try {
+            if (ipRange.contains("/")) {
+                String[] cidr = ipRange.split("/");
+                int prefix = Integer.parseInt(cidr[1]);
+                if (prefix < 16 || prefix > 32) {
+                    throw new ArgumentSyntaxException("Prefix length must be between 16 and 32: " + ipRange);
+                }
+                long mask = 0xFFFFFFFFL << (32 - prefix) & 0xFFFFFFFFL;
+                first = toLong(cidr[0]) & mask;
+                last = first | ~mask & 0xFFFFFFFFL;
+                if (prefix < 31) {
+                    // skip network and broadcast address
+                    first++;
+                    last--;
+                }
+            }
+            else if (ipRange.contains("-")) {
+                String[] range = ipRange.split("-");
+                first = toLong(range[0]);
+                last = toLong(range[1]);
+            }
+            else {
+                first = toLong(ipRange);
+                last = first;
+            }
+
+            if (last < first || last - first >= MAX_HOSTS) {
+                throw new ArgumentSyntaxException("Invalid IP range: " + ipRange);
+            }
+
+            for (long ip = first; ip <= last; ip++) {
+                byte[] bytes = { (byte) (ip >> 24), (byte) (ip >> 16), (byte) (ip >> 8), (byte) ip };
+                hosts.add(InetAddress.getByAddress(bytes));
+            }
+        } catch (ArgumentSyntaxException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new ArgumentSyntaxException("Invalid IP range: " + ipRange + ". Use e.g. 192.168.1.0/24, "
+                    + "192.168.1.10-192.168.1.20 or 192.168.1.10");
+        }
+    }
+
+    private static long toLong(String ip) throws UnknownHostException {
+        byte[] bytes = InetAddress.getByName(ip).getAddress();
+        if (bytes.length != 4) {
+            throw new UnknownHostException("Only IPv4 addresses are supported: " + ip);
+        }
+        return (bytes[0] & 0xFFL) << 24 | (bytes[1] & 0xFFL) << 16 | (bytes[2] & 0xFFL) << 8 | bytes[3] & 0xFFL;
+    }
+
+    private void parseOptions(String[] options) throws ArgumentSyntaxException {
+        for (String option : options) {
+            String[] keyValue = option.split("=");
+            if (keyValue.length != 2) {
+                throw new ArgumentSyntaxException("Invalid scan setting: " + option);
+            }
+            try {
+                switch (keyValue[0]) {
+                case "port":
+                    port = Integer.parseInt(keyValue[1]);
+                    break;
+                case "unitIds":
+                    String[] unitIds = keyValue[1].split("-");
+                    firstUnitId = Integer.parseInt(unitIds[0]);
+                    lastUnitId = Integer.parseInt(unitIds[unitIds.length - 1]);
+                    if (firstUnitId < 0 || lastUnitId > 255 || lastUnitId < firstUnitId) {
+                        throw new ArgumentSyntaxException("Invalid unit ID range: " + keyValue[1]);
+                    }
+                    break;
+                case "timeout":
+                    timeoutMs = Integer.parseInt(keyValue[1]);
+                    break;
+                case "threads":
+                    threads = Integer.parseInt(keyValue[1]);
+                    break;
+                default:
+                    throw new ArgumentSyntaxException("Unknown scan setting: " + keyValue[0]);
+                }
+            } catch (NumberFormatException e) {
+                throw new ArgumentSyntaxException("Invalid number in scan setting: " + option);
+            }
+        }
+
+        if (timeoutMs <= 0 || threads <= 0) {
+            throw new ArgumentSyntaxException("Timeout and threads must be greater 0.");
+        }
+    }
+
+    public void scan(DriverDeviceScanListener listener) throws ScanException, ScanInterruptedException {
+        if (mode.equals("RTU")) {
+            scanSerialPort(listener);
+        }
+        else {
+            scanHosts(listener);
+        }
+
+        if (interrupted) {
+            throw new ScanInterruptedException();
+        }
+    }
+
+    public void interrupt() {
+        interrupted = true;
+    }
+
+    private void scanHosts(DriverDeviceScanListener listener) throws ScanException {
+        logger.info("Scanning {} hosts with unit IDs {}-{} on port {}", hosts.size(), firstUnitId, lastUnitId, port);
+
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, hosts.size()), runnable -> {
+            Thread thread = new Thread(runnable,
+                    "OpenMUC Modbus Device Scan - thread-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        AtomicInteger scannedHosts = new AtomicInteger();
+        List<Future<?>> futures = new ArrayList<>();
+
+        try {
+            for (InetAddress host : hosts) {
+                futures.add(executor.submit(() -> {
+                    scanHost(host, listener);
+                    int progress = scannedHosts.incrementAndGet() * 100 / hosts.size();
+                    synchronized (listener) {
+                        listener.scanProgressUpdate(progress);
+                    }
+                }));
+            }
+
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            interrupted = true;
+        } catch (Exception e) {
+            throw new ScanException(e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void scanHost(InetAddress host, DriverDeviceScanListener listener) {
+        if (interrupted) {
+            return;
+        }
+
+        // early abort: hosts which don't accept a connection are skipped without probing unit IDs
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(host, port), timeoutMs);
+        } catch (IOException e) {
+            logger.trace("No connection to {}:{}", host.getHostAddress(), port);
+            return;
+        }
+
+        String deviceAddress = host.getHostAddress() + ":" + port;
+        ModbusTCPConnection connection;
+        try {
+            connection = new ModbusTCPConnection(deviceAddress, timeoutMs, mode.equals("RTUTCP"));
+        } catch (ConnectionException e) {
+            return;
+        }
+
+        try {
+            UnitIds unitIds = probeUnitIds(connection);
+            if (!unitIds.isEmpty()) {
+                deviceFound(listener, deviceAddress, "Modbus " + mode + " device", unitIds);
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private void scanSerialPort(DriverDeviceScanListener listener) throws ScanException {
+        logger.info("Scanning serial port {} with unit IDs {}-{}", serialPort, firstUnitId, lastUnitId);
+
+        ModbusRTUConnection connection;
+        try {
+            connection = new ModbusRTUConnection(serialPort, serialSettings, timeoutMs);
+        } catch (ModbusConfigurationException e) {
+            throw new ScanException(e.getMessage());
+        }
+
+        try {
+            UnitIds unitIds = probeUnitIds(connection, listener);
+            if (!unitIds.isEmpty()) {
+                deviceFound(listener, serialPort, "Modbus RTU devices", unitIds);
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private UnitIds probeUnitIds(ModbusConnection connection) {
+        return probeUnitIds(connection, null);
+    }
+
+    private UnitIds probeUnitIds(ModbusConnection connection, DriverDeviceScanListener listener) {
+        connection.setTimeoutSettings(new RttEstimator(false, timeoutMs, timeoutMs), 0);
+
+        UnitIds unitIds = new UnitIds();
+        for (int unitId = firstUnitId; unitId <= lastUnitId && !interrupted; unitId++) {
+            switch (probe(connection, unitId)) {
+            case RESPONSE:
+                unitIds.responding.add(unitId);
+                break;
+            case EXCEPTION_RESPONSE:
+                unitIds.exceptionOnly.add(unitId);
+                break;
+            default:
+                break;
+            }
+            if (listener != null) {
+                listener.scanProgressUpdate((unitId - firstUnitId + 1) * 100 / (lastUnitId - firstUnitId + 1));
+            }
+        }
+        return unitIds;
+    }
+
+    private EProbeResult probe(ModbusConnection connection, int unitId) {
+        ModbusChannel channel = new ModbusChannel(unitId + ":HOLDING_REGISTERS:0:INT16", EAccess.READ);
+        try {
+            connection.readHoldingRegisters(channel);
+            return EProbeResult.RESPONSE;
+        } catch (ModbusSlaveException e) {
+            // the device answered with an exception response, e.g. illegal data address, which is also sent by
+            // gateways for unit IDs which don't exist. Some gateways send a gateway exception instead.
+            if (e.isType(GATEWAY_PATH_UNAVAILABLE) || e.isType(Modbus.GATEWAY_TARGET_NO_RESPONSE)) {
+                return EProbeResult.NO_RESPONSE;
+            }
+            return EProbeResult.EXCEPTION_RESPONSE;
+        } catch (ModbusException e) {
+            return EProbeResult.NO_RESPONSE;
+        }
+    }
+
+    private void deviceFound(DriverDeviceScanListener listener, String deviceAddress, String description,
+            UnitIds unitIds) {
+        String settings = mode.equals("RTU") ? String.join(":", serialSettings) : mode;
+        StringBuilder sb = new StringBuilder(description);
+        if (!unitIds.responding.isEmpty()) {
+            sb.append(", unit IDs: ").append(unitIds.responding);
+        }
+        if (!unitIds.exceptionOnly.isEmpty()) {
+            sb.append(", unit IDs with exception responses only: ").append(unitIds.exceptionOnly);
+        }
+        logger.info("Found {} at {} with unit IDs {} and unit IDs with exception responses only {}", description,
+                deviceAddress, unitIds.responding, unitIds.exceptionOnly);
+        synchronized (listener) {
+            listener.deviceFound(new DeviceScanInfo(deviceAddress, settings, sb.toString()));
+        }
+    }
+
+}
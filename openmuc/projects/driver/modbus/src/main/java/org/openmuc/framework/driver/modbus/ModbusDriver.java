@@ -29,6 +29,8 @@ import org.openmuc.framework.driver.modbus.rtu.ModbusConfigurationException;
 import org.openmuc.framework.driver.modbus.rtu.ModbusRTUConnection;
 import org.openmuc.framework.driver.modbus.tcp.ModbusTCPConnection;
 import org.openmuc.framework.driver.modbus.udp.ModbusUDPConnection;
+import org.openmuc.framework.driver.modbus.util.ChangeDetector;
+import org.openmuc.framework.driver.modbus.util.RttEstimator;
 import org.openmuc.framework.driver.spi.Connection;
 import org.openmuc.framework.driver.spi.ConnectionException;
 import org.openmuc.framework.driver.spi.DriverDeviceScanListener;
@@ -45,6 +47,11 @@ public final class ModbusDriver implements DriverService {
 
     private static final Logger logger = LoggerFactory.getLogger(ModbusDriver.class);
     private static final int DEFAULT_TIMEOUT_MS = 3000;
+    private static final int DEFAULT_MIN_TIMEOUT_MS = 100;
+    private static final int DEFAULT_RETRIES = 0;
+    private static final long DEFAULT_HEARTBEAT_MS = 60000;
+
+    private volatile ModbusDeviceScanner deviceScanner;
 
     @Override
     public DriverInfo getInfo() {
@@ -67,16 +74,23 @@ public final class ModbusDriver implements DriverService {
         // TCP: m_Socket.setSoTimeout(m_Timeout);
         // RTU: m_SerialPort.enableReceiveTimeout(ms);
 
+        // timeoutInMs is the upper bound if adaptiveTimeout is enabled. The adaptive timeout is derived from the
+        // measured round trip times of the device and is never smaller than minTimeoutInMs. retries is the number
+        // of retries of a read request after a timeout.
+
         final String TCP_SETTINGS = "  TCP[:timeout=<timoutInMs>] (e.g. TCP or TCP:timeout=3000)";
         final String UDP_SETTINGS = "  UDP[:timeout=<timoutInMs>] (e.g. UDP or UDP:timeout=3000)";
         final String RTUTCP_SETTINGS = "  RTUTCP[:timeout=<timoutInMs>] ";
         final String RTU_SETTINGS = "  RTU:<ENCODING>:<BAUDRATE>:<DATABITS>:<PARITY>:<STOPBITS>:<ECHO>:<FLOWCONTROL_IN>:<FLOWCONTEOL_OUT>[:timeout=<timoutInMs>]";
+        final String OPTIONAL_SETTINGS = "  Optional for all types: [:adaptiveTimeout=<true|false>][:minTimeout=<minTimeoutInMs>][:retries=<retries>][:writeBatching=<NONE|MULTIPLE|READ_WRITE_MULTIPLE>][:changeDetection=<true|false>][:heartbeat=<heartbeatInMs>] (e.g. TCP:timeout=3000:adaptiveTimeout=true:minTimeout=200:retries=2)";
         final String DEVICE_SETTINGS = "Device settings depend on selected type: \n" + TCP_SETTINGS + "\n"
-                + UDP_SETTINGS + "\n" + RTUTCP_SETTINGS + "\n" + RTU_SETTINGS;
+                + UDP_SETTINGS + "\n" + RTUTCP_SETTINGS + "\n" + RTU_SETTINGS + "\n" + OPTIONAL_SETTINGS;
 
         final String CHANNEL_ADDRESS = "<UnitId>:<PrimaryTable>:<Address>:<Datatyp>";
 
-        final String DEVICE_SCAN_SETTINGS = "Device scan is not supported.";
+        final String TCP_SCAN = "  TCP|RTUTCP:<ip>[-<ip>|/<prefix>][:port=<port>][:unitIds=<from>[-<to>]][:timeout=<timeoutInMs>][:threads=<threads>] (e.g. TCP:192.168.30.0/24:unitIds=1-5)";
+        final String RTU_SCAN = "  RTU:<serial port>:<ENCODING>:<BAUDRATE>:<DATABITS>:<PARITY>:<STOPBITS>:<ECHO>:<FLOWCONTROL_IN>:<FLOWCONTEOL_OUT>[:unitIds=<from>[-<to>]][:timeout=<timeoutInMs>]";
+        final String DEVICE_SCAN_SETTINGS = "Scan settings depend on selected type: \n" + TCP_SCAN + "\n" + RTU_SCAN;
 
         return new DriverInfo(ID, DESCRIPTION, DEVICE_ADDRESS, DEVICE_SETTINGS, CHANNEL_ADDRESS, DEVICE_SCAN_SETTINGS);
 
@@ -120,6 +134,11 @@ public final class ModbusDriver implements DriverService {
             else {
                 throw new ConnectionException("Unknown Mode. Use RTU, TCP or RTUTCP.");
             }
+
+            connection.setTimeoutSettings(getRttEstimatorFromSettings(settingsArray, timeoutMs),
+                    getRetriesFromSettings(settingsArray));
+            connection.setWriteBatching(getWriteBatchingFromSettings(settingsArray));
+            connection.setChangeDetector(getChangeDetectorFromSettings(settingsArray));
         }
         return connection;
 
@@ -150,6 +169,97 @@ public final class ModbusDriver implements DriverService {
         return timeoutMs;
     }
 
+    private RttEstimator getRttEstimatorFromSettings(String[] settingsArray, int timeoutMs) {
+
+        boolean adaptive = false;
+        int minTimeoutMs = Math.min(DEFAULT_MIN_TIMEOUT_MS, timeoutMs);
+
+        try {
+            for (String setting : settingsArray) {
+                if (setting.startsWith("adaptiveTimeout")) {
+                    adaptive = Boolean.parseBoolean(setting.split("=")[1]);
+                }
+                else if (setting.startsWith("minTimeout")) {
+                    minTimeoutMs = Math.min(validateTimeout(setting.split("=")), timeoutMs);
+                }
+            }
+        } catch (Exception e) {
+            logger.warn("Unable to parse adaptive timeout from settings. Using static timeout of " + timeoutMs
+                    + " ms.");
+            adaptive = false;
+        }
+
+        if (adaptive) {
+            logger.info("Enabled adaptive timeout between " + minTimeoutMs + " ms and " + timeoutMs + " ms.");
+        }
+
+        return new RttEstimator(adaptive, minTimeoutMs, timeoutMs);
+    }
+
+    private int getRetriesFromSettings(String[] settingsArray) {
+
+        int retries = DEFAULT_RETRIES;
+
+        try {
+            for (String setting : settingsArray) {
+                if (setting.startsWith("retries")) {
+                    retries = Integer.parseInt(setting.split("=")[1]);
+                    if (retries < 0) {
+                        throw new IllegalArgumentException("Invalid number of retries is smaller than 0.");
+                    }
+                }
+            }
+        } catch (Exception e) {
+            logger.warn("Unable to parse retries from settings. Using default of " + DEFAULT_RETRIES + " retries.");
+            retries = DEFAULT_RETRIES;
+        }
+
+        return retries;
+    }
+
+    private EWriteBatching getWriteBatchingFromSettings(String[] settingsArray) {
+
+        EWriteBatching writeBatching = EWriteBatching.NONE;
+
+        try {
+            for (String setting : settingsArray) {
+                if (setting.startsWith("writeBatching")) {
+                    writeBatching = EWriteBatching.getEnumfromString(setting.split("=")[1]);
+                }
+            }
+        } catch (Exception e) {
+            logger.warn("Unable to parse writeBatching from settings. Writing channels one by one.");
+            writeBatching = EWriteBatching.NONE;
+        }
+
+        return writeBatching;
+    }
+
+    private ChangeDetector getChangeDetectorFromSettings(String[] settingsArray) {
+
+        boolean changeDetection = false;
+        long heartbeatMs = DEFAULT_HEARTBEAT_MS;
+
+        try {
+            for (String setting : settingsArray) {
+                if (setting.startsWith("changeDetection")) {
+                    changeDetection = Boolean.parseBoolean(setting.split("=")[1]);
+                }
+                else if (setting.startsWith("heartbeat")) {
+                    heartbeatMs = Long.parseLong(setting.split("=")[1]);
+                }
+            }
+            if (changeDetection) {
+                logger.info("Enabled change detection with heartbeat of " + heartbeatMs + " ms.");
+                return new ChangeDetector(heartbeatMs);
+            }
+        } catch (Exception e) {
+            logger.warn("Unable to parse change detection from settings. Reporting every sampled channel.");
+        }
+
+        return null;
+    }
+
     private int validateTimeout(String[] timeoutParam) {
 
         int timeoutMs = Integer.valueOf(timeoutParam[1]).intValue();
@@ -164,12 +274,20 @@ public final class ModbusDriver implements DriverService {
     @Override
     public void scanForDevices(String settings, DriverDeviceScanListener listener)
             throws UnsupportedOperationException, ArgumentSyntaxException, ScanException, ScanInterruptedException {
-        throw new UnsupportedOperationException();
+        deviceScanner = new ModbusDeviceScanner(settings);
+        try {
+            deviceScanner.scan(listener);
+        } finally {
+            deviceScanner = null;
+        }
     }
 
     @Override
     public void interruptDeviceScan() throws UnsupportedOperationException {
-        throw new UnsupportedOperationException();
+        ModbusDeviceScanner scanner = deviceScanner;
+        if (scanner != null) {
+            scanner.interrupt();
+        }
     }
 
 }
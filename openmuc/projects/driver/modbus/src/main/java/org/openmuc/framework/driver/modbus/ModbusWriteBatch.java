@@ -0,0 +1,133 @@
+/*
+ * Copyright 2011-2024 Fraunhofer ISE
+ *
+ * This file is part of OpenMUC.
+ * For more information visit http://www.openmuc.org
+ *
+ * OpenMUC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenMUC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenMUC. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.openmuc.framework.driver.modbus;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openmuc.framework.driver.spi.ChannelValueContainer;
+
+import com.ghgande.j2mod.modbus.procimg.Register;
+import com.ghgande.j2mod.modbus.util.BitVector;
+
+/**
+ * Represents contiguous channels of one unit ID and primary table which are written with a single request. This is
+ * the write counterpart of {@link ModbusChannelGroup}.
+ * <p>
+ * Only channels without gaps in between are merged, since registers or coils in a gap would be overwritten.
+ */
+public class ModbusWriteBatch {
+
+    /** Max. number of registers of a write multiple registers (FC16) request */
+    public static final int MAX_REGISTERS_FC16 = 123;
+
+    /** Max. number of registers to write with a read/write multiple registers (FC23) request */
+    public static final int MAX_REGISTERS_FC23 = 121;
+
+    /** Max. number of coils of a write multiple coils (FC15) request */
+    public static final int MAX_COILS_FC15 = 1968;
+
+    private final EPrimaryTable primaryTable;
+    private final int unitId;
+    private final int startAddress;
+    private final int maxCount;
+
+    private int count = 0;
+
+    private final List<ChannelValueContainer> containers = new ArrayList<>();
+    private final List<ModbusChannel> channels = new ArrayList<>();
+    private final List<Register> registers = new ArrayList<>();
+    private final List<Boolean> coils = new ArrayList<>();
+
+    public ModbusWriteBatch(ModbusChannel firstChannel, int maxCount) {
+        this.primaryTable = firstChannel.getPrimaryTable();
+        this.unitId = firstChannel.getUnitId();
+        this.startAddress = firstChannel.getStartAddress();
+        this.maxCount = maxCount;
+    }
+
+    /**
+     * @return true if the channel of the given size directly follows the last channel of the batch and the batch
+     *         would not exceed the maximum number of registers or coils
+     */
+    public boolean isAppendable(ModbusChannel channel, int size) {
+        return channel.getPrimaryTable() == primaryTable && channel.getUnitId() == unitId
+                && channel.getStartAddress() == startAddress + count && count + size <= maxCount;
+    }
+
+    public void add(ChannelValueContainer container, ModbusChannel channel, Register[] channelRegisters) {
+        containers.add(container);
+        channels.add(channel);
+        for (Register register : channelRegisters) {
+            registers.add(register);
+        }
+        count += channelRegisters.length;
+    }
+
+    public void add(ChannelValueContainer container, ModbusChannel channel, boolean coil) {
+        containers.add(container);
+        channels.add(channel);
+        coils.add(coil);
+        count++;
+    }
+
+    public Register[] getRegisters() {
+        return registers.toArray(new Register[registers.size()]);
+    }
+
+    public BitVector getCoils() {
+        BitVector bitVector = new BitVector(coils.size());
+        for (int i = 0; i < coils.size(); i++) {
+            bitVector.setBit(i, coils.get(i));
+        }
+        return bitVector;
+    }
+
+    public List<ChannelValueContainer> getContainers() {
+        return containers;
+    }
+
+    public List<ModbusChannel> getChannels() {
+        return channels;
+    }
+
+    public EPrimaryTable getPrimaryTable() {
+        return primaryTable;
+    }
+
+    public int getUnitId() {
+        return unitId;
+    }
+
+    public int getStartAddress() {
+        return startAddress;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public int size() {
+        return containers.size();
+    }
+
+}
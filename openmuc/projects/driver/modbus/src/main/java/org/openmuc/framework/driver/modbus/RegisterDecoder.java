@@ -0,0 +1,120 @@
+/*
+ * Copyright 2011-2024 Fraunhofer ISE
+ *
+ * This file is part of OpenMUC.
+ * For more information visit http://www.openmuc.org
+ *
+ * OpenMUC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenMUC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenMUC. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.openmuc.framework.driver.modbus;
+
+import org.openmuc.framework.data.ByteArrayValue;
+import org.openmuc.framework.data.DoubleValue;
+import org.openmuc.framework.data.FloatValue;
+import org.openmuc.framework.data.IntValue;
+import org.openmuc.framework.data.LongValue;
+import org.openmuc.framework.data.ShortValue;
+import org.openmuc.framework.data.Value;
+
+import com.ghgande.j2mod.modbus.procimg.InputRegister;
+
+/**
+ * Decodes the value of a channel directly from the registers of a response. In contrast to
+ * {@link ModbusDriverUtil#getRegistersValue(InputRegister[], EDatatype)} neither a copy of the registers nor an
+ * intermediate byte array is created, only the resulting Value.
+ * <p>
+ * A decoder is created once per channel, see {@link ModbusChannel#getDecoder()}. The byte order of each datatype is
+ * the same as in ModbusDriverUtil: big endian (most significant register first), except for BYTEARRAYLONG which is
+ * little endian.
+ */
+public interface RegisterDecoder {
+
+    /**
+     * @param registers
+     *            registers of the response
+     * @param offset
+     *            index of the first register of the channel
+     * @return the decoded value
+     */
+    Value decode(InputRegister[] registers, int offset);
+
+    /**
+     * @param datatype
+     *            datatype of the channel
+     * @param count
+     *            number of registers of the channel
+     * @return the decoder for the datatype
+     */
+    static RegisterDecoder create(EDatatype datatype, int count) {
+        switch (datatype) {
+        case SHORT:
+        case INT16:
+            return (registers, offset) -> new ShortValue((short) registers[offset].getValue());
+        case UINT16:
+            return (registers, offset) -> new IntValue(registers[offset].getValue());
+        case INT32:
+            return (registers, offset) -> new IntValue(toInt(registers, offset));
+        case UINT32:
+            return (registers, offset) -> new LongValue(toInt(registers, offset) & 0xFFFFFFFFL);
+        case FLOAT:
+            return (registers, offset) -> new FloatValue(Float.intBitsToFloat(toInt(registers, offset)));
+        case DOUBLE:
+            return (registers, offset) -> new DoubleValue(Double.longBitsToDouble(toLong(registers, offset)));
+        case LONG:
+            return (registers, offset) -> new LongValue(toLong(registers, offset));
+        case BYTEARRAY:
+            return (registers, offset) -> new ByteArrayValue(toBytes(registers, offset, count));
+        case BYTEARRAYLONG:
+            if (count > 4) {
+                throw new IllegalArgumentException("BYTEARRAYLONG supports max. 4 registers");
+            }
+            return (registers, offset) -> new LongValue(toLongLittleEndian(registers, offset, count));
+        default:
+            throw new RuntimeException("Datatype " + datatype.toString() + " not supported yet");
+        }
+    }
+
+    static int toInt(InputRegister[] registers, int offset) {
+        return registers[offset].getValue() << 16 | registers[offset + 1].getValue();
+    }
+
+    static long toLong(InputRegister[] registers, int offset) {
+        return (long) toInt(registers, offset) << 32 | toInt(registers, offset + 2) & 0xFFFFFFFFL;
+    }
+
+    static long toLongLittleEndian(InputRegister[] registers, int offset, int count) {
+        long value = 0;
+        int shift = 0;
+        for (int i = offset; i < offset + count; i++) {
+            int register = registers[i].getValue();
+            // high byte of the register is the less significant one
+            value |= (long) (register >> 8 & 0xFF) << shift;
+            value |= (long) (register & 0xFF) << shift + 8;
+            shift += 16;
+        }
+        return value;
+    }
+
+    static byte[] toBytes(InputRegister[] registers, int offset, int count) {
+        byte[] bytes = new byte[count * 2];
+        for (int i = 0; i < count; i++) {
+            int register = registers[offset + i].getValue();
+            bytes[i * 2] = (byte) (register >> 8);
+            bytes[i * 2 + 1] = (byte) register;
+        }
+        return bytes;
+    }
+
+}
@@ -107,8 +107,14 @@ public class ModbusRTUConnection extends ModbusConnection {
         }
     }
 
+    @Override
+    protected void setTimeout(int timeoutMs) {
+        connection.setTimeout(timeoutMs);
+    }
+
     @Override
     public void disconnect() {
+        logStatistics();
         if (connection.isOpen()) {
             connection.close();
         }
@@ -266,13 +272,15 @@ public class ModbusRTUConnection extends ModbusConnection {
                 Value value;
 
                 try {
-                    value = readChannel(channel);
+                    value = isOnDemandRead(containerListHandle) ? readChannel(channel)
+                            : readChannel(channel, container, receiveTime);
 
-                    if (logger.isTraceEnabled()) {
+                    if (value != null && logger.isTraceEnabled()) {
                         printResponseValue(channel, value);
                     }
 
-                    container.setRecord(new Record(value, receiveTime));
+                    // null if unchanged since the last reported read, the data manager keeps the latest record then
+                    container.setRecord(value != null ? new Record(value, receiveTime) : null);
 
                 } catch (ModbusIOException e) {
                     logger.error("ModbusIOException while reading channel:" + channel.getChannelAddress(), e);
@@ -315,28 +323,11 @@ public class ModbusRTUConnection extends ModbusConnection {
     public Object write(List<ChannelValueContainer> containers, Object containerListHandle)
             throws UnsupportedOperationException, ConnectionException {
 
-        for (ChannelValueContainer container : containers) {
-
-            ModbusChannel channel = getModbusChannel(container.getChannelAddress(), EAccess.WRITE);
-
-            try {
-                writeChannel(channel, container.getValue());
-                container.setFlag(Flag.VALID);
-
-            } catch (ModbusIOException e) {
-                logger.error("ModbusIOException while writing channel:" + channel.getChannelAddress(), e);
-                disconnect();
-                throw new ConnectionException("Try to solve issue with reconnect.");
-
-            } catch (ModbusException e) {
-                logger.error("ModbusException while writing channel: " + channel.getChannelAddress(), e);
-                container.setFlag(Flag.DRIVER_ERROR_CHANNEL_NOT_ACCESSIBLE);
-
-            } catch (Exception e) {
-                logger.error("Exception while writing channel: " + channel.getChannelAddress(), e);
-                container.setFlag(Flag.UNKNOWN_ERROR);
-            }
-
+        try {
+            writeChannels(containers);
+        } catch (ModbusIOException e) {
+            disconnect();
+            throw new ConnectionException("Try to solve issue with reconnect.");
         }
 
         return null;
@@ -90,10 +90,16 @@ public class ModbusUDPConnection extends ModbusConnection {
         }
     }
 
+    @Override
+    protected void setTimeout(int timeoutMs) {
+        connection.setTimeout(timeoutMs);
+    }
+
     @Override
     public void disconnect() {
         try {
             logger.info("Disconnect Modbus TCP device");
+            logStatistics();
             if (connection != null && connection.isConnected()) {
                 connection.close();
                 transaction = null;
@@ -121,13 +127,15 @@ public class ModbusUDPConnection extends ModbusConnection {
                 Value value;
 
                 try {
-                    value = readChannel(channel);
+                    value = isOnDemandRead(containerListHandle) ? readChannel(channel)
+                            : readChannel(channel, container, receiveTime);
 
-                    if (logger.isTraceEnabled()) {
+                    if (value != null && logger.isTraceEnabled()) {
                         logger.trace("Value of response: {}", value.toString());
                     }
 
-                    container.setRecord(new Record(value, receiveTime));
+                    // null if unchanged since the last reported read, the data manager keeps the latest record then
+                    container.setRecord(value != null ? new Record(value, receiveTime) : null);
 
                 } catch (ModbusIOException e) {
                     logger.error("ModbusIOException while reading channel:" + channel.getChannelAddress()
@@ -164,27 +172,11 @@ public class ModbusUDPConnection extends ModbusConnection {
     public Object write(List<ChannelValueContainer> containers, Object containerListHandle)
             throws UnsupportedOperationException, ConnectionException {
 
-        for (ChannelValueContainer container : containers) {
-
-            ModbusChannel channel = getModbusChannel(container.getChannelAddress(), EAccess.WRITE);
-
-            try {
-                writeChannel(channel, container.getValue());
-                container.setFlag(Flag.VALID);
-
-            } catch (ModbusIOException e) {
-                logger.error("ModbusIOException while writing channel:" + channel.getChannelAddress(), e);
-                disconnect();
-                throw new ConnectionException("Try to solve issue with reconnect.");
-
-            } catch (ModbusException e) {
-                logger.error("ModbusException while writing channel: " + channel.getChannelAddress(), e);
-                container.setFlag(Flag.DRIVER_ERROR_CHANNEL_NOT_ACCESSIBLE);
-
-            } catch (Exception e) {
-                logger.error("Exception while writing channel: " + channel.getChannelAddress(), e);
-                container.setFlag(Flag.UNKNOWN_ERROR);
-            }
+        try {
+            writeChannels(containers);
+        } catch (ModbusIOException e) {
+            disconnect();
+            throw new ConnectionException("Try to solve issue with reconnect.");
         }
 
         return null;
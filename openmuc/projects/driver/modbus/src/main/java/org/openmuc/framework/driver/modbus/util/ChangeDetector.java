@@ -0,0 +1,204 @@
+/*
+ * Copyright 2011-2024 Fraunhofer ISE
+ *
+ * This file is part of OpenMUC.
+ * For more information visit http://www.openmuc.org
+ *
+ * OpenMUC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenMUC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenMUC. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.openmuc.framework.driver.modbus.util;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.IntUnaryOperator;
+
+import org.openmuc.framework.data.Flag;
+import org.openmuc.framework.data.Record;
+import org.openmuc.framework.dataaccess.Channel;
+import org.openmuc.framework.driver.spi.ChannelRecordContainer;
+
+import com.ghgande.j2mod.modbus.procimg.InputRegister;
+import com.ghgande.j2mod.modbus.util.BitVector;
+
+/**
+ * Detects whether the raw register words of a channel changed since the last reported poll (report by exception).
+ * <p>
+ * The comparison is done on the raw words before any decoding, so unchanged channels cause neither a decoded value
+ * nor a record. A channel is reported anyway if the heartbeat interval elapsed since its last report, so consumers
+ * can tell a static value from a dead device. Channels seen for the first time are always reported.
+ * <p>
+ * The state is kept per channel ID, since several channels may have the same address, e.g. with different scaling.
+ * A channel whose latest record isn't valid is always reported, e.g. after the data manager set a timeout flag,
+ * otherwise the error flag would be kept until the value changes.
+ * <p>
+ * Counters of reported and suppressed records are kept to measure the effect of the change detection.
+ */
+public class ChangeDetector {
+
+    private final long heartbeatMs;
+    private final Map<String, ChannelState> channelStates = new HashMap<>();
+
+    private long reported = 0;
+    private long suppressed = 0;
+
+    private static class ChannelState {
+        private int[] words;
+        private long lastReportTime;
+    }
+
+    /**
+     * @param heartbeatMs
+     *            interval after which an unchanged channel is reported anyway, 0 disables the heartbeat
+     */
+    public ChangeDetector(long heartbeatMs) {
+        if (heartbeatMs < 0) {
+            throw new IllegalArgumentException("Heartbeat must not be negative: " + heartbeatMs + " ms");
+        }
+        this.heartbeatMs = heartbeatMs;
+    }
+
+    /**
+     * Checks the registers of a channel and remembers them if the channel has to be reported.
+     * 
+     * @param container
+     *            container of the channel
+     * @param registers
+     *            registers of the response
+     * @param offset
+     *            index of the first register of the channel
+     * @param count
+     *            number of registers of the channel
+     * @param timestamp
+     *            receive time of the registers
+     * @return true if the channel has to be reported
+     */
+    public boolean hasChanged(ChannelRecordContainer container, InputRegister[] registers, int offset, int count,
+            long timestamp) {
+        return hasChanged(container, count, i -> registers[offset + i].getValue(), timestamp);
+    }
+
+    /**
+     * Checks the bits of a coil or discrete input channel and remembers them if the channel has to be reported.
+     * 
+     * @param container
+     *            container of the channel
+     * @param bits
+     *            coils or discrete inputs of the channel
+     * @param timestamp
+     *            receive time of the bits
+     * @return true if the channel has to be reported
+     */
+    public boolean hasChanged(ChannelRecordContainer container, BitVector bits, long timestamp) {
+        return hasChanged(container, bits.size(), i -> bits.getBit(i) ? 1 : 0, timestamp);
+    }
+
+    /**
+     * Checks a single coil or discrete input of a channel group.
+     * 
+     * @param container
+     *            container of the channel
+     * @param bit
+     *            state of the coil or discrete input
+     * @param timestamp
+     *            receive time of the bit
+     * @return true if the channel has to be reported
+     */
+    public boolean hasChanged(ChannelRecordContainer container, boolean bit, long timestamp) {
+        return hasChanged(container, 1, i -> bit ? 1 : 0, timestamp);
+    }
+
+    private boolean hasChanged(ChannelRecordContainer container, int count, IntUnaryOperator wordAt,
+            long timestamp) {
+        Channel channel = container.getChannel();
+        if (channel == null) {
+            return hasChanged(container.getChannelAddress(), true, count, wordAt, timestamp);
+        }
+        Record latestRecord = channel.getLatestRecord();
+        boolean valid = latestRecord != null && latestRecord.getFlag() == Flag.VALID;
+        return hasChanged(channel.getId(), valid, count, wordAt, timestamp);
+    }
+
+    private synchronized boolean hasChanged(String channelId, boolean valid, int count, IntUnaryOperator wordAt,
+            long timestamp) {
+
+        ChannelState state = channelStates.get(channelId);
+
+        if (valid && state != null && state.words.length == count && !isHeartbeatDue(state, timestamp)
+                && isEqual(state.words, wordAt)) {
+            suppressed++;
+            return false;
+        }
+
+        if (state == null || state.words.length != count) {
+            state = new ChannelState();
+            state.words = new int[count];
+            channelStates.put(channelId, state);
+        }
+        for (int i = 0; i < count; i++) {
+            state.words[i] = wordAt.applyAsInt(i);
+        }
+        state.lastReportTime = timestamp;
+        reported++;
+        return true;
+    }
+
+    private static boolean isEqual(int[] words, IntUnaryOperator wordAt) {
+        for (int i = 0; i < words.length; i++) {
+            if (words[i] != wordAt.applyAsInt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isHeartbeatDue(ChannelState state, long timestamp) {
+        return heartbeatMs > 0 && timestamp - state.lastReportTime >= heartbeatMs;
+    }
+
+    /**
+     * Forgets the last reported words of all channels, so the next poll of every channel is reported. Must be called
+     * whenever records with error flags were reported, otherwise an unchanged value would not restore a valid record.
+     */
+    public synchronized void reset() {
+        channelStates.clear();
+    }
+
+    public long getHeartbeatMs() {
+        return heartbeatMs;
+    }
+
+    public synchronized long getReportedRecords() {
+        return reported;
+    }
+
+    public synchronized long getSuppressedRecords() {
+        return suppressed;
+    }
+
+    /**
+     * @return ratio of suppressed records to all checked records between 0 and 1, 0 if nothing was checked yet
+     */
+    public synchronized double getSuppressedRatio() {
+        long total = reported + suppressed;
+        return total == 0 ? 0 : (double) suppressed / total;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("reported records: %d, suppressed records: %d, suppressed ratio: %.1f %%", reported,
+                suppressed, getSuppressedRatio() * 100);
+    }
+
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2011-2024 Fraunhofer ISE
+ *
+ * This file is part of OpenMUC.
+ * For more information visit http://www.openmuc.org
+ *
+ * OpenMUC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenMUC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenMUC. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.openmuc.framework.driver.modbus.util;
+
+import java.util.Arrays;
+
+/**
+ * Estimates the round trip time (RTT) of a Modbus device and derives the timeout for the next request from it.
+ * <p>
+ * The estimation follows the retransmission timeout calculation of TCP (RFC 6298): a smoothed RTT and the RTT
+ * variance are maintained as exponentially weighted moving averages and the timeout is set to
+ * {@code srtt + 4 * rttvar}, limited by the configured minimum and maximum timeout. If adaptive timeouts are disabled
+ * the maximum timeout is always used, which equals the static timeout from the device settings.
+ * <p>
+ * Additionally the last {@value #SAMPLE_BUFFER_SIZE} RTT samples are kept to provide percentiles, together with
+ * counters for requests, retries and failed requests.
+ */
+public class RttEstimator {
+
+    private static final int SAMPLE_BUFFER_SIZE = 256;
+
+    /** Gain of the smoothed RTT (1/8) */
+    private static final double ALPHA = 0.125;
+
+    /** Gain of the RTT variance (1/4) */
+    private static final double BETA = 0.25;
+
+    /** Factor of the RTT variance added to the smoothed RTT */
+    private static final int K = 4;
+
+    private final boolean adaptive;
+    private final int minTimeoutMs;
+    private final int maxTimeoutMs;
+
+    private double smoothedRttMs;
+    private double rttVarianceMs;
+    private boolean initialized = false;
+
+    private final long[] samples = new long[SAMPLE_BUFFER_SIZE];
+    private int sampleCount = 0;
+    private int sampleIndex = 0;
+
+    private long requests = 0;
+    private long retries = 0;
+    private long failures = 0;
+
+    /**
+     * @param adaptive
+     *            if false the timeout is always maxTimeoutMs
+     * @param minTimeoutMs
+     *            lower bound of the adaptive timeout
+     * @param maxTimeoutMs
+     *            upper bound of the adaptive timeout, also used as long as no RTT sample is available
+     */
+    public RttEstimator(boolean adaptive, int minTimeoutMs, int maxTimeoutMs) {
+        if (minTimeoutMs <= 0 || maxTimeoutMs < minTimeoutMs) {
+            throw new IllegalArgumentException("Invalid timeout bounds: min " + minTimeoutMs + " ms, max "
+                    + maxTimeoutMs + " ms. Bounds must be greater 0 and min must not exceed max.");
+        }
+        this.adaptive = adaptive;
+        this.minTimeoutMs = minTimeoutMs;
+        this.maxTimeoutMs = maxTimeoutMs;
+    }
+
+    /**
+     * Adds the RTT of a successful request. Requests which have been retried must not be sampled, since it is unknown
+     * to which attempt the response belongs (Karn's algorithm).
+     * 
+     * @param rttMs
+     *            measured round trip time in ms
+     */
+    public synchronized void addSample(long rttMs) {
+        if (!initialized) {
+            smoothedRttMs = rttMs;
+            rttVarianceMs = rttMs / 2.0;
+            initialized = true;
+        }
+        else {
+            rttVarianceMs = (1 - BETA) * rttVarianceMs + BETA * Math.abs(smoothedRttMs - rttMs);
+            smoothedRttMs = (1 - ALPHA) * smoothedRttMs + ALPHA * rttMs;
+        }
+
+        samples[sampleIndex] = rttMs;
+        sampleIndex = (sampleIndex + 1) % SAMPLE_BUFFER_SIZE;
+        sampleCount = Math.min(sampleCount + 1, SAMPLE_BUFFER_SIZE);
+    }
+
+    /**
+     * @return the timeout for the first attempt of the next request in ms
+     */
+    public synchronized int getTimeout() {
+        if (!adaptive || !initialized) {
+            return maxTimeoutMs;
+        }
+        return clamp(Math.round(smoothedRttMs + K * rttVarianceMs));
+    }
+
+    /**
+     * Returns the timeout for a retry. The timeout is doubled with every retry as long as the maximum timeout is not
+     * reached.
+     * 
+     * @param retry
+     *            number of the retry, starting with 1
+     * @return timeout in ms
+     */
+    public synchronized int getTimeout(int retry) {
+        long timeout = getTimeout();
+        for (int i = 0; i < retry && timeout < maxTimeoutMs; i++) {
+            timeout *= 2;
+        }
+        return clamp(timeout);
+    }
+
+    private int clamp(long timeoutMs) {
+        return (int) Math.max(minTimeoutMs, Math.min(maxTimeoutMs, timeoutMs));
+    }
+
+    public synchronized void incrementRequests() {
+        requests++;
+    }
+
+    public synchronized void incrementRetries() {
+        retries++;
+    }
+
+    public synchronized void incrementFailures() {
+        failures++;
+    }
+
+    /**
+     * @param percentile
+     *            percentile between 0 and 100
+     * @return the RTT percentile of the recent samples in ms or -1 if no sample is available
+     */
+    public synchronized long getPercentile(double percentile) {
+        if (sampleCount == 0) {
+            return -1;
+        }
+        long[] sorted = Arrays.copyOf(samples, sampleCount);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100.0 * sampleCount) - 1;
+        return sorted[Math.max(0, Math.min(sampleCount - 1, index))];
+    }
+
+    public synchronized double getSmoothedRtt() {
+        return smoothedRttMs;
+    }
+
+    public synchronized double getRttVariance() {
+        return rttVarianceMs;
+    }
+
+    public synchronized long getRequests() {
+        return requests;
+    }
+
+    public synchronized long getRetries() {
+        return retries;
+    }
+
+    public synchronized long getFailures() {
+        return failures;
+    }
+
+    public boolean isAdaptive() {
+        return adaptive;
+    }
+
+    public int getMinTimeout() {
+        return minTimeoutMs;
+    }
+
+    public int getMaxTimeout() {
+        return maxTimeoutMs;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "requests: " + requests + ", retries: " + retries + ", failures: " + failures + ", srtt: "
+                + Math.round(smoothedRttMs) + " ms, rttvar: " + Math.round(rttVarianceMs) + " ms, timeout: "
+                + getTimeout() + " ms, rtt p50/p90/p99: " + getPercentile(50) + "/" + getPercentile(90) + "/"
+                + getPercentile(99) + " ms";
+    }
+
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2011-2024 Fraunhofer ISE
+ *
+ * This file is part of OpenMUC.
+ * For more information visit http://www.openmuc.org
+ *
+ * OpenMUC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenMUC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenMUC. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.openmuc.framework.driver.modbus.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.openmuc.framework.data.Flag;
+import org.openmuc.framework.data.IntValue;
+import org.openmuc.framework.data.Record;
+import org.openmuc.framework.driver.modbus.tcp.ModbusTCPConnection;
+import org.openmuc.framework.driver.modbus.util.ChangeDetector;
+import org.openmuc.framework.driver.spi.ConnectionException;
+
+import com.ghgande.j2mod.modbus.procimg.SimpleProcessImage;
+import com.ghgande.j2mod.modbus.procimg.SimpleRegister;
+import com.ghgande.j2mod.modbus.slave.ModbusSlave;
+import com.ghgande.j2mod.modbus.slave.ModbusSlaveFactory;
+
+/**
+ * Reads an unchanged register of a device with change detection on demand and by sampling.
+ */
+public class ChangeDetectionReadTest {
+
+    private static final int REGISTER_VALUE = 4711;
+    private static final String CHANNEL_ADDRESS = "1:HOLDING_REGISTERS:0:INT16";
+
+    private ModbusSlave slave;
+    private ModbusTCPConnection connection;
+    private ChangeDetector changeDetector;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+
+        SimpleProcessImage processImage = new SimpleProcessImage();
+        processImage.addRegister(new SimpleRegister(REGISTER_VALUE));
+
+        slave = ModbusSlaveFactory.createTCPSlave(InetAddress.getByName("127.0.0.1"), port, 2, false);
+        slave.addProcessImage(1, processImage);
+        slave.open();
+
+        connection = new ModbusTCPConnection("127.0.0.1:" + port, 1000, false);
+        changeDetector = new ChangeDetector(0);
+        connection.setChangeDetector(changeDetector);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        connection.disconnect();
+        ModbusSlaveFactory.close(slave);
+    }
+
+    @Test
+    public void onDemandReadsOfUnchangedChannelReturnRecords() throws Exception {
+        for (int i = 0; i < 2; i++) {
+            TestChannelRecordContainer container = read(true);
+
+            assertNotNull(container.getRecord());
+            assertEquals(Flag.VALID, container.getRecord().getFlag());
+            assertEquals(REGISTER_VALUE, container.getRecord().getValue().asInt());
+        }
+        assertEquals(0, changeDetector.getReportedRecords());
+        assertEquals(0, changeDetector.getSuppressedRecords());
+    }
+
+    @Test
+    public void onDemandReadsDontSuppressSampledRecord() throws Exception {
+        read(true);
+
+        TestChannelRecordContainer sampled = read(null);
+        assertNotNull(sampled.getRecord());
+        assertEquals(REGISTER_VALUE, sampled.getRecord().getValue().asInt());
+
+        read(true);
+
+        assertNull(read(null).getRecord());
+        assertEquals(1, changeDetector.getReportedRecords());
+        assertEquals(1, changeDetector.getSuppressedRecords());
+    }
+
+    @Test
+    public void unchangedChannelWithErrorFlagIsReported() throws Exception {
+        AtomicReference<Record> latestRecord = new AtomicReference<>(new Record(Flag.NO_VALUE_RECEIVED_YET));
+        TestChannelRecordContainer container = new TestChannelRecordContainer(CHANNEL_ADDRESS, "channel",
+                latestRecord::get);
+
+        sample(container);
+        assertNotNull(container.getRecord());
+        latestRecord.set(container.getRecord());
+
+        sample(container);
+        assertNull(container.getRecord());
+
+        // set by the data manager when the sampling task timed out
+        latestRecord.set(new Record(latestRecord.get().getValue(), latestRecord.get().getTimestamp(), Flag.TIMEOUT));
+        sample(container);
+        assertNotNull(container.getRecord());
+        assertEquals(Flag.VALID, container.getRecord().getFlag());
+        assertEquals(REGISTER_VALUE, container.getRecord().getValue().asInt());
+    }
+
+    @Test
+    public void channelsWithTheSameAddressAreDetectedSeparately() throws Exception {
+        Record valid = new Record(new IntValue(REGISTER_VALUE), 0L);
+        TestChannelRecordContainer first = new TestChannelRecordContainer(CHANNEL_ADDRESS, "first", () -> valid);
+        TestChannelRecordContainer second = new TestChannelRecordContainer(CHANNEL_ADDRESS, "second", () -> valid);
+
+        sample(first, second);
+        assertNotNull(first.getRecord());
+        assertNotNull(second.getRecord());
+
+        sample(first, second);
+        assertNull(first.getRecord());
+        assertNull(second.getRecord());
+        assertEquals(2, changeDetector.getReportedRecords());
+        assertEquals(2, changeDetector.getSuppressedRecords());
+    }
+
+    private void sample(TestChannelRecordContainer... containers) throws ConnectionException {
+        connection.read(Arrays.asList(containers), null, "");
+    }
+
+    private TestChannelRecordContainer read(Object containerListHandle) throws ConnectionException {
+        TestChannelRecordContainer container = new TestChannelRecordContainer(CHANNEL_ADDRESS);
+        connection.read(Collections.singletonList(container), containerListHandle, "");
+        return container;
+    }
+
+}
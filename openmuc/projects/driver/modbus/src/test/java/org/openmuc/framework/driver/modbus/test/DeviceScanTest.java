@@ -0,0 +1,131 @@
+/*
+ * Copyright 2011-2024 Fraunhofer ISE
+ *
+ * This file is part of OpenMUC.
+ * For more information visit http://www.openmuc.org
+ *
+ * OpenMUC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenMUC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenMUC. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.openmuc.framework.driver.modbus.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.openmuc.framework.config.ArgumentSyntaxException;
+import org.openmuc.framework.config.DeviceScanInfo;
+import org.openmuc.framework.driver.modbus.ModbusDriver;
+import org.openmuc.framework.driver.spi.DriverDeviceScanListener;
+
+import com.ghgande.j2mod.modbus.procimg.SimpleProcessImage;
+import com.ghgande.j2mod.modbus.procimg.SimpleRegister;
+import com.ghgande.j2mod.modbus.slave.ModbusSlave;
+import com.ghgande.j2mod.modbus.slave.ModbusSlaveFactory;
+
+/**
+ * Scans a loopback IP range in which only 127.0.0.1 runs a Modbus TCP slave.
+ */
+public class DeviceScanTest {
+
+    private ModbusSlave slave;
+    private int port;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+
+        SimpleProcessImage processImage = new SimpleProcessImage();
+        processImage.addRegister(new SimpleRegister(0));
+
+        slave = ModbusSlaveFactory.createTCPSlave(InetAddress.getByName("127.0.0.1"), port, 2, false);
+        slave.addProcessImage(1, processImage);
+        slave.addProcessImage(3, processImage);
+        slave.open();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        ModbusSlaveFactory.close(slave);
+    }
+
+    @Test
+    public void onlyHostWithSlaveIsFound() throws Exception {
+        TestListener listener = new TestListener();
+
+        new ModbusDriver().scanForDevices("TCP:127.0.0.1-127.0.0.8:port=" + port + ":timeout=500:threads=4",
+                listener);
+
+        assertEquals(1, listener.devices.size());
+        DeviceScanInfo device = listener.devices.get(0);
+        assertEquals("127.0.0.1:" + port, device.getDeviceAddress());
+        assertEquals("TCP", device.getSettings());
+        assertTrue(device.getDescription().endsWith("unit IDs: [1]"));
+        assertEquals(100, listener.progress);
+    }
+
+    @Test
+    public void unitIdRangeIsProbed() throws Exception {
+        TestListener listener = new TestListener();
+
+        new ModbusDriver().scanForDevices("TCP:127.0.0.1/32:port=" + port + ":unitIds=1-3", listener);
+
+        assertEquals(1, listener.devices.size());
+        // the j2mod slave answers unknown unit IDs with an illegal address exception like a gateway
+        assertTrue(listener.devices.get(0)
+                .getDescription()
+                .endsWith("unit IDs: [1, 3], unit IDs with exception responses only: [2]"));
+    }
+
+    @Test
+    public void invalidSettingsAreRejected() {
+        ModbusDriver driver = new ModbusDriver();
+        TestListener listener = new TestListener();
+
+        assertThrows(ArgumentSyntaxException.class, () -> driver.scanForDevices("UDP:127.0.0.1", listener));
+        assertThrows(ArgumentSyntaxException.class, () -> driver.scanForDevices("TCP:127.0.0.1/8", listener));
+        assertThrows(ArgumentSyntaxException.class,
+                () -> driver.scanForDevices("TCP:127.0.0.5-127.0.0.1", listener));
+        assertThrows(ArgumentSyntaxException.class,
+                () -> driver.scanForDevices("TCP:127.0.0.1:unitIds=5-2", listener));
+        assertThrows(ArgumentSyntaxException.class, () -> driver.scanForDevices("RTU:/dev/ttyS0", listener));
+    }
+
+    private static class TestListener implements DriverDeviceScanListener {
+
+        private final List<DeviceScanInfo> devices = new ArrayList<>();
+        private int progress;
+
+        @Override
+        public void scanProgressUpdate(int progress) {
+            this.progress = Math.max(this.progress, progress);
+        }
+
+        @Override
+        public void deviceFound(DeviceScanInfo scanInfo) {
+            devices.add(scanInfo);
+        }
+    }
+
+}
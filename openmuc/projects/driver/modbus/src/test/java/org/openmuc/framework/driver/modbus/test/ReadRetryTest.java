@@ -0,0 +1,150 @@
+/*
+ * Copyright 2011-2024 Fraunhofer ISE
+ *
+ * This file is part of OpenMUC.
+ * For more information visit http://www.openmuc.org
+ *
+ * OpenMUC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenMUC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenMUC. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.openmuc.framework.driver.modbus.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Collections;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.openmuc.framework.data.Flag;
+import org.openmuc.framework.driver.modbus.tcp.ModbusTCPConnection;
+import org.openmuc.framework.driver.modbus.util.RttEstimator;
+import org.openmuc.framework.driver.spi.ConnectionException;
+
+/**
+ * Reads a register from a slave which answers the first requests with a stale transaction ID, like the late response
+ * to a timed out request.
+ */
+public class ReadRetryTest {
+
+    private static final int REGISTER_VALUE = 4711;
+
+    private ServerSocket serverSocket;
+    private Thread slave;
+    private volatile int requests;
+    private volatile int staleResponses;
+    private ModbusTCPConnection connection;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        serverSocket = new ServerSocket(0);
+        slave = new Thread(this::serve);
+        slave.setDaemon(true);
+        slave.start();
+
+        connection = new ModbusTCPConnection("127.0.0.1:" + serverSocket.getLocalPort(), 1000, false);
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        connection.disconnect();
+        serverSocket.close();
+    }
+
+    @Test
+    public void staleResponseIsRetried() throws Exception {
+        staleResponses = 1;
+        RttEstimator rttEstimator = new RttEstimator(false, 500, 500);
+        connection.setTimeoutSettings(rttEstimator, 2);
+
+        TestChannelRecordContainer container = read();
+
+        assertEquals(Flag.VALID, container.getRecord().getFlag());
+        assertEquals(REGISTER_VALUE, container.getRecord().getValue().asInt());
+        assertEquals(2, requests);
+        assertEquals(1, rttEstimator.getRetries());
+        assertEquals(0, rttEstimator.getFailures());
+    }
+
+    @Test
+    public void staleResponsesAreRetriedUpToMaxRetries() throws Exception {
+        staleResponses = 2;
+        RttEstimator rttEstimator = new RttEstimator(false, 500, 500);
+        connection.setTimeoutSettings(rttEstimator, 2);
+
+        TestChannelRecordContainer container = read();
+
+        assertEquals(Flag.VALID, container.getRecord().getFlag());
+        assertEquals(REGISTER_VALUE, container.getRecord().getValue().asInt());
+        assertEquals(3, requests);
+        assertEquals(2, rttEstimator.getRetries());
+        assertEquals(0, rttEstimator.getFailures());
+    }
+
+    @Test
+    public void staleResponsesWithoutRetriesFail() throws Exception {
+        staleResponses = Integer.MAX_VALUE;
+        RttEstimator rttEstimator = new RttEstimator(false, 500, 500);
+        connection.setTimeoutSettings(rttEstimator, 0);
+
+        assertThrows(ConnectionException.class, this::read);
+        assertEquals(1, requests);
+        assertEquals(1, rttEstimator.getFailures());
+    }
+
+    private TestChannelRecordContainer read() throws ConnectionException {
+        TestChannelRecordContainer container = new TestChannelRecordContainer("1:HOLDING_REGISTERS:0:INT16");
+        connection.read(Collections.singletonList(container), true, "");
+        return container;
+    }
+
+    /**
+     * Answers read holding registers requests, the first ones with a transaction ID which doesn't match the request.
+     */
+    private void serve() {
+        try (Socket socket = serverSocket.accept()) {
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            while (true) {
+                int transactionId = in.readUnsignedShort();
+                in.readUnsignedShort(); // protocol ID
+                int length = in.readUnsignedShort();
+                int unitId = in.readUnsignedByte();
+                in.readFully(new byte[length - 1]);
+
+                if (++requests <= staleResponses) {
+                    transactionId = (transactionId + 1000) & 0xFFFF;
+                }
+
+                out.writeShort(transactionId);
+                out.writeShort(0);
+                out.writeShort(5);
+                out.writeByte(unitId);
+                out.writeByte(3); // function code
+                out.writeByte(2); // byte count
+                out.writeShort(REGISTER_VALUE);
+                out.flush();
+            }
+        } catch (IOException e) {
+            // closed by the test
+        }
+    }
+
+}
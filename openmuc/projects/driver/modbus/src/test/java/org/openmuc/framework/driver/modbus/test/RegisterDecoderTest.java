@@ -0,0 +1,147 @@
+/*
+ * Copyright 2011-2024 Fraunhofer ISE
+ *
+ * This file is part of OpenMUC.
+ * For more information visit http://www.openmuc.org
+ *
+ * OpenMUC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenMUC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenMUC. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.openmuc.framework.driver.modbus.test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Disabled;
+import org.junit.jupiter.api.Test;
+import org.openmuc.framework.data.Value;
+import org.openmuc.framework.driver.modbus.EDatatype;
+import org.openmuc.framework.driver.modbus.ModbusDriverUtil;
+import org.openmuc.framework.driver.modbus.RegisterDecoder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ghgande.j2mod.modbus.procimg.InputRegister;
+import com.ghgande.j2mod.modbus.procimg.SimpleInputRegister;
+
+/**
+ * Compares the RegisterDecoder with the conversion of ModbusDriverUtil.
+ */
+public class RegisterDecoderTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(RegisterDecoderTest.class);
+
+    private static final EDatatype[] DATATYPES = { EDatatype.INT16, EDatatype.UINT16, EDatatype.INT32,
+            EDatatype.UINT32, EDatatype.FLOAT, EDatatype.DOUBLE, EDatatype.LONG };
+
+    private static final int REGISTER_COUNT = 100;
+
+    @Test
+    public void decodeEqualsModbusDriverUtil() {
+        Random random = new Random(0);
+        for (int run = 0; run < 100; run++) {
+            InputRegister[] registers = createRandomRegisters(random);
+
+            for (EDatatype datatype : DATATYPES) {
+                int count = datatype.getRegisterSize();
+                RegisterDecoder decoder = RegisterDecoder.create(datatype, count);
+
+                for (int offset = 0; offset + count <= REGISTER_COUNT; offset += 7) {
+                    Value expected = ModbusDriverUtil.getRegistersValue(copy(registers, offset, count), datatype);
+                    Value actual = decoder.decode(registers, offset);
+                    assertEquals(expected.getClass(), actual.getClass());
+                    assertEquals(expected.toString(), actual.toString(), datatype.toString());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void decodeByteArray() {
+        InputRegister[] registers = createRandomRegisters(new Random(1));
+        Value expected = ModbusDriverUtil.getRegistersValue(copy(registers, 10, 5), EDatatype.BYTEARRAY);
+        Value actual = RegisterDecoder.create(EDatatype.BYTEARRAY, 5).decode(registers, 10);
+        assertArrayEquals(expected.asByteArray(), actual.asByteArray());
+    }
+
+    @Test
+    public void decodeByteArrayLong() {
+        InputRegister[] registers = createRandomRegisters(new Random(2));
+        for (int count = 1; count <= 4; count++) {
+            Value expected = ModbusDriverUtil.getRegistersValue(copy(registers, 3, count), EDatatype.BYTEARRAYLONG);
+            Value actual = RegisterDecoder.create(EDatatype.BYTEARRAYLONG, count).decode(registers, 3);
+            assertEquals(expected.asLong(), actual.asLong());
+        }
+    }
+
+    /**
+     * Benchmark without assertions, remove the annotation to compare the throughput of both decoders.
+     */
+    @Disabled("benchmark")
+    @Test
+    public void printDecodeThroughput() {
+        InputRegister[] registers = createRandomRegisters(new Random(3));
+        int iterations = 20000;
+
+        for (EDatatype datatype : DATATYPES) {
+            int count = datatype.getRegisterSize();
+            RegisterDecoder decoder = RegisterDecoder.create(datatype, count);
+            int values = REGISTER_COUNT / count;
+
+            // warm up and measure both paths
+            long blackhole = 0;
+            long decoderNs = 0;
+            long utilNs = 0;
+            for (int round = 0; round < 2; round++) {
+                long start = System.nanoTime();
+                for (int i = 0; i < iterations; i++) {
+                    for (int v = 0; v < values; v++) {
+                        blackhole += decoder.decode(registers, v * count).asLong();
+                    }
+                }
+                decoderNs = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                for (int i = 0; i < iterations; i++) {
+                    for (int v = 0; v < values; v++) {
+                        blackhole += ModbusDriverUtil.getRegistersValue(copy(registers, v * count, count), datatype)
+                                .asLong();
+                    }
+                }
+                utilNs = System.nanoTime() - start;
+            }
+
+            long decodedValues = (long) iterations * values;
+            logger.info("{}: RegisterDecoder {} ns/value, ModbusDriverUtil {} ns/value ({})", datatype,
+                    decoderNs / decodedValues, utilNs / decodedValues, blackhole != 0);
+        }
+    }
+
+    private static InputRegister[] createRandomRegisters(Random random) {
+        InputRegister[] registers = new InputRegister[REGISTER_COUNT];
+        for (int i = 0; i < REGISTER_COUNT; i++) {
+            registers[i] = new SimpleInputRegister(random.nextInt(0x10000));
+        }
+        return registers;
+    }
+
+    private static InputRegister[] copy(InputRegister[] registers, int offset, int count) {
+        InputRegister[] copy = new InputRegister[count];
+        System.arraycopy(registers, offset, copy, 0, count);
+        return copy;
+    }
+
+}
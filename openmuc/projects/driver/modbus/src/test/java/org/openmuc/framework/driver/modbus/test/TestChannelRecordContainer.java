@@ -0,0 +1,101 @@
+/*
+ * Copyright 2011-2024 Fraunhofer ISE
+ *
+ * This file is part of OpenMUC.
+ * For more information visit http://www.openmuc.org
+ *
+ * OpenMUC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenMUC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenMUC. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.openmuc.framework.driver.modbus.test;
+
+import java.lang.reflect.Proxy;
+import java.util.function.Supplier;
+
+import org.openmuc.framework.data.Record;
+import org.openmuc.framework.dataaccess.Channel;
+import org.openmuc.framework.driver.spi.ChannelRecordContainer;
+
+public class TestChannelRecordContainer implements ChannelRecordContainer {
+
+    private final String channelAddress;
+    private final Channel channel;
+    private Record record;
+    private Object channelHandle;
+
+    public TestChannelRecordContainer(String channelAddress) {
+        this(channelAddress, null);
+    }
+
+    /**
+     * Creates a container of a channel which only provides its ID and latest record.
+     */
+    public TestChannelRecordContainer(String channelAddress, String channelId, Supplier<Record> latestRecord) {
+        this(channelAddress, (Channel) Proxy.newProxyInstance(Channel.class.getClassLoader(),
+                new Class<?>[] { Channel.class }, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                    case "getId":
+                        return channelId;
+                    case "getLatestRecord":
+                        return latestRecord.get();
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                }));
+    }
+
+    private TestChannelRecordContainer(String channelAddress, Channel channel) {
+        this.channelAddress = channelAddress;
+        this.channel = channel;
+    }
+
+    @Override
+    public Record getRecord() {
+        return record;
+    }
+
+    @Override
+    public Channel getChannel() {
+        return channel;
+    }
+
+    @Override
+    public String getChannelAddress() {
+        return channelAddress;
+    }
+
+    @Override
+    public Object getChannelHandle() {
+        return channelHandle;
+    }
+
+    @Override
+    public void setChannelHandle(Object handle) {
+        this.channelHandle = handle;
+    }
+
+    @Override
+    public void setRecord(Record record) {
+        this.record = record;
+    }
+
+    @Override
+    public ChannelRecordContainer copy() {
+        TestChannelRecordContainer copy = new TestChannelRecordContainer(channelAddress, channel);
+        copy.setRecord(record);
+        copy.setChannelHandle(channelHandle);
+        return copy;
+    }
+
+}
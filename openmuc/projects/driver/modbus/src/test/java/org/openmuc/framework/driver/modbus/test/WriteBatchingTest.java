@@ -0,0 +1,275 @@
+/*
+ * Copyright 2011-2024 Fraunhofer ISE
+ *
+ * This file is part of OpenMUC.
+ * For more information visit http://www.openmuc.org
+ *
+ * OpenMUC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenMUC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenMUC. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.openmuc.framework.driver.modbus.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.openmuc.framework.data.BooleanValue;
+import org.openmuc.framework.data.Flag;
+import org.openmuc.framework.data.FloatValue;
+import org.openmuc.framework.data.IntValue;
+import org.openmuc.framework.data.ShortValue;
+import org.openmuc.framework.data.Value;
+import org.openmuc.framework.driver.modbus.EWriteBatching;
+import org.openmuc.framework.driver.modbus.tcp.ModbusTCPConnection;
+import org.openmuc.framework.driver.spi.ChannelValueContainer;
+
+import com.ghgande.j2mod.modbus.procimg.DigitalOut;
+import com.ghgande.j2mod.modbus.procimg.Register;
+import com.ghgande.j2mod.modbus.procimg.SimpleDigitalOut;
+import com.ghgande.j2mod.modbus.procimg.SimpleProcessImage;
+import com.ghgande.j2mod.modbus.procimg.SimpleRegister;
+import com.ghgande.j2mod.modbus.slave.ModbusSlave;
+import com.ghgande.j2mod.modbus.slave.ModbusSlaveFactory;
+import com.ghgande.j2mod.modbus.util.ModbusUtil;
+
+/**
+ * Writes channels to a local j2mod slave with and without write batching.
+ */
+public class WriteBatchingTest {
+
+    private static final int REGISTER_COUNT = 20;
+    private static final int COIL_COUNT = 8;
+
+    private ModbusSlave slave;
+    private CountingProcessImage processImage;
+    private ModbusTCPConnection connection;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        int port = getFreePort();
+
+        processImage = new CountingProcessImage();
+        for (int i = 0; i < REGISTER_COUNT; i++) {
+            processImage.addRegister(new SimpleRegister(0));
+        }
+        for (int i = 0; i < COIL_COUNT; i++) {
+            processImage.addDigitalOut(new SimpleDigitalOut(false));
+        }
+
+        slave = ModbusSlaveFactory.createTCPSlave(port, 2);
+        slave.addProcessImage(1, processImage);
+        slave.open();
+
+        connection = new ModbusTCPConnection("127.0.0.1:" + port, 1000, false);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        connection.disconnect();
+        ModbusSlaveFactory.close(slave);
+    }
+
+    @Test
+    public void contiguousRegistersAreWrittenWithOneRequest() throws Exception {
+        connection.setWriteBatching(EWriteBatching.MULTIPLE);
+
+        List<ChannelValueContainer> containers = new ArrayList<>();
+        // unsorted on purpose
+        containers.add(new TestChannelValueContainer("1:HOLDING_REGISTERS:2:FLOAT", new FloatValue(1.5f)));
+        containers.add(new TestChannelValueContainer("1:HOLDING_REGISTERS:0:INT16", new ShortValue((short) 7)));
+        containers.add(new TestChannelValueContainer("1:HOLDING_REGISTERS:1:INT16", new ShortValue((short) -3)));
+        containers.add(new TestChannelValueContainer("1:HOLDING_REGISTERS:4:INT32", new IntValue(123456)));
+
+        connection.writeChannels(containers);
+
+        assertAllFlags(containers, Flag.VALID);
+        assertEquals(1, processImage.rangeRequests);
+        assertEquals(7, processImage.getRegister(0).toShort());
+        assertEquals(-3, processImage.getRegister(1).toShort());
+        assertEquals(1.5f, ModbusUtil.registersToFloat(registerBytes(2, 2)), 0);
+        assertEquals(123456, ModbusUtil.registersToInt(registerBytes(4, 2)));
+    }
+
+    @Test
+    public void gapsAreNotMerged() throws Exception {
+        connection.setWriteBatching(EWriteBatching.MULTIPLE);
+
+        List<ChannelValueContainer> containers = new ArrayList<>();
+        containers.add(new TestChannelValueContainer("1:HOLDING_REGISTERS:0:INT32", new IntValue(1)));
+        containers.add(new TestChannelValueContainer("1:HOLDING_REGISTERS:2:INT32", new IntValue(2)));
+        containers.add(new TestChannelValueContainer("1:HOLDING_REGISTERS:10:INT32", new IntValue(3)));
+        containers.add(new TestChannelValueContainer("1:HOLDING_REGISTERS:12:INT32", new IntValue(4)));
+
+        processImage.getRegister(4).setValue(42);
+        connection.writeChannels(containers);
+
+        assertAllFlags(containers, Flag.VALID);
+        assertEquals(2, processImage.rangeRequests);
+        assertEquals(42, processImage.getRegister(4).getValue());
+    }
+
+    @Test
+    public void flagsOfPartiallyFailedBatch() throws Exception {
+        connection.setWriteBatching(EWriteBatching.MULTIPLE);
+
+        List<ChannelValueContainer> containers = new ArrayList<>();
+        containers.add(new TestChannelValueContainer("1:HOLDING_REGISTERS:18:INT16", new ShortValue((short) 1)));
+        containers.add(new TestChannelValueContainer("1:HOLDING_REGISTERS:19:INT16", new ShortValue((short) 2)));
+        // address does not exist on the slave
+        containers.add(new TestChannelValueContainer("1:HOLDING_REGISTERS:20:INT16", new ShortValue((short) 3)));
+
+        connection.writeChannels(containers);
+
+        assertEquals(Flag.VALID, containers.get(0).getFlag());
+        assertEquals(Flag.VALID, containers.get(1).getFlag());
+        assertEquals(Flag.DRIVER_ERROR_CHANNEL_NOT_ACCESSIBLE, containers.get(2).getFlag());
+        assertEquals(1, processImage.getRegister(18).getValue());
+        assertEquals(2, processImage.getRegister(19).getValue());
+    }
+
+    @Test
+    public void contiguousCoilsAreWrittenWithOneRequest() throws Exception {
+        connection.setWriteBatching(EWriteBatching.MULTIPLE);
+
+        List<ChannelValueContainer> containers = new ArrayList<>();
+        for (int i = 0; i < COIL_COUNT; i++) {
+            containers.add(new TestChannelValueContainer("1:COILS:" + i + ":BOOLEAN", new BooleanValue(i % 2 == 0)));
+        }
+
+        connection.writeChannels(containers);
+
+        assertAllFlags(containers, Flag.VALID);
+        assertEquals(1, processImage.coilRangeRequests);
+        for (int i = 0; i < COIL_COUNT; i++) {
+            assertEquals(i % 2 == 0, processImage.getDigitalOut(i).isSet());
+        }
+    }
+
+    @Test
+    public void readWriteMultipleRegisters() throws Exception {
+        connection.setWriteBatching(EWriteBatching.READ_WRITE_MULTIPLE);
+
+        List<ChannelValueContainer> containers = new ArrayList<>();
+        containers.add(new TestChannelValueContainer("1:HOLDING_REGISTERS:5:INT16", new ShortValue((short) 5)));
+        containers.add(new TestChannelValueContainer("1:HOLDING_REGISTERS:6:INT16", new ShortValue((short) 6)));
+
+        connection.writeChannels(containers);
+
+        assertAllFlags(containers, Flag.VALID);
+        assertEquals(5, processImage.getRegister(5).getValue());
+        assertEquals(6, processImage.getRegister(6).getValue());
+    }
+
+    @Test
+    public void withoutBatchingEveryChannelIsWrittenSeparately() throws Exception {
+        List<ChannelValueContainer> containers = new ArrayList<>();
+        containers.add(new TestChannelValueContainer("1:HOLDING_REGISTERS:0:INT32", new IntValue(1)));
+        containers.add(new TestChannelValueContainer("1:HOLDING_REGISTERS:2:INT32", new IntValue(2)));
+
+        connection.writeChannels(containers);
+
+        assertAllFlags(containers, Flag.VALID);
+        assertEquals(2, processImage.rangeRequests);
+    }
+
+    private byte[] registerBytes(int start, int count) {
+        byte[] bytes = new byte[count * 2];
+        for (int i = 0; i < count; i++) {
+            System.arraycopy(processImage.getRegister(start + i).toBytes(), 0, bytes, i * 2, 2);
+        }
+        return bytes;
+    }
+
+    private static void assertAllFlags(List<ChannelValueContainer> containers, Flag flag) {
+        for (ChannelValueContainer container : containers) {
+            assertEquals(flag, container.getFlag(), container.getChannelAddress());
+        }
+    }
+
+    private static int getFreePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            assertTrue(socket.getLocalPort() > 0);
+            return socket.getLocalPort();
+        }
+    }
+
+    private static class CountingProcessImage extends SimpleProcessImage {
+
+        private volatile int rangeRequests = 0;
+        private volatile int coilRangeRequests = 0;
+
+        @Override
+        public Register[] getRegisterRange(int offset, int count) {
+            rangeRequests++;
+            return super.getRegisterRange(offset, count);
+        }
+
+        @Override
+        public DigitalOut[] getDigitalOutRange(int offset, int count) {
+            coilRangeRequests++;
+            return super.getDigitalOutRange(offset, count);
+        }
+    }
+
+    private static class TestChannelValueContainer implements ChannelValueContainer {
+
+        private final String channelAddress;
+        private final Value value;
+        private Flag flag;
+        private Object channelHandle;
+
+        TestChannelValueContainer(String channelAddress, Value value) {
+            this.channelAddress = channelAddress;
+            this.value = value;
+        }
+
+        @Override
+        public String getChannelAddress() {
+            return channelAddress;
+        }
+
+        @Override
+        public Object getChannelHandle() {
+            return channelHandle;
+        }
+
+        @Override
+        public void setChannelHandle(Object handle) {
+            this.channelHandle = handle;
+        }
+
+        @Override
+        public Value getValue() {
+            return value;
+        }
+
+        @Override
+        public void setFlag(Flag flag) {
+            this.flag = flag;
+        }
+
+        @Override
+        public Flag getFlag() {
+            return flag;
+        }
+    }
+
+}
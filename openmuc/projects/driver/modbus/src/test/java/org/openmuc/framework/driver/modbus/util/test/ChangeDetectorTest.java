@@ -0,0 +1,109 @@
+/*
+ * Copyright 2011-2024 Fraunhofer ISE
+ *
+ * This file is part of OpenMUC.
+ * For more information visit http://www.openmuc.org
+ *
+ * OpenMUC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenMUC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenMUC. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.openmuc.framework.driver.modbus.util.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+import org.openmuc.framework.driver.modbus.test.TestChannelRecordContainer;
+import org.openmuc.framework.driver.modbus.util.ChangeDetector;
+import org.openmuc.framework.driver.spi.ChannelRecordContainer;
+
+import com.ghgande.j2mod.modbus.procimg.InputRegister;
+import com.ghgande.j2mod.modbus.procimg.SimpleRegister;
+import com.ghgande.j2mod.modbus.util.BitVector;
+
+public class ChangeDetectorTest {
+
+    private static final ChannelRecordContainer CHANNEL = new TestChannelRecordContainer(
+            "1:HOLDING_REGISTERS:0:INT32");
+
+    @Test
+    public void unchangedRegistersAreSuppressed() {
+        ChangeDetector detector = new ChangeDetector(0);
+
+        assertTrue(detector.hasChanged(CHANNEL, registers(1, 2), 0, 2, 0));
+        assertFalse(detector.hasChanged(CHANNEL, registers(1, 2), 0, 2, 1000));
+        assertTrue(detector.hasChanged(CHANNEL, registers(1, 3), 0, 2, 2000));
+        assertFalse(detector.hasChanged(CHANNEL, registers(1, 3), 0, 2, 3000));
+
+        assertEquals(2, detector.getReportedRecords());
+        assertEquals(2, detector.getSuppressedRecords());
+        assertEquals(0.5, detector.getSuppressedRatio(), 0);
+    }
+
+    @Test
+    public void onlyRegistersOfChannelAreCompared() {
+        ChangeDetector detector = new ChangeDetector(0);
+
+        assertTrue(detector.hasChanged(CHANNEL, registers(9, 1, 2), 1, 2, 0));
+        // register 0 belongs to another channel of the group
+        assertFalse(detector.hasChanged(CHANNEL, registers(8, 1, 2), 1, 2, 0));
+    }
+
+    @Test
+    public void heartbeatReportsUnchangedChannel() {
+        ChangeDetector detector = new ChangeDetector(60000);
+
+        assertTrue(detector.hasChanged(CHANNEL, registers(1, 2), 0, 2, 0));
+        assertFalse(detector.hasChanged(CHANNEL, registers(1, 2), 0, 2, 59999));
+        assertTrue(detector.hasChanged(CHANNEL, registers(1, 2), 0, 2, 60000));
+        assertFalse(detector.hasChanged(CHANNEL, registers(1, 2), 0, 2, 60001));
+    }
+
+    @Test
+    public void resetReportsNextRead() {
+        ChangeDetector detector = new ChangeDetector(0);
+
+        assertTrue(detector.hasChanged(CHANNEL, registers(1, 2), 0, 2, 0));
+        detector.reset();
+        assertTrue(detector.hasChanged(CHANNEL, registers(1, 2), 0, 2, 0));
+    }
+
+    @Test
+    public void bitsAreCompared() {
+        ChangeDetector detector = new ChangeDetector(0);
+        BitVector bits = new BitVector(3);
+        bits.setBit(1, true);
+        ChannelRecordContainer coils = new TestChannelRecordContainer("1:COILS:0:BYTEARRAY");
+        ChannelRecordContainer coil = new TestChannelRecordContainer("1:COILS:5:BOOLEAN");
+
+        assertTrue(detector.hasChanged(coils, bits, 0));
+        assertFalse(detector.hasChanged(coils, bits, 0));
+        bits.setBit(2, true);
+        assertTrue(detector.hasChanged(coils, bits, 0));
+
+        assertTrue(detector.hasChanged(coil, true, 0));
+        assertFalse(detector.hasChanged(coil, true, 0));
+        assertTrue(detector.hasChanged(coil, false, 0));
+    }
+
+    private static InputRegister[] registers(int... values) {
+        InputRegister[] registers = new InputRegister[values.length];
+        for (int i = 0; i < values.length; i++) {
+            registers[i] = new SimpleRegister(values[i]);
+        }
+        return registers;
+    }
+
+}
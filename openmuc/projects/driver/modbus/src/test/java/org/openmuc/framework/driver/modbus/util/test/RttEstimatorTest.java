@@ -0,0 +1,97 @@
+/*
+ * Copyright 2011-2024 Fraunhofer ISE
+ *
+ * This file is part of OpenMUC.
+ * For more information visit http://www.openmuc.org
+ *
+ * OpenMUC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenMUC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenMUC. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.openmuc.framework.driver.modbus.util.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+import org.openmuc.framework.driver.modbus.util.RttEstimator;
+
+public class RttEstimatorTest {
+
+    @Test
+    public void staticTimeoutWithoutAdaptation() {
+        RttEstimator estimator = new RttEstimator(false, 100, 3000);
+        estimator.addSample(20);
+        assertEquals(3000, estimator.getTimeout());
+    }
+
+    @Test
+    public void maxTimeoutWithoutSamples() {
+        RttEstimator estimator = new RttEstimator(true, 100, 3000);
+        assertEquals(3000, estimator.getTimeout());
+        assertEquals(-1, estimator.getPercentile(50));
+    }
+
+    @Test
+    public void adaptiveTimeoutConvergesToRtt() {
+        RttEstimator estimator = new RttEstimator(true, 10, 3000);
+        for (int i = 0; i < 100; i++) {
+            estimator.addSample(50);
+        }
+        // variance decays towards 0, so the timeout approaches the smoothed RTT
+        assertEquals(50, estimator.getSmoothedRtt(), 0.001);
+        assertTrue(estimator.getTimeout() >= 50 && estimator.getTimeout() < 60);
+    }
+
+    @Test
+    public void adaptiveTimeoutIsBounded() {
+        RttEstimator estimator = new RttEstimator(true, 100, 3000);
+        estimator.addSample(1);
+        assertEquals(100, estimator.getTimeout());
+
+        estimator = new RttEstimator(true, 100, 3000);
+        estimator.addSample(10000);
+        assertEquals(3000, estimator.getTimeout());
+    }
+
+    @Test
+    public void retryTimeoutIsDoubled() {
+        RttEstimator estimator = new RttEstimator(true, 10, 1000);
+        for (int i = 0; i < 100; i++) {
+            estimator.addSample(100);
+        }
+        int timeout = estimator.getTimeout();
+        assertEquals(timeout, estimator.getTimeout(0));
+        assertEquals(timeout * 2, estimator.getTimeout(1));
+        assertEquals(1000, estimator.getTimeout(5));
+    }
+
+    @Test
+    public void percentiles() {
+        RttEstimator estimator = new RttEstimator(true, 10, 1000);
+        for (int i = 1; i <= 100; i++) {
+            estimator.addSample(i);
+        }
+        assertEquals(50, estimator.getPercentile(50));
+        assertEquals(99, estimator.getPercentile(99));
+        assertEquals(100, estimator.getPercentile(100));
+    }
+
+    @Test
+    public void invalidBounds() {
+        assertThrows(IllegalArgumentException.class, () -> new RttEstimator(true, 200, 100));
+        assertThrows(IllegalArgumentException.class, () -> new RttEstimator(true, 0, 100));
+    }
+
+}
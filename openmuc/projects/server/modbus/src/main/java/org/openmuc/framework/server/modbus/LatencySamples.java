@@ -0,0 +1,63 @@
+/*
+ * Copyright 2011-2024 Fraunhofer ISE
+ *
+ * This file is part of OpenMUC.
+ * For more information visit http://www.openmuc.org
+ *
+ * OpenMUC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenMUC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenMUC. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.openmuc.framework.server.modbus;
+
+import java.util.Arrays;
+
+/**
+ * Ring buffer of the most recent latency samples providing percentiles. Not thread safe, callers synchronize.
+ */
+public class LatencySamples {
+
+    private final long[] samples;
+    private int sampleCount = 0;
+    private int nextSample = 0;
+
+    /**
+     * @param size
+     *            number of recent samples kept
+     */
+    public LatencySamples(int size) {
+        samples = new long[size];
+    }
+
+    public void add(long sample) {
+        samples[nextSample] = sample;
+        nextSample = (nextSample + 1) % samples.length;
+        sampleCount = Math.min(sampleCount + 1, samples.length);
+    }
+
+    /**
+     * @param percentile
+     *            percentile between 0 and 100
+     * @return the percentile of the recent samples or -1 if there are no samples
+     */
+    public long getPercentile(double percentile) {
+        if (sampleCount == 0) {
+            return -1;
+        }
+        long[] sorted = Arrays.copyOf(samples, sampleCount);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100.0 * sampleCount) - 1;
+        return sorted[Math.max(0, Math.min(sampleCount - 1, index))];
+    }
+
+}
@@ -23,12 +23,14 @@ package org.openmuc.framework.server.modbus;
 
 import java.io.IOException;
 
+import org.openmuc.framework.dataaccess.DataAccessService;
 import org.openmuc.framework.lib.osgi.deployment.RegistrationHandler;
 import org.openmuc.framework.server.spi.ServerService;
 import org.osgi.framework.BundleContext;
 import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
 import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Reference;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -39,10 +41,13 @@ public class ModbusComponent {
     private ModbusServer modbusServer;
     private RegistrationHandler registrationHandler;
 
+    @Reference
+    private DataAccessService dataAccessService;
+
     @Activate
     protected void activate(BundleContext context) throws IOException {
         logger.info("Activating Modbus Server");
-        modbusServer = new ModbusServer();
+        modbusServer = new ModbusServer(dataAccessService);
 
         registrationHandler = new RegistrationHandler(context);
         String pid = ModbusServer.class.getName();
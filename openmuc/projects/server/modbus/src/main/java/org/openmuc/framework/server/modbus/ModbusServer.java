@@ -23,21 +23,20 @@ package org.openmuc.framework.server.modbus;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.Collections;
 import java.util.Dictionary;
 import java.util.List;
+import java.util.Map;
 
-import org.openmuc.framework.data.ValueType;
-import org.openmuc.framework.dataaccess.Channel;
+import org.openmuc.framework.dataaccess.DataAccessService;
 import org.openmuc.framework.lib.osgi.config.DictionaryPreprocessor;
 import org.openmuc.framework.lib.osgi.config.PropertyHandler;
 import org.openmuc.framework.lib.osgi.config.ServicePropertyException;
-import org.openmuc.framework.server.modbus.register.BooleanMappingInputRegister;
-import org.openmuc.framework.server.modbus.register.DoubleMappingInputRegister;
-import org.openmuc.framework.server.modbus.register.FloatMappingInputRegister;
-import org.openmuc.framework.server.modbus.register.IntegerMappingInputRegister;
-import org.openmuc.framework.server.modbus.register.LinkedMappingHoldingRegister;
-import org.openmuc.framework.server.modbus.register.LongMappingInputRegister;
-import org.openmuc.framework.server.modbus.register.ShortMappingInputRegister;
+import org.openmuc.framework.server.modbus.image.ChannelWriter;
+import org.openmuc.framework.server.modbus.image.ChannelWriter.EWriteAck;
+import org.openmuc.framework.server.modbus.image.ImageProcessImage;
+import org.openmuc.framework.server.modbus.image.UnitMappings;
+import org.openmuc.framework.server.modbus.tcp.NioTcpServer;
 import org.openmuc.framework.server.spi.ServerMappingContainer;
 import org.openmuc.framework.server.spi.ServerService;
 import org.osgi.service.cm.ConfigurationException;
@@ -46,26 +45,33 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.ghgande.j2mod.modbus.ModbusException;
-import com.ghgande.j2mod.modbus.procimg.Register;
-import com.ghgande.j2mod.modbus.procimg.SimpleInputRegister;
-import com.ghgande.j2mod.modbus.procimg.SimpleProcessImage;
-import com.ghgande.j2mod.modbus.procimg.SimpleRegister;
 import com.ghgande.j2mod.modbus.slave.ModbusSlave;
 import com.ghgande.j2mod.modbus.slave.ModbusSlaveFactory;
 import com.ghgande.j2mod.modbus.util.SerialParameters;
 
 public class ModbusServer implements ServerService, ManagedService {
     private static Logger logger = LoggerFactory.getLogger(ModbusServer.class);
-    private final SimpleProcessImage spi = new SimpleProcessImage();
+    /** Process image of each served unit ID, all are served by the same listener */
+    private Map<Integer, ImageProcessImage> processImages = Collections.emptyMap();
+    private List<ServerMappingContainer> mappings = Collections.emptyList();
+    private ChannelWriter writer;
     private ModbusSlave slave;
+    private NioTcpServer nioServer;
     private final PropertyHandler property;
+    private final DataAccessService dataAccessService;
 
-    public ModbusServer() {
+    /**
+     * @param dataAccessService
+     *            service to write the values written by Modbus masters with, if null each channel is written
+     *            separately
+     */
+    public ModbusServer(DataAccessService dataAccessService) {
+        this.dataAccessService = dataAccessService;
         String pid = ModbusServer.class.getName();
         property = new PropertyHandler(new Settings(), pid);
     }
 
-    private void startServer(SimpleProcessImage spi) throws IOException {
+    private void startServer() throws IOException {
         String address = property.getString(Settings.ADDRESS);
         int port = property.getInt(Settings.PORT);
         String type = property.getString(Settings.TYPE).toLowerCase();
@@ -73,6 +79,11 @@ public class ModbusServer implements ServerService, ManagedService {
 
         logServerSettings();
 
+        if ("nio".equals(type)) {
+            startNioServer(address, port);
+            return;
+        }
+
         try {
             switch (type) {
             case "udp":
@@ -93,7 +104,9 @@ public class ModbusServer implements ServerService, ManagedService {
                 break;
             }
             slave.setThreadName("modbusServerListener");
-            slave.addProcessImage(property.getInt(Settings.UNITID), spi);
+            for (Map.Entry<Integer, ImageProcessImage> unit : processImages.entrySet()) {
+                slave.addProcessImage(unit.getKey(), unit.getValue());
+            }
             slave.open();
         } catch (ModbusException e) {
             throw new IOException(e.getMessage());
@@ -103,6 +116,21 @@ public class ModbusServer implements ServerService, ManagedService {
         }
     }
 
+    private void startNioServer(String address, int port) throws IOException {
+        nioServer = new NioTcpServer(InetAddress.getByName(address), port, property.getInt(Settings.POOLSIZE),
+                property.getInt(Settings.MAX_CONNECTIONS), property.getInt(Settings.IDLE_TIMEOUT),
+                property.getInt(Settings.MAX_REQUEST_RATE));
+        for (Map.Entry<Integer, ImageProcessImage> unit : processImages.entrySet()) {
+            nioServer.addProcessImage(unit.getKey(), unit.getValue());
+        }
+        try {
+            nioServer.open();
+        } catch (IOException e) {
+            nioServer = null;
+            throw e;
+        }
+    }
+
     private void logServerSettings() {
         if (logger.isDebugEnabled()) {
             logger.debug("Address:  {}", property.getString(Settings.ADDRESS));
@@ -110,12 +138,22 @@ public class ModbusServer implements ServerService, ManagedService {
             logger.debug("UnitId:   {}", property.getString(Settings.UNITID));
             logger.debug("Type:     {}", property.getString(Settings.TYPE));
             logger.debug("Poolsize: {}", property.getString(Settings.POOLSIZE));
+            logger.debug("WriteAck: {}", property.getString(Settings.WRITE_ACK));
         }
     }
 
     void shutdown() {
         if (slave != null) {
             slave.close();
+            slave = null;
+        }
+        if (nioServer != null) {
+            nioServer.close();
+            nioServer = null;
+        }
+        if (writer != null) {
+            writer.shutdown();
+            writer = null;
         }
     }
 
@@ -126,9 +164,11 @@ public class ModbusServer implements ServerService, ManagedService {
 
     @Override
     public void updatedConfiguration(List<ServerMappingContainer> mappings) {
+        // the running listener has to be closed first, otherwise the new one can't bind the port
+        shutdown();
         bindMappings(mappings);
         try {
-            startServer(spi);
+            startServer();
         } catch (IOException e) {
             logger.error("Error starting server.");
             throw new RuntimeException(e);
@@ -142,156 +182,65 @@ public class ModbusServer implements ServerService, ManagedService {
     }
 
     private void bindMappings(List<ServerMappingContainer> mappings) {
+        this.mappings = mappings;
         if (logger.isDebugEnabled()) {
             logger.debug("Bind mappings of {} channel.", mappings.size());
         }
 
-        for (final ServerMappingContainer container : mappings) {
+        UnitMappings unitMappings = new UnitMappings(property.getInt(Settings.UNITID));
 
+        for (final ServerMappingContainer container : mappings) {
             String serverAddress = container.getServerMapping().getServerAddress();
+            try {
+                int unitId = unitMappings.addMapping(container.getChannel(), serverAddress);
+                if (logger.isDebugEnabled()) {
+                    logger.debug("ChannelId: {}, UnitId: {}, ServerAddress: {}, Channel valueType: {}",
+                            container.getChannel().getId(), unitId, serverAddress,
+                            container.getChannel().getValueType());
+                }
+            } catch (IllegalArgumentException e) {
+                logger.warn("Unable to map channel {}: {}", container.getChannel().getId(), e.getMessage());
+            }
+        }
 
-            EPrimaryTable primaryTable = EPrimaryTable
-                    .getEnumfromString(serverAddress.substring(0, serverAddress.indexOf(':')));
-            int modbusAddress = Integer
-                    .parseInt(serverAddress.substring(serverAddress.indexOf(':') + 1, serverAddress.lastIndexOf(':')));
-            String dataType = serverAddress.substring(serverAddress.lastIndexOf(':') + 1);
-
-            ValueType valueType = ValueType.valueOf(dataType);
+        ChannelWriter oldWriter = writer;
+        writer = new ChannelWriter(dataAccessService, getWriteAck(), property.getInt(Settings.WRITE_TIMEOUT));
 
-            logMapping(primaryTable, modbusAddress, valueType, container.getChannel());
+        Map<Integer, ImageProcessImage> oldProcessImages = processImages;
+        processImages = unitMappings.createProcessImages(writer);
 
-            switch (primaryTable) {
-            case INPUT_REGISTERS:
-                addInputRegisters(spi, modbusAddress, valueType, container.getChannel());
-                break;
-            case HOLDING_REGISTERS:
-                addHoldingRegisters(spi, modbusAddress, valueType, container.getChannel());
-                break;
-            case COILS:
-                // TODO: create for coils
-                break;
-            case DISCRETE_INPUTS:
-                // TODO: create for discrete inputs
-                break;
-            default:
+        for (Map.Entry<Integer, ImageProcessImage> unit : oldProcessImages.entrySet()) {
+            unit.getValue().unbind();
+            if (!processImages.containsKey(unit.getKey())) {
+                if (slave != null) {
+                    slave.removeProcessImage(unit.getKey());
+                }
+                if (nioServer != null) {
+                    nioServer.removeProcessImage(unit.getKey());
+                }
             }
         }
-    }
-
-    private void logMapping(EPrimaryTable primaryTable, int modbusAddress, ValueType valueType, Channel channel) {
-        if (logger.isDebugEnabled()) {
-            logger.debug("ChannelId: {}, Register: {}, Address: {}, ValueType: {}, Channel valueType: {}",
-                    channel.getId(), primaryTable, modbusAddress, valueType, channel.getValueType());
-        }
-    }
-
-    private void addHoldingRegisters(SimpleProcessImage spi, int modbusAddress, ValueType valueType, Channel channel) {
-        while (spi.getRegisterCount() <= modbusAddress + 4) {
-            spi.addRegister(new SimpleRegister());
+        for (Map.Entry<Integer, ImageProcessImage> unit : processImages.entrySet()) {
+            if (slave != null) {
+                slave.addProcessImage(unit.getKey(), unit.getValue());
+            }
+            if (nioServer != null) {
+                nioServer.addProcessImage(unit.getKey(), unit.getValue());
+            }
         }
-
-        switch (valueType) {
-        case DOUBLE:
-            Register eightByteDoubleRegister3 = new LinkedMappingHoldingRegister(
-                    new DoubleMappingInputRegister(channel, 6, 7), channel, null, valueType, 6, 7);
-            Register eightByteDoubleRegister2 = new LinkedMappingHoldingRegister(
-                    new DoubleMappingInputRegister(channel, 4, 5), channel,
-                    (LinkedMappingHoldingRegister) eightByteDoubleRegister3, valueType, 4, 5);
-            Register eightByteDoubleRegister1 = new LinkedMappingHoldingRegister(
-                    new DoubleMappingInputRegister(channel, 2, 3), channel,
-                    (LinkedMappingHoldingRegister) eightByteDoubleRegister2, valueType, 2, 3);
-            Register eightByteDoubleRegister0 = new LinkedMappingHoldingRegister(
-                    new DoubleMappingInputRegister(channel, 0, 1), channel,
-                    (LinkedMappingHoldingRegister) eightByteDoubleRegister1, valueType, 0, 1);
-            spi.setRegister(modbusAddress, eightByteDoubleRegister0);
-            spi.setRegister(modbusAddress + 1, eightByteDoubleRegister1);
-            spi.setRegister(modbusAddress + 2, eightByteDoubleRegister2);
-            spi.setRegister(modbusAddress + 3, eightByteDoubleRegister3);
-            break;
-        case LONG:
-            Register eightByteLongRegister3 = new LinkedMappingHoldingRegister(
-                    new LongMappingInputRegister(channel, 6, 7), channel, null, valueType, 6, 7);
-            Register eightByteLongRegister2 = new LinkedMappingHoldingRegister(
-                    new LongMappingInputRegister(channel, 4, 5), channel,
-                    (LinkedMappingHoldingRegister) eightByteLongRegister3, valueType, 4, 5);
-            Register eightByteLongRegister1 = new LinkedMappingHoldingRegister(
-                    new LongMappingInputRegister(channel, 2, 3), channel,
-                    (LinkedMappingHoldingRegister) eightByteLongRegister2, valueType, 2, 3);
-            Register eightByteLongRegister0 = new LinkedMappingHoldingRegister(
-                    new LongMappingInputRegister(channel, 0, 1), channel,
-                    (LinkedMappingHoldingRegister) eightByteLongRegister1, valueType, 0, 1);
-            spi.setRegister(modbusAddress, eightByteLongRegister0);
-            spi.setRegister(modbusAddress + 1, eightByteLongRegister1);
-            spi.setRegister(modbusAddress + 2, eightByteLongRegister2);
-            spi.setRegister(modbusAddress + 3, eightByteLongRegister3);
-            break;
-        case INTEGER:
-            Register fourByteIntRegister1 = new LinkedMappingHoldingRegister(
-                    new IntegerMappingInputRegister(channel, 2, 3), channel, null, valueType, 2, 3);
-            Register fourByteIntRegister0 = new LinkedMappingHoldingRegister(
-                    new IntegerMappingInputRegister(channel, 0, 1), channel,
-                    (LinkedMappingHoldingRegister) fourByteIntRegister1, valueType, 0, 1);
-            spi.setRegister(modbusAddress, fourByteIntRegister0);
-            spi.setRegister(modbusAddress + 1, fourByteIntRegister1);
-            break;
-        case FLOAT:
-            Register fourByteFloatRegister1 = new LinkedMappingHoldingRegister(
-                    new FloatMappingInputRegister(channel, 2, 3), channel, null, valueType, 2, 3);
-            Register fourByteFloatRegister0 = new LinkedMappingHoldingRegister(
-                    new FloatMappingInputRegister(channel, 0, 1), channel,
-                    (LinkedMappingHoldingRegister) fourByteFloatRegister1, valueType, 0, 1);
-            spi.setRegister(modbusAddress, fourByteFloatRegister0);
-            spi.setRegister(modbusAddress + 1, fourByteFloatRegister1);
-            break;
-        case SHORT:
-            Register twoByteShortRegister = new LinkedMappingHoldingRegister(
-                    new ShortMappingInputRegister(channel, 0, 1), channel, null, valueType, 0, 1);
-            spi.setRegister(modbusAddress, twoByteShortRegister);
-            break;
-        case BOOLEAN:
-            Register twoByteBooleanRegister = new LinkedMappingHoldingRegister(
-                    new BooleanMappingInputRegister(channel, 0, 1), channel, null, valueType, 0, 1);
-            spi.setRegister(modbusAddress, twoByteBooleanRegister);
-            break;
-        default:
-            // TODO
+        if (oldWriter != null) {
+            oldWriter.shutdown();
         }
+        logger.debug("Serving {} unit IDs", processImages.size());
     }
 
-    private void addInputRegisters(SimpleProcessImage spi, int modbusAddress, ValueType valueType, Channel channel) {
-        while (spi.getInputRegisterCount() <= modbusAddress + 4) {
-            spi.addInputRegister(new SimpleInputRegister());
-        }
-
-        switch (valueType) {
-        case DOUBLE:
-            for (int i = 0; i < 4; i++) {
-                spi.setInputRegister(modbusAddress + i, new DoubleMappingInputRegister(channel, 2 * i, 2 * i + 1));
-            }
-            break;
-        case LONG:
-            for (int i = 0; i < 4; i++) {
-                spi.setInputRegister(modbusAddress + i, new LongMappingInputRegister(channel, 2 * i, 2 * i + 1));
-            }
-            break;
-        case INTEGER:
-            for (int i = 0; i < 2; i++) {
-                spi.setInputRegister(modbusAddress + i, new IntegerMappingInputRegister(channel, 2 * i, 2 * i + 1));
-            }
-            break;
-        case FLOAT:
-            for (int i = 0; i < 2; i++) {
-                spi.setInputRegister(modbusAddress + i, new FloatMappingInputRegister(channel, 2 * i, 2 * i + 1));
-            }
-            break;
-        case SHORT:
-            spi.setInputRegister(modbusAddress, new ShortMappingInputRegister(channel, 0, 1));
-            break;
-        case BOOLEAN:
-            spi.setInputRegister(modbusAddress, new BooleanMappingInputRegister(channel, 0, 1));
-            break;
-        default:
-            // TODO
+    private EWriteAck getWriteAck() {
+        String writeAck = property.getString(Settings.WRITE_ACK);
+        try {
+            return EWriteAck.valueOf(writeAck.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            logger.warn("Unknown writeAck {}, using {}", writeAck, EWriteAck.COMPLETION);
+            return EWriteAck.COMPLETION;
         }
     }
 
@@ -312,7 +261,7 @@ public class ModbusServer implements ServerService, ManagedService {
                 }
             }
             if (returnValue == null) {
-                throw new RuntimeException(
+                throw new IllegalArgumentException(
                         enumAsString + " is not supported. Use one of the following supported primary tables: "
                                 + getSupportedValues());
             }
@@ -344,7 +293,9 @@ public class ModbusServer implements ServerService, ManagedService {
             property.processConfig(newConfig);
             if (property.configChanged()) {
                 shutdown();
-                startServer(spi);
+                // the default unit ID may have changed
+                bindMappings(mappings);
+                startServer();
             }
         } catch (ServicePropertyException | IOException e) {
             logger.error("Update properties failed", e);
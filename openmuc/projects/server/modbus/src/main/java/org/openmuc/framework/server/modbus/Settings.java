@@ -29,6 +29,11 @@ class Settings extends GenericSettings {
     static final String UNITID = "unitId";
     static final String TYPE = "type";
     static final String POOLSIZE = "poolsize";
+    static final String MAX_CONNECTIONS = "maxConnections";
+    static final String IDLE_TIMEOUT = "idleTimeout";
+    static final String MAX_REQUEST_RATE = "maxRequestRate";
+    static final String WRITE_ACK = "writeAck";
+    static final String WRITE_TIMEOUT = "writeTimeout";
 
     static final String SERIAL_PORT_NAME = "serialPortName";
     static final String BAUDRATE = "baudRate";
@@ -42,14 +47,26 @@ class Settings extends GenericSettings {
     Settings() {
         super();
         properties.put(TYPE,
-                new ServiceProperty(TYPE, "Connection type, could be TCP, RTUTCP, UDP or SERIAL", "tcp", false));
+                new ServiceProperty(TYPE, "Connection type, could be TCP, NIO, RTUTCP, UDP or SERIAL", "tcp", false));
 
         // IP
         properties.put(PORT, new ServiceProperty(PORT, "Port to listen on", "502", false));
         properties.put(ADDRESS, new ServiceProperty(ADDRESS, "IP address to listen on", "127.0.0.1", false));
-        properties.put(UNITID, new ServiceProperty(UNITID, "UnitId of the slave", "15", false));
+        properties.put(UNITID, new ServiceProperty(UNITID, "UnitId of mappings without unit ID", "15", false));
         properties.put(POOLSIZE, new ServiceProperty(POOLSIZE,
-                "Listener thread pool size, only has affects with TCP and RTUTCP", "3", false));
+                "Listener thread pool size, only has affects with TCP, NIO and RTUTCP", "3", false));
+        properties.put(MAX_CONNECTIONS,
+                new ServiceProperty(MAX_CONNECTIONS, "Maximum number of open connections, only NIO", "100", false));
+        properties.put(IDLE_TIMEOUT, new ServiceProperty(IDLE_TIMEOUT,
+                "Time in ms after which a connection without requests is closed, 0 to disable, only NIO", "60000",
+                false));
+        properties.put(MAX_REQUEST_RATE, new ServiceProperty(MAX_REQUEST_RATE,
+                "Maximum requests per second of a client address, 0 for no limit, only NIO", "0", false));
+        properties.put(WRITE_ACK, new ServiceProperty(WRITE_ACK,
+                "Answer write requests once the values are queued (ENQUEUE) or written (COMPLETION)", "completion",
+                false));
+        properties.put(WRITE_TIMEOUT, new ServiceProperty(WRITE_TIMEOUT,
+                "Maximum time in ms a write request waits for the values to be written", "10000", false));
 
         // Serial
         properties.put(SERIAL_PORT_NAME, new ServiceProperty(SERIAL_PORT_NAME, "", "/dev/ttyUSB0", false));
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2011-2024 Fraunhofer ISE
+ *
+ * This file is part of OpenMUC.
+ * For more information visit http://www.openmuc.org
+ *
+ * OpenMUC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenMUC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenMUC. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.openmuc.framework.server.modbus.image;
+
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Bits of one bit table (coils or discrete inputs) of a unit ID, packed into longs.
+ * <p>
+ * A map of 65536 points takes 8 kB. Reads copy the longs covering the requested range, at most 32 for the 2000 bits of
+ * a read coils request. Like the {@link RegisterImage}, reads are optimistic and return a consistent snapshot.
+ */
+public class BitImage {
+
+    private static final int MAX_OPTIMISTIC_READS = 3;
+
+    private final long[] bits;
+    private final int size;
+    private final StampedLock lock = new StampedLock();
+
+    /**
+     * @param size
+     *            number of bits, addresses range from 0 to size - 1
+     */
+    public BitImage(int size) {
+        this.size = size;
+        bits = new long[(size + 63) >>> 6];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Copies the longs covering a range of bits. All bits are from the same point in time. Bit {@code address} is at
+     * position {@code address & 63} of the first long.
+     * 
+     * @param address
+     *            address of the first bit
+     * @param count
+     *            number of bits
+     * @return the copied longs
+     */
+    public long[] read(int address, int count) {
+        if (count == 0) {
+            return new long[0];
+        }
+        int first = address >>> 6;
+        int length = ((address + count - 1) >>> 6) - first + 1;
+        long[] result = new long[length];
+
+        for (int i = 0; i < MAX_OPTIMISTIC_READS; i++) {
+            long stamp = lock.tryOptimisticRead();
+            if (stamp != 0) {
+                System.arraycopy(bits, first, result, 0, length);
+                if (lock.validate(stamp)) {
+                    return result;
+                }
+            }
+        }
+
+        long stamp = lock.readLock();
+        try {
+            System.arraycopy(bits, first, result, 0, length);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+        return result;
+    }
+
+    public void write(int address, boolean value) {
+        long mask = 1L << address;
+        long stamp = lock.writeLock();
+        try {
+            if (value) {
+                bits[address >>> 6] |= mask;
+            }
+            else {
+                bits[address >>> 6] &= ~mask;
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * @param packed
+     *            longs returned by {@link #read(int, int)}
+     * @param index
+     *            bit index within the longs
+     * @return whether the bit is set
+     */
+    static boolean isSet(long[] packed, int index) {
+        return (packed[index >>> 6] & 1L << index) != 0;
+    }
+
+}
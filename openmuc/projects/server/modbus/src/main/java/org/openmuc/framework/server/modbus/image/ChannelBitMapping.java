@@ -0,0 +1,106 @@
+/*
+ * Copyright 2011-2024 Fraunhofer ISE
+ *
+ * This file is part of OpenMUC.
+ * For more information visit http://www.openmuc.org
+ *
+ * OpenMUC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenMUC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenMUC. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.openmuc.framework.server.modbus.image;
+
+import org.openmuc.framework.data.Record;
+import org.openmuc.framework.data.TypeConversionException;
+import org.openmuc.framework.data.ValueType;
+import org.openmuc.framework.dataaccess.Channel;
+import org.openmuc.framework.dataaccess.RecordListener;
+import org.openmuc.framework.server.modbus.ModbusServer.EPrimaryTable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Maps a boolean channel to a single bit of a {@link BitImage}, i.e. to a coil or a discrete input.
+ * <p>
+ * The mapping listens to new records of the channel and sets the bit accordingly.
+ */
+public class ChannelBitMapping implements RecordListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChannelBitMapping.class);
+
+    private final Channel channel;
+    private final EPrimaryTable primaryTable;
+    private final int address;
+
+    private BitImage image;
+
+    /**
+     * @param channel
+     *            mapped channel
+     * @param primaryTable
+     *            COILS or DISCRETE_INPUTS
+     * @param address
+     *            address of the bit
+     * @param valueType
+     *            type the value is encoded as, has to be BOOLEAN
+     * @throws IllegalArgumentException
+     *             if the value type isn't BOOLEAN
+     */
+    public ChannelBitMapping(Channel channel, EPrimaryTable primaryTable, int address, ValueType valueType) {
+        if (valueType != ValueType.BOOLEAN) {
+            throw new IllegalArgumentException("Value type " + valueType + " can't be mapped to " + primaryTable
+                    + ", only " + ValueType.BOOLEAN + " is supported.");
+        }
+        this.channel = channel;
+        this.primaryTable = primaryTable;
+        this.address = address;
+    }
+
+    /**
+     * Sets the bit to the latest record and starts listening for new records.
+     */
+    void bind(BitImage image) {
+        this.image = image;
+        newRecord(channel.getLatestRecord());
+        channel.addListener(this);
+    }
+
+    void unbind() {
+        channel.removeListener(this);
+    }
+
+    @Override
+    public void newRecord(Record record) {
+        if (record == null || record.getValue() == null) {
+            return;
+        }
+        try {
+            image.write(address, record.getValue().asBoolean());
+        } catch (TypeConversionException e) {
+            logger.warn("Unable to encode value of channel {} as {}", channel.getId(), ValueType.BOOLEAN);
+        }
+    }
+
+    public Channel getChannel() {
+        return channel;
+    }
+
+    public EPrimaryTable getPrimaryTable() {
+        return primaryTable;
+    }
+
+    public int getAddress() {
+        return address;
+    }
+
+}
@@ -0,0 +1,268 @@
+/*
+ * Copyright 2011-2024 Fraunhofer ISE
+ *
+ * This file is part of OpenMUC.
+ * For more information visit http://www.openmuc.org
+ *
+ * OpenMUC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenMUC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenMUC. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.openmuc.framework.server.modbus.image;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.openmuc.framework.data.BooleanValue;
+import org.openmuc.framework.data.DoubleValue;
+import org.openmuc.framework.data.Flag;
+import org.openmuc.framework.data.FloatValue;
+import org.openmuc.framework.data.IntValue;
+import org.openmuc.framework.data.LongValue;
+import org.openmuc.framework.data.Record;
+import org.openmuc.framework.data.ShortValue;
+import org.openmuc.framework.data.TypeConversionException;
+import org.openmuc.framework.data.Value;
+import org.openmuc.framework.data.ValueType;
+import org.openmuc.framework.dataaccess.Channel;
+import org.openmuc.framework.dataaccess.RecordListener;
+import org.openmuc.framework.server.modbus.ModbusServer.EPrimaryTable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Maps a channel to consecutive registers of a {@link RegisterImage}.
+ * <p>
+ * The mapping listens to new records of the channel and encodes each value once into the image. Words written by a
+ * Modbus master are collected until all words of the channel were received, then the value is written to the channel by
+ * the {@link ChannelWriter}. The order in which the words are written doesn't matter.
+ */
+public class ChannelRegisterMapping implements RecordListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChannelRegisterMapping.class);
+
+    private final Channel channel;
+    private final EPrimaryTable primaryTable;
+    private final int address;
+    private final ValueType valueType;
+    private final int wordCount;
+    private final boolean useUnscaledValues;
+
+    private RegisterImage image;
+
+    private final short[] receivedWords;
+    private int receivedMask = 0;
+
+    /**
+     * @param channel
+     *            mapped channel
+     * @param primaryTable
+     *            INPUT_REGISTERS or HOLDING_REGISTERS
+     * @param address
+     *            address of the first register
+     * @param valueType
+     *            type the value is encoded as
+     * @throws IllegalArgumentException
+     *             if the value type can't be mapped to registers
+     */
+    public ChannelRegisterMapping(Channel channel, EPrimaryTable primaryTable, int address, ValueType valueType) {
+        this.channel = channel;
+        this.primaryTable = primaryTable;
+        this.address = address;
+        this.valueType = valueType;
+        this.wordCount = getWordCount(valueType);
+        this.receivedWords = new short[wordCount];
+        this.useUnscaledValues = Boolean
+                .parseBoolean(System.getProperty("org.openmuc.framework.server.modbus.useUnscaledValues"));
+    }
+
+    /**
+     * @param valueType
+     *            value type of a mapping
+     * @return number of registers needed to encode the value type
+     * @throws IllegalArgumentException
+     *             if the value type can't be mapped to registers
+     */
+    public static int getWordCount(ValueType valueType) {
+        switch (valueType) {
+        case DOUBLE:
+        case LONG:
+            return 4;
+        case INTEGER:
+        case FLOAT:
+            return 2;
+        case SHORT:
+        case BOOLEAN:
+            return 1;
+        default:
+            throw new IllegalArgumentException("Value type " + valueType + " can't be mapped to registers.");
+        }
+    }
+
+    /**
+     * Encodes the latest record into the image and starts listening for new records.
+     */
+    void bind(RegisterImage image) {
+        this.image = image;
+        newRecord(channel.getLatestRecord());
+        channel.addListener(this);
+    }
+
+    void unbind() {
+        channel.removeListener(this);
+    }
+
+    @Override
+    public void newRecord(Record record) {
+        if (record == null || record.getValue() == null) {
+            return;
+        }
+        try {
+            image.write(address, encode(record.getValue()));
+        } catch (TypeConversionException e) {
+            logger.warn("Unable to encode value of channel {} as {}", channel.getId(), valueType);
+        }
+    }
+
+    /**
+     * Encodes a value into big endian words.
+     */
+    short[] encode(Value value) {
+        long bits;
+        double scalingFactor = channel.getScalingFactor();
+
+        switch (valueType) {
+        case DOUBLE:
+            bits = Double.doubleToRawLongBits(
+                    useUnscaledValues ? value.asDouble() / scalingFactor : value.asDouble());
+            break;
+        case LONG:
+            bits = useUnscaledValues ? value.asLong() / (long) scalingFactor : value.asLong();
+            break;
+        case INTEGER:
+            bits = useUnscaledValues ? value.asInt() / (int) scalingFactor : value.asInt();
+            break;
+        case FLOAT:
+            bits = Float.floatToRawIntBits(
+                    useUnscaledValues ? value.asFloat() / (float) scalingFactor : value.asFloat());
+            break;
+        case SHORT:
+            bits = useUnscaledValues ? (short) (value.asShort() / (short) scalingFactor) : value.asShort();
+            break;
+        case BOOLEAN:
+            bits = value.asBoolean() ? 1 : 0;
+            break;
+        default:
+            throw new IllegalStateException("Unsupported value type " + valueType);
+        }
+
+        short[] words = new short[wordCount];
+        for (int i = 0; i < wordCount; i++) {
+            words[i] = (short) (bits >> (16 * (wordCount - 1 - i)));
+        }
+        return words;
+    }
+
+    /**
+     * Takes the words of a write request which overlap the mapping. A request writing all words of the mapping is
+     * decoded from its own words. Words of a request writing only some words of the mapping are collected until all
+     * words were received, e.g. from a master writing a double with four single register requests.
+     * 
+     * @param words
+     *            words written by the request
+     * @param offset
+     *            address of the first word of the request
+     * @return the value to write to the channel, null if words of the mapping are still missing
+     */
+    Value writeWords(short[] words, int offset) {
+        int first = Math.max(address, offset);
+        int end = Math.min(address + wordCount, offset + words.length);
+        short[] valueWords;
+
+        if (first == address && end == address + wordCount) {
+            valueWords = Arrays.copyOfRange(words, address - offset, address - offset + wordCount);
+        }
+        else {
+            synchronized (this) {
+                for (int i = first; i < end; i++) {
+                    receivedWords[i - address] = words[i - offset];
+                    receivedMask |= 1 << (i - address);
+                }
+                if (receivedMask != (1 << wordCount) - 1) {
+                    return null;
+                }
+                receivedMask = 0;
+                valueWords = receivedWords.clone();
+            }
+        }
+
+        Value value = decode(valueWords);
+        if (value == null) {
+            channel.setLatestRecord(new Record(Flag.CANNOT_WRITE_NULL_VALUE));
+            return null;
+        }
+        else if (useUnscaledValues) {
+            return new DoubleValue(value.asDouble() * channel.getScalingFactor());
+        }
+        return value;
+    }
+
+    /**
+     * Decodes the received big endian words.
+     */
+    private Value decode(short[] words) {
+        if (valueType == ValueType.BOOLEAN) {
+            return new BooleanValue(words[0] != 0);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(wordCount * 2);
+        for (short word : words) {
+            buffer.putShort(word);
+        }
+        buffer.flip();
+        switch (valueType) {
+        case DOUBLE:
+            return new DoubleValue(buffer.getDouble());
+        case FLOAT:
+            return new FloatValue(buffer.getFloat());
+        case LONG:
+            return new LongValue(buffer.getLong());
+        case INTEGER:
+            return new IntValue(buffer.getInt());
+        case SHORT:
+            return new ShortValue(buffer.getShort());
+        default:
+            return null;
+        }
+    }
+
+    public Channel getChannel() {
+        return channel;
+    }
+
+    public EPrimaryTable getPrimaryTable() {
+        return primaryTable;
+    }
+
+    public int getAddress() {
+        return address;
+    }
+
+    public ValueType getValueType() {
+        return valueType;
+    }
+
+    public int getWordCount() {
+        return wordCount;
+    }
+
+}
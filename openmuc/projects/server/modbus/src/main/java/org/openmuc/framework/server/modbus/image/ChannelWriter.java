@@ -0,0 +1,232 @@
+/*
+ * Copyright 2011-2024 Fraunhofer ISE
+ *
+ * This file is part of OpenMUC.
+ * For more information visit http://www.openmuc.org
+ *
+ * OpenMUC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenMUC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenMUC. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.openmuc.framework.server.modbus.image;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.openmuc.framework.data.Flag;
+import org.openmuc.framework.data.Value;
+import org.openmuc.framework.dataaccess.Channel;
+import org.openmuc.framework.dataaccess.DataAccessService;
+import org.openmuc.framework.dataaccess.WriteValueContainer;
+import org.openmuc.framework.server.modbus.LatencySamples;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes the channel values written by Modbus masters.
+ * <p>
+ * All values of one request are written with a single {@link DataAccessService#write(List)}, which writes the values of
+ * different devices in parallel. Batches are written one after another by a single writer thread, so the order of the
+ * requests is kept. With {@link EWriteAck#ENQUEUE} the request is answered as soon as its batch is queued, with
+ * {@link EWriteAck#COMPLETION} once the batch was written or the write timeout elapsed. If the queue is full, the
+ * request thread writes the batch itself.
+ * <p>
+ * The latency of the last {@value #SAMPLE_BUFFER_SIZE} batches from enqueuing to completion is kept to provide
+ * percentiles.
+ */
+public class ChannelWriter {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChannelWriter.class);
+
+    private static final int QUEUE_CAPACITY = 1000;
+    private static final int SAMPLE_BUFFER_SIZE = 256;
+    private static final int STATISTICS_INTERVAL = 1000;
+
+    /** Writes every batch on the request thread using {@link Channel#write(Value)} */
+    static final ChannelWriter DIRECT = new ChannelWriter();
+
+    public enum EWriteAck {
+        /** Answer the request once the batch is queued */
+        ENQUEUE,
+        /** Answer the request once the batch was written */
+        COMPLETION;
+    }
+
+    private final DataAccessService dataAccessService;
+    private final EWriteAck writeAck;
+    private final long writeTimeoutMs;
+    private final ThreadPoolExecutor executor;
+
+    private final LatencySamples samples = new LatencySamples(SAMPLE_BUFFER_SIZE);
+    private long batches = 0;
+    private long values = 0;
+    private long failures = 0;
+
+    private ChannelWriter() {
+        dataAccessService = null;
+        writeAck = EWriteAck.COMPLETION;
+        writeTimeoutMs = 0;
+        executor = null;
+    }
+
+    /**
+     * @param dataAccessService
+     *            service to write the batches with, if null each value is written with {@link Channel#write(Value)}
+     * @param writeAck
+     *            when a request is answered
+     * @param writeTimeoutMs
+     *            maximum time a request waits for its batch with {@link EWriteAck#COMPLETION}
+     */
+    public ChannelWriter(DataAccessService dataAccessService, EWriteAck writeAck, long writeTimeoutMs) {
+        this.dataAccessService = dataAccessService;
+        this.writeAck = writeAck;
+        this.writeTimeoutMs = writeTimeoutMs;
+        executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(QUEUE_CAPACITY),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "modbusServerWriter");
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /**
+     * Writes the values of one request according to the write acknowledge policy.
+     * 
+     * @param channels
+     *            written channels
+     * @param newValues
+     *            values to write, in the same order as the channels
+     */
+    void write(List<Channel> channels, List<Value> newValues) {
+        long enqueueTime = System.nanoTime();
+        if (executor == null || executor.isShutdown()) {
+            writeBatch(channels, newValues, enqueueTime);
+            return;
+        }
+
+        Future<?> future = executor.submit(() -> writeBatch(channels, newValues, enqueueTime));
+        if (writeAck == EWriteAck.COMPLETION) {
+            try {
+                future.get(writeTimeoutMs, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                logger.warn("Write of {} values didn't complete within {} ms, answering request anyway",
+                        newValues.size(), writeTimeoutMs);
+            } catch (ExecutionException e) {
+                logger.warn("Write of {} values failed", newValues.size(), e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void writeBatch(List<Channel> channels, List<Value> newValues, long enqueueTime) {
+        int failed = 0;
+
+        if (dataAccessService == null) {
+            for (int i = 0; i < channels.size(); i++) {
+                Flag flag = channels.get(i).write(newValues.get(i));
+                if (flag != Flag.VALID) {
+                    failed++;
+                    logger.warn("Writing channel {} failed: {}", channels.get(i).getId(), flag);
+                }
+            }
+        }
+        else {
+            List<WriteValueContainer> containers = new ArrayList<>(channels.size());
+            for (int i = 0; i < channels.size(); i++) {
+                WriteValueContainer container = channels.get(i).getWriteContainer();
+                container.setValue(newValues.get(i));
+                containers.add(container);
+            }
+            dataAccessService.write(containers);
+            for (WriteValueContainer container : containers) {
+                if (container.getFlag() != Flag.VALID) {
+                    failed++;
+                    logger.warn("Writing channel {} failed: {}", container.getChannel().getId(),
+                            container.getFlag());
+                }
+            }
+        }
+
+        addSample((System.nanoTime() - enqueueTime) / 1_000_000, newValues.size(), failed);
+    }
+
+    private synchronized void addSample(long latencyMs, int valueCount, int failed) {
+        samples.add(latencyMs);
+        batches++;
+        values += valueCount;
+        failures += failed;
+
+        if (batches % STATISTICS_INTERVAL == 0 && logger.isDebugEnabled()) {
+            logger.debug("Write statistics: {}", this);
+        }
+    }
+
+    /**
+     * @param percentile
+     *            percentile between 0 and 100
+     * @return the write latency percentile of the recent batches in ms or -1 if no batch was written
+     */
+    public synchronized long getPercentile(double percentile) {
+        return samples.getPercentile(percentile);
+    }
+
+    public synchronized long getBatches() {
+        return batches;
+    }
+
+    public synchronized long getValues() {
+        return values;
+    }
+
+    public synchronized long getFailures() {
+        return failures;
+    }
+
+    public EWriteAck getWriteAck() {
+        return writeAck;
+    }
+
+    /**
+     * Writes the queued batches and stops the writer thread.
+     */
+    public void shutdown() {
+        if (executor == null) {
+            return;
+        }
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(writeTimeoutMs, TimeUnit.MILLISECONDS)) {
+                logger.warn("{} queued writes were discarded", executor.shutdownNow().size());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (getBatches() > 0) {
+            logger.info("Write statistics: {}", this);
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "batches: " + batches + ", values: " + values + ", failures: " + failures + ", latency p50/p90/p99: "
+                + getPercentile(50) + "/" + getPercentile(90) + "/" + getPercentile(99) + " ms";
+    }
+
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2011-2024 Fraunhofer ISE
+ *
+ * This file is part of OpenMUC.
+ * For more information visit http://www.openmuc.org
+ *
+ * OpenMUC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenMUC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenMUC. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.openmuc.framework.server.modbus.image;
+
+import com.ghgande.j2mod.modbus.procimg.DigitalOut;
+
+/**
+ * Coil or discrete input returned to j2mod for a single request. All bits of a request share the longs copied from the
+ * {@link BitImage}. Writes are passed to the process image, which updates the image and adds the value of the mapped
+ * channel to the batch of the request.
+ */
+class ImageBit implements DigitalOut {
+
+    private final ImageProcessImage processImage;
+    private final WriteBatch batch;
+    private final int address;
+    private final long[] packed;
+    private final int index;
+
+    /**
+     * @param processImage
+     *            process image to write to, null for discrete inputs
+     * @param batch
+     *            batch of the request, null for discrete inputs
+     * @param address
+     *            address of the bit
+     * @param packed
+     *            longs copied from the image
+     * @param index
+     *            index of the bit within the copied longs
+     */
+    ImageBit(ImageProcessImage processImage, WriteBatch batch, int address, long[] packed, int index) {
+        this.processImage = processImage;
+        this.batch = batch;
+        this.address = address;
+        this.packed = packed;
+        this.index = index;
+    }
+
+    @Override
+    public boolean isSet() {
+        return BitImage.isSet(packed, index);
+    }
+
+    @Override
+    public void set(boolean b) {
+        if (processImage == null) {
+            throw new UnsupportedOperationException("Discrete inputs are read only.");
+        }
+        if (b) {
+            packed[index >>> 6] |= 1L << index;
+        }
+        else {
+            packed[index >>> 6] &= ~(1L << index);
+        }
+        processImage.writeCoil(address, b, batch);
+    }
+
+}
@@ -0,0 +1,341 @@
+/*
+ * Copyright 2011-2024 Fraunhofer ISE
+ *
+ * This file is part of OpenMUC.
+ * For more information visit http://www.openmuc.org
+ *
+ * OpenMUC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenMUC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenMUC. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.openmuc.framework.server.modbus.image;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.openmuc.framework.data.BooleanValue;
+import org.openmuc.framework.data.Value;
+import org.openmuc.framework.server.modbus.ModbusServer.EPrimaryTable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ghgande.j2mod.modbus.procimg.DigitalIn;
+import com.ghgande.j2mod.modbus.procimg.DigitalOut;
+import com.ghgande.j2mod.modbus.procimg.FIFO;
+import com.ghgande.j2mod.modbus.procimg.File;
+import com.ghgande.j2mod.modbus.procimg.IllegalAddressException;
+import com.ghgande.j2mod.modbus.procimg.InputRegister;
+import com.ghgande.j2mod.modbus.procimg.ProcessImage;
+import com.ghgande.j2mod.modbus.procimg.Register;
+
+/**
+ * Process image of one unit ID backed by pre-encoded {@link RegisterImage}s and packed {@link BitImage}s.
+ * <p>
+ * Unlike a SimpleProcessImage with mapping registers, a read request doesn't convert any channel value. The requested
+ * words are copied from the image, which is updated by the {@link ChannelRegisterMapping}s when channel values change.
+ * Coils and discrete inputs are served the same way from bit images updated by {@link ChannelBitMapping}s. Registers
+ * and bits without a mapping read 0 and store written values without further effect.
+ * <p>
+ * Values written by a request are collected and written together by the {@link ChannelWriter} once all registers or
+ * coils of the request were set. The words of a request are written to the image at once, so reads never see a value
+ * written partially.
+ */
+public class ImageProcessImage implements ProcessImage {
+
+    private static final Logger logger = LoggerFactory.getLogger(ImageProcessImage.class);
+
+    private final List<ChannelRegisterMapping> mappings;
+    private final List<ChannelBitMapping> bitMappings;
+    private final ChannelWriter writer;
+
+    private final RegisterImage holdingRegisters;
+    private final RegisterImage inputRegisters;
+
+    /** Mapping of each holding register address, null if unmapped */
+    private final ChannelRegisterMapping[] holdingMappings;
+
+    private final BitImage coils;
+    private final BitImage discreteInputs;
+
+    /** Mapping of each coil address, null if unmapped */
+    private final ChannelBitMapping[] coilMappings;
+
+    /**
+     * Creates the image and binds the mappings, i.e. encodes the latest record of every mapped channel and starts
+     * listening for new records.
+     * 
+     * @param mappings
+     *            input and holding register mappings of the unit ID
+     */
+    public ImageProcessImage(List<ChannelRegisterMapping> mappings) {
+        this(mappings, Collections.<ChannelBitMapping> emptyList());
+    }
+
+    /**
+     * Creates the image and binds the mappings. Written values are written on the request thread.
+     * 
+     * @param mappings
+     *            input and holding register mappings of the unit ID
+     * @param bitMappings
+     *            coil and discrete input mappings of the unit ID
+     */
+    public ImageProcessImage(List<ChannelRegisterMapping> mappings, List<ChannelBitMapping> bitMappings) {
+        this(mappings, bitMappings, ChannelWriter.DIRECT);
+    }
+
+    /**
+     * Creates the image and binds the mappings, i.e. encodes the latest record of every mapped channel and starts
+     * listening for new records.
+     * 
+     * @param mappings
+     *            input and holding register mappings of the unit ID
+     * @param bitMappings
+     *            coil and discrete input mappings of the unit ID
+     * @param writer
+     *            writer of the values written by Modbus masters
+     */
+    public ImageProcessImage(List<ChannelRegisterMapping> mappings, List<ChannelBitMapping> bitMappings,
+            ChannelWriter writer) {
+        this.mappings = mappings;
+        this.bitMappings = bitMappings;
+        this.writer = writer;
+
+        holdingRegisters = new RegisterImage(getSize(mappings, EPrimaryTable.HOLDING_REGISTERS));
+        inputRegisters = new RegisterImage(getSize(mappings, EPrimaryTable.INPUT_REGISTERS));
+        holdingMappings = new ChannelRegisterMapping[holdingRegisters.size()];
+
+        for (ChannelRegisterMapping mapping : mappings) {
+            if (mapping.getPrimaryTable() == EPrimaryTable.HOLDING_REGISTERS) {
+                for (int i = 0; i < mapping.getWordCount(); i++) {
+                    int address = mapping.getAddress() + i;
+                    if (holdingMappings[address] != null) {
+                        logger.warn("Holding register {} of channel {} overlaps channel {}", address,
+                                mapping.getChannel().getId(), holdingMappings[address].getChannel().getId());
+                    }
+                    holdingMappings[address] = mapping;
+                }
+                mapping.bind(holdingRegisters);
+            }
+            else {
+                mapping.bind(inputRegisters);
+            }
+        }
+
+        coils = new BitImage(getBitCount(bitMappings, EPrimaryTable.COILS));
+        discreteInputs = new BitImage(getBitCount(bitMappings, EPrimaryTable.DISCRETE_INPUTS));
+        coilMappings = new ChannelBitMapping[coils.size()];
+
+        for (ChannelBitMapping mapping : bitMappings) {
+            if (mapping.getPrimaryTable() == EPrimaryTable.COILS) {
+                if (coilMappings[mapping.getAddress()] != null) {
+                    logger.warn("Coil {} of channel {} overlaps channel {}", mapping.getAddress(),
+                            mapping.getChannel().getId(), coilMappings[mapping.getAddress()].getChannel().getId());
+                }
+                coilMappings[mapping.getAddress()] = mapping;
+                mapping.bind(coils);
+            }
+            else {
+                mapping.bind(discreteInputs);
+            }
+        }
+    }
+
+    private static int getSize(List<ChannelRegisterMapping> mappings, EPrimaryTable primaryTable) {
+        int size = 0;
+        for (ChannelRegisterMapping mapping : mappings) {
+            if (mapping.getPrimaryTable() == primaryTable) {
+                size = Math.max(size, mapping.getAddress() + mapping.getWordCount());
+            }
+        }
+        return size;
+    }
+
+    private static int getBitCount(List<ChannelBitMapping> mappings, EPrimaryTable primaryTable) {
+        int size = 0;
+        for (ChannelBitMapping mapping : mappings) {
+            if (mapping.getPrimaryTable() == primaryTable) {
+                size = Math.max(size, mapping.getAddress() + 1);
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Stops listening to the mapped channels.
+     */
+    public void unbind() {
+        for (ChannelRegisterMapping mapping : mappings) {
+            mapping.unbind();
+        }
+        for (ChannelBitMapping mapping : bitMappings) {
+            mapping.unbind();
+        }
+    }
+
+    void writeRegister(int address, short word, WriteBatch batch) {
+        if (!batch.setWord(address, word)) {
+            return;
+        }
+
+        // all words of the request are written at once, so a concurrent read never sees a value written partially
+        short[] words = batch.getWords();
+        int offset = batch.getAddress();
+        holdingRegisters.write(offset, words);
+
+        ChannelRegisterMapping previous = null;
+        for (int i = 0; i < words.length; i++) {
+            ChannelRegisterMapping mapping = holdingMappings[offset + i];
+            if (mapping != null && mapping != previous) {
+                Value value = mapping.writeWords(words, offset);
+                if (value != null) {
+                    batch.add(mapping.getChannel(), value);
+                }
+            }
+            previous = mapping;
+        }
+        batch.write();
+    }
+
+    void writeCoil(int address, boolean value, WriteBatch batch) {
+        coils.write(address, value);
+
+        ChannelBitMapping mapping = coilMappings[address];
+        if (mapping != null) {
+            batch.add(mapping.getChannel(), new BooleanValue(value));
+        }
+        batch.set();
+    }
+
+    private static void checkRange(int size, int offset, int count) throws IllegalAddressException {
+        if (offset < 0 || count < 0 || offset + count > size) {
+            throw new IllegalAddressException();
+        }
+    }
+
+    private ImageBit[] getBitRange(BitImage image, ImageProcessImage writeTarget, int offset, int count)
+            throws IllegalAddressException {
+        checkRange(image.size(), offset, count);
+        long[] packed = image.read(offset, count);
+        int firstIndex = offset & 63;
+        WriteBatch batch = writeTarget == null ? null : new WriteBatch(writer, offset, count);
+        ImageBit[] bits = new ImageBit[count];
+        for (int i = 0; i < count; i++) {
+            bits[i] = new ImageBit(writeTarget, batch, offset + i, packed, firstIndex + i);
+        }
+        return bits;
+    }
+
+    @Override
+    public Register[] getRegisterRange(int offset, int count) throws IllegalAddressException {
+        checkRange(holdingRegisters.size(), offset, count);
+        short[] words = holdingRegisters.read(offset, count);
+        WriteBatch batch = new WriteBatch(writer, offset, count);
+        Register[] registers = new Register[count];
+        for (int i = 0; i < count; i++) {
+            registers[i] = new ImageRegister(this, batch, offset + i, words[i]);
+        }
+        return registers;
+    }
+
+    @Override
+    public Register getRegister(int ref) throws IllegalAddressException {
+        return getRegisterRange(ref, 1)[0];
+    }
+
+    @Override
+    public int getRegisterCount() {
+        return holdingRegisters.size();
+    }
+
+    @Override
+    public InputRegister[] getInputRegisterRange(int offset, int count) throws IllegalAddressException {
+        checkRange(inputRegisters.size(), offset, count);
+        short[] words = inputRegisters.read(offset, count);
+        InputRegister[] registers = new InputRegister[count];
+        for (int i = 0; i < count; i++) {
+            registers[i] = new ImageRegister(null, null, offset + i, words[i]);
+        }
+        return registers;
+    }
+
+    @Override
+    public InputRegister getInputRegister(int ref) throws IllegalAddressException {
+        return getInputRegisterRange(ref, 1)[0];
+    }
+
+    @Override
+    public int getInputRegisterCount() {
+        return inputRegisters.size();
+    }
+
+    @Override
+    public DigitalOut[] getDigitalOutRange(int offset, int count) throws IllegalAddressException {
+        return getBitRange(coils, this, offset, count);
+    }
+
+    @Override
+    public DigitalOut getDigitalOut(int ref) throws IllegalAddressException {
+        return getDigitalOutRange(ref, 1)[0];
+    }
+
+    @Override
+    public int getDigitalOutCount() {
+        return coils.size();
+    }
+
+    @Override
+    public DigitalIn[] getDigitalInRange(int offset, int count) throws IllegalAddressException {
+        return getBitRange(discreteInputs, null, offset, count);
+    }
+
+    @Override
+    public DigitalIn getDigitalIn(int ref) throws IllegalAddressException {
+        return getDigitalInRange(ref, 1)[0];
+    }
+
+    @Override
+    public int getDigitalInCount() {
+        return discreteInputs.size();
+    }
+
+    @Override
+    public File getFile(int offset) throws IllegalAddressException {
+        throw new IllegalAddressException();
+    }
+
+    @Override
+    public File getFileByNumber(int ref) throws IllegalAddressException {
+        throw new IllegalAddressException();
+    }
+
+    @Override
+    public int getFileCount() {
+        return 0;
+    }
+
+    @Override
+    public FIFO getFIFO(int offset) throws IllegalAddressException {
+        throw new IllegalAddressException();
+    }
+
+    @Override
+    public FIFO getFIFOByAddress(int ref) throws IllegalAddressException {
+        throw new IllegalAddressException();
+    }
+
+    @Override
+    public int getFIFOCount() {
+        return 0;
+    }
+
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2011-2024 Fraunhofer ISE
+ *
+ * This file is part of OpenMUC.
+ * For more information visit http://www.openmuc.org
+ *
+ * OpenMUC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenMUC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenMUC. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.openmuc.framework.server.modbus.image;
+
+import com.ghgande.j2mod.modbus.procimg.Register;
+
+/**
+ * Register returned to j2mod for a single request. It holds the word copied from the image when the request was
+ * processed. Writes are passed to the process image, which collects the words of the request in its batch and updates
+ * the image and the mapped channels once all registers of the request were set.
+ */
+class ImageRegister implements Register {
+
+    private final ImageProcessImage processImage;
+    private final WriteBatch batch;
+    private final int address;
+    private short word;
+
+    /**
+     * @param processImage
+     *            process image to write to, null for input registers
+     * @param batch
+     *            batch of the request, null for input registers
+     * @param address
+     *            address of the register
+     * @param word
+     *            current word of the register
+     */
+    ImageRegister(ImageProcessImage processImage, WriteBatch batch, int address, short word) {
+        this.processImage = processImage;
+        this.batch = batch;
+        this.address = address;
+        this.word = word;
+    }
+
+    @Override
+    public int getValue() {
+        return word & 0xFFFF;
+    }
+
+    @Override
+    public int toUnsignedShort() {
+        return word & 0xFFFF;
+    }
+
+    @Override
+    public short toShort() {
+        return word;
+    }
+
+    @Override
+    public byte[] toBytes() {
+        return new byte[] { (byte) (word >> 8), (byte) word };
+    }
+
+    @Override
+    public void setValue(int v) {
+        setValue((short) v);
+    }
+
+    @Override
+    public void setValue(short s) {
+        if (processImage == null) {
+            throw new UnsupportedOperationException("Input registers are read only.");
+        }
+        word = s;
+        processImage.writeRegister(address, s, batch);
+    }
+
+    @Override
+    public void setValue(byte[] bytes) {
+        setValue((short) ((bytes[0] & 0xFF) << 8 | bytes[1] & 0xFF));
+    }
+
+}
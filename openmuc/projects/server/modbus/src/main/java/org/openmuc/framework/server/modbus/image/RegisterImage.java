@@ -0,0 +1,111 @@
+/*
+ * Copyright 2011-2024 Fraunhofer ISE
+ *
+ * This file is part of OpenMUC.
+ * For more information visit http://www.openmuc.org
+ *
+ * OpenMUC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenMUC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenMUC. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.openmuc.framework.server.modbus.image;
+
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Pre-encoded 16 bit words of one register table (holding or input registers) of a unit ID.
+ * <p>
+ * Channel values are encoded into the image when they change, so a read request only copies words.
+ * <p>
+ * Every read returns a consistent snapshot: a value spread over several registers, or a block of values, is never mixed
+ * from two writes. Reads work like a seqlock: the words are copied optimistically and the copy is discarded if a write
+ * happened in the meantime. Concurrent reads therefore don't block each other, only writes are serialized. A read falls
+ * back to the read lock if it was interrupted by writes too often.
+ */
+public class RegisterImage {
+
+    private static final int MAX_OPTIMISTIC_READS = 3;
+
+    private final short[] words;
+    private final StampedLock lock = new StampedLock();
+
+    /**
+     * @param size
+     *            number of registers, addresses range from 0 to size - 1
+     */
+    public RegisterImage(int size) {
+        words = new short[size];
+    }
+
+    public int size() {
+        return words.length;
+    }
+
+    /**
+     * Copies words of the image. All words are from the same point in time.
+     * 
+     * @param address
+     *            address of the first register
+     * @param count
+     *            number of registers
+     * @return the copied words
+     */
+    public short[] read(int address, int count) {
+        short[] result = new short[count];
+
+        for (int i = 0; i < MAX_OPTIMISTIC_READS; i++) {
+            long stamp = lock.tryOptimisticRead();
+            if (stamp != 0) {
+                System.arraycopy(words, address, result, 0, count);
+                if (lock.validate(stamp)) {
+                    return result;
+                }
+            }
+        }
+
+        long stamp = lock.readLock();
+        try {
+            System.arraycopy(words, address, result, 0, count);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+        return result;
+    }
+
+    /**
+     * Writes the words of one value, e.g. the four words of a double. Readers see either all or none of the words.
+     * 
+     * @param address
+     *            address of the first register
+     * @param value
+     *            words to write
+     */
+    public void write(int address, short[] value) {
+        long stamp = lock.writeLock();
+        try {
+            System.arraycopy(value, 0, words, address, value.length);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public void write(int address, short word) {
+        long stamp = lock.writeLock();
+        try {
+            words[address] = word;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+}
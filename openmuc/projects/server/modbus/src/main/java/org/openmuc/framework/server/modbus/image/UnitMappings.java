@@ -0,0 +1,141 @@
+/*
+ * Copyright 2011-2024 Fraunhofer ISE
+ *
+ * This file is part of OpenMUC.
+ * For more information visit http://www.openmuc.org
+ *
+ * OpenMUC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenMUC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenMUC. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.openmuc.framework.server.modbus.image;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.openmuc.framework.data.ValueType;
+import org.openmuc.framework.dataaccess.Channel;
+import org.openmuc.framework.server.modbus.ModbusServer.EPrimaryTable;
+
+/**
+ * Collects the mappings of all unit IDs served by one listener and creates a separate {@link ImageProcessImage} per
+ * unit ID.
+ * <p>
+ * A server address has the form {@code [<unitId>:]<primaryTable>:<address>:<valueType>}, e.g.
+ * {@code 3:HOLDING_REGISTERS:1000:INTEGER}. Mappings without unit ID belong to the default unit ID. Every unit ID has
+ * its own address range, so requests to a unit are validated against its own mappings only.
+ */
+public class UnitMappings {
+
+    /** Highest unit ID, 255 is used by some Modbus TCP masters to address the server itself */
+    public static final int MAX_UNIT_ID = 255;
+
+    private final int defaultUnitId;
+    private final Map<Integer, List<ChannelRegisterMapping>> registerMappings = new TreeMap<>();
+    private final Map<Integer, List<ChannelBitMapping>> bitMappings = new TreeMap<>();
+
+    /**
+     * @param defaultUnitId
+     *            unit ID of mappings without unit ID, it is always served even if nothing is mapped to it
+     */
+    public UnitMappings(int defaultUnitId) {
+        this.defaultUnitId = defaultUnitId;
+        getUnit(defaultUnitId);
+    }
+
+    private List<ChannelRegisterMapping> getUnit(int unitId) {
+        bitMappings.computeIfAbsent(unitId, id -> new ArrayList<>());
+        return registerMappings.computeIfAbsent(unitId, id -> new ArrayList<>());
+    }
+
+    /**
+     * Parses a server address and adds the mapping to its unit ID.
+     * 
+     * @param channel
+     *            mapped channel
+     * @param serverAddress
+     *            server address of the mapping
+     * @return unit ID of the mapping
+     * @throws IllegalArgumentException
+     *             if the server address is invalid or the value type can't be mapped to the primary table
+     */
+    public int addMapping(Channel channel, String serverAddress) {
+        String[] parts = serverAddress.trim().split(":");
+        if (parts.length != 3 && parts.length != 4) {
+            throw new IllegalArgumentException("Invalid server address " + serverAddress
+                    + ", expected [<unitId>:]<primaryTable>:<address>:<valueType>");
+        }
+        int i = parts.length - 3;
+        int unitId = i == 0 ? defaultUnitId : parseNumber(parts[0], "unit ID", MAX_UNIT_ID);
+        EPrimaryTable primaryTable = EPrimaryTable.getEnumfromString(parts[i]);
+        int address = parseNumber(parts[i + 1], "address", 0xFFFF);
+        ValueType valueType = ValueType.valueOf(parts[i + 2]);
+
+        if (primaryTable == EPrimaryTable.INPUT_REGISTERS || primaryTable == EPrimaryTable.HOLDING_REGISTERS) {
+            ChannelRegisterMapping mapping = new ChannelRegisterMapping(channel, primaryTable, address, valueType);
+            if (address + mapping.getWordCount() > 0x10000) {
+                throw new IllegalArgumentException(
+                        "Registers of " + valueType + " at " + address + " exceed the address range.");
+            }
+            getUnit(unitId).add(mapping);
+        }
+        else {
+            ChannelBitMapping mapping = new ChannelBitMapping(channel, primaryTable, address, valueType);
+            getUnit(unitId);
+            bitMappings.get(unitId).add(mapping);
+        }
+        return unitId;
+    }
+
+    private static int parseNumber(String value, String name, int max) {
+        int number;
+        try {
+            number = Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + name + " " + value);
+        }
+        if (number < 0 || number > max) {
+            throw new IllegalArgumentException(name + " " + number + " is out of range 0.." + max);
+        }
+        return number;
+    }
+
+    /**
+     * Creates and binds the process image of every unit ID.
+     * 
+     * @return process images by unit ID
+     */
+    public Map<Integer, ImageProcessImage> createProcessImages() {
+        return createProcessImages(ChannelWriter.DIRECT);
+    }
+
+    /**
+     * Creates and binds the process image of every unit ID.
+     * 
+     * @param writer
+     *            writer of the values written by Modbus masters, shared by all unit IDs
+     * @return process images by unit ID
+     */
+    public Map<Integer, ImageProcessImage> createProcessImages(ChannelWriter writer) {
+        Map<Integer, ImageProcessImage> processImages = new HashMap<>();
+        for (Map.Entry<Integer, List<ChannelRegisterMapping>> unit : registerMappings.entrySet()) {
+            processImages.put(unit.getKey(),
+                    new ImageProcessImage(unit.getValue(), bitMappings.get(unit.getKey()), writer));
+        }
+        return processImages;
+    }
+
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2011-2024 Fraunhofer ISE
+ *
+ * This file is part of OpenMUC.
+ * For more information visit http://www.openmuc.org
+ *
+ * OpenMUC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenMUC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenMUC. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.openmuc.framework.server.modbus.image;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openmuc.framework.data.Value;
+import org.openmuc.framework.dataaccess.Channel;
+
+/**
+ * Collects the words and channel values written by one request.
+ * <p>
+ * j2mod processes a write request by getting the requested range of registers or coils from the process image and
+ * setting each of them. The batch is shared by the registers or coils of one range. The words of holding registers are
+ * collected until all registers were set, then they are written to the image at once and the values of the mapped
+ * channels are passed to the {@link ChannelWriter}. A batch belongs to one request, which is processed by one thread,
+ * so it doesn't need to be thread safe.
+ */
+class WriteBatch {
+
+    private final ChannelWriter writer;
+    private final int address;
+    private final int size;
+    private int setCount = 0;
+
+    private short[] words;
+
+    private List<Channel> channels;
+    private List<Value> values;
+
+    /**
+     * @param writer
+     *            writer of the completed batch
+     * @param address
+     *            address of the first register or coil of the request
+     * @param size
+     *            number of registers or coils of the request
+     */
+    WriteBatch(ChannelWriter writer, int address, int size) {
+        this.writer = writer;
+        this.address = address;
+        this.size = size;
+    }
+
+    int getAddress() {
+        return address;
+    }
+
+    /**
+     * Collects a word written to a holding register of the request.
+     * 
+     * @return true once all registers of the request were set
+     */
+    boolean setWord(int address, short word) {
+        if (words == null) {
+            words = new short[size];
+        }
+        words[address - this.address] = word;
+        return ++setCount == size;
+    }
+
+    /**
+     * @return the words written to the holding registers of the request
+     */
+    short[] getWords() {
+        return words;
+    }
+
+    /**
+     * Adds a value to write. Called for every value completed by the request.
+     */
+    void add(Channel channel, Value value) {
+        if (channels == null) {
+            channels = new ArrayList<>();
+            values = new ArrayList<>();
+        }
+        channels.add(channel);
+        values.add(value);
+    }
+
+    /**
+     * Called after each coil was set. Writes the collected values once the whole range was set.
+     */
+    void set() {
+        if (++setCount == size) {
+            write();
+        }
+    }
+
+    /**
+     * Writes the collected values to the channels.
+     */
+    void write() {
+        if (channels != null) {
+            writer.write(channels, values);
+        }
+    }
+
+}
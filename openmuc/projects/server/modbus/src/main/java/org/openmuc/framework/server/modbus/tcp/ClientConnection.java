@@ -0,0 +1,137 @@
+/*
+ * Copyright 2011-2024 Fraunhofer ISE
+ *
+ * This file is part of OpenMUC.
+ * For more information visit http://www.openmuc.org
+ *
+ * OpenMUC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenMUC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenMUC. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.openmuc.framework.server.modbus.tcp;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+/**
+ * State of one client connection of the {@link NioTcpServer}.
+ * <p>
+ * Received frames are queued until a worker processes them. At most one worker processes the frames of a connection
+ * at a time, so pipelined requests are answered in order. Reading is paused while {@link #MAX_PENDING_REQUESTS}
+ * requests are pending.
+ */
+class ClientConnection {
+
+    /** Maximum number of pipelined requests read ahead of the processing */
+    static final int MAX_PENDING_REQUESTS = 16;
+
+    /** MBAP header (7 bytes) and the maximum PDU (253 bytes) */
+    static final int MAX_FRAME_LENGTH = 260;
+
+    final SocketChannel channel;
+    final SelectionKey key;
+    final RequestRateLimiter rateLimiter;
+    final ByteBuffer readBuffer = ByteBuffer.allocate(MAX_FRAME_LENGTH * 4);
+
+    /** Only accessed by the selector thread */
+    long lastActivity;
+
+    private final Queue<Frame> pendingRequests = new ArrayDeque<>();
+    private final Queue<ByteBuffer> pendingResponses = new ArrayDeque<>();
+    private boolean processing = false;
+    private boolean closed = false;
+
+    ClientConnection(SocketChannel channel, SelectionKey key, RequestRateLimiter rateLimiter) {
+        this.channel = channel;
+        this.key = key;
+        this.rateLimiter = rateLimiter;
+        this.lastActivity = System.nanoTime();
+    }
+
+    /**
+     * Queues a received request.
+     * 
+     * @return true if a worker has to be started for the connection
+     */
+    synchronized boolean addRequest(Frame frame) {
+        pendingRequests.add(frame);
+        if (processing) {
+            return false;
+        }
+        processing = true;
+        return true;
+    }
+
+    /**
+     * @return the next request to process or null if the worker is done
+     */
+    synchronized Frame nextRequest() {
+        Frame frame = closed ? null : pendingRequests.poll();
+        if (frame == null) {
+            processing = false;
+        }
+        return frame;
+    }
+
+    synchronized void addResponse(ByteBuffer response) {
+        pendingResponses.add(response);
+    }
+
+    /**
+     * @return the next response to send or null if all responses were sent
+     */
+    synchronized ByteBuffer peekResponse() {
+        return pendingResponses.peek();
+    }
+
+    synchronized void removeResponse() {
+        pendingResponses.poll();
+    }
+
+    /**
+     * @return the interest set of the connection's current state
+     */
+    synchronized int getInterestOps() {
+        int ops = 0;
+        if (pendingRequests.size() < MAX_PENDING_REQUESTS) {
+            ops |= SelectionKey.OP_READ;
+        }
+        if (!pendingResponses.isEmpty()) {
+            ops |= SelectionKey.OP_WRITE;
+        }
+        return ops;
+    }
+
+    synchronized void close() {
+        closed = true;
+        pendingRequests.clear();
+        pendingResponses.clear();
+    }
+
+    /**
+     * A complete Modbus TCP frame.
+     */
+    static class Frame {
+        final byte[] bytes;
+        final long receiveTime;
+
+        Frame(byte[] bytes, long receiveTime) {
+            this.bytes = bytes;
+            this.receiveTime = receiveTime;
+        }
+    }
+
+}
@@ -0,0 +1,498 @@
+/*
+ * Copyright 2011-2024 Fraunhofer ISE
+ *
+ * This file is part of OpenMUC.
+ * For more information visit http://www.openmuc.org
+ *
+ * OpenMUC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenMUC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenMUC. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.openmuc.framework.server.modbus.tcp;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.openmuc.framework.server.modbus.LatencySamples;
+import org.openmuc.framework.server.modbus.tcp.ClientConnection.Frame;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ghgande.j2mod.modbus.Modbus;
+import com.ghgande.j2mod.modbus.msg.ModbusRequest;
+import com.ghgande.j2mod.modbus.msg.ModbusResponse;
+import com.ghgande.j2mod.modbus.net.AbstractModbusListener;
+import com.ghgande.j2mod.modbus.procimg.ProcessImage;
+
+/**
+ * Non-blocking Modbus TCP front end, an alternative to the thread per connection listener of j2mod.
+ * <p>
+ * A single selector thread accepts connections, reads requests and writes responses. Requests are processed by a
+ * fixed pool of workers using the request and response classes of j2mod, so a worker is only busy while a request is
+ * processed, not while a connection is open. Pipelined requests of a connection are processed one after another and
+ * answered in order.
+ * <p>
+ * The server protects itself against misbehaving clients:
+ * <ul>
+ * <li>connections beyond the maximum are closed right after they were accepted</li>
+ * <li>connections without any request within the idle timeout are closed</li>
+ * <li>requests of a client address exceeding the maximum request rate are answered with a server busy exception</li>
+ * <li>a connection isn't read while {@value ClientConnection#MAX_PENDING_REQUESTS} requests are pending</li>
+ * <li>connections sending invalid frames are closed</li>
+ * </ul>
+ */
+public class NioTcpServer {
+
+    private static final Logger logger = LoggerFactory.getLogger(NioTcpServer.class);
+
+    private static final int MBAP_HEADER_LENGTH = 6;
+    private static final int SAMPLE_BUFFER_SIZE = 1024;
+
+    private final InetAddress address;
+    private final int port;
+    private final int workerThreads;
+    private final int maxConnections;
+    private final long idleTimeoutNs;
+    private final int maxRequestRate;
+
+    private final AtomicReferenceArray<ProcessImage> processImages = new AtomicReferenceArray<>(256);
+    private final ProcessImageLookup processImageLookup = new ProcessImageLookup();
+
+    private final Queue<ClientConnection> interestUpdates = new ConcurrentLinkedQueue<>();
+    private final Map<InetAddress, RequestRateLimiter> rateLimiters = new HashMap<>();
+    private final List<ClientConnection> connections = new ArrayList<>();
+
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong throttled = new AtomicLong();
+    private final LatencySamples latencySamples = new LatencySamples(SAMPLE_BUFFER_SIZE);
+
+    private volatile boolean running = false;
+    private volatile int activeConnections = 0;
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+    private ExecutorService workers;
+    private Thread selectorThread;
+
+    /**
+     * @param address
+     *            address to listen on
+     * @param port
+     *            port to listen on, 0 for any free port
+     * @param workerThreads
+     *            number of threads processing requests
+     * @param maxConnections
+     *            maximum number of open connections
+     * @param idleTimeoutMs
+     *            time after which a connection without requests is closed, 0 to keep idle connections
+     * @param maxRequestRate
+     *            maximum requests per second of a client address, 0 for no limit
+     */
+    public NioTcpServer(InetAddress address, int port, int workerThreads, int maxConnections, int idleTimeoutMs,
+            int maxRequestRate) {
+        this.address = address;
+        this.port = port;
+        this.workerThreads = workerThreads;
+        this.maxConnections = maxConnections;
+        this.idleTimeoutNs = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMs);
+        this.maxRequestRate = maxRequestRate;
+    }
+
+    public void addProcessImage(int unitId, ProcessImage processImage) {
+        processImages.set(unitId, processImage);
+    }
+
+    public void removeProcessImage(int unitId) {
+        processImages.set(unitId, null);
+    }
+
+    /**
+     * Binds the server socket and starts serving.
+     * 
+     * @throws IOException
+     *             if the server socket can't be bound
+     */
+    public synchronized void open() throws IOException {
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        try {
+            serverChannel.configureBlocking(false);
+            serverChannel.bind(new InetSocketAddress(address, port), maxConnections);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            serverChannel.close();
+            selector.close();
+            throw e;
+        }
+
+        workers = Executors.newFixedThreadPool(workerThreads, runnable -> {
+            Thread thread = new Thread(runnable, "modbusServerWorker");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        running = true;
+        selectorThread = new Thread(this::run, "modbusServerListener");
+        selectorThread.setDaemon(true);
+        selectorThread.start();
+        logger.info("Modbus TCP server listening on {}", serverChannel.getLocalAddress());
+    }
+
+    /**
+     * @return the local port, useful if the server was opened with port 0
+     */
+    public int getLocalPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    /**
+     * Closes all connections and stops the server.
+     */
+    public synchronized void close() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        selector.wakeup();
+        try {
+            selectorThread.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        workers.shutdownNow();
+        logger.info("Modbus TCP server closed, {}", this);
+    }
+
+    private void run() {
+        long checkIntervalMs = idleTimeoutNs > 0 ? Math.max(10, TimeUnit.NANOSECONDS.toMillis(idleTimeoutNs) / 4)
+                : 1000;
+        try {
+            while (running) {
+                selector.select(checkIntervalMs);
+
+                ClientConnection connection;
+                while ((connection = interestUpdates.poll()) != null) {
+                    updateInterest(connection);
+                }
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    connection = (ClientConnection) key.attachment();
+                    try {
+                        if (key.isReadable()) {
+                            read(connection);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            write(connection);
+                        }
+                    } catch (IOException e) {
+                        logger.debug("Connection {} failed: {}", connection.channel.getRemoteAddress(),
+                                e.getMessage());
+                        closeConnection(connection);
+                    }
+                }
+
+                evictIdleConnections();
+            }
+        } catch (IOException e) {
+            logger.error("Modbus TCP server stopped", e);
+        } finally {
+            for (ClientConnection connection : new ArrayList<>(connections)) {
+                closeConnection(connection);
+            }
+            try {
+                serverChannel.close();
+                selector.close();
+            } catch (IOException e) {
+                logger.debug("Error closing server socket", e);
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            if (connections.size() >= maxConnections) {
+                rejected.incrementAndGet();
+                logger.debug("Rejected connection from {}, {} connections open", channel.getRemoteAddress(),
+                        connections.size());
+                channel.close();
+                continue;
+            }
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+
+            InetAddress clientAddress = ((InetSocketAddress) channel.getRemoteAddress()).getAddress();
+            RequestRateLimiter rateLimiter = rateLimiters.get(clientAddress);
+            if (rateLimiter == null) {
+                rateLimiter = new RequestRateLimiter(maxRequestRate);
+                rateLimiters.put(clientAddress, rateLimiter);
+            }
+            rateLimiter.connections++;
+
+            SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+            ClientConnection connection = new ClientConnection(channel, key, rateLimiter);
+            key.attach(connection);
+            connections.add(connection);
+            activeConnections = connections.size();
+            accepted.incrementAndGet();
+        }
+    }
+
+    private void read(ClientConnection connection) throws IOException {
+        ByteBuffer buffer = connection.readBuffer;
+        int read = connection.channel.read(buffer);
+        if (read < 0) {
+            closeConnection(connection);
+            return;
+        }
+        connection.lastActivity = System.nanoTime();
+
+        buffer.flip();
+        boolean startWorker = false;
+        while (buffer.remaining() >= MBAP_HEADER_LENGTH) {
+            int start = buffer.position();
+            int protocolId = buffer.getShort(start + 2) & 0xFFFF;
+            int length = buffer.getShort(start + 4) & 0xFFFF;
+            if (protocolId != Modbus.DEFAULT_PROTOCOL_ID || length < 2
+                    || length > ClientConnection.MAX_FRAME_LENGTH - MBAP_HEADER_LENGTH) {
+                logger.debug("Closing connection {} after invalid frame", connection.channel.getRemoteAddress());
+                closeConnection(connection);
+                return;
+            }
+            if (buffer.remaining() < MBAP_HEADER_LENGTH + length) {
+                break;
+            }
+            byte[] frame = new byte[MBAP_HEADER_LENGTH + length];
+            buffer.get(frame);
+            startWorker |= connection.addRequest(new Frame(frame, connection.lastActivity));
+        }
+        buffer.compact();
+
+        if (startWorker) {
+            workers.execute(() -> process(connection));
+        }
+        updateInterest(connection);
+    }
+
+    private void write(ClientConnection connection) throws IOException {
+        ByteBuffer response;
+        while ((response = connection.peekResponse()) != null) {
+            connection.channel.write(response);
+            if (response.hasRemaining()) {
+                return;
+            }
+            connection.removeResponse();
+        }
+        updateInterest(connection);
+    }
+
+    private void updateInterest(ClientConnection connection) {
+        if (connection.key.isValid()) {
+            connection.key.interestOps(connection.getInterestOps());
+        }
+    }
+
+    private void evictIdleConnections() {
+        if (idleTimeoutNs <= 0) {
+            return;
+        }
+        long now = System.nanoTime();
+        for (ClientConnection connection : new ArrayList<>(connections)) {
+            if (now - connection.lastActivity > idleTimeoutNs) {
+                evicted.incrementAndGet();
+                closeConnection(connection);
+            }
+        }
+    }
+
+    private void closeConnection(ClientConnection connection) {
+        if (!connections.remove(connection)) {
+            return;
+        }
+        activeConnections = connections.size();
+        connection.close();
+        connection.key.cancel();
+        try {
+            connection.channel.close();
+        } catch (IOException e) {
+            logger.debug("Error closing connection", e);
+        }
+
+        RequestRateLimiter rateLimiter = connection.rateLimiter;
+        if (--rateLimiter.connections == 0) {
+            rateLimiters.values().remove(rateLimiter);
+        }
+    }
+
+    /**
+     * Processes the pending requests of a connection, runs on a worker thread.
+     */
+    private void process(ClientConnection connection) {
+        Frame frame;
+        while ((frame = connection.nextRequest()) != null) {
+            ByteBuffer response;
+            try {
+                response = ByteBuffer.wrap(createResponse(frame.bytes, connection.rateLimiter.tryAcquire()));
+            } catch (IOException | RuntimeException e) {
+                // answer anyway, otherwise a pipelining client waits for the response until it times out
+                logger.warn("Unable to process request {}", Arrays.toString(frame.bytes), e);
+                response = ByteBuffer.wrap(createExceptionResponse(frame.bytes, Modbus.SLAVE_DEVICE_FAILURE));
+            }
+            connection.addResponse(response);
+            addLatencySample(System.nanoTime() - frame.receiveTime);
+            requests.incrementAndGet();
+
+            interestUpdates.add(connection);
+            selector.wakeup();
+        }
+    }
+
+    private byte[] createResponse(byte[] frame, boolean allowed) throws IOException {
+        ModbusRequest request = ModbusRequest.createModbusRequest(frame[MBAP_HEADER_LENGTH + 1] & 0xFF);
+        request.readFrom(new DataInputStream(new ByteArrayInputStream(frame)));
+
+        ModbusResponse response;
+        if (!allowed) {
+            throttled.incrementAndGet();
+            response = request.createExceptionResponse(Modbus.SLAVE_BUSY_EXCEPTION);
+        }
+        else if (processImages.get(request.getUnitID()) == null) {
+            response = request.createExceptionResponse(Modbus.ILLEGAL_ADDRESS_EXCEPTION);
+        }
+        else {
+            try {
+                response = request.createResponse(processImageLookup);
+            } catch (RuntimeException e) {
+                logger.warn("Request failed with {}", e.getMessage());
+                response = request.createExceptionResponse(Modbus.SLAVE_DEVICE_FAILURE);
+            }
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(response.getOutputLength());
+        response.writeTo(new DataOutputStream(bytes));
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Creates an exception response from the header of a request which couldn't be processed.
+     */
+    private static byte[] createExceptionResponse(byte[] frame, int exceptionCode) {
+        byte[] response = Arrays.copyOf(frame, MBAP_HEADER_LENGTH + 3);
+        response[4] = 0;
+        response[5] = 3;
+        response[MBAP_HEADER_LENGTH + 1] |= Modbus.EXCEPTION_OFFSET;
+        response[MBAP_HEADER_LENGTH + 2] = (byte) exceptionCode;
+        return response;
+    }
+
+    private synchronized void addLatencySample(long latencyNs) {
+        latencySamples.add(latencyNs / 1000);
+    }
+
+    /**
+     * @param percentile
+     *            percentile between 0 and 100
+     * @return the latency percentile from receiving a request to queuing its response of the recent requests in
+     *         microseconds or -1 if no request was processed
+     */
+    public synchronized long getLatencyPercentile(double percentile) {
+        return latencySamples.getPercentile(percentile);
+    }
+
+    public int getActiveConnections() {
+        return activeConnections;
+    }
+
+    public long getAcceptedConnections() {
+        return accepted.get();
+    }
+
+    public long getRejectedConnections() {
+        return rejected.get();
+    }
+
+    public long getEvictedConnections() {
+        return evicted.get();
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    public long getThrottledRequests() {
+        return throttled.get();
+    }
+
+    @Override
+    public String toString() {
+        return "connections active: " + activeConnections + ", accepted: " + accepted + ", rejected: " + rejected
+                + ", evicted: " + evicted + ", requests: " + requests + ", throttled: " + throttled
+                + ", latency p50/p90/p99: " + getLatencyPercentile(50) + "/" + getLatencyPercentile(90) + "/"
+                + getLatencyPercentile(99) + " us";
+    }
+
+    /**
+     * Provides the process images to the j2mod requests, which look them up through a listener.
+     */
+    private class ProcessImageLookup extends AbstractModbusListener {
+
+        @Override
+        public ProcessImage getProcessImage(int unitId) {
+            return processImages.get(unitId);
+        }
+
+        @Override
+        public void run() {
+        }
+
+        @Override
+        public void stop() {
+        }
+    }
+
+}
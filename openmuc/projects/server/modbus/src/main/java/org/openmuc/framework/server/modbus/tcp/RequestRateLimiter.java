@@ -0,0 +1,63 @@
+/*
+ * Copyright 2011-2024 Fraunhofer ISE
+ *
+ * This file is part of OpenMUC.
+ * For more information visit http://www.openmuc.org
+ *
+ * OpenMUC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenMUC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenMUC. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.openmuc.framework.server.modbus.tcp;
+
+/**
+ * Token bucket limiting the requests of one client address. The bucket holds up to one second worth of requests, so
+ * short bursts are allowed.
+ */
+class RequestRateLimiter {
+
+    private final int maxRequestsPerSecond;
+    private double tokens;
+    private long lastRefill;
+
+    /** Number of open connections of the client, only accessed by the selector thread */
+    int connections = 0;
+
+    /**
+     * @param maxRequestsPerSecond
+     *            maximum number of requests per second, 0 for no limit
+     */
+    RequestRateLimiter(int maxRequestsPerSecond) {
+        this.maxRequestsPerSecond = maxRequestsPerSecond;
+        this.tokens = maxRequestsPerSecond;
+        this.lastRefill = System.nanoTime();
+    }
+
+    /**
+     * @return true if the request may be processed, false if the client exceeded its rate
+     */
+    synchronized boolean tryAcquire() {
+        if (maxRequestsPerSecond <= 0) {
+            return true;
+        }
+        long now = System.nanoTime();
+        tokens = Math.min(maxRequestsPerSecond, tokens + (now - lastRefill) * maxRequestsPerSecond / 1e9);
+        lastRefill = now;
+        if (tokens >= 1) {
+            tokens--;
+            return true;
+        }
+        return false;
+    }
+
+}
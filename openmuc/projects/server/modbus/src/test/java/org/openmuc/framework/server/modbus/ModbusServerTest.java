@@ -0,0 +1,82 @@
+/*
+ * Copyright 2011-2024 Fraunhofer ISE
+ *
+ * This file is part of OpenMUC.
+ * For more information visit http://www.openmuc.org
+ *
+ * OpenMUC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenMUC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenMUC. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.openmuc.framework.server.modbus;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Hashtable;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.openmuc.framework.lib.osgi.config.ServiceProperty;
+
+public class ModbusServerTest {
+
+    @TempDir
+    Path propertyDir;
+
+    private ModbusServer server;
+
+    @AfterEach
+    public void stopServer() {
+        if (server != null) {
+            server.shutdown();
+        }
+    }
+
+    @Test
+    public void nioServerIsRestartedOnNewMappings() throws Exception {
+        System.setProperty("felix.fileinstall.dir", propertyDir.toString());
+        int port = freePort();
+        server = new ModbusServer(null);
+        server.updated(settings(port));
+
+        server.updatedConfiguration(Collections.emptyList());
+        server.updatedConfiguration(Collections.emptyList());
+
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            // the restarted server accepts connections on the configured port
+        }
+    }
+
+    private static Hashtable<String, String> settings(int port) {
+        Hashtable<String, String> settings = new Hashtable<>();
+        for (Map.Entry<String, ServiceProperty> entry : new Settings().getProperties().entrySet()) {
+            settings.put(entry.getKey(), entry.getValue().getDefaultValue());
+        }
+        settings.put(Settings.TYPE, "nio");
+        settings.put(Settings.PORT, String.valueOf(port));
+        return settings;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2011-2024 Fraunhofer ISE
+ *
+ * This file is part of OpenMUC.
+ * For more information visit http://www.openmuc.org
+ *
+ * OpenMUC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenMUC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenMUC. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.openmuc.framework.server.modbus.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.openmuc.framework.data.ValueType;
+import org.openmuc.framework.server.modbus.ModbusServer.EPrimaryTable;
+import org.openmuc.framework.server.modbus.image.ChannelBitMapping;
+import org.openmuc.framework.server.modbus.image.ChannelRegisterMapping;
+import org.openmuc.framework.server.modbus.image.ChannelWriter;
+import org.openmuc.framework.server.modbus.image.ChannelWriter.EWriteAck;
+import org.openmuc.framework.server.modbus.image.ImageProcessImage;
+
+import com.ghgande.j2mod.modbus.procimg.DigitalOut;
+import com.ghgande.j2mod.modbus.procimg.Register;
+
+public class ChannelWriterTest {
+
+    private static final int CHANNEL_COUNT = 30;
+
+    @Test
+    public void valuesOfOneRequestAreWrittenTogether() {
+        TestDataAccessService dataAccessService = new TestDataAccessService(false);
+        ChannelWriter writer = new ChannelWriter(dataAccessService, EWriteAck.COMPLETION, 5000);
+        List<TestChannel> channels = new ArrayList<>();
+        ImageProcessImage image = createImage(channels, writer);
+
+        // like a write multiple registers request of 30 integers
+        Register[] registers = image.getRegisterRange(0, 2 * CHANNEL_COUNT);
+        for (int i = 0; i < registers.length; i++) {
+            assertEquals(0, dataAccessService.getBatchSizes().size());
+            registers[i].setValue(i % 2 == 0 ? 0 : i / 2);
+        }
+
+        assertEquals(Arrays.asList(CHANNEL_COUNT), dataAccessService.getBatchSizes());
+        for (int i = 0; i < CHANNEL_COUNT; i++) {
+            assertEquals(i, channels.get(i).getWrittenValues().get(0).asInt());
+        }
+
+        // a single register completes no value
+        image.getRegister(0).setValue(1);
+        assertEquals(1, dataAccessService.getBatchSizes().size());
+
+        writer.shutdown();
+        assertEquals(1, writer.getBatches());
+        assertEquals(CHANNEL_COUNT, writer.getValues());
+        assertEquals(0, writer.getFailures());
+        assertTrue(writer.getPercentile(99) >= 0);
+    }
+
+    @Test
+    public void coilsOfOneRequestAreWrittenTogether() {
+        TestDataAccessService dataAccessService = new TestDataAccessService(false);
+        ChannelWriter writer = new ChannelWriter(dataAccessService, EWriteAck.COMPLETION, 5000);
+        List<ChannelBitMapping> mappings = new ArrayList<>();
+        for (int i = 0; i < CHANNEL_COUNT; i++) {
+            mappings.add(new ChannelBitMapping(new TestChannel("coil" + i, ValueType.BOOLEAN), EPrimaryTable.COILS,
+                    2 * i, ValueType.BOOLEAN));
+        }
+        ImageProcessImage image = new ImageProcessImage(Collections.<ChannelRegisterMapping> emptyList(), mappings,
+                writer);
+
+        for (DigitalOut coil : image.getDigitalOutRange(0, 2 * CHANNEL_COUNT - 1)) {
+            coil.set(true);
+        }
+        image.getDigitalOut(2).set(false);
+
+        assertEquals(Arrays.asList(CHANNEL_COUNT, 1), dataAccessService.getBatchSizes());
+        writer.shutdown();
+    }
+
+    @Test
+    public void enqueueAcknowledgesBeforeCompletion() throws Exception {
+        TestDataAccessService dataAccessService = new TestDataAccessService(true);
+        ChannelWriter writer = new ChannelWriter(dataAccessService, EWriteAck.ENQUEUE, 5000);
+        List<TestChannel> channels = new ArrayList<>();
+        ImageProcessImage image = createImage(channels, writer);
+
+        writeAll(image);
+        writeAll(image);
+        assertEquals(0, dataAccessService.getBatchSizes().size());
+        // the image already holds the written words
+        assertEquals(CHANNEL_COUNT - 1, image.getRegister(2 * CHANNEL_COUNT - 1).getValue());
+
+        dataAccessService.release();
+        writer.shutdown();
+        assertEquals(Arrays.asList(CHANNEL_COUNT, CHANNEL_COUNT), dataAccessService.getBatchSizes());
+        assertEquals(2, channels.get(0).getWrittenValues().size());
+    }
+
+    @Test
+    public void completionWaitsForWriteTimeout() {
+        TestDataAccessService dataAccessService = new TestDataAccessService(true);
+        ChannelWriter writer = new ChannelWriter(dataAccessService, EWriteAck.COMPLETION, 200);
+        ImageProcessImage image = createImage(new ArrayList<>(), writer);
+
+        long start = System.currentTimeMillis();
+        writeAll(image);
+        long duration = System.currentTimeMillis() - start;
+        assertTrue(duration >= 200, "request answered after " + duration + " ms");
+        assertEquals(0, dataAccessService.getBatchSizes().size());
+
+        dataAccessService.release();
+        writer.shutdown();
+        assertEquals(1, dataAccessService.getBatchSizes().size());
+        assertTrue(writer.getPercentile(50) >= 200);
+    }
+
+    private static ImageProcessImage createImage(List<TestChannel> channels, ChannelWriter writer) {
+        List<ChannelRegisterMapping> mappings = new ArrayList<>();
+        for (int i = 0; i < CHANNEL_COUNT; i++) {
+            TestChannel channel = new TestChannel("channel" + i, ValueType.INTEGER);
+            channels.add(channel);
+            mappings.add(new ChannelRegisterMapping(channel, EPrimaryTable.HOLDING_REGISTERS, 2 * i,
+                    ValueType.INTEGER));
+        }
+        return new ImageProcessImage(mappings, Collections.<ChannelBitMapping> emptyList(), writer);
+    }
+
+    private static void writeAll(ImageProcessImage image) {
+        Register[] registers = image.getRegisterRange(0, 2 * CHANNEL_COUNT);
+        for (int i = 0; i < registers.length; i++) {
+            registers[i].setValue(i % 2 == 0 ? 0 : i / 2);
+        }
+    }
+
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright 2011-2024 Fraunhofer ISE
+ *
+ * This file is part of OpenMUC.
+ * For more information visit http://www.openmuc.org
+ *
+ * OpenMUC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenMUC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenMUC. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.openmuc.framework.server.modbus.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.openmuc.framework.data.BooleanValue;
+import org.openmuc.framework.data.Record;
+import org.openmuc.framework.data.ValueType;
+import org.openmuc.framework.server.modbus.ModbusServer.EPrimaryTable;
+import org.openmuc.framework.server.modbus.image.ChannelBitMapping;
+import org.openmuc.framework.server.modbus.image.ChannelRegisterMapping;
+import org.openmuc.framework.server.modbus.image.ImageProcessImage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ghgande.j2mod.modbus.procimg.DigitalIn;
+import com.ghgande.j2mod.modbus.procimg.DigitalOut;
+import com.ghgande.j2mod.modbus.procimg.IllegalAddressException;
+import com.ghgande.j2mod.modbus.procimg.InputRegister;
+
+public class CoilImageTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(CoilImageTest.class);
+
+    /** Maximum number of coils of a read coils request (FC1) */
+    private static final int MAX_READ_BITS = 2000;
+    /** Maximum number of coils of a write multiple coils request (FC15) */
+    private static final int MAX_WRITE_BITS = 1968;
+    /** Maximum number of registers of a read holding registers request (FC3) */
+    private static final int MAX_READ_REGISTERS = 125;
+
+    @Test
+    public void coilsFollowChannelsAcrossWordBoundaries() throws Exception {
+        List<TestChannel> channels = new ArrayList<>();
+        List<ChannelBitMapping> mappings = new ArrayList<>();
+        for (int address : new int[] { 0, 63, 64, 130 }) {
+            TestChannel channel = new TestChannel("coil" + address, ValueType.BOOLEAN);
+            channels.add(channel);
+            mappings.add(new ChannelBitMapping(channel, EPrimaryTable.COILS, address, ValueType.BOOLEAN));
+        }
+        channels.get(1).setNewRecord(new Record(new BooleanValue(true), 0L));
+        ImageProcessImage image = new ImageProcessImage(Collections.<ChannelRegisterMapping> emptyList(), mappings);
+
+        assertEquals(131, image.getDigitalOutCount());
+        assertEquals(0, image.getDigitalInCount());
+        assertTrue(image.getDigitalOut(63).isSet());
+
+        channels.get(2).setNewRecord(new Record(new BooleanValue(true), 0L));
+        channels.get(3).setNewRecord(new Record(new BooleanValue(true), 0L));
+        channels.get(1).setNewRecord(new Record(new BooleanValue(false), 0L));
+
+        DigitalOut[] coils = image.getDigitalOutRange(60, 71);
+        for (int i = 0; i < coils.length; i++) {
+            assertEquals(60 + i == 64 || 60 + i == 130, coils[i].isSet(), "coil " + (60 + i));
+        }
+
+        image.unbind();
+        for (TestChannel channel : channels) {
+            assertEquals(0, channel.getListenerCount());
+        }
+    }
+
+    @Test
+    public void coilWritesAreWrittenToChannels() throws Exception {
+        TestChannel mapped = new TestChannel("coil", ValueType.BOOLEAN);
+        TestChannel input = new TestChannel("input", ValueType.BOOLEAN);
+        input.setNewRecord(new Record(new BooleanValue(true), 0L));
+        ImageProcessImage image = new ImageProcessImage(Collections.<ChannelRegisterMapping> emptyList(),
+                Arrays.asList(new ChannelBitMapping(mapped, EPrimaryTable.COILS, 5, ValueType.BOOLEAN),
+                        new ChannelBitMapping(input, EPrimaryTable.DISCRETE_INPUTS, 2, ValueType.BOOLEAN)));
+
+        // write multiple coils, only coil 5 is mapped
+        for (DigitalOut coil : image.getDigitalOutRange(0, 6)) {
+            coil.set(true);
+        }
+        assertEquals(1, mapped.getWrittenValues().size());
+        assertTrue(mapped.getWrittenValues().get(0).asBoolean());
+        assertTrue(image.getDigitalOut(0).isSet());
+
+        // write single coil
+        image.getDigitalOut(5).set(false);
+        assertFalse(mapped.getWrittenValues().get(1).asBoolean());
+        assertFalse(image.getDigitalOut(5).isSet());
+
+        DigitalIn[] inputs = image.getDigitalInRange(0, 3);
+        assertFalse(inputs[1].isSet());
+        assertTrue(inputs[2].isSet());
+        assertThrows(UnsupportedOperationException.class, () -> ((DigitalOut) inputs[2]).set(false));
+    }
+
+    @Test
+    public void invalidMappingsAndAddressesAreRejected() {
+        TestChannel channel = new TestChannel("channel", ValueType.INTEGER);
+        assertThrows(IllegalArgumentException.class,
+                () -> new ChannelBitMapping(channel, EPrimaryTable.COILS, 0, ValueType.INTEGER));
+
+        ImageProcessImage image = new ImageProcessImage(Collections.<ChannelRegisterMapping> emptyList(),
+                Arrays.asList(new ChannelBitMapping(channel, EPrimaryTable.DISCRETE_INPUTS, 9, ValueType.BOOLEAN)));
+        assertThrows(IllegalAddressException.class, () -> image.getDigitalInRange(5, 6));
+        assertThrows(IllegalAddressException.class, () -> image.getDigitalOut(0));
+    }
+
+    /**
+     * Serves a map of 50000 boolean channels as coils and, for comparison, as boolean holding registers. Reading the
+     * whole map takes 25 read coils requests of 2000 bits instead of 400 register requests, and a sixteenth of the
+     * payload.
+     */
+    @Test
+    public void largeCoilMap() throws Exception {
+        int channelCount = 50000;
+        List<TestChannel> channels = new ArrayList<>();
+        List<ChannelBitMapping> bitMappings = new ArrayList<>();
+        List<ChannelRegisterMapping> registerMappings = new ArrayList<>();
+        for (int i = 0; i < channelCount; i++) {
+            TestChannel channel = new TestChannel("channel" + i, ValueType.BOOLEAN);
+            channel.setNewRecord(new Record(new BooleanValue(i % 3 == 0), 0L));
+            channels.add(channel);
+            bitMappings.add(new ChannelBitMapping(channel, EPrimaryTable.COILS, i, ValueType.BOOLEAN));
+            registerMappings
+                    .add(new ChannelRegisterMapping(channel, EPrimaryTable.HOLDING_REGISTERS, i, ValueType.BOOLEAN));
+        }
+        ImageProcessImage image = new ImageProcessImage(registerMappings, bitMappings);
+
+        for (int offset = 0; offset < channelCount; offset += MAX_READ_BITS) {
+            int count = Math.min(MAX_READ_BITS, channelCount - offset);
+            byte[] response = readCoils(image, offset, count);
+            for (int i = 0; i < count; i++) {
+                assertEquals((offset + i) % 3 == 0, isSet(response, i), "coil " + (offset + i));
+            }
+        }
+
+        // write multiple coils: invert one request worth of coils
+        int writeOffset = 10000;
+        DigitalOut[] coils = image.getDigitalOutRange(writeOffset, MAX_WRITE_BITS);
+        for (int i = 0; i < coils.length; i++) {
+            coils[i].set((writeOffset + i) % 3 != 0);
+        }
+        for (int i = 0; i < MAX_WRITE_BITS; i++) {
+            TestChannel channel = channels.get(writeOffset + i);
+            assertEquals(1, channel.getWrittenValues().size());
+            assertEquals((writeOffset + i) % 3 != 0, channel.getWrittenValues().get(0).asBoolean());
+        }
+        byte[] written = readCoils(image, writeOffset, MAX_WRITE_BITS);
+        for (int i = 0; i < MAX_WRITE_BITS; i++) {
+            assertEquals((writeOffset + i) % 3 != 0, isSet(written, i));
+        }
+
+        int scans = 200;
+        // warm up
+        scanCoils(image, channelCount, scans);
+        scanRegisters(image, channelCount, scans);
+
+        long coilNs = scanCoils(image, channelCount, scans);
+        long registerNs = scanRegisters(image, channelCount, scans);
+
+        logger.info("Full scans of {} points per second: coils {} ({} requests, {} bytes), "
+                + "holding registers {} ({} requests, {} bytes)", channelCount, scans * 1_000_000_000L / coilNs,
+                (channelCount + MAX_READ_BITS - 1) / MAX_READ_BITS, (channelCount + 7) / 8,
+                scans * 1_000_000_000L / registerNs,
+                (channelCount + MAX_READ_REGISTERS - 1) / MAX_READ_REGISTERS, channelCount * 2);
+
+        image.unbind();
+    }
+
+    /**
+     * Packs the coils into the bytes of a read coils response. j2mod does the same with a BitVector, which is left out
+     * here since it logs every bit at debug level.
+     */
+    private static byte[] readCoils(ImageProcessImage image, int offset, int count) {
+        DigitalOut[] coils = image.getDigitalOutRange(offset, count);
+        byte[] bytes = new byte[(count + 7) / 8];
+        for (int i = 0; i < coils.length; i++) {
+            if (coils[i].isSet()) {
+                bytes[i >> 3] |= 1 << (i & 7);
+            }
+        }
+        return bytes;
+    }
+
+    private static boolean isSet(byte[] bytes, int index) {
+        return (bytes[index >> 3] & 1 << (index & 7)) != 0;
+    }
+
+    private static long scanCoils(ImageProcessImage image, int channelCount, int scans) {
+        long start = System.nanoTime();
+        int checksum = 0;
+        for (int s = 0; s < scans; s++) {
+            for (int offset = 0; offset < channelCount; offset += MAX_READ_BITS) {
+                checksum += readCoils(image, offset, Math.min(MAX_READ_BITS, channelCount - offset))[0];
+            }
+        }
+        long duration = System.nanoTime() - start;
+        logger.trace("checksum {}", checksum);
+        return duration;
+    }
+
+    private static long scanRegisters(ImageProcessImage image, int channelCount, int scans) {
+        long start = System.nanoTime();
+        int checksum = 0;
+        for (int s = 0; s < scans; s++) {
+            for (int offset = 0; offset < channelCount; offset += MAX_READ_REGISTERS) {
+                InputRegister[] registers = image.getRegisterRange(offset,
+                        Math.min(MAX_READ_REGISTERS, channelCount - offset));
+                byte[] bytes = new byte[registers.length * 2];
+                for (int i = 0; i < registers.length; i++) {
+                    System.arraycopy(registers[i].toBytes(), 0, bytes, 2 * i, 2);
+                }
+                checksum += bytes[1];
+            }
+        }
+        long duration = System.nanoTime() - start;
+        logger.trace("checksum {}", checksum);
+        return duration;
+    }
+
+}
@@ -0,0 +1,267 @@
+/*
+ * Copyright 2011-2024 Fraunhofer ISE
+ *
+ * This file is part of OpenMUC.
+ * For more information visit http://www.openmuc.org
+ *
+ * OpenMUC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenMUC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenMUC. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.openmuc.framework.server.modbus.test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Disabled;
+import org.junit.jupiter.api.Test;
+import org.openmuc.framework.data.DoubleValue;
+import org.openmuc.framework.data.FloatValue;
+import org.openmuc.framework.data.IntValue;
+import org.openmuc.framework.data.LongValue;
+import org.openmuc.framework.data.Record;
+import org.openmuc.framework.data.ShortValue;
+import org.openmuc.framework.data.Value;
+import org.openmuc.framework.data.ValueType;
+import org.openmuc.framework.dataaccess.Channel;
+import org.openmuc.framework.server.modbus.ModbusServer.EPrimaryTable;
+import org.openmuc.framework.server.modbus.image.ChannelRegisterMapping;
+import org.openmuc.framework.server.modbus.image.ImageProcessImage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ghgande.j2mod.modbus.procimg.IllegalAddressException;
+import com.ghgande.j2mod.modbus.procimg.InputRegister;
+import com.ghgande.j2mod.modbus.procimg.ProcessImage;
+import com.ghgande.j2mod.modbus.procimg.SimpleInputRegister;
+import com.ghgande.j2mod.modbus.procimg.SimpleProcessImage;
+
+public class ImageProcessImageTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(ImageProcessImageTest.class);
+
+    @Test
+    public void valuesAreEncodedBigEndian() throws Exception {
+        assertEncoding(ValueType.DOUBLE, new DoubleValue(-1234.5678),
+                ByteBuffer.allocate(8).putDouble(-1234.5678).array());
+        assertEncoding(ValueType.LONG, new LongValue(-1234567890123L),
+                ByteBuffer.allocate(8).putLong(-1234567890123L).array());
+        assertEncoding(ValueType.INTEGER, new IntValue(-123456), ByteBuffer.allocate(4).putInt(-123456).array());
+        assertEncoding(ValueType.FLOAT, new FloatValue(3.25f), ByteBuffer.allocate(4).putFloat(3.25f).array());
+        assertEncoding(ValueType.SHORT, new ShortValue((short) -1234),
+                ByteBuffer.allocate(2).putShort((short) -1234).array());
+    }
+
+    private static void assertEncoding(ValueType valueType, Value value, byte[] expected) {
+        TestChannel channel = new TestChannel("channel", valueType);
+        channel.setNewRecord(new Record(value, 0L));
+
+        ProcessImage image = new ImageProcessImage(
+                Arrays.asList(new ChannelRegisterMapping(channel, EPrimaryTable.INPUT_REGISTERS, 0, valueType)));
+
+        int wordCount = ChannelRegisterMapping.getWordCount(valueType);
+        for (int i = 0; i < wordCount; i++) {
+            assertArrayEquals(Arrays.copyOfRange(expected, 2 * i, 2 * i + 2), image.getInputRegister(i).toBytes(),
+                    valueType + " register " + i);
+        }
+    }
+
+    @Test
+    public void holdingRegisterWritesAreDecoded() throws Exception {
+        assertDecoding(ValueType.DOUBLE, new DoubleValue(-1234.5678),
+                ByteBuffer.allocate(8).putDouble(-1234.5678).array());
+        assertDecoding(ValueType.LONG, new LongValue(-1234567890123L),
+                ByteBuffer.allocate(8).putLong(-1234567890123L).array());
+        assertDecoding(ValueType.INTEGER, new IntValue(-123456), ByteBuffer.allocate(4).putInt(-123456).array());
+        assertDecoding(ValueType.FLOAT, new FloatValue(3.25f), ByteBuffer.allocate(4).putFloat(3.25f).array());
+        assertDecoding(ValueType.SHORT, new ShortValue((short) -1234),
+                ByteBuffer.allocate(2).putShort((short) -1234).array());
+    }
+
+    private static void assertDecoding(ValueType valueType, Value expected, byte[] bytes) {
+        TestChannel channel = new TestChannel("channel", valueType);
+        ProcessImage image = new ImageProcessImage(
+                Arrays.asList(new ChannelRegisterMapping(channel, EPrimaryTable.HOLDING_REGISTERS, 0, valueType)));
+
+        for (int i = 0; i < bytes.length / 2; i++) {
+            image.getRegister(i).setValue(new byte[] { bytes[2 * i], bytes[2 * i + 1] });
+        }
+
+        assertEquals(1, channel.getWrittenValues().size(), valueType.toString());
+        Value written = channel.getWrittenValues().get(0);
+        assertEquals(expected.getClass(), written.getClass());
+        assertEquals(expected.asDouble(), written.asDouble(), 0);
+    }
+
+    @Test
+    public void newRecordsUpdateImage() throws Exception {
+        TestChannel channel = new TestChannel("channel", ValueType.INTEGER);
+        ImageProcessImage image = new ImageProcessImage(Arrays
+                .asList(new ChannelRegisterMapping(channel, EPrimaryTable.INPUT_REGISTERS, 10, ValueType.INTEGER)));
+
+        assertEquals(0, image.getInputRegister(11).getValue());
+
+        channel.setNewRecord(new Record(new IntValue(0x00012345), 0L));
+        assertEquals(0x0001, image.getInputRegister(10).getValue());
+        assertEquals(0x2345, image.getInputRegister(11).getValue());
+
+        image.unbind();
+        assertEquals(0, channel.getListenerCount());
+    }
+
+    @Test
+    public void holdingRegisterWritesAreCollected() throws Exception {
+        TestChannel doubleChannel = new TestChannel("double", ValueType.DOUBLE);
+        TestChannel booleanChannel = new TestChannel("boolean", ValueType.BOOLEAN);
+        List<ChannelRegisterMapping> mappings = new ArrayList<>();
+        mappings.add(new ChannelRegisterMapping(doubleChannel, EPrimaryTable.HOLDING_REGISTERS, 0, ValueType.DOUBLE));
+        mappings.add(new ChannelRegisterMapping(booleanChannel, EPrimaryTable.HOLDING_REGISTERS, 4, ValueType.BOOLEAN));
+        ImageProcessImage image = new ImageProcessImage(mappings);
+
+        long bits = Double.doubleToLongBits(42.125);
+        // order of the written registers doesn't matter
+        for (int i = 3; i >= 0; i--) {
+            image.getRegister(i).setValue((int) (bits >> (16 * (3 - i))) & 0xFFFF);
+            assertEquals(i == 0 ? 1 : 0, doubleChannel.getWrittenValues().size());
+        }
+        assertEquals(42.125, doubleChannel.getWrittenValues().get(0).asDouble(), 0);
+        assertEquals((int) (bits >> 48) & 0xFFFF, image.getRegister(0).getValue());
+
+        image.getRegister(4).setValue(1);
+        assertTrue(booleanChannel.getWrittenValues().get(0).asBoolean());
+    }
+
+    @Test
+    public void addressesOutsideOfImageAreIllegal() {
+        TestChannel channel = new TestChannel("channel", ValueType.FLOAT);
+        ImageProcessImage image = new ImageProcessImage(Arrays
+                .asList(new ChannelRegisterMapping(channel, EPrimaryTable.HOLDING_REGISTERS, 0, ValueType.FLOAT)));
+
+        assertEquals(2, image.getRegisterCount());
+        assertThrows(IllegalAddressException.class, () -> image.getRegisterRange(1, 2));
+        assertThrows(IllegalAddressException.class, () -> image.getInputRegister(0));
+    }
+
+    /**
+     * Benchmark without assertions on the throughput, remove the annotation to compare the read requests per second
+     * of the pre-encoded image with a SimpleProcessImage built like the server did before: one register per word,
+     * which converts the latest record of the channel on every read. Each request reads 125 registers (FC4 maximum)
+     * from a map of 2000 registers with 500 double channels and serializes them like a j2mod response.
+     */
+    @Disabled("benchmark")
+    @Test
+    public void printReadThroughput() throws Exception {
+        int channelCount = 500;
+        List<TestChannel> channels = new ArrayList<>();
+        List<ChannelRegisterMapping> mappings = new ArrayList<>();
+        for (int i = 0; i < channelCount; i++) {
+            TestChannel channel = new TestChannel("channel" + i, ValueType.DOUBLE);
+            channel.setNewRecord(new Record(new DoubleValue(i * 1.5), 0L));
+            channels.add(channel);
+            mappings.add(new ChannelRegisterMapping(channel, EPrimaryTable.INPUT_REGISTERS, 4 * i, ValueType.DOUBLE));
+        }
+
+        ProcessImage simpleImage = createSimpleProcessImage(channels);
+        ProcessImage image = new ImageProcessImage(mappings);
+
+        for (int offset = 0; offset < 4 * channelCount; offset += 125) {
+            assertArrayEquals(serialize(simpleImage, offset), serialize(image, offset));
+        }
+
+        int requests = 20000;
+        // warm up
+        readRequests(simpleImage, requests);
+        readRequests(image, requests);
+
+        long simpleNs = readRequests(simpleImage, requests);
+        long imageNs = readRequests(image, requests);
+
+        logger.info("Read requests per second: SimpleProcessImage {}, pre-encoded image {}",
+                requests * 1_000_000_000L / simpleNs, requests * 1_000_000_000L / imageNs);
+    }
+
+    private static long readRequests(ProcessImage image, int requests) throws Exception {
+        long start = System.nanoTime();
+        int checksum = 0;
+        for (int i = 0; i < requests; i++) {
+            checksum += serialize(image, (i * 125) % 1875)[0];
+        }
+        long duration = System.nanoTime() - start;
+        logger.trace("checksum {}", checksum);
+        return duration;
+    }
+
+    private static byte[] serialize(ProcessImage image, int offset) {
+        InputRegister[] registers = image.getInputRegisterRange(offset, 125);
+        byte[] bytes = new byte[registers.length * 2];
+        for (int i = 0; i < registers.length; i++) {
+            System.arraycopy(registers[i].toBytes(), 0, bytes, 2 * i, 2);
+        }
+        return bytes;
+    }
+
+    private static ProcessImage createSimpleProcessImage(List<TestChannel> channels) {
+        SimpleProcessImage image = new SimpleProcessImage();
+        for (int c = 0; c < channels.size(); c++) {
+            for (int i = 0; i < 4; i++) {
+                image.addInputRegister(new SimpleInputRegister());
+                image.setInputRegister(4 * c + i, new DoubleRegister(channels.get(c), 2 * i, 2 * i + 1));
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Converts the latest double value of the channel on every read like the former mapping registers.
+     */
+    private static final class DoubleRegister implements InputRegister {
+        private final Channel channel;
+        private final int highByte;
+        private final int lowByte;
+
+        DoubleRegister(Channel channel, int highByte, int lowByte) {
+            this.channel = channel;
+            this.highByte = highByte;
+            this.lowByte = lowByte;
+        }
+
+        @Override
+        public byte[] toBytes() {
+            byte[] bytes = new DoubleValue(channel.getLatestRecord().getValue().asDouble()).asByteArray();
+            return new byte[] { bytes[highByte], bytes[lowByte] };
+        }
+
+        @Override
+        public int getValue() {
+            return ByteBuffer.wrap(toBytes()).getShort();
+        }
+
+        @Override
+        public int toUnsignedShort() {
+            return getValue() & 0xFFFF;
+        }
+
+        @Override
+        public short toShort() {
+            return ByteBuffer.wrap(toBytes()).getShort();
+        }
+    }
+
+}
@@ -0,0 +1,304 @@
+/*
+ * Copyright 2011-2024 Fraunhofer ISE
+ *
+ * This file is part of OpenMUC.
+ * For more information visit http://www.openmuc.org
+ *
+ * OpenMUC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenMUC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenMUC. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.openmuc.framework.server.modbus.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.openmuc.framework.data.IntValue;
+import org.openmuc.framework.data.Record;
+import org.openmuc.framework.data.ValueType;
+import org.openmuc.framework.server.modbus.ModbusServer.EPrimaryTable;
+import org.openmuc.framework.server.modbus.image.ChannelRegisterMapping;
+import org.openmuc.framework.server.modbus.image.ImageProcessImage;
+import org.openmuc.framework.server.modbus.tcp.NioTcpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ghgande.j2mod.modbus.facade.ModbusTCPMaster;
+import com.ghgande.j2mod.modbus.procimg.Register;
+import com.ghgande.j2mod.modbus.procimg.SimpleRegister;
+
+public class NioTcpServerTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(NioTcpServerTest.class);
+
+    private static final int UNIT_ID = 1;
+    private static final int REGISTER_COUNT = 20;
+
+    private NioTcpServer server;
+    private ImageProcessImage image;
+    private final List<TestChannel> channels = new ArrayList<>();
+
+    private void startServer(int workerThreads, int maxConnections, int idleTimeoutMs, int maxRequestRate)
+            throws IOException {
+        List<ChannelRegisterMapping> mappings = new ArrayList<>();
+        for (int i = 0; i < REGISTER_COUNT / 2; i++) {
+            TestChannel channel = new TestChannel("channel" + i, ValueType.INTEGER);
+            channel.setNewRecord(new Record(new IntValue(i), 0L));
+            channels.add(channel);
+            mappings.add(
+                    new ChannelRegisterMapping(channel, EPrimaryTable.HOLDING_REGISTERS, 2 * i, ValueType.INTEGER));
+        }
+        image = new ImageProcessImage(mappings);
+
+        server = new NioTcpServer(InetAddress.getLoopbackAddress(), 0, workerThreads, maxConnections, idleTimeoutMs,
+                maxRequestRate);
+        server.addProcessImage(UNIT_ID, image);
+        server.open();
+    }
+
+    @AfterEach
+    public void stopServer() {
+        if (server != null) {
+            server.close();
+            image.unbind();
+        }
+    }
+
+    @Test
+    public void j2modMasterIsServed() throws Exception {
+        startServer(2, 10, 0, 0);
+        ModbusTCPMaster master = new ModbusTCPMaster("127.0.0.1", server.getLocalPort());
+        master.connect();
+        try {
+            Register[] registers = master.readMultipleRegisters(UNIT_ID, 6, 2);
+            assertEquals(3, registers[0].getValue() << 16 | registers[1].getValue());
+
+            master.writeMultipleRegisters(UNIT_ID, 0, new Register[] { new SimpleRegister(0), new SimpleRegister(42) });
+            assertEquals(42, channels.get(0).getWrittenValues().get(0).asInt());
+        } finally {
+            master.disconnect();
+        }
+    }
+
+    @Test
+    public void pipelinedRequestsAreAnsweredInOrder() throws Exception {
+        startServer(4, 10, 0, 0);
+        try (Socket socket = connect()) {
+            OutputStream out = socket.getOutputStream();
+            byte[] requests = new byte[0];
+            for (int i = 0; i < 10; i++) {
+                requests = concat(requests, readRequest(i, UNIT_ID, 2 * i, 2));
+            }
+            // an unknown unit ID in between
+            requests = concat(requests, readRequest(10, 99, 0, 1));
+            out.write(requests);
+
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            for (int i = 0; i < 10; i++) {
+                byte[] response = readResponse(in);
+                assertEquals(i, transactionId(response));
+                assertEquals(i, (response[9] & 0xFF) << 24 | (response[10] & 0xFF) << 16 | (response[11] & 0xFF) << 8
+                        | response[12] & 0xFF);
+            }
+            byte[] response = readResponse(in);
+            assertEquals(10, transactionId(response));
+            assertEquals(0x83, response[7] & 0xFF);
+            assertEquals(2, response[8]);
+        }
+    }
+
+    @Test
+    public void invalidRequestIsAnsweredWithException() throws Exception {
+        startServer(2, 10, 0, 0);
+        try (Socket socket = connect()) {
+            // read holding registers request without address and count, followed by a valid request
+            byte[] truncated = { 0, 1, 0, 0, 0, 2, UNIT_ID, 3 };
+            socket.getOutputStream().write(concat(truncated, readRequest(2, UNIT_ID, 0, 2)));
+
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            byte[] response = readResponse(in);
+            assertEquals(1, transactionId(response));
+            assertEquals(UNIT_ID, response[6]);
+            assertEquals(0x83, response[7] & 0xFF);
+            assertEquals(4, response[8]);
+
+            assertEquals(2, transactionId(readResponse(in)));
+        }
+    }
+
+    @Test
+    public void connectionsAreLimitedAndIdleConnectionsEvicted() throws Exception {
+        startServer(2, 2, 300, 0);
+        try (Socket first = connect(); Socket second = connect(); Socket third = connect()) {
+            assertTrue(isClosedByServer(third, 1000));
+            assertEquals(1, server.getRejectedConnections());
+            assertEquals(2, server.getActiveConnections());
+
+            // keep the first connection busy
+            for (int i = 0; i < 6; i++) {
+                first.getOutputStream().write(readRequest(i, UNIT_ID, 0, 1));
+                readResponse(new DataInputStream(first.getInputStream()));
+                Thread.sleep(100);
+            }
+            assertTrue(isClosedByServer(second, 10));
+            assertEquals(1, server.getEvictedConnections());
+            assertTrue(isClosedByServer(first, 1000));
+            assertEquals(0, server.getActiveConnections());
+        }
+    }
+
+    @Test
+    public void requestRateIsLimitedPerClient() throws Exception {
+        startServer(2, 10, 0, 10);
+        try (Socket socket = connect()) {
+            byte[] requests = new byte[0];
+            for (int i = 0; i < 30; i++) {
+                requests = concat(requests, readRequest(i, UNIT_ID, 0, 1));
+            }
+            socket.getOutputStream().write(requests);
+
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            int busy = 0;
+            for (int i = 0; i < 30; i++) {
+                byte[] response = readResponse(in);
+                if (response[7] == (byte) 0x83) {
+                    assertEquals(6, response[8]);
+                    busy++;
+                }
+            }
+            assertTrue(busy >= 15, busy + " requests throttled");
+            assertEquals(busy, server.getThrottledRequests());
+        }
+    }
+
+    /**
+     * 500 clients connected at the same time poll the server, which uses 4 worker threads.
+     */
+    @Test
+    public void loadTestWith500Clients() throws Exception {
+        int clientCount = 500;
+        int clientsPerThread = 10;
+        int requestsPerClient = 20;
+        startServer(4, clientCount, 0, 0);
+
+        List<Socket> sockets = new ArrayList<>();
+        ExecutorService clients = Executors.newFixedThreadPool(clientCount / clientsPerThread);
+        try {
+            for (int i = 0; i < clientCount; i++) {
+                sockets.add(connect());
+            }
+            long start = System.nanoTime();
+            List<Future<Integer>> results = new ArrayList<>();
+            for (int t = 0; t < clientCount / clientsPerThread; t++) {
+                List<Socket> threadSockets = sockets.subList(t * clientsPerThread, (t + 1) * clientsPerThread);
+                results.add(clients.submit(() -> poll(threadSockets, requestsPerClient)));
+            }
+            int answered = 0;
+            for (Future<Integer> result : results) {
+                answered += result.get(60, TimeUnit.SECONDS);
+            }
+            long durationMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+            assertEquals(clientCount * requestsPerClient, answered);
+            assertEquals(clientCount, server.getActiveConnections());
+            logger.info("{} clients, {} requests in {} ms, {}", clientCount, answered, durationMs, server);
+        } finally {
+            clients.shutdownNow();
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+        }
+    }
+
+    /**
+     * Sends one request on every socket, then reads the responses, for the given number of rounds.
+     */
+    private static int poll(List<Socket> sockets, int rounds) throws IOException {
+        int answered = 0;
+        for (int round = 0; round < rounds; round++) {
+            for (int i = 0; i < sockets.size(); i++) {
+                sockets.get(i).getOutputStream().write(readRequest(round, UNIT_ID, 2 * i, 2));
+            }
+            for (int i = 0; i < sockets.size(); i++) {
+                byte[] response = readResponse(new DataInputStream(sockets.get(i).getInputStream()));
+                if (transactionId(response) == round && response[12] == i) {
+                    answered++;
+                }
+            }
+        }
+        return answered;
+    }
+
+    private Socket connect() throws IOException {
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getLocalPort());
+        socket.setSoTimeout(10000);
+        return socket;
+    }
+
+    private static boolean isClosedByServer(Socket socket, int timeoutMs) throws IOException {
+        socket.setSoTimeout(timeoutMs);
+        try {
+            return socket.getInputStream().read() == -1;
+        } catch (SocketTimeoutException e) {
+            return false;
+        } catch (IOException e) {
+            // connection reset
+            return true;
+        }
+    }
+
+    private static byte[] readRequest(int transactionId, int unitId, int address, int count) {
+        return new byte[] { (byte) (transactionId >> 8), (byte) transactionId, 0, 0, 0, 6, (byte) unitId, 3,
+                (byte) (address >> 8), (byte) address, (byte) (count >> 8), (byte) count };
+    }
+
+    private static byte[] readResponse(DataInputStream in) throws IOException {
+        byte[] header = new byte[6];
+        in.readFully(header);
+        int length = (header[4] & 0xFF) << 8 | header[5] & 0xFF;
+        if (length < 2) {
+            throw new EOFException("Invalid length " + length);
+        }
+        byte[] response = concat(header, new byte[length]);
+        in.readFully(response, 6, length);
+        return response;
+    }
+
+    private static int transactionId(byte[] frame) {
+        return (frame[0] & 0xFF) << 8 | frame[1] & 0xFF;
+    }
+
+    private static byte[] concat(byte[] a, byte[] b) {
+        byte[] result = new byte[a.length + b.length];
+        System.arraycopy(a, 0, result, 0, a.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        return result;
+    }
+
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2011-2024 Fraunhofer ISE
+ *
+ * This file is part of OpenMUC.
+ * For more information visit http://www.openmuc.org
+ *
+ * OpenMUC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenMUC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenMUC. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.openmuc.framework.server.modbus.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntFunction;
+import java.util.function.LongConsumer;
+
+import org.junit.jupiter.api.Test;
+import org.openmuc.framework.data.LongValue;
+import org.openmuc.framework.data.Record;
+import org.openmuc.framework.data.Value;
+import org.openmuc.framework.data.ValueType;
+import org.openmuc.framework.server.modbus.ModbusServer.EPrimaryTable;
+import org.openmuc.framework.server.modbus.image.ChannelRegisterMapping;
+import org.openmuc.framework.server.modbus.image.ImageProcessImage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ghgande.j2mod.modbus.procimg.InputRegister;
+import com.ghgande.j2mod.modbus.procimg.Register;
+
+/**
+ * Writes a long channel concurrently to several masters reading its four registers. Every value written consists of
+ * four equal words, so a read with different words is a torn read.
+ */
+public class RegisterImageStressTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(RegisterImageStressTest.class);
+
+    private static final int WRITERS = 2;
+    private static final int READERS = 4;
+    private static final long DURATION_MS = 1000;
+
+    @Test
+    public void readsAreNeverTorn() throws Exception {
+        TestChannel channel = new TestChannel("long", ValueType.LONG);
+        ImageProcessImage image = new ImageProcessImage(
+                Arrays.asList(new ChannelRegisterMapping(channel, EPrimaryTable.INPUT_REGISTERS, 0, ValueType.LONG)));
+
+        run(word -> channel.setNewRecord(new Record(new LongValue(word * 0x0001000100010001L), 0L)),
+                count -> image.getInputRegisterRange(0, count));
+    }
+
+    /**
+     * The masters write the registers like j2mod processes a FC16 request: one register after the other.
+     */
+    @Test
+    public void writesOfMastersAreNeverTorn() throws Exception {
+        TestChannel channel = new TestChannel("long", ValueType.LONG);
+        ImageProcessImage image = new ImageProcessImage(
+                Arrays.asList(new ChannelRegisterMapping(channel, EPrimaryTable.HOLDING_REGISTERS, 0, ValueType.LONG)));
+
+        run(word -> {
+            for (Register register : image.getRegisterRange(0, 4)) {
+                register.setValue((int) word);
+            }
+        }, count -> image.getRegisterRange(0, count));
+
+        List<Value> writtenValues = channel.getWrittenValues();
+        assertTrue(writtenValues.size() > 0);
+        for (Value value : writtenValues) {
+            assertEquals((value.asLong() & 0xFFFF) * 0x0001000100010001L, value.asLong());
+        }
+    }
+
+    /**
+     * Runs the writers and readers and checks that every read consists of four equal words.
+     * 
+     * @param write
+     *            writes a value consisting of four times the given word
+     * @param read
+     *            reads the given number of registers
+     */
+    private static void run(LongConsumer write, IntFunction<InputRegister[]> read) throws InterruptedException {
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicLong reads = new AtomicLong();
+        AtomicLong tornReads = new AtomicLong();
+        AtomicLong writes = new AtomicLong();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+
+        for (int w = 0; w < WRITERS; w++) {
+            int writer = w;
+            threads.add(new Thread(() -> {
+                await(start);
+                long word = writer;
+                while (running.get()) {
+                    word = (word + WRITERS) & 0xFFFF;
+                    write.accept(word);
+                    writes.incrementAndGet();
+                }
+            }));
+        }
+
+        for (int r = 0; r < READERS; r++) {
+            threads.add(new Thread(() -> {
+                await(start);
+                while (running.get()) {
+                    InputRegister[] registers = read.apply(4);
+                    for (int i = 1; i < registers.length; i++) {
+                        if (registers[i].getValue() != registers[0].getValue()) {
+                            tornReads.incrementAndGet();
+                            break;
+                        }
+                    }
+                    reads.incrementAndGet();
+                }
+            }));
+        }
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        start.countDown();
+        Thread.sleep(DURATION_MS);
+        running.set(false);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        logger.info("{} reads and {} writes in {} ms, {} torn reads", reads.get(), writes.get(), DURATION_MS,
+                tornReads.get());
+
+        assertTrue(reads.get() > 0 && writes.get() > 0);
+        assertEquals(0, tornReads.get());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright 2011-2024 Fraunhofer ISE
+ *
+ * This file is part of OpenMUC.
+ * For more information visit http://www.openmuc.org
+ *
+ * OpenMUC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenMUC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenMUC. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.openmuc.framework.server.modbus.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openmuc.framework.data.Flag;
+import org.openmuc.framework.data.FutureValue;
+import org.openmuc.framework.data.Record;
+import org.openmuc.framework.data.Value;
+import org.openmuc.framework.data.ValueType;
+import org.openmuc.framework.dataaccess.Channel;
+import org.openmuc.framework.dataaccess.ChannelState;
+import org.openmuc.framework.dataaccess.DeviceState;
+import org.openmuc.framework.dataaccess.ReadRecordContainer;
+import org.openmuc.framework.dataaccess.RecordListener;
+import org.openmuc.framework.dataaccess.WriteValueContainer;
+
+/**
+ * Channel which keeps its latest record in memory and notifies its listeners synchronously.
+ */
+public class TestChannel implements Channel {
+
+    private final String id;
+    private final ValueType valueType;
+    private final List<RecordListener> listeners = new ArrayList<>();
+    private final List<Value> writtenValues = new ArrayList<>();
+    private volatile Record latestRecord = new Record(Flag.NO_VALUE_RECEIVED_YET);
+
+    public TestChannel(String id, ValueType valueType) {
+        this.id = id;
+        this.valueType = valueType;
+    }
+
+    /**
+     * Sets a new record like a sampling task and notifies the listeners.
+     */
+    public void setNewRecord(Record record) {
+        latestRecord = record;
+        List<RecordListener> currentListeners;
+        synchronized (listeners) {
+            currentListeners = new ArrayList<>(listeners);
+        }
+        for (RecordListener listener : currentListeners) {
+            listener.newRecord(record);
+        }
+    }
+
+    public synchronized List<Value> getWrittenValues() {
+        return new ArrayList<>(writtenValues);
+    }
+
+    public int getListenerCount() {
+        synchronized (listeners) {
+            return listeners.size();
+        }
+    }
+
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    @Override
+    public String getChannelAddress() {
+        return null;
+    }
+
+    @Override
+    public String getDescription() {
+        return null;
+    }
+
+    @Override
+    public String getSettings() {
+        return null;
+    }
+
+    @Override
+    public String getLoggingSettings() {
+        return null;
+    }
+
+    @Override
+    public String getUnit() {
+        return null;
+    }
+
+    @Override
+    public ValueType getValueType() {
+        return valueType;
+    }
+
+    @Override
+    public double getScalingFactor() {
+        return 1;
+    }
+
+    @Override
+    public int getSamplingInterval() {
+        return 0;
+    }
+
+    @Override
+    public int getSamplingTimeOffset() {
+        return 0;
+    }
+
+    @Override
+    public int getSamplingTimeout() {
+        return 0;
+    }
+
+    @Override
+    public int getLoggingInterval() {
+        return 0;
+    }
+
+    @Override
+    public int getLoggingTimeOffset() {
+        return 0;
+    }
+
+    @Override
+    public String getDriverName() {
+        return "virtual";
+    }
+
+    @Override
+    public String getDeviceAddress() {
+        return null;
+    }
+
+    @Override
+    public String getDeviceName() {
+        return null;
+    }
+
+    @Override
+    public String getDeviceDescription() {
+        return null;
+    }
+
+    @Override
+    public ChannelState getChannelState() {
+        return ChannelState.SAMPLING;
+    }
+
+    @Override
+    public DeviceState getDeviceState() {
+        return DeviceState.CONNECTED;
+    }
+
+    @Override
+    public void addListener(RecordListener listener) {
+        synchronized (listeners) {
+            listeners.add(listener);
+        }
+    }
+
+    @Override
+    public void removeListener(RecordListener listener) {
+        synchronized (listeners) {
+            listeners.remove(listener);
+        }
+    }
+
+    @Override
+    public boolean isConnected() {
+        return true;
+    }
+
+    @Override
+    public Record getLatestRecord() {
+        return latestRecord;
+    }
+
+    @Override
+    public void setLatestRecord(Record record) {
+        latestRecord = record;
+    }
+
+    @Override
+    public synchronized Flag write(Value value) {
+        writtenValues.add(value);
+        latestRecord = new Record(value, System.currentTimeMillis());
+        return Flag.VALID;
+    }
+
+    @Override
+    public void writeFuture(List<FutureValue> values) {
+    }
+
+    @Override
+    public WriteValueContainer getWriteContainer() {
+        return new TestWriteValueContainer();
+    }
+
+    @Override
+    public Record read() {
+        return latestRecord;
+    }
+
+    @Override
+    public ReadRecordContainer getReadContainer() {
+        return null;
+    }
+
+    @Override
+    public Record getLoggedRecord(long time) {
+        return null;
+    }
+
+    @Override
+    public List<Record> getLoggedRecords(long startTime) {
+        return null;
+    }
+
+    @Override
+    public List<Record> getLoggedRecords(long startTime, long endTime) {
+        return null;
+    }
+
+    class TestWriteValueContainer implements WriteValueContainer {
+
+        private Value value;
+        private Flag flag = Flag.DRIVER_ERROR_UNSPECIFIED;
+
+        @Override
+        public void setValue(Value value) {
+            this.value = value;
+        }
+
+        @Override
+        public Value getValue() {
+            return value;
+        }
+
+        @Override
+        public Flag getFlag() {
+            return flag;
+        }
+
+        @Override
+        public Channel getChannel() {
+            return TestChannel.this;
+        }
+
+        /**
+         * Writes the value to the channel like the data manager.
+         */
+        void write() {
+            flag = TestChannel.this.write(value);
+        }
+    }
+
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2011-2024 Fraunhofer ISE
+ *
+ * This file is part of OpenMUC.
+ * For more information visit http://www.openmuc.org
+ *
+ * OpenMUC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenMUC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenMUC. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.openmuc.framework.server.modbus.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.openmuc.framework.dataaccess.Channel;
+import org.openmuc.framework.dataaccess.ChannelChangeListener;
+import org.openmuc.framework.dataaccess.DataAccessService;
+import org.openmuc.framework.dataaccess.LogicalDevice;
+import org.openmuc.framework.dataaccess.LogicalDeviceChangeListener;
+import org.openmuc.framework.dataaccess.ReadRecordContainer;
+import org.openmuc.framework.dataaccess.WriteValueContainer;
+
+/**
+ * Data access service which writes {@link TestChannel}s and records the size of every write call. Writes can be held
+ * back until {@link #release()} is called.
+ */
+public class TestDataAccessService implements DataAccessService {
+
+    private final List<Integer> batchSizes = new ArrayList<>();
+    private final CountDownLatch released;
+
+    /**
+     * @param blocking
+     *            whether writes wait for {@link #release()}
+     */
+    public TestDataAccessService(boolean blocking) {
+        released = new CountDownLatch(blocking ? 1 : 0);
+    }
+
+    public void release() {
+        released.countDown();
+    }
+
+    public synchronized List<Integer> getBatchSizes() {
+        return new ArrayList<>(batchSizes);
+    }
+
+    @Override
+    public void write(List<WriteValueContainer> values) {
+        try {
+            released.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (WriteValueContainer container : values) {
+            ((TestChannel.TestWriteValueContainer) container).write();
+        }
+        synchronized (this) {
+            batchSizes.add(values.size());
+        }
+    }
+
+    @Override
+    public Channel getChannel(String id) {
+        return null;
+    }
+
+    @Override
+    public Channel getChannel(String id, ChannelChangeListener channelChangeListener) {
+        return null;
+    }
+
+    @Override
+    public List<String> getAllIds() {
+        return new ArrayList<>();
+    }
+
+    @Override
+    public List<LogicalDevice> getLogicalDevices(String type) {
+        return new ArrayList<>();
+    }
+
+    @Override
+    public List<LogicalDevice> getLogicalDevices(String type,
+            LogicalDeviceChangeListener logicalDeviceChangeListener) {
+        return new ArrayList<>();
+    }
+
+    @Override
+    public void read(List<ReadRecordContainer> values) {
+    }
+
+}
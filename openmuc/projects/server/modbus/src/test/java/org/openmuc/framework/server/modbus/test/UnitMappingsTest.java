@@ -0,0 +1,140 @@
+/*
+ * Copyright 2011-2024 Fraunhofer ISE
+ *
+ * This file is part of OpenMUC.
+ * For more information visit http://www.openmuc.org
+ *
+ * OpenMUC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenMUC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenMUC. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.openmuc.framework.server.modbus.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.openmuc.framework.data.IntValue;
+import org.openmuc.framework.data.Record;
+import org.openmuc.framework.data.ValueType;
+import org.openmuc.framework.server.modbus.image.ImageProcessImage;
+import org.openmuc.framework.server.modbus.image.UnitMappings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ghgande.j2mod.modbus.ModbusSlaveException;
+import com.ghgande.j2mod.modbus.facade.ModbusTCPMaster;
+import com.ghgande.j2mod.modbus.procimg.IllegalAddressException;
+import com.ghgande.j2mod.modbus.procimg.Register;
+import com.ghgande.j2mod.modbus.slave.ModbusSlave;
+import com.ghgande.j2mod.modbus.slave.ModbusSlaveFactory;
+
+public class UnitMappingsTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(UnitMappingsTest.class);
+
+    @Test
+    public void mappingsAreSeparatedByUnitId() throws Exception {
+        UnitMappings unitMappings = new UnitMappings(15);
+        assertEquals(15,
+                unitMappings.addMapping(new TestChannel("a", ValueType.INTEGER), "HOLDING_REGISTERS:0:INTEGER"));
+        assertEquals(3,
+                unitMappings.addMapping(new TestChannel("b", ValueType.DOUBLE), "3:HOLDING_REGISTERS:100:DOUBLE"));
+        assertEquals(3, unitMappings.addMapping(new TestChannel("c", ValueType.BOOLEAN), "3:COILS:7:BOOLEAN"));
+        assertEquals(255,
+                unitMappings.addMapping(new TestChannel("d", ValueType.SHORT), " 255:input_registers:9:SHORT"));
+
+        Map<Integer, ImageProcessImage> images = unitMappings.createProcessImages();
+        assertEquals(3, images.size());
+
+        // every unit ID is validated against its own address range
+        assertEquals(2, images.get(15).getRegisterCount());
+        assertEquals(104, images.get(3).getRegisterCount());
+        assertEquals(8, images.get(3).getDigitalOutCount());
+        assertEquals(10, images.get(255).getInputRegisterCount());
+        assertThrows(IllegalAddressException.class, () -> images.get(15).getRegisterRange(100, 4));
+        assertThrows(IllegalAddressException.class, () -> images.get(3).getInputRegister(9));
+
+        for (ImageProcessImage image : images.values()) {
+            image.unbind();
+        }
+    }
+
+    @Test
+    public void invalidServerAddressesAreRejected() {
+        UnitMappings unitMappings = new UnitMappings(1);
+        TestChannel channel = new TestChannel("channel", ValueType.INTEGER);
+
+        assertThrows(IllegalArgumentException.class, () -> unitMappings.addMapping(channel, "HOLDING_REGISTERS:0"));
+        assertThrows(IllegalArgumentException.class,
+                () -> unitMappings.addMapping(channel, "256:HOLDING_REGISTERS:0:INTEGER"));
+        assertThrows(IllegalArgumentException.class,
+                () -> unitMappings.addMapping(channel, "x:HOLDING_REGISTERS:0:INTEGER"));
+        assertThrows(IllegalArgumentException.class, () -> unitMappings.addMapping(channel, "REGISTERS:0:INTEGER"));
+        assertThrows(IllegalArgumentException.class,
+                () -> unitMappings.addMapping(channel, "HOLDING_REGISTERS:65535:INTEGER"));
+        assertThrows(IllegalArgumentException.class, () -> unitMappings.addMapping(channel, "COILS:0:INTEGER"));
+        assertEquals(1, unitMappings.createProcessImages().size());
+    }
+
+    /**
+     * Serves 200 virtual slaves from a single listener with a pool of two threads and reads each of them.
+     */
+    @Test
+    public void unitsAreServedByOneListener() throws Exception {
+        int unitCount = 200;
+        UnitMappings unitMappings = new UnitMappings(1);
+        for (int unitId = 1; unitId <= unitCount; unitId++) {
+            TestChannel channel = new TestChannel("unit" + unitId, ValueType.INTEGER);
+            channel.setNewRecord(new Record(new IntValue(unitId * 1000), 0L));
+            unitMappings.addMapping(channel, unitId + ":HOLDING_REGISTERS:" + unitId + ":INTEGER");
+        }
+        Map<Integer, ImageProcessImage> images = unitMappings.createProcessImages();
+
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        ModbusSlave slave = ModbusSlaveFactory.createTCPSlave(InetAddress.getByName("127.0.0.1"), port, 2, false);
+        ModbusTCPMaster master = new ModbusTCPMaster("127.0.0.1", port);
+        try {
+            for (Map.Entry<Integer, ImageProcessImage> unit : images.entrySet()) {
+                slave.addProcessImage(unit.getKey(), unit.getValue());
+            }
+            slave.open();
+            master.connect();
+
+            long start = System.nanoTime();
+            for (int unitId = 1; unitId <= unitCount; unitId++) {
+                Register[] registers = master.readMultipleRegisters(unitId, unitId, 2);
+                assertEquals(unitId * 1000, registers[0].getValue() << 16 | registers[1].getValue());
+            }
+            logger.info("Read {} unit IDs in {} ms", unitCount, (System.nanoTime() - start) / 1_000_000);
+
+            // the registers of unit 200 don't exist on unit 2
+            assertThrows(ModbusSlaveException.class, () -> master.readMultipleRegisters(2, 200, 2));
+            assertThrows(ModbusSlaveException.class, () -> master.readMultipleRegisters(unitCount + 1, 0, 1));
+        } finally {
+            master.disconnect();
+            slave.close();
+            for (ImageProcessImage image : images.values()) {
+                image.unbind();
+            }
+        }
+    }
+
+}